@@ -86,6 +86,7 @@ public class DefaultHapiContext implements HapiContext {
     private Validator<?> validator;
     private ValidationExceptionHandlerFactory<?> validationExceptionHandlerFactory;
 	private ServerConfiguration serverConfiguration;
+	private ClientConfiguration clientConfiguration;
 
     public DefaultHapiContext() {
         this(new DefaultModelClassFactory());
@@ -150,7 +151,9 @@ public class DefaultHapiContext implements HapiContext {
 
     public synchronized ExecutorService getExecutorService() {
         if (executorService == null) {
-            executorService = DefaultExecutorService.getDefaultService();
+            executorService = getServerConfiguration().isUseVirtualThreads()
+                    ? DefaultExecutorService.getVirtualThreadService()
+                    : DefaultExecutorService.getDefaultService();
             Runtime.getRuntime().addShutdownHook(new Thread() {
 
                 @Override
@@ -364,6 +367,20 @@ public class DefaultHapiContext implements HapiContext {
 		serverConfiguration = theServerConfiguration;
 	}
 
+	public ClientConfiguration getClientConfiguration() {
+		if (this.clientConfiguration == null) {
+			clientConfiguration = new ClientConfiguration();
+		}
+		return this.clientConfiguration;
+	}
+
+	public void setClientConfiguration(ClientConfiguration theClientConfiguration) {
+		if (theClientConfiguration==null) {
+			throw new NullPointerException("Client configuration can not be null");
+		}
+		clientConfiguration = theClientConfiguration;
+	}
+
     public Message newMessage(String eventType, String triggerEvent, Version version) throws HL7Exception {
         try {
             String structure = getModelClassFactory().getMessageStructureForEvent(eventType + "_" + triggerEvent, version);
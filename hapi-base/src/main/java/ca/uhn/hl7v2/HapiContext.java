@@ -31,6 +31,7 @@ import java.util.concurrent.ExecutorService;
 import ca.uhn.hl7v2.app.Connection;
 import ca.uhn.hl7v2.app.ConnectionHub;
 import ca.uhn.hl7v2.app.HL7Service;
+import ca.uhn.hl7v2.app.ClientConfiguration;
 import ca.uhn.hl7v2.app.ServerConfiguration;
 import ca.uhn.hl7v2.conf.store.CodeStoreRegistry;
 import ca.uhn.hl7v2.conf.store.ProfileStore;
@@ -122,6 +123,21 @@ public interface HapiContext extends Closeable {
      */
     void setServerConfiguration(ServerConfiguration theServerConfiguration);
 
+    /**
+     * @return the {@link ClientConfiguration} to be used by all HL7 clients obtained from this class.
+     * @see #newClient(String, int, boolean)
+     * @see #newLazyClient(String, int, boolean)
+     */
+    ClientConfiguration getClientConfiguration();
+
+    /**
+     * Sets the {@link ClientConfiguration} to be used by all HL7 clients obtained from this class.
+     *
+     * @see #newClient(String, int, boolean)
+     * @see #newLazyClient(String, int, boolean)
+     */
+    void setClientConfiguration(ClientConfiguration theClientConfiguration);
+
     /**
      * @param configuration {@link ParserConfiguration} to be used by all parsers obtained from this
      *                      class.
@@ -31,6 +31,7 @@ import java.util.concurrent.ExecutorService;
 import ca.uhn.hl7v2.app.Connection;
 import ca.uhn.hl7v2.app.ConnectionHub;
 import ca.uhn.hl7v2.app.HL7Service;
+import ca.uhn.hl7v2.app.ClientConfiguration;
 import ca.uhn.hl7v2.app.ServerConfiguration;
 import ca.uhn.hl7v2.conf.store.CodeStoreRegistry;
 import ca.uhn.hl7v2.conf.store.ProfileStore;
@@ -249,6 +250,14 @@ public abstract class HapiContextSupport {
 			throw new UnsupportedOperationException("Read-only instance");
 		}
 
+		public ClientConfiguration getClientConfiguration() {
+			return context.getClientConfiguration();
+		}
+
+		public void setClientConfiguration(ClientConfiguration theClientConfiguration) {
+			throw new UnsupportedOperationException("Read-only instance");
+		}
+
         public void close() throws IOException {
             context.close();
         }
@@ -32,6 +32,9 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -41,13 +44,17 @@ import javax.net.ssl.SSLSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.concurrent.BlockingMap;
-import ca.uhn.hl7v2.concurrent.BlockingHashMap;
+import ca.uhn.hl7v2.concurrent.ConcurrentBlockingMap;
 import ca.uhn.hl7v2.concurrent.DefaultExecutorService;
+import ca.uhn.hl7v2.concurrent.InFlightLimiter;
+import ca.uhn.hl7v2.concurrent.StripedExecutor;
 import ca.uhn.hl7v2.llp.HL7Writer;
 import ca.uhn.hl7v2.llp.LLPException;
 import ca.uhn.hl7v2.llp.LowerLayerProtocol;
 import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.preparser.PreParser;
 
 /**
  * A TCP/IP connection to a remote HL7 server.
@@ -65,9 +72,17 @@ public class ActiveConnection implements Connection {
 	private HL7Writer sendWriter;
 	private Parser parser;
 	private BlockingMap<String, String> responses;
+	private ConcurrentMap<String, ResponseFuture> pendingResponses;
 	private List<Receiver> receivers;
-	private boolean open = true;
+	private volatile boolean open = true;
 	private ExecutorService executorService;
+	private InFlightLimiter inFlight;
+	private InFlightLimiter globalInFlight;
+	private StripedExecutor orderedExecutor;
+	private String orderingKey;
+	private volatile long lastActivity = System.currentTimeMillis();
+	/** Run once the connection is closed, guarded by itself */
+	private final List<Runnable> closeListeners = new ArrayList<Runnable>(1);
 
 	/**
 	 * Creates a new instance of Connection, with inbound and outbound
@@ -83,7 +98,7 @@ public class ActiveConnection implements Connection {
                             Socket bidirectional, ExecutorService executorService)
 			throws LLPException, IOException {
 		init(parser, executorService, bidirectional);
-		ackWriter = llp.getWriter(bidirectional.getOutputStream());
+		ackWriter = llp.getWriter(bidirectional);
 		sendWriter = ackWriter;
 		this.executorService = executorService;
 		sockets.add(bidirectional);
@@ -110,8 +125,8 @@ public class ActiveConnection implements Connection {
                             Socket outbound, ExecutorService executorService)
 			throws LLPException, IOException {
 		init(parser, executorService, inbound);
-		ackWriter = llp.getWriter(inbound.getOutputStream());
-		sendWriter = llp.getWriter(outbound.getOutputStream());
+		ackWriter = llp.getWriter(inbound);
+		sendWriter = llp.getWriter(outbound);
 		sockets.add(outbound); // always add outbound first ... see getRemoteAddress()
 		sockets.add(inbound);
 
@@ -122,15 +137,38 @@ public class ActiveConnection implements Connection {
 		this.initiator = new ActiveInitiator(this);
 	}
 
+	/**
+	 * Creates a new instance of Connection, with inbound and outbound
+	 * communication on a single socket which is read and written by the
+	 * caller instead of Receiver threads. Messages are sent through the given
+	 * writer.
+	 */
+	ActiveConnection(Parser parser, Socket bidirectional, HL7Writer writer,
+			ExecutorService executorService) throws LLPException {
+		init(parser, executorService, bidirectional);
+		ackWriter = writer;
+		sendWriter = writer;
+		sockets.add(bidirectional);
+		this.initiator = new ActiveInitiator(this);
+	}
+
 	/** Common initialization tasks */
 	private void init(Parser parser, ExecutorService executorService, Socket inboundSocket)
 			throws LLPException {
 		this.parser = parser;
 		this.executorService = executorService;
 		sockets = new ArrayList<Socket>();
-		responses = new BlockingHashMap<String, String>(executorService);
+		responses = new ConcurrentBlockingMap<String, String>();
+		pendingResponses = new ConcurrentHashMap<String, ResponseFuture>();
 		receivers = new ArrayList<Receiver>(2);
 		responder = new Responder(inboundSocket);
+		ServerConfiguration config = parser.getHapiContext().getServerConfiguration();
+		inFlight = new InFlightLimiter(config.getMaxInFlightMessagesPerConnection());
+		globalInFlight = config.getInFlightLimiter();
+		if (config.isOrderedProcessing()) {
+			orderedExecutor = config.getOrderedExecutor();
+			orderingKey = config.getOrderingKey();
+		}
 	}
 
 	/**
@@ -231,13 +269,181 @@ public class ActiveConnection implements Connection {
 	}
 
 	/**
-	 * Given the ack ID (MSA-2) of a message, notifies a waiting consumer thread
+	 * Registers a future to be completed when the incoming message with the
+	 * given ack ID arrives. If the connection is closed, the future fails.
+	 *
+	 * @return <code>null</code> if a response to a message with this ID is
+	 *         already awaited
+	 */
+	ResponseFuture expectResponse(String messageID) {
+		recordActivity();
+		ResponseFuture retVal = new ResponseFuture(this, messageID);
+		if (pendingResponses.putIfAbsent(messageID, retVal) != null) {
+			return null;
+		}
+		if (!open) {
+			retVal.fail(new IOException("Connection is closed"));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the number of messages sent whose responses have not been
+	 *         received yet
+	 */
+	int getPendingResponseCount() {
+		return pendingResponses.size();
+	}
+
+	void removePendingResponse(ResponseFuture response) {
+		pendingResponses.remove(response.getMessageID(), response);
+	}
+
+	/**
+	 * Given the ack ID (MSA-2) of a message, notifies a waiting consumer
 	 * about a received response.
 	 */
 	protected boolean isRecipientWaiting(String ackID, String message) {
+		ResponseFuture pending = pendingResponses.get(ackID);
+		if (pending != null && pending.complete(message)) {
+			return true;
+		}
 		return responses.give(ackID, message);
 	}
 
+	/**
+	 * @return the number of unsolicited messages received on this connection
+	 *         which are currently being processed
+	 * @see ServerConfiguration#setMaxInFlightMessagesPerConnection(int)
+	 */
+	public int getInFlightMessages() {
+		return inFlight.getInFlight();
+	}
+
+	/**
+	 * Notes that a message has been received or sent on this connection
+	 */
+	void recordActivity() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the time in milliseconds at which a message has last been
+	 *         received or sent on this connection
+	 */
+	long getLastActivity() {
+		return lastActivity;
+	}
+
+	/**
+	 * Registers a task which is run once this connection is closed, by the
+	 * thread closing it. The task is run right away if the connection has
+	 * been closed before.
+	 */
+	void addCloseListener(Runnable theListener) {
+		synchronized (closeListeners) {
+			if (open) {
+				closeListeners.add(theListener);
+				return;
+			}
+		}
+		theListener.run();
+	}
+
+	/**
+	 * Reserves capacity for processing an unsolicited message if neither the
+	 * limit of this connection nor the global limit has been reached.
+	 *
+	 * @return <code>true</code> if the message may be processed, in which
+	 *         case {@link #releaseInFlight()} must be called afterwards
+	 */
+	boolean tryAcquireInFlight() {
+		if (!inFlight.tryAcquire()) {
+			return false;
+		}
+		if (!globalInFlight.tryAcquire()) {
+			inFlight.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Like {@link #tryAcquireInFlight()}, for a message which has been
+	 * postponed before, so that it is not counted as throttled again
+	 */
+	boolean retryAcquireInFlight() {
+		if (!inFlight.retryAcquire()) {
+			return false;
+		}
+		if (!globalInFlight.retryAcquire()) {
+			inFlight.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reserves capacity for processing an unsolicited message, waiting until
+	 * the limits allow for it.
+	 *
+	 * @return <code>true</code> if the message may be processed, in which
+	 *         case {@link #releaseInFlight()} must be called afterwards, or
+	 *         <code>false</code> if the timeout has passed
+	 */
+	boolean tryAcquireInFlight(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (!inFlight.tryAcquire(timeout, unit)) {
+			return false;
+		}
+		boolean acquired = false;
+		try {
+			acquired = globalInFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} finally {
+			if (!acquired) {
+				inFlight.release();
+			}
+		}
+		return acquired;
+	}
+
+	/**
+	 * Runs the task processing an unsolicited message using the given
+	 * executor. If {@link ServerConfiguration#setOrderedProcessing(boolean)
+	 * ordered processing} is enabled, the task runs after all tasks for
+	 * messages received before with the same ordering key.
+	 */
+	void execute(String message, Runnable task, Executor executor) {
+		if (orderedExecutor == null) {
+			executor.execute(task);
+		} else {
+			orderedExecutor.execute(getOrderingKey(message), task, executor);
+		}
+	}
+
+	private Object getOrderingKey(String message) {
+		if (orderingKey != null) {
+			try {
+				String[] values = PreParser.getFields(message, orderingKey);
+				if (values.length > 0 && values[0] != null && values[0].length() > 0) {
+					return values[0];
+				}
+			} catch (HL7Exception e) {
+				log.debug("Failed to read ordering key {}, keeping order per connection", orderingKey);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Releases the capacity reserved by {@link #tryAcquireInFlight()} once an
+	 * unsolicited message has been processed
+	 */
+	void releaseInFlight() {
+		globalInFlight.release();
+		inFlight.release();
+	}
+
 	/** Stops running Receiver threads and closes open sockets */
 	public void close() {
 		// Mark all running receiver threads to be stopped
@@ -257,6 +463,25 @@ public class ActiveConnection implements Connection {
 		}
 
 		open = false;
+
+		// Nobody is going to respond any more
+		for (ResponseFuture pending : pendingResponses.values()) {
+			pending.fail(new IOException("Connection closed while waiting for response to message with control ID "
+					+ pending.getMessageID()));
+		}
+
+		List<Runnable> listeners;
+		synchronized (closeListeners) {
+			listeners = new ArrayList<Runnable>(closeListeners);
+			closeListeners.clear();
+		}
+		for (Runnable listener : listeners) {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				log.warn("Close listener failed", e);
+			}
+		}
 	}
 
 	public boolean isOpen() {
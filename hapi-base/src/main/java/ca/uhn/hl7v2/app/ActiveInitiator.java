@@ -29,19 +29,32 @@ this file under either the MPL or the GPL.
 package ca.uhn.hl7v2.app;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import ca.uhn.hl7v2.ErrorCode;
 import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.concurrent.InFlightLimiter;
+import ca.uhn.hl7v2.concurrent.TimerWheel;
+import ca.uhn.hl7v2.llp.HL7BatchWriter;
+import ca.uhn.hl7v2.llp.HL7Writer;
 import ca.uhn.hl7v2.llp.LLPException;
 import ca.uhn.hl7v2.llp.LowerLayerProtocol;
 import ca.uhn.hl7v2.llp.MinLowerLayerProtocol;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.parser.Parser;
 import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.preparser.PreParser;
 import ca.uhn.hl7v2.util.Terser;
 import ca.uhn.hl7v2.util.idgenerator.IDGenerator;
 import ca.uhn.hl7v2.util.idgenerator.InMemoryIDGenerator;
@@ -57,6 +70,9 @@ import org.slf4j.LoggerFactory;
  * <p>
  * The <code>sendAndReceive(...)</code> method blocks until either a response is
  * received with the matching message ID, or until a timeout period has passed.
+ * The <code>sendAsync(...)</code> method returns as soon as the message has been
+ * sent, so that many messages can be awaiting their responses on the same
+ * connection without blocking a thread each.
  * The timeout defaults to 10000 ms (10 sec) but can be configured using
  * {@link #setTimeout(long, java.util.concurrent.TimeUnit)} or globally by setting
  * the system property "ca.uhn.hl7v2.app.initiator.timeout" to an long value
@@ -74,10 +90,15 @@ public class ActiveInitiator implements Initiator {
 	private static final Logger log = LoggerFactory.getLogger(ActiveInitiator.class);
 	private static final Logger rawOutbound = LoggerFactory
 			.getLogger("ca.uhn.hl7v2.raw.outbound");
-	private static final Logger rawInbound = LoggerFactory
-			.getLogger("ca.uhn.hl7v2.raw.inbound");
+	/** Shared by all initiators, response timeouts are mostly cancelled */
+	private static final TimerWheel timeouts = new TimerWheel("hapi-initiator-timeouts", 10,
+			TimeUnit.MILLISECONDS, 1024);
+	/** Number of messages of a batch encoded by one task */
+	private static final int ENCODE_CHUNK = 64;
+	/** Number of chunks of a batch which are encoded ahead of sending */
+	private static final int ENCODE_AHEAD = 4;
 	private ActiveConnection conn;
-	private long timeoutMillis = 10000;
+	private volatile long timeoutMillis = 10000;
 
 	/**
 	 * Creates a new instance of ActiveInitiator.
@@ -110,6 +131,46 @@ public class ActiveInitiator implements Initiator {
 	 */
 	public Message sendAndReceive(Message out) throws HL7Exception,
 			LLPException, IOException {
+		return await(sendAsync(out), out);
+	}
+
+	/**
+	 * Waits for the response to a message sent using {@link #sendAsync(Message)},
+	 * and throws the exceptions of {@link #sendAndReceive(Message)}
+	 */
+	static Message await(Future<Message> inbound, Message out) throws HL7Exception, IOException {
+		try {
+			Message response = inbound.get();
+			log.debug("response parsed");
+			return response;
+		} catch (InterruptedException e) {
+			inbound.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new TimeoutException("Interrupted while waiting for response to message with control ID "
+					+ new Terser(out).get("/MSH-10"));
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof HL7Exception) {
+				throw (HL7Exception) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new HL7Exception(cause);
+		}
+	}
+
+	/**
+	 * Sends a message to a responder system and returns without waiting for
+	 * the reply. The returned future is completed with the reply, or fails
+	 * with a {@link TimeoutException} if no reply has been received within the
+	 * timeout, or with an {@link IOException} if the connection is closed
+	 * before. This method is thread-safe, and any number of messages may be
+	 * awaiting their replies at the same time. Replies are matched to messages
+	 * on the basis of message ID, so the messages must have distinct IDs.
+	 */
+	public Future<Message> sendAsync(Message out) throws HL7Exception,
+			LLPException, IOException {
 		if (out == null) {
 			throw new HL7Exception("Can't encode null message",
 					ErrorCode.REQUIRED_FIELD_MISSING);
@@ -117,7 +178,7 @@ public class ActiveInitiator implements Initiator {
 
 		// register message with response Receiver(s) (by message ID)
 		Terser t = new Terser(out);
-		String messID = t.get("/MSH-10");
+		final String messID = t.get("/MSH-10");
 
 		if (messID == null || messID.length() == 0) {
 			throw new HL7Exception(
@@ -128,30 +189,294 @@ public class ActiveInitiator implements Initiator {
 		// log and send message
 		String outbound = conn.getParser().encode(out);
 		rawOutbound.debug(outbound);
-		Future<String> inbound = null;
+		ResponseFuture inbound = expectResponse(messID);
+		if (inbound == null) {
+			throw new HL7Exception("A response to a message with control ID " + messID
+					+ " is already awaited");
+		}
 		try {
-			String message;
-			inbound = conn.waitForResponse(messID, timeoutMillis);
 			conn.getSendWriter().writeMessage(outbound);
-			if (inbound != null && (message = inbound.get()) != null) {
-				// log that we got the message
-				log.debug("Initiator received message: {}", message);
-				rawInbound.debug(message);
-				Message response = conn.getParser().parse(message);
-				log.debug("response parsed");
-				return response;
-			}
 		} catch (IOException e) {
-			if (inbound != null)
-				inbound.cancel(true);
+			inbound.cancel(true);
 			conn.close();
 			throw e;
+		} catch (LLPException e) {
+			inbound.cancel(true);
+			throw e;
+		}
+		return inbound;
+	}
+
+	/**
+	 * Registers the expected response to a message and schedules its timeout
+	 *
+	 * @return <code>null</code> if a response to a message with the same ID is
+	 *         already awaited
+	 */
+	private ResponseFuture expectResponse(final String messID) {
+		final ResponseFuture inbound = conn.expectResponse(messID);
+		if (inbound == null) {
+			return null;
+		}
+		final long timeout = timeoutMillis;
+		inbound.setTimeout(timeouts.schedule(new Runnable() {
+			public void run() {
+				inbound.fail(new TimeoutException("Timeout waiting for response to message with control ID "
+						+ messID + " after " + timeout + " ms."));
+			}
+		}, timeout, TimeUnit.MILLISECONDS));
+		return inbound;
+	}
+
+	/**
+	 * Sends a batch of messages without waiting for the replies. The messages
+	 * are encoded in chunks by the executor of the connection while the
+	 * preceding messages are sent, and their frames are collected into large
+	 * writes. This method is thread-safe, but the messages of concurrent
+	 * batches are interleaved.
+	 */
+	public List<Future<Message>> sendBatch(List<Message> outgoing) throws HL7Exception,
+			LLPException, IOException {
+		List<Future<Message>> retVal = new ArrayList<Future<Message>>(outgoing.size());
+		LinkedList<Future<Encoded[]>> encoding = new LinkedList<Future<Encoded[]>>();
+		Batch batch = new Batch();
+		boolean completed = false;
+		try {
+			int next = 0;
+			while (next < outgoing.size() || !encoding.isEmpty()) {
+				while (next < outgoing.size() && encoding.size() < ENCODE_AHEAD) {
+					int end = Math.min(next + ENCODE_CHUNK, outgoing.size());
+					encoding.add(encode(outgoing.subList(next, end)));
+					next = end;
+				}
+				Future<Encoded[]> chunk = encoding.removeFirst();
+				if (!chunk.isDone()) {
+					batch.flush();
+				}
+				for (Encoded encoded : awaitChunk(chunk)) {
+					retVal.add(batch.send(encoded.messID, encoded.message, encoded.failure, null));
+				}
+			}
+			completed = true;
+		} finally {
+			for (Future<Encoded[]> next : encoding) {
+				next.cancel(false);
+			}
+			batch.finish(completed);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Sends a batch of encoded messages without waiting for the replies, and
+	 * reports each reply to the listener. The frames of the messages are
+	 * collected into large writes. This method is thread-safe, but the
+	 * messages of concurrent batches are interleaved.
+	 */
+	public void sendBatch(Iterator<String> outgoing, BatchListener listener) throws HL7Exception,
+			LLPException, IOException {
+		Batch batch = new Batch();
+		boolean completed = false;
+		try {
+			while (outgoing.hasNext()) {
+				String message = outgoing.next();
+				String messID = null;
+				HL7Exception failure = null;
+				try {
+					messID = PreParser.getFields(message, "MSH-10")[0];
+				} catch (HL7Exception e) {
+					failure = e;
+				}
+				batch.send(messID, message, failure, listener);
+			}
+			completed = true;
+		} finally {
+			batch.finish(completed);
+		}
+	}
+
+	/**
+	 * Starts encoding a chunk of messages using the executor of the
+	 * connection, or encodes it right away if the executor is not available
+	 */
+	private Future<Encoded[]> encode(final List<Message> messages) {
+		FutureTask<Encoded[]> retVal = new FutureTask<Encoded[]>(new Callable<Encoded[]>() {
+			public Encoded[] call() {
+				Encoded[] chunk = new Encoded[messages.size()];
+				for (int i = 0; i < chunk.length; i++) {
+					chunk[i] = new Encoded(messages.get(i));
+				}
+				return chunk;
+			}
+		});
+		try {
+			conn.getExecutorService().execute(retVal);
+		} catch (RejectedExecutionException e) {
+			retVal.run();
+		}
+		return retVal;
+	}
+
+	private static Encoded[] awaitChunk(Future<Encoded[]> chunk) throws HL7Exception, IOException {
+		try {
+			return chunk.get();
 		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encoding batch");
 		} catch (ExecutionException e) {
+			throw new HL7Exception(e.getCause());
+		}
+	}
+
+	/**
+	 * A message of a batch, or the reason why it can't be sent
+	 */
+	private class Encoded {
+
+		private String messID;
+		private String message;
+		private HL7Exception failure;
+
+		Encoded(Message out) {
+			try {
+				if (out == null) {
+					throw new HL7Exception("Can't encode null message", ErrorCode.REQUIRED_FIELD_MISSING);
+				}
+				messID = new Terser(out).get("/MSH-10");
+				message = conn.getParser().encode(out);
+			} catch (HL7Exception e) {
+				failure = e;
+			}
+		}
+
+	}
+
+	/**
+	 * Sends the messages of one batch, limiting the responses outstanding and
+	 * flushing the messages according to the {@link ClientConfiguration}
+	 */
+	private class Batch {
+
+		private final HL7Writer writer = conn.getSendWriter();
+		private final InFlightLimiter window;
+		private final int flushMessages;
+		private int buffered;
+
+		Batch() {
+			ClientConfiguration config = conn.getParser().getHapiContext().getClientConfiguration();
+			window = new InFlightLimiter(config.getBatchMaxOutstanding());
+			flushMessages = config.getBatchFlushMessages();
+		}
+
+		/**
+		 * Sends a message, or returns a failed future if the message has
+		 * failed before
+		 */
+		ResponseFuture send(String messID, String message, Exception failure, BatchListener listener)
+				throws IOException {
+			if (failure == null && (messID == null || messID.length() == 0)) {
+				failure = new HL7Exception("MSH segment missing required field Control ID (MSH-10)",
+						ErrorCode.REQUIRED_FIELD_MISSING);
+			}
+			if (failure == null) {
+				acquire();
+				ResponseFuture inbound = expectResponse(messID);
+				if (inbound != null) {
+					onCompletion(messID, inbound, true, listener);
+					write(inbound, message);
+					return inbound;
+				}
+				window.release();
+				failure = new HL7Exception("A response to a message with control ID " + messID
+						+ " is already awaited");
+			}
+			ResponseFuture retVal = new ResponseFuture(conn, messID);
+			retVal.fail(failure);
+			onCompletion(messID, retVal, false, listener);
+			return retVal;
+		}
+
+		private void write(ResponseFuture inbound, String message) throws IOException {
+			rawOutbound.debug(message);
+			try {
+				if (writer instanceof HL7BatchWriter) {
+					((HL7BatchWriter) writer).bufferMessage(message);
+					if (++buffered == flushMessages) {
+						flush();
+					}
+				} else {
+					writer.writeMessage(message);
+				}
+			} catch (IOException e) {
+				inbound.cancel(true);
+				conn.close();
+				throw e;
+			} catch (LLPException e) {
+				inbound.fail(e);
+			}
+		}
+
+		/**
+		 * Waits until another response may be outstanding, after writing the
+		 * messages buffered so far
+		 */
+		private void acquire() throws IOException {
+			if (window.tryAcquire()) {
+				return;
+			}
+			flush();
+			try {
+				while (!window.tryAcquire(1, TimeUnit.SECONDS)) {
+					log.debug("Waiting for responses to batch on {}", conn);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for responses");
+			}
+		}
+
+		private void onCompletion(final String messID, final ResponseFuture response, final boolean release,
+				final BatchListener listener) {
+			response.setListener(new Runnable() {
+				public void run() {
+					if (release) {
+						window.release();
+					}
+					if (listener != null) {
+						listener.messageCompleted(messID, response);
+					}
+				}
+			});
+		}
+
+		void flush() throws IOException {
+			if (buffered == 0) {
+				return;
+			}
+			buffered = 0;
+			try {
+				((HL7BatchWriter) writer).flush();
+			} catch (IOException e) {
+				conn.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Writes the remaining messages. If the batch has failed, the
+		 * original exception is kept.
+		 */
+		void finish(boolean completed) throws IOException {
+			try {
+				flush();
+			} catch (IOException e) {
+				if (completed) {
+					throw e;
+				}
+				log.debug("Failed to flush failed batch", e);
+			}
 		}
 
-		throw new TimeoutException("Timeout waiting for response to message with control ID "
-						+ messID + " after " + timeoutMillis + " ms.");
 	}
 
 	/**
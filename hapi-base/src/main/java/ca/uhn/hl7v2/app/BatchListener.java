@@ -0,0 +1,53 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "BatchListener.java".  Description:
+"Receives the outcome of each message sent in a batch"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.app;
+
+import java.util.concurrent.Future;
+
+import ca.uhn.hl7v2.model.Message;
+
+/**
+ * Receives the outcome of each message sent using
+ * {@link Initiator#sendBatch(java.util.Iterator, BatchListener)}.
+ */
+public interface BatchListener {
+
+	/**
+	 * Called once for each message of the batch as soon as its response has
+	 * been received, or the message has failed. Failures include timeouts,
+	 * messages which could not be sent, and messages without or with a
+	 * duplicate control ID. The method is called by the thread completing the
+	 * response, which is usually the receiver thread of the connection, so it
+	 * should return quickly.
+	 * 
+	 * @param messageControlId MSH-10 of the message, or <code>null</code> if
+	 *            it could not be read
+	 * @param response the response, which is done. {@link Future#get()}
+	 *            returns the response or throws the reason of the failure.
+	 */
+	void messageCompleted(String messageControlId, Future<Message> response);
+
+}
@@ -0,0 +1,168 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "ClientConfiguration.java".  Description:
+"Configuration applied to client connections created using a HAPI Context"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contains configuration which will be applied to any client connections which are created using
+ * the given HAPI Context.
+ *
+ * @see ca.uhn.hl7v2.HapiContext#getClientConfiguration()
+ */
+public class ClientConfiguration {
+
+	private int myConnectionPoolSize = 1;
+	private int myMinPooledConnections = 1;
+	private long myPoolIdleTimeoutMillis = 60000;
+	private long myPoolCheckIntervalMillis = 5000;
+	private int myBatchFlushMessages;
+	private int myBatchMaxOutstanding = 1000;
+
+	/**
+	 * @see #setConnectionPoolSize(int)
+	 */
+	public int getConnectionPoolSize() {
+		return myConnectionPoolSize;
+	}
+
+	/**
+	 * Sets the maximum number of sockets opened to the same host and port. If
+	 * set to more than one, {@link ca.uhn.hl7v2.HapiContext#newClient(String, int, boolean) clients}
+	 * are backed by a {@link ConnectionPool}, which sends each message over the
+	 * socket with the fewest responses outstanding. Additional sockets are
+	 * opened as long as all sockets are busy.
+	 * <p>
+	 * Defaults to <code>1</code>, which means that there is one connection
+	 * per host and port.
+	 * </p>
+	 */
+	public void setConnectionPoolSize(int theConnectionPoolSize) {
+		if (theConnectionPoolSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1");
+		}
+		myConnectionPoolSize = theConnectionPoolSize;
+	}
+
+	/**
+	 * @see #setMinPooledConnections(int)
+	 */
+	public int getMinPooledConnections() {
+		return myMinPooledConnections;
+	}
+
+	/**
+	 * Sets the number of sockets a {@link ConnectionPool} opens right away,
+	 * and keeps open even if they are idle. Sockets which have been closed,
+	 * e.g. by the remote host, are replaced. Lazy clients don't open any
+	 * socket before the first message is sent. Defaults to <code>1</code>.
+	 */
+	public void setMinPooledConnections(int theMinPooledConnections) {
+		if (theMinPooledConnections < 0) {
+			throw new IllegalArgumentException("Minimum must not be negative");
+		}
+		myMinPooledConnections = theMinPooledConnections;
+	}
+
+	/**
+	 * @see #setPoolIdleTimeout(long, TimeUnit)
+	 */
+	public long getPoolIdleTimeoutMillis() {
+		return myPoolIdleTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time after which a socket of a {@link ConnectionPool} which
+	 * has not been used is closed, unless it is one of the
+	 * {@link #setMinPooledConnections(int) minimum number} of sockets.
+	 * Defaults to 60 seconds.
+	 */
+	public void setPoolIdleTimeout(long theTimeout, TimeUnit theUnit) {
+		myPoolIdleTimeoutMillis = theUnit.toMillis(theTimeout);
+	}
+
+	/**
+	 * @see #setPoolCheckInterval(long, TimeUnit)
+	 */
+	public long getPoolCheckIntervalMillis() {
+		return myPoolCheckIntervalMillis;
+	}
+
+	/**
+	 * Sets how often a {@link ConnectionPool} discards sockets which have been
+	 * closed, closes idle sockets and reopens sockets to keep the minimum
+	 * number. Defaults to 5 seconds.
+	 */
+	public void setPoolCheckInterval(long theInterval, TimeUnit theUnit) {
+		if (theInterval <= 0) {
+			throw new IllegalArgumentException("Interval must be positive");
+		}
+		myPoolCheckIntervalMillis = theUnit.toMillis(theInterval);
+	}
+
+	/**
+	 * @see #setBatchFlushMessages(int)
+	 */
+	public int getBatchFlushMessages() {
+		return myBatchFlushMessages;
+	}
+
+	/**
+	 * Sets the number of messages after which a
+	 * {@link Initiator#sendBatch(java.util.List) batch} is flushed to the
+	 * socket. Regardless of this setting, messages are written when 64 KB have
+	 * been collected, and whenever the batch has to wait for responses or for
+	 * messages being encoded. Defaults to <code>0</code>, which means that
+	 * there is no limit on the number of messages.
+	 */
+	public void setBatchFlushMessages(int theBatchFlushMessages) {
+		if (theBatchFlushMessages < 0) {
+			throw new IllegalArgumentException("Number of messages must not be negative");
+		}
+		myBatchFlushMessages = theBatchFlushMessages;
+	}
+
+	/**
+	 * @see #setBatchMaxOutstanding(int)
+	 */
+	public int getBatchMaxOutstanding() {
+		return myBatchMaxOutstanding;
+	}
+
+	/**
+	 * Sets the maximum number of messages of a
+	 * {@link Initiator#sendBatch(java.util.List) batch} which may be awaiting
+	 * their responses. Sending waits once the limit is reached. Defaults to
+	 * <code>1000</code>; <code>0</code> means that there is no limit.
+	 */
+	public void setBatchMaxOutstanding(int theBatchMaxOutstanding) {
+		if (theBatchMaxOutstanding < 0) {
+			throw new IllegalArgumentException("Limit must not be negative");
+		}
+		myBatchMaxOutstanding = theBatchMaxOutstanding;
+	}
+
+}
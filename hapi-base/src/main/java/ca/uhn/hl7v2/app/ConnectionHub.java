@@ -32,6 +32,8 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HL7Exception;
@@ -71,7 +73,7 @@ public class ConnectionHub extends HapiContextSupport {
 	 * multithreaded environment.
 	 */
 	public static final String MAX_CONCURRENT_TARGETS = ConnectionHub.class.getName() + ".maxSize";
-	private final ConcurrentMap<String, String> connectionMutexes = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, Lock> connectionMutexes = new ConcurrentHashMap<String, Lock>();
 	private final CountingMap<ConnectionData, Connection> connections;
 
 	/** Creates a new instance of ConnectionHub */
@@ -90,6 +92,10 @@ public class ConnectionHub extends HapiContextSupport {
 
 			@Override
 			protected Connection open(ConnectionData connectionData) throws Exception {
+				ClientConfiguration config = getHapiContext().getClientConfiguration();
+				if (config.getConnectionPoolSize() > 1) {
+					return new ConnectionPool(connectionData, getHapiContext().getExecutorService(), config);
+				}
 				return ConnectionFactory
 						.open(connectionData, getHapiContext().getExecutorService());
 			}
@@ -108,12 +114,15 @@ public class ConnectionHub extends HapiContextSupport {
 		try {
 			Connection conn = null;
 			// Disallow establishing same connection targets concurrently
-			connectionMutexes.putIfAbsent(data.toString(), data.toString());
-			String mutex = connectionMutexes.get(data.toString());
-			synchronized (mutex) {
+			connectionMutexes.putIfAbsent(data.toString(), new ReentrantLock());
+			Lock mutex = connectionMutexes.get(data.toString());
+			mutex.lock();
+			try {
 				discardConnectionIfStale(connections.get(data));
 				// Create connection or increase counter
 				conn = connections.put(data);
+			} finally {
+				mutex.unlock();
 			}
 			return conn;
 		} catch (Exception e) {
@@ -0,0 +1,461 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "ConnectionPool.java".  Description:
+"A connection backed by several sockets to the same remote host"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.app;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.concurrent.TimerWheel;
+import ca.uhn.hl7v2.llp.LLPException;
+import ca.uhn.hl7v2.model.Message;
+
+/**
+ * <p>
+ * A client connection backed by several sockets to the same remote host and
+ * port. Each message is sent over the socket with the fewest responses
+ * outstanding, so a slow response does not hold up the messages sent after
+ * it. A new socket is opened if all sockets are busy, up to the
+ * {@link ClientConfiguration#setConnectionPoolSize(int) pool size}.
+ * </p>
+ * <p>
+ * Pools are created by the {@link ConnectionHub} if a pool size of more than
+ * one is configured, and are used like any other {@link Connection}. The pool
+ * periodically discards sockets which have been closed, closes sockets which
+ * have been idle for too long, and reopens sockets to keep the
+ * {@link ClientConfiguration#setMinPooledConnections(int) minimum number}.
+ * Unsolicited messages received from the remote host are not supported.
+ * </p>
+ * <p>
+ * Sockets are not probed. Only a socket which is known to be closed, because
+ * it has been closed by either side or reading from it failed, is discarded.
+ * A half-open socket, whose remote host went away without closing it, stays
+ * in the pool until a message sent over it fails or times out.
+ * </p>
+ */
+public class ConnectionPool implements Connection {
+
+	private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+	/**
+	 * Schedules the maintenance of all pools, which then runs on the executor
+	 * of the pool
+	 */
+	private static final TimerWheel MAINTENANCE = new TimerWheel("hapi-connection-pool", 100,
+			TimeUnit.MILLISECONDS, 512);
+
+	private final ConnectionData data;
+	private final ExecutorService executor;
+	private final int maxSize;
+	private final int minSize;
+	private final long idleTimeoutMillis;
+	private final long checkIntervalMillis;
+	private final List<Member> members = new CopyOnWriteArrayList<Member>();
+	private final AtomicInteger opening = new AtomicInteger();
+	private final PooledInitiator initiator = new PooledInitiator();
+	private volatile boolean open = true;
+	/** Set by the initiator of the pool, or negative to keep the default of the sockets */
+	private volatile long timeoutMillis = -1;
+	private volatile TimerWheel.Timeout nextCheck;
+
+	ConnectionPool(ConnectionData theData, ExecutorService theExecutor, ClientConfiguration theConfiguration)
+			throws HL7Exception {
+		data = theData;
+		executor = theExecutor;
+		maxSize = theConfiguration.getConnectionPoolSize();
+		minSize = Math.min(theConfiguration.getMinPooledConnections(), maxSize);
+		idleTimeoutMillis = theConfiguration.getPoolIdleTimeoutMillis();
+		checkIntervalMillis = theConfiguration.getPoolCheckIntervalMillis();
+		if (!theData.isLazy()) {
+			try {
+				for (int i = 0; i < minSize; i++) {
+					opening.incrementAndGet();
+					addMember();
+				}
+			} catch (HL7Exception e) {
+				close();
+				throw e;
+			}
+		}
+		scheduleCheck();
+	}
+
+	/**
+	 * Does nothing, the sockets are activated when they are opened
+	 */
+	public void activate() {
+	}
+
+	public Initiator getInitiator() {
+		return initiator;
+	}
+
+	/**
+	 * Closes all sockets of this pool. The pool can't be used any more.
+	 */
+	public void close() {
+		open = false;
+		TimerWheel.Timeout t = nextCheck;
+		if (t != null) {
+			t.cancel();
+		}
+		for (Member next : members) {
+			members.remove(next);
+			next.connection.close();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> until the pool is closed, as sockets which
+	 * have been closed are replaced
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	public InetAddress getRemoteAddress() {
+		for (Member next : members) {
+			return next.connection.getRemoteAddress();
+		}
+		return null;
+	}
+
+	public Integer getRemotePort() {
+		for (Member next : members) {
+			return next.connection.getRemotePort();
+		}
+		return null;
+	}
+
+	public ExecutorService getExecutorService() {
+		return executor;
+	}
+
+	/**
+	 * @return the number of sockets which are currently open
+	 */
+	public int getSize() {
+		return members.size();
+	}
+
+	/**
+	 * @return the number of messages sent over this pool whose responses have
+	 *         not been received yet
+	 */
+	public int getOutstandingResponses() {
+		int retVal = 0;
+		for (Member next : members) {
+			retVal += next.connection.getPendingResponseCount();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Chooses the socket with the fewest outstanding responses, opening a
+	 * socket if there is none. If all sockets are busy and the pool is not
+	 * full, another socket is opened in the background. If there is no open
+	 * socket and the pool is full, waits for the sockets being opened.
+	 */
+	private Member acquire() throws HL7Exception {
+		while (true) {
+			if (!open) {
+				throw new HL7Exception("Connection pool to " + data + " is closed");
+			}
+			Member best = null;
+			int bestLoad = Integer.MAX_VALUE;
+			for (Member next : members) {
+				if (!next.connection.isOpen()) {
+					discard(next);
+					continue;
+				}
+				int load = next.getLoad();
+				if (load < bestLoad) {
+					best = next;
+					bestLoad = load;
+				}
+			}
+			if (best == null) {
+				if (!reserveSlot()) {
+					awaitOpening();
+					continue;
+				}
+				best = addMember();
+			} else if (bestLoad > 0 && reserveSlot()) {
+				openInBackground();
+			}
+			best.dispatching.incrementAndGet();
+			best.lastUsed = System.currentTimeMillis();
+			return best;
+		}
+	}
+
+	/**
+	 * Waits until a socket being opened by another thread is open, or
+	 * opening it failed
+	 */
+	private void awaitOpening() throws HL7Exception {
+		synchronized (opening) {
+			if (opening.get() == 0) {
+				return;
+			}
+			try {
+				opening.wait(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new HL7Exception("Interrupted while waiting for a connection to " + data);
+			}
+		}
+	}
+
+	/**
+	 * Removes a socket which is known to be closed
+	 */
+	private void discard(Member theMember) {
+		if (members.remove(theMember)) {
+			log.info("Discarding closed connection of pool to {}", data);
+		}
+	}
+
+	/**
+	 * Reserves a place for a new socket if the pool is not full
+	 */
+	private boolean reserveSlot() {
+		while (true) {
+			int current = opening.get();
+			if (members.size() + current >= maxSize) {
+				return false;
+			}
+			if (opening.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void openInBackground() {
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						addMember();
+					} catch (HL7Exception e) {
+						log.warn("Failed to open additional connection to {}: {}", data, e.getMessage());
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			opening.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Opens a socket, for which a place has been reserved in
+	 * {@link #opening}
+	 */
+	private Member addMember() throws HL7Exception {
+		try {
+			ActiveConnection connection = (ActiveConnection) ConnectionFactory.openEagerly(data, executor);
+			long timeout = timeoutMillis;
+			if (timeout >= 0) {
+				connection.getInitiator().setTimeout(timeout, TimeUnit.MILLISECONDS);
+			}
+			Member retVal = new Member(connection);
+			members.add(retVal);
+			if (!open) {
+				// closed meanwhile
+				members.remove(retVal);
+				connection.close();
+			} else {
+				log.debug("Opened connection {} of pool to {}", members.size(), data);
+			}
+			return retVal;
+		} catch (HL7Exception e) {
+			throw e;
+		} catch (Exception e) {
+			throw new HL7Exception("Cannot open connection to " + data, e);
+		} finally {
+			synchronized (opening) {
+				opening.decrementAndGet();
+				opening.notifyAll();
+			}
+		}
+	}
+
+	private void scheduleCheck() {
+		if (!open) {
+			return;
+		}
+		try {
+			nextCheck = MAINTENANCE.schedule(new Runnable() {
+				public void run() {
+					try {
+						executor.execute(new Runnable() {
+							public void run() {
+								maintain();
+								scheduleCheck();
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						log.debug("Executor has been shut down, stopping maintenance of pool to {}", data);
+					}
+				}
+			}, checkIntervalMillis, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			log.debug("Maintenance timer has been stopped");
+		}
+	}
+
+	/**
+	 * Discards sockets which are known to be closed, closes idle sockets and
+	 * opens sockets up to the minimum number. Whether a socket is usable is
+	 * only judged by {@link ActiveConnection#isOpen()}, half-open sockets are
+	 * not detected.
+	 */
+	void maintain() {
+		long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+		for (Member next : members) {
+			if (!next.connection.isOpen()) {
+				discard(next);
+			} else if (members.size() > minSize && next.getLoad() == 0 && next.lastUsed < idleSince) {
+				log.debug("Closing idle connection of pool to {}", data);
+				members.remove(next);
+				next.connection.close();
+			}
+		}
+		while (open && reserveSlot()) {
+			if (members.size() >= minSize || (data.isLazy() && members.isEmpty())) {
+				opening.decrementAndGet();
+				break;
+			}
+			try {
+				addMember();
+			} catch (HL7Exception e) {
+				log.warn("Failed to reopen connection to {}: {}", data, e.getMessage());
+				break;
+			}
+		}
+	}
+
+	/**
+	 * A socket of the pool
+	 */
+	private static class Member {
+
+		private final ActiveConnection connection;
+		private final AtomicInteger dispatching = new AtomicInteger();
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		Member(ActiveConnection theConnection) {
+			connection = theConnection;
+		}
+
+		/**
+		 * @return messages being sent or waiting for a response
+		 */
+		int getLoad() {
+			return connection.getPendingResponseCount() + dispatching.get();
+		}
+
+	}
+
+	/**
+	 * Sends each message using the initiator of the socket chosen by the pool
+	 */
+	private class PooledInitiator implements Initiator {
+
+		public Message sendAndReceive(Message out) throws HL7Exception, LLPException, IOException {
+			Member member = acquire();
+			Future<Message> response;
+			try {
+				response = member.connection.getInitiator().sendAsync(out);
+			} finally {
+				member.dispatching.decrementAndGet();
+			}
+			return ActiveInitiator.await(response, out);
+		}
+
+		public Future<Message> sendAsync(Message out) throws HL7Exception, LLPException, IOException {
+			Member member = acquire();
+			try {
+				return member.connection.getInitiator().sendAsync(out);
+			} finally {
+				member.dispatching.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Sends the whole batch over the socket with the fewest outstanding
+		 * responses, as messages sent over different sockets may overtake
+		 * each other
+		 */
+		public List<Future<Message>> sendBatch(List<Message> outgoing) throws HL7Exception, LLPException,
+				IOException {
+			Member member = acquire();
+			try {
+				return member.connection.getInitiator().sendBatch(outgoing);
+			} finally {
+				member.dispatching.decrementAndGet();
+			}
+		}
+
+		public void sendBatch(Iterator<String> outgoing, BatchListener listener) throws HL7Exception,
+				LLPException, IOException {
+			Member member = acquire();
+			try {
+				member.connection.getInitiator().sendBatch(outgoing, listener);
+			} finally {
+				member.dispatching.decrementAndGet();
+			}
+		}
+
+		public void setTimeout(long timeout, TimeUnit timeUnit) {
+			timeoutMillis = timeUnit.toMillis(timeout);
+			for (Member next : members) {
+				next.connection.getInitiator().setTimeout(timeout, timeUnit);
+			}
+		}
+
+		/**
+		 * @deprecated use {@link #setTimeout(long, TimeUnit)}
+		 */
+		@Deprecated
+		public void setTimeoutMillis(int timeout) {
+			setTimeout(timeout, TimeUnit.MILLISECONDS);
+		}
+
+	}
+
+}
@@ -37,6 +37,7 @@ import ca.uhn.hl7v2.model.Segment;
 import ca.uhn.hl7v2.protocol.ReceivingApplication;
 import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
 import ca.uhn.hl7v2.util.DeepCopy;
+import ca.uhn.hl7v2.util.ER7AckBuilder;
 
 /**
  * An Application that does nothing with the message and returns an Application
@@ -169,4 +170,24 @@ public class DefaultApplication implements ReceivingApplication<Message> {
 		}
 	}
 
+	/**
+	 * Creates the same response as {@link #processMessage(Message, Map)}
+	 * directly from the unparsed message.
+	 * 
+	 * @param theMessage the unparsed ER7 message
+	 * @param theBuilder the builder creating the response
+	 * @return the encoded response, or <code>null</code> if the builder does
+	 *         not support the message
+	 * @see ER7AckBuilder
+	 */
+	public String processMessage(String theMessage, ER7AckBuilder theBuilder) throws ReceivingApplicationException {
+		try {
+			HL7Exception e = myMessage != null ? new HL7Exception(myMessage) : null;
+			return theBuilder.generateACK(theMessage, myAcknowledgmentCode, e);
+		} catch (Exception e) {
+			throw new ReceivingApplicationException("Couldn't create response message: "
+					+ e.getMessage());
+		}
+	}
+
 }
@@ -31,6 +31,7 @@ import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.concurrent.DefaultExecutorService;
 import ca.uhn.hl7v2.concurrent.Service;
+import ca.uhn.hl7v2.concurrent.TimerWheel;
 import ca.uhn.hl7v2.llp.LowerLayerProtocol;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.parser.Parser;
@@ -48,7 +49,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -57,8 +64,10 @@ import java.util.concurrent.ExecutorService;
  * define the Applications to which message are sent. To configure, use
  * registerApplication() or loadApplicationsFromFile().
  * </p>
- * </p>A separate thread looks for Connections that have been closed (locally or
- * remotely) and discards them. </p>
+ * <p>Connections are discarded as soon as they are closed (locally or
+ * remotely). Connections on which no message has been received or sent for the
+ * {@link ServerConfiguration#setIdleTimeout(long, TimeUnit) idle timeout} are
+ * closed.</p>
  *
  * @author Bryan Tripp
  * @author Christian Ohr
@@ -67,11 +76,15 @@ public abstract class HL7Service extends Service {
 
     private static final Logger log = LoggerFactory.getLogger(HL7Service.class);
 
-    private final List<Connection> connections;
+    /** Shared by all services, idle timeouts are mostly extended */
+    private static final TimerWheel idleTimeouts = new TimerWheel("hapi-idle-connections", 100,
+            TimeUnit.MILLISECONDS, 1024);
+
+    private final Set<Connection> connections;
+    private final Queue<PendingConnection> pendingConnections;
     private final Parser parser;
     private final LowerLayerProtocol llp;
     private final List<ConnectionListener> listeners;
-    private final ConnectionCleaner cleaner;
     private final ApplicationRouterImpl applicationRouter;
 
     /**
@@ -99,41 +112,34 @@ public abstract class HL7Service extends Service {
     public HL7Service(Parser parser, LowerLayerProtocol llp,
                       ExecutorService executorService) {
         super("HL7 Server", executorService);
-        this.connections = new ArrayList<Connection>();
-        this.listeners = new ArrayList<ConnectionListener>();
+        this.connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+        this.pendingConnections = new ConcurrentLinkedQueue<PendingConnection>();
+        this.listeners = new CopyOnWriteArrayList<ConnectionListener>();
         this.parser = parser;
         this.llp = llp;
         this.applicationRouter = new ApplicationRouterImpl(parser);
-        this.cleaner = new ConnectionCleaner(this);
-
-        // 960101
-        assert !this.cleaner.isRunning();
     }
 
     /**
      * Called after startup before the thread enters its main loop. This
-     * implementation launches a cleaner thread that removes stale connections
-     * from the connection list. Override to initialize resources for the
-     * running thread, e.g. opening {@link java.net.ServerSocket}s etc.
+     * implementation does nothing, as closed connections are discarded right
+     * away. Override to initialize resources for the running thread, e.g.
+     * opening {@link java.net.ServerSocket}s etc.
      */
     @Override
     protected void afterStartup() {
-        // Fix for bug 960101: Don't start the cleaner thread until the
-        // server is started.
-        cleaner.start();
+        super.afterStartup();
     }
 
     /**
-     * Called after the thread has left its main loop. This implementation stops
-     * the connection cleaner thread and closes any open connections. Override
-     * to clean up additional resources from the running thread, e.g. closing
-     * {@link java.net.ServerSocket}s.
+     * Called after the thread has left its main loop. This implementation
+     * closes any open connections. Override to clean up additional resources
+     * from the running thread, e.g. closing {@link java.net.ServerSocket}s.
      */
     @Override
     protected void afterTermination() {
         super.afterTermination();
-        cleaner.stopAndWait();
-        for (Connection c : connections) {
+        for (Connection c : new ArrayList<Connection>(connections)) {
             c.close();
         }
     }
@@ -158,15 +164,39 @@ public abstract class HL7Service extends Service {
 
     /**
      * Called by subclasses when a new Connection is made. Registers the
-     * ApplicationRouter with the given Connection and stores it.
+     * ApplicationRouter with the given Connection and stores it until it is
+     * closed.
      *
      * @param c existing connection
      */
-    public synchronized void newConnection(ActiveConnection c) {
+    public void newConnection(final ActiveConnection c) {
         c.getResponder().setApplicationRouter(applicationRouter);
         c.activate();
         connections.add(c); // keep track of connections
-        notifyListeners(c);
+        for (ConnectionListener cl : listeners) {
+            cl.connectionReceived(c);
+        }
+        for (PendingConnection pending : pendingConnections) {
+            pending.offer(c);
+        }
+
+        long idleTimeout = c.getParser().getHapiContext().getServerConfiguration().getIdleTimeoutMillis();
+        final IdleCheck idleCheck = idleTimeout > 0 ? new IdleCheck(c, idleTimeout) : null;
+        c.addCloseListener(new Runnable() {
+            public void run() {
+                if (idleCheck != null) {
+                    idleCheck.cancel();
+                }
+                if (connections.remove(c)) {
+                    log.debug("Removing connection from {} from connection list", c.getRemoteAddress()
+                            .getHostAddress());
+                    notifyListeners(c);
+                }
+            }
+        });
+        if (idleCheck != null) {
+            idleCheck.schedule(idleTimeout);
+        }
     }
 
     /**
@@ -178,37 +208,84 @@ public abstract class HL7Service extends Service {
      * @return connection that was initiated by the given address
      */
     public Connection getRemoteConnection(String ipAddress) {
-        Connection conn = null;
-        while (conn == null) {
-            // check all connections ...
-            int c = 0;
-            synchronized (this) {
-                while (conn == null && c < connections.size()) {
-                    Connection nextConn = connections.get(c);
-                    if (nextConn.getRemoteAddress().getHostAddress().equals(ipAddress))
-                        conn = nextConn;
-                    c++;
-                }
+        Connection retVal = null;
+        boolean interrupted = false;
+        while (retVal == null) {
+            try {
+                retVal = getRemoteConnection(ipAddress, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // don't care
+                interrupted = true;
             }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return retVal;
+    }
 
-            if (conn == null) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    // don't care
-                }
+    /**
+     * Returns a connection to a remote host that was initiated by the given
+     * remote host. If the connection has not been made, this method waits
+     * until the remote host connects, or until the timeout has passed.
+     *
+     * @param ipAddress IP Address
+     * @param timeout time to wait
+     * @param unit unit of the time to wait
+     * @return connection that was initiated by the given address, or
+     *         <code>null</code> if there is none after the timeout
+     */
+    public Connection getRemoteConnection(String ipAddress, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        Connection retVal = findRemoteConnection(ipAddress);
+        if (retVal != null || timeout <= 0) {
+            return retVal;
+        }
+        PendingConnection pending = new PendingConnection(ipAddress);
+        pendingConnections.add(pending);
+        try {
+            // the connection may have been made before the future was added
+            retVal = findRemoteConnection(ipAddress);
+            return retVal != null ? retVal : pending.get(timeout, unit);
+        } finally {
+            pendingConnections.remove(pending);
+        }
+    }
+
+    private Connection findRemoteConnection(String ipAddress) {
+        for (Connection next : connections) {
+            if (next.getRemoteAddress().getHostAddress().equals(ipAddress)) {
+                return next;
             }
         }
-        return conn;
+        return null;
     }
 
     /**
-     * Returns all currently active connections.
+     * Returns all currently active connections. The returned list is a copy
+     * which is not updated as connections are made or closed.
      *
      * @return list of active remote connections
      */
-    public synchronized List<Connection> getRemoteConnections() {
-        return connections;
+    public List<Connection> getRemoteConnections() {
+        return new ArrayList<Connection>(connections);
+    }
+
+    /**
+     * Returns the number of unsolicited messages currently being processed on
+     * the connections of this service.
+     *
+     * @see ServerConfiguration#setMaxInFlightMessagesPerConnection(int)
+     * @see ServerConfiguration#getInFlightMessages()
+     */
+    public int getInFlightMessages() {
+        int retVal = 0;
+        for (Connection c : connections) {
+            if (c instanceof ActiveConnection) {
+                retVal += ((ActiveConnection) c).getInFlightMessages();
+            }
+        }
+        return retVal;
     }
 
     /**
@@ -406,53 +483,90 @@ public abstract class HL7Service extends Service {
     }
 
     /**
-     * Runnable that looks for closed Connections and discards them. It would be
-     * nice to find a way to externalize this safely so that it could be re-used
-     * by (for example) TestPanel. It could take a Vector of Connections as an
-     * argument, instead of an HL7Service, but some problems might arise if
-     * other threads were iterating through the Vector while this one was
-     * removing elements from it.
-     * <p/>
-     * Note: this could be started as daemon, so we don't need to care about
-     * termination.
+     * Closes a connection on which no message has been received or sent for
+     * the idle timeout. Rather than being rescheduled on every message, the
+     * timeout is extended when it expires if there has been activity
+     * meanwhile, or if messages are being processed.
      */
-    private static class ConnectionCleaner extends Service {
+    private class IdleCheck implements Runnable {
+
+        private final ActiveConnection connection;
+        private final long idleTimeoutMillis;
+        private volatile TimerWheel.Timeout timeout;
 
-        private final HL7Service service;
+        IdleCheck(ActiveConnection theConnection, long theIdleTimeoutMillis) {
+            connection = theConnection;
+            idleTimeoutMillis = theIdleTimeoutMillis;
+        }
 
-        public ConnectionCleaner(HL7Service service) {
-            super("ConnectionCleaner", service.getExecutorService());
-            this.service = service;
+        void schedule(long theDelayMillis) {
+            try {
+                timeout = idleTimeouts.schedule(this, theDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (IllegalStateException e) {
+                log.debug("Idle timer has been stopped");
+            }
         }
 
-        @Override
-        public void start() {
-            log.info("Starting ConnectionCleaner service");
-            super.start();
+        void cancel() {
+            TimerWheel.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
         }
 
-        public void handle() {
-            try {
-                Thread.sleep(500);
-                synchronized (service) {
-                    Iterator<Connection> it = service.getRemoteConnections()
-                            .iterator();
-                    while (it.hasNext()) {
-                        Connection conn = it.next();
-                        if (!conn.isOpen()) {
-                            log.debug(
-                                    "Removing connection from {} from connection list",
-                                    conn.getRemoteAddress().getHostAddress());
-                            it.remove();
-                            service.notifyListeners(conn);
+        public void run() {
+            if (!connection.isOpen()) {
+                return;
+            }
+            long idle = System.currentTimeMillis() - connection.getLastActivity();
+            if (connection.getInFlightMessages() > 0) {
+                schedule(idleTimeoutMillis);
+            } else if (idle < idleTimeoutMillis) {
+                schedule(idleTimeoutMillis - idle);
+            } else {
+                log.info("Closing connection from {} after being idle for {} ms", connection.getRemoteAddress()
+                        .getHostAddress(), idle);
+                // closing the sockets may block, which the timer thread must not
+                try {
+                    getExecutorService().execute(new Runnable() {
+                        public void run() {
+                            connection.close();
                         }
-                    }
+                    });
+                } catch (RejectedExecutionException e) {
+                    connection.close();
                 }
-            } catch (InterruptedException e) {
-                // don't care
             }
         }
 
     }
 
+    /**
+     * The future connection from a remote host which is awaited by
+     * {@link HL7Service#getRemoteConnection(String, long, TimeUnit)}
+     */
+    private static class PendingConnection {
+
+        private final String ipAddress;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Connection connection;
+
+        PendingConnection(String theIpAddress) {
+            ipAddress = theIpAddress;
+        }
+
+        void offer(Connection theConnection) {
+            if (connection == null && theConnection.getRemoteAddress().getHostAddress().equals(ipAddress)) {
+                connection = theConnection;
+                done.countDown();
+            }
+        }
+
+        Connection get(long theTimeout, TimeUnit theUnit) throws InterruptedException {
+            done.await(theTimeout, theUnit);
+            return connection;
+        }
+
+    }
+
 }
@@ -26,6 +26,9 @@
 package ca.uhn.hl7v2.app;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import ca.uhn.hl7v2.HL7Exception;
@@ -49,6 +52,54 @@ public interface Initiator {
     Message sendAndReceive(Message outgoing) throws HL7Exception,
             LLPException, IOException;
 
+    /**
+     * Sends a message to a server without waiting for the response. The
+     * returned future fails with a {@link TimeoutException} if no response is
+     * received within the timeout.
+     *
+     * @param outgoing outgoing message
+     * @return future response message
+     * @throws HL7Exception
+     * @throws LLPException
+     * @throws IOException
+     */
+    Future<Message> sendAsync(Message outgoing) throws HL7Exception,
+            LLPException, IOException;
+
+    /**
+     * Sends a batch of messages without waiting for the responses. The
+     * messages are encoded in parallel, and sent in their order with as few
+     * writes as possible. The number of messages awaiting their responses and
+     * the flushing of the messages are configured in the
+     * {@link ClientConfiguration}. Messages which can't be sent, e.g. because
+     * they have no control ID, result in a failed future.
+     *
+     * @param outgoing outgoing messages
+     * @return future response messages, in the order of the messages
+     * @throws HL7Exception
+     * @throws LLPException
+     * @throws IOException if the connection fails. Messages sent before
+     *         fail as well.
+     */
+    List<Future<Message>> sendBatch(List<Message> outgoing) throws HL7Exception,
+            LLPException, IOException;
+
+    /**
+     * Sends a batch of encoded messages like {@link #sendBatch(List)}, and
+     * reports the outcome of each message to the listener. Returns as soon as
+     * the last message has been sent. The messages are only read as far as
+     * responses may be outstanding, so the iterator may produce any number of
+     * messages.
+     *
+     * @param outgoing outgoing messages
+     * @param listener receives the response to each message
+     * @throws HL7Exception
+     * @throws LLPException
+     * @throws IOException if the connection fails
+     */
+    void sendBatch(Iterator<String> outgoing, BatchListener listener) throws HL7Exception,
+            LLPException, IOException;
+
     /**
      * Sets the time that the initiator will wait for a
      * response for a given message before timing out and throwing an exception
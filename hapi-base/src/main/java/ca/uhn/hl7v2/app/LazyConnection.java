@@ -28,8 +28,13 @@ package ca.uhn.hl7v2.app;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.llp.LLPException;
@@ -109,24 +114,72 @@ public class LazyConnection implements Connection {
 
         private LazyConnection connection;
         private long timeoutMillis = 10000;
+        private final Lock lock = new ReentrantLock();
 
         LazyInitiator(LazyConnection connection) {
             this.connection = connection;
         }
 
-        public synchronized Message sendAndReceive(Message out) throws HL7Exception, LLPException, IOException {
+        public Message sendAndReceive(Message out) throws HL7Exception, LLPException, IOException {
+            lock.lock();
+            try {
+                return getActiveInitiator().sendAndReceive(out);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public Future<Message> sendAsync(Message out) throws HL7Exception, LLPException, IOException {
+            lock.lock();
+            try {
+                return getActiveInitiator().sendAsync(out);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public List<Future<Message>> sendBatch(List<Message> outgoing) throws HL7Exception, LLPException,
+                IOException {
+            lock.lock();
+            try {
+                return getActiveInitiator().sendBatch(outgoing);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void sendBatch(Iterator<String> outgoing, BatchListener listener) throws HL7Exception,
+                LLPException, IOException {
+            lock.lock();
+            try {
+                getActiveInitiator().sendBatch(outgoing, listener);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the initiator of the connection, which is established first if necessary.
+         * Must be called while holding the lock.
+         */
+        private Initiator getActiveInitiator() throws HL7Exception {
             if (!connection.isEstablished()) {
                 connection.establishConnection();
                 setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
             }
-            return connection.getInitiator().sendAndReceive(out);
+            return connection.getInitiator();
         }
 
-        public synchronized void setTimeout(long timeout, TimeUnit timeunit) {
-            if (connection.isEstablished())
-                connection.getInitiator().setTimeout(timeout, timeunit);
-            else
-                this.timeoutMillis = timeunit.toMillis(timeout);
+        public void setTimeout(long timeout, TimeUnit timeunit) {
+            lock.lock();
+            try {
+                if (connection.isEstablished())
+                    connection.getInitiator().setTimeout(timeout, timeunit);
+                else
+                    this.timeoutMillis = timeunit.toMillis(timeout);
+            } finally {
+                lock.unlock();
+            }
         }
 
         public void setTimeoutMillis(int timeout) {
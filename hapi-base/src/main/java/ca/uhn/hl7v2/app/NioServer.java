@@ -0,0 +1,741 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "NioServer.java".  Description:
+ * "A TCP/IP-based HL7 server using non-blocking I/O"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2014.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ */
+
+package ca.uhn.hl7v2.app;
+
+import static ca.uhn.hl7v2.llp.MllpConstants.END_BYTE1;
+import static ca.uhn.hl7v2.llp.MllpConstants.END_BYTE2;
+import static ca.uhn.hl7v2.llp.MllpConstants.START_BYTE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.concurrent.DefaultExecutorService;
+import ca.uhn.hl7v2.concurrent.Service;
+import ca.uhn.hl7v2.llp.HL7Writer;
+import ca.uhn.hl7v2.llp.LLPException;
+import ca.uhn.hl7v2.llp.LowerLayerProtocol;
+import ca.uhn.hl7v2.llp.MinLowerLayerProtocol;
+import ca.uhn.hl7v2.llp.MllpCodec;
+import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.parser.PipeParser;
+
+/**
+ * <p>
+ * A TCP/IP-based HL7 server using non-blocking I/O. It can be used in place of
+ * a {@link SimpleServer}, and is configured in the same way, e.g. by
+ * registering {@link ca.uhn.hl7v2.protocol.ReceivingApplication applications}.
+ * </p>
+ * <p>
+ * Unlike {@link SimpleServer}, which uses a reading thread per connection, all
+ * connections are served by a small number of event loop threads, each of
+ * which multiplexes many sockets using a {@link Selector}. Complete MLLP frames
+ * are handed to a bounded pool of worker threads, which decode them and route
+ * them to the registered applications. Responses are queued and written by the
+ * event loops, so there is no thread blocked writing to a socket either. This
+ * makes the server suitable for a large number of mostly idle connections.
+ * </p>
+ * <p>
+ * Frames are decoded and responses are encoded with the {@link MllpCodec} of
+ * the {@link MinLowerLayerProtocol} of this server, or with the reader and
+ * writer of any other {@link LowerLayerProtocol}, so its character set
+ * settings apply. The protocol must be based on MLLP framing. TLS is not
+ * supported.
+ * </p>
+ * <p>
+ * Like with {@link SimpleServer}, messages received on the same connection
+ * may be processed concurrently, unless
+ * {@link ServerConfiguration#setOrderedProcessing(boolean) ordered processing}
+ * is enabled. If the
+ * {@link ServerConfiguration#setMaxInFlightMessagesPerConnection(int) limits}
+ * of messages being processed are reached, the event loop stops reading from
+ * the connection until there is capacity again.
+ * </p>
+ */
+public class NioServer extends HL7Service {
+
+	/**
+	 * Default number of event loop threads
+	 */
+	public static final int DEFAULT_IO_THREADS = 2;
+
+	/**
+	 * Default number of worker threads processing messages, unless a worker
+	 * {@link ExecutorService} is set
+	 */
+	public static final int DEFAULT_WORKER_THREADS = 20;
+
+	private static final Logger log = LoggerFactory.getLogger(NioServer.class);
+	private static final int BUFFER_SIZE = 8192;
+	private static final int SELECT_TIMEOUT = 500;
+	/** Buffers of a connection larger than this are released once they are empty */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 16 * BUFFER_SIZE;
+
+	private final int port;
+	private int ioThreads = DEFAULT_IO_THREADS;
+	private ExecutorService workers;
+	private boolean ownWorkers;
+	private Selector acceptSelector;
+	private ServerSocketChannel serverChannel;
+	private EventLoop[] eventLoops;
+	private int nextEventLoop;
+
+	/**
+	 * Runs tasks on the workers, and lets paused connections resume once
+	 * a task is finished
+	 */
+	private final Executor workerExecutor = new Executor() {
+		public void execute(final Runnable theCommand) {
+			workers.execute(new Runnable() {
+				public void run() {
+					try {
+						theCommand.run();
+					} finally {
+						for (EventLoop next : eventLoops) {
+							next.wakeupIfPaused();
+						}
+					}
+				}
+			});
+		}
+	};
+
+	/**
+	 * Creates a new instance of NioServer that listens on the given port,
+	 * using the {@link MinLowerLayerProtocol} and a standard {@link PipeParser}.
+	 */
+	public NioServer(int port) {
+		this(port, new MinLowerLayerProtocol(), new PipeParser());
+	}
+
+	/**
+	 * Creates a new instance of NioServer that listens on the given port.
+	 */
+	public NioServer(int port, LowerLayerProtocol llp, Parser parser) {
+		this(port, llp, parser, DefaultExecutorService.getDefaultService());
+	}
+
+	/**
+	 * Creates a new instance of NioServer using a custom
+	 * {@link ExecutorService} for its event loop threads. This
+	 * {@link ExecutorService} instance will <i>not</i> be shut down after the
+	 * server stops!
+	 */
+	public NioServer(int port, LowerLayerProtocol llp, Parser parser, ExecutorService executorService) {
+		super(parser, llp, executorService);
+		this.port = port;
+	}
+
+	/**
+	 * Creates a new instance of NioServer that listens on the given port,
+	 * using the parser, lower layer protocol and executor service of the given
+	 * context.
+	 */
+	public NioServer(HapiContext hapiContext, int port) {
+		super(hapiContext);
+		this.port = port;
+	}
+
+	/**
+	 * Sets the number of event loop threads. Defaults to
+	 * {@link #DEFAULT_IO_THREADS}. Must be called before the server is started.
+	 */
+	public void setIoThreads(int theIoThreads) {
+		if (isRunning()) {
+			throw new IllegalStateException("Server is already running");
+		}
+		if (theIoThreads < 1) {
+			throw new IllegalArgumentException("At least one event loop thread is required");
+		}
+		ioThreads = theIoThreads;
+	}
+
+	/**
+	 * Sets the {@link ExecutorService} used to process received messages. It
+	 * should have a bounded number of threads. This {@link ExecutorService}
+	 * instance will <i>not</i> be shut down after the server stops! If none is
+	 * set, a pool of {@link #DEFAULT_WORKER_THREADS} threads is created when the
+	 * server is started. Must be called before the server is started.
+	 */
+	public void setWorkerExecutorService(ExecutorService theWorkers) {
+		if (isRunning()) {
+			throw new IllegalStateException("Server is already running");
+		}
+		workers = theWorkers;
+		ownWorkers = false;
+	}
+
+	/**
+	 * Opens the server socket and starts the event loops
+	 *
+	 * @see ca.uhn.hl7v2.app.HL7Service#afterStartup()
+	 */
+	@Override
+	protected void afterStartup() {
+		try {
+			super.afterStartup();
+			log.info("Starting NioServer running on port {}", port);
+			if (workers == null) {
+				workers = Executors.newFixedThreadPool(DEFAULT_WORKER_THREADS);
+				ownWorkers = true;
+			}
+			acceptSelector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+			eventLoops = new EventLoop[ioThreads];
+			for (int i = 0; i < eventLoops.length; i++) {
+				eventLoops[i] = new EventLoop();
+				eventLoops[i].start();
+			}
+		} catch (Exception e) {
+			log.error("Failed starting NioServer on port {}", port);
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Waits for connections and hands them over to the event loops
+	 */
+	@Override
+	protected void handle() {
+		try {
+			acceptSelector.select(SELECT_TIMEOUT);
+			acceptSelector.selectedKeys().clear();
+			SocketChannel channel;
+			while ((channel = serverChannel.accept()) != null) {
+				accept(channel);
+			}
+		} catch (IOException e) {
+			log.error("Error while accepting connections: ", e);
+		}
+	}
+
+	private void accept(SocketChannel channel) {
+		try {
+			log.info("Accepted connection from {}:{} on local port {}", new Object[] {
+					channel.socket().getInetAddress().getHostAddress(), channel.socket().getPort(), port });
+			channel.configureBlocking(false);
+			EventLoop loop = eventLoops[nextEventLoop];
+			nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+
+			ChannelHandler handler = new ChannelHandler(loop, channel);
+			ActiveConnection c = new ActiveConnection(getParser(), channel.socket(), handler, getExecutorService());
+			handler.connection = c;
+			newConnection(c);
+			loop.register(handler);
+		} catch (Exception e) {
+			log.error("Error while accepting connections: ", e);
+			try {
+				channel.close();
+			} catch (IOException e1) {
+				// don't care
+			}
+		}
+	}
+
+	/**
+	 * Stops the event loops and closes the server socket
+	 */
+	@Override
+	protected void afterTermination() {
+		super.afterTermination();
+		if (eventLoops != null) {
+			for (EventLoop loop : eventLoops) {
+				if (loop != null) {
+					loop.stop();
+				}
+			}
+		}
+		try {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+			if (acceptSelector != null) {
+				acceptSelector.close();
+			}
+		} catch (IOException e) {
+			log.warn("Error while closing server socket", e);
+		}
+		if (ownWorkers) {
+			workers.shutdown();
+			workers = null;
+			ownWorkers = false;
+		}
+	}
+
+	/**
+	 * Multiplexes a number of connections on a single thread
+	 */
+	private class EventLoop extends Service {
+
+		private final Selector selector;
+		private final Queue<ChannelHandler> registrations = new ConcurrentLinkedQueue<ChannelHandler>();
+		private final Queue<ChannelHandler> writes = new ConcurrentLinkedQueue<ChannelHandler>();
+		private final Queue<ChannelHandler> paused = new ConcurrentLinkedQueue<ChannelHandler>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		EventLoop() throws IOException {
+			super("NioServer event loop", NioServer.this.getExecutorService());
+			selector = Selector.open();
+		}
+
+		void register(ChannelHandler theHandler) {
+			registrations.add(theHandler);
+			selector.wakeup();
+		}
+
+		void requestWrite(ChannelHandler theHandler) {
+			writes.add(theHandler);
+			selector.wakeup();
+		}
+
+		void pause(ChannelHandler theHandler) {
+			paused.add(theHandler);
+		}
+
+		/**
+		 * Called by the workers when a message has been processed, so that
+		 * paused connections are resumed without waiting for the next select
+		 * timeout
+		 */
+		void wakeupIfPaused() {
+			if (!paused.isEmpty()) {
+				selector.wakeup();
+			}
+		}
+
+		@Override
+		protected void handle() {
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				log.error("Error while waiting for socket events: ", e);
+				return;
+			}
+
+			ChannelHandler next;
+			while ((next = registrations.poll()) != null) {
+				next.register(selector);
+			}
+			while ((next = writes.poll()) != null) {
+				next.write();
+			}
+			if (!paused.isEmpty()) {
+				List<ChannelHandler> toResume = new ArrayList<ChannelHandler>(paused);
+				paused.clear();
+				for (ChannelHandler handler : toResume) {
+					handler.resume();
+				}
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				ChannelHandler handler = (ChannelHandler) key.attachment();
+				try {
+					if (key.isReadable()) {
+						handler.read(readBuffer);
+					}
+					if (key.isValid() && key.isWritable()) {
+						handler.write();
+					}
+				} catch (CancelledKeyException e) {
+					handler.close();
+				}
+			}
+		}
+
+		@Override
+		protected void prepareTermination() {
+			super.prepareTermination();
+			selector.wakeup();
+		}
+
+		@Override
+		protected void afterTermination() {
+			super.afterTermination();
+			try {
+				selector.close();
+			} catch (IOException e) {
+				log.warn("Error while closing selector", e);
+			}
+		}
+
+	}
+
+	/**
+	 * Reads MLLP frames from a socket channel and passes them on to the
+	 * workers, and writes messages queued by the connection to the channel.
+	 * All methods except {@link #writeMessage(String)} are called by the event
+	 * loop thread.
+	 */
+	private class ChannelHandler implements HL7Writer {
+
+		private final EventLoop loop;
+		private final SocketChannel channel;
+		private final MllpCodec codec; // null if the reader and writer of the protocol are used
+		private ActiveConnection connection;
+		private SelectionKey key;
+		private byte[] frame = new byte[BUFFER_SIZE]; // content of the frame being received
+		private int frameLength;
+		private boolean inFrame; // start byte received
+		private boolean frameBodyComplete; // first end byte received
+		private String pausedMessage; // waiting for capacity to be processed
+		private byte[] pausedInput; // received after the paused message
+
+		/** Encoded messages waiting to be written, in write mode */
+		private ByteBuffer outbound = ByteBuffer.allocate(BUFFER_SIZE);
+		private final Object outboundLock = new Object();
+
+		ChannelHandler(EventLoop theLoop, SocketChannel theChannel) {
+			loop = theLoop;
+			channel = theChannel;
+			// subclasses may override the reader and writer
+			LowerLayerProtocol llp = getLlp();
+			codec = llp.getClass() == MinLowerLayerProtocol.class ? ((MinLowerLayerProtocol) llp).getCodec() : null;
+		}
+
+		void register(Selector theSelector) {
+			try {
+				key = channel.register(theSelector, SelectionKey.OP_READ, this);
+			} catch (ClosedChannelException e) {
+				close();
+				return;
+			}
+			if (hasPendingWrites()) {
+				write();
+			}
+		}
+
+		void read(ByteBuffer theBuffer) {
+			int read;
+			try {
+				theBuffer.clear();
+				read = channel.read(theBuffer);
+			} catch (IOException e) {
+				log.info("IOException: closing Connection from " + describeRemoteConnection()
+						+ ", will no longer read messages: " + e.getMessage());
+				close();
+				return;
+			}
+			if (read < 0) {
+				log.info("Connection from {} closed by remote host", describeRemoteConnection());
+				close();
+				return;
+			}
+
+			if (codec != null) {
+				LowerLayerProtocol.logCharactersReceived(theBuffer.array(), 0, read);
+			}
+			try {
+				decode(theBuffer.array(), 0, read);
+			} catch (LLPException e) {
+				log.error("Unexpected error, closing connection from " + describeRemoteConnection() + " - ", e);
+				close();
+			}
+		}
+
+		/**
+		 * Processes the message which has been waiting for capacity, and the
+		 * data received after it. Reading is resumed unless the limits are
+		 * still reached.
+		 */
+		void resume() {
+			if (key == null || !key.isValid()) {
+				return;
+			}
+			if (!connection.retryAcquireInFlight()) {
+				loop.pause(this);
+				return;
+			}
+			String message = pausedMessage;
+			byte[] input = pausedInput;
+			pausedMessage = null;
+			pausedInput = null;
+			submit(message);
+			try {
+				if (input != null) {
+					decode(input, 0, input.length);
+				}
+			} catch (LLPException e) {
+				log.error("Unexpected error, closing connection from " + describeRemoteConnection() + " - ", e);
+				close();
+				return;
+			}
+			if (pausedMessage == null) {
+				updateInterest(hasPendingWrites());
+			}
+		}
+
+		/**
+		 * Splits the received bytes into frames, which may span several reads.
+		 * Stops if a message has to wait for capacity, and keeps the rest of
+		 * the bytes until then.
+		 */
+		private void decode(byte[] bytes, int offset, int length) throws LLPException {
+			int position = offset;
+			while (position < length) {
+				if (!inFrame) {
+					if (bytes[position] != START_BYTE) {
+						throw new LLPException("MLLP protocol violation - Expected byte '" + (int) START_BYTE
+								+ "' at the start of a message but was '" + (bytes[position] & 0xff) + "'");
+					}
+					inFrame = true;
+					position++;
+					continue;
+				}
+
+				if (!frameBodyComplete) {
+					int end = position;
+					while (end < length && bytes[end] != END_BYTE1) {
+						end++;
+					}
+					appendToFrame(bytes, position, end - position);
+					if (end == length) {
+						return;
+					}
+					frameBodyComplete = true;
+					position = end + 1;
+					if (position == length) {
+						return;
+					}
+				}
+
+				if (bytes[position] != END_BYTE2) {
+					throw new LLPException("MLLP protocol violation - Expected byte '" + (int) END_BYTE2
+							+ "' after the message but was '" + (bytes[position] & 0xff) + "'");
+				}
+				position++;
+				inFrame = false;
+				frameBodyComplete = false;
+				if (!dispatch(decodeFrame())) {
+					if (position < length) {
+						pausedInput = new byte[length - position];
+						System.arraycopy(bytes, position, pausedInput, 0, pausedInput.length);
+					}
+					return;
+				}
+			}
+		}
+
+		private void appendToFrame(byte[] bytes, int offset, int length) {
+			if (frameLength + length > frame.length) {
+				frame = Arrays.copyOf(frame, Math.max(frame.length * 2, frameLength + length));
+			}
+			System.arraycopy(bytes, offset, frame, frameLength, length);
+			frameLength += length;
+		}
+
+		/**
+		 * Decodes the content of the frame which has been received
+		 */
+		private String decodeFrame() throws LLPException {
+			try {
+				if (codec != null) {
+					return codec.decode(frame, 0, frameLength);
+				}
+				byte[] framed = new byte[frameLength + 3];
+				framed[0] = START_BYTE;
+				System.arraycopy(frame, 0, framed, 1, frameLength);
+				framed[framed.length - 2] = END_BYTE1;
+				framed[framed.length - 1] = END_BYTE2;
+				return getLlp().getReader(new ByteArrayInputStream(framed)).getMessage();
+			} catch (IOException e) {
+				throw new LLPException("Failed to decode message", e);
+			} finally {
+				frameLength = 0;
+				if (frame.length > MAX_RETAINED_BUFFER_SIZE) {
+					frame = new byte[BUFFER_SIZE];
+				}
+			}
+		}
+
+		/**
+		 * Hands a received message to the workers. Responses are always
+		 * passed on, so that messages being processed can wait for them.
+		 *
+		 * @return <code>false</code> if the message has to wait for capacity,
+		 *         in which case reading from the channel is paused
+		 */
+		private boolean dispatch(final String message) {
+			if (message == null) {
+				log.debug("Failed to read a message");
+				return true;
+			}
+			connection.recordActivity();
+			final String ackID = connection.getParser().getAckID(message);
+			if (ackID != null) {
+				execute(new Runnable() {
+					public void run() {
+						Receiver.processResponse(connection, ackID, message);
+					}
+				});
+				return true;
+			}
+			if (!connection.tryAcquireInFlight()) {
+				pausedMessage = message;
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				loop.pause(this);
+				return false;
+			}
+			submit(message);
+			return true;
+		}
+
+		/**
+		 * Hands an unsolicited message to the workers. Capacity has been
+		 * reserved for it and is released by the worker.
+		 */
+		private void submit(String message) {
+			try {
+				Receiver.processUnsolicitedMessage(connection, message, workerExecutor);
+			} catch (RejectedExecutionException e) {
+				log.warn("Discarding message from {}, server is shutting down", describeRemoteConnection());
+			}
+		}
+
+		private void execute(Runnable theTask) {
+			try {
+				workers.execute(theTask);
+			} catch (RejectedExecutionException e) {
+				log.warn("Discarding message from {}, server is shutting down", describeRemoteConnection());
+			}
+		}
+
+		/**
+		 * Writes as much of the queued data as the channel accepts, with one
+		 * write for all queued messages, and waits for the channel to become
+		 * writable again if there is more
+		 */
+		void write() {
+			if (key == null || !key.isValid()) {
+				return;
+			}
+			boolean pending;
+			try {
+				synchronized (outboundLock) {
+					outbound.flip();
+					try {
+						channel.write(outbound);
+					} finally {
+						outbound.compact();
+					}
+					pending = outbound.position() > 0;
+					if (!pending && outbound.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+						outbound = ByteBuffer.allocate(BUFFER_SIZE);
+					}
+				}
+			} catch (IOException e) {
+				log.warn("IOException: closing Connection to " + describeRemoteConnection(), e);
+				close();
+				return;
+			}
+			updateInterest(pending);
+		}
+
+		private boolean hasPendingWrites() {
+			synchronized (outboundLock) {
+				return outbound.position() > 0;
+			}
+		}
+
+		private void updateInterest(boolean writing) {
+			int ops = pausedMessage == null ? SelectionKey.OP_READ : 0;
+			key.interestOps(writing ? ops | SelectionKey.OP_WRITE : ops);
+		}
+
+		/**
+		 * Encodes the message and queues it for writing by the event loop
+		 */
+		public void writeMessage(String message) throws LLPException, IOException {
+			if (!channel.isOpen()) {
+				throw new IOException("Connection to " + describeRemoteConnection() + " is closed");
+			}
+			synchronized (outboundLock) {
+				if (codec != null) {
+					outbound = codec.encode(message, outbound);
+				} else {
+					ByteArrayOutputStream out = new ByteArrayOutputStream(message.length() + 3);
+					getLlp().getWriter(out).writeMessage(message);
+					if (outbound.remaining() < out.size()) {
+						ByteBuffer larger = ByteBuffer.allocate(Math.max(outbound.capacity() * 2, outbound.position() + out.size()));
+						outbound.flip();
+						outbound = larger.put(outbound);
+					}
+					outbound.put(out.toByteArray());
+				}
+			}
+			loop.requestWrite(this);
+		}
+
+		/**
+		 * Has no effect, as messages are always written to the socket channel
+		 * of the connection by its event loop
+		 */
+		public void setOutputStream(OutputStream out) throws IOException {
+			// nothing to do
+		}
+
+		public void close() {
+			connection.close();
+		}
+
+		private String describeRemoteConnection() {
+			return connection.getRemoteAddress().getHostAddress() + ":" + connection.getRemotePort();
+		}
+
+	}
+
+}
@@ -29,6 +29,9 @@ package ca.uhn.hl7v2.app;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +48,7 @@ import ca.uhn.hl7v2.llp.HL7Reader;
 public class Receiver extends Service {
 
 	private static final Logger log = LoggerFactory.getLogger(Receiver.class);
+	private static final long ADMISSION_CHECK_INTERVAL = 500;
 
 	private ActiveConnection conn;
 	private HL7Reader in;
@@ -96,18 +100,74 @@ public class Receiver extends Service {
 	 * discarded and an exception is logged. If the message does not contain an
 	 * MSA-2 field, it is concluded that the message has arrived unsolicited. In
 	 * this case it is sent to the Responder (in a new Thread).
+	 * <p>
+	 * If the {@link ServerConfiguration#setMaxInFlightMessagesPerConnection(int)
+	 * limits} of unsolicited messages being processed are reached, this method
+	 * waits until one of them is finished. As the socket is not read meanwhile,
+	 * the sender is slowed down by TCP flow control.
+	 * </p>
 	 */
 	protected void processMessage(String message) {
+		conn.recordActivity();
 		String ackID = conn.getParser().getAckID(message);
 		if (ackID == null) {
-			log.debug("Unsolicited Message Received: {}", message);
-			getExecutorService().submit(new Grunt(conn, message));
+			if (!admit()) {
+				log.info("Connection from {} closed while waiting for capacity, discarding message", describeRemoteConnection());
+				return;
+			}
+			processUnsolicitedMessage(conn, message, getExecutorService());
 		} else {
-			if (!conn.isRecipientWaiting(ackID, message)) {
-				log.info("Unexpected Message Received. This message appears to be an acknowledgement (MSA-2 has a value) so it will be ignored: {}", message);
-			} else {
-				log.debug("Response Message Received: {}", message);
+			processResponse(conn, ackID, message);
+		}
+	}
+
+	/**
+	 * Reserves capacity for a message, waiting until the limits allow for it.
+	 * Only the first attempt is counted as throttled, so that each postponed
+	 * message is counted once.
+	 */
+	private boolean admit() {
+		if (conn.tryAcquireInFlight()) {
+			return true;
+		}
+		try {
+			while (isRunning() && conn.isOpen()) {
+				if (conn.tryAcquireInFlight(ADMISSION_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Sends an unsolicited message received on the given connection to the
+	 * Responder, using the given executor and keeping the order configured for
+	 * the connection. The caller must have reserved
+	 * capacity using {@link ActiveConnection#tryAcquireInFlight()}, which is
+	 * released once the message has been processed.
+	 */
+	static void processUnsolicitedMessage(ActiveConnection conn, String message, Executor executor) {
+		log.debug("Unsolicited Message Received: {}", message);
+		try {
+			conn.execute(message, new Grunt(conn, message), executor);
+		} catch (RejectedExecutionException e) {
+			conn.releaseInFlight();
+			throw e;
+		}
+	}
+
+	/**
+	 * Hands a response with the given ack ID (MSA-2) received on the given
+	 * connection to the object waiting for it
+	 */
+	static void processResponse(ActiveConnection conn, String ackID, String message) {
+		if (!conn.isRecipientWaiting(ackID, message)) {
+			log.info("Unexpected Message Received. This message appears to be an acknowledgement (MSA-2 has a value) so it will be ignored: {}", message);
+		} else {
+			log.debug("Response Message Received: {}", message);
 		}
 	}
 
@@ -132,6 +192,8 @@ public class Receiver extends Service {
 				}
 			} catch (Exception e) {
 				log.error("Error while processing message: ", e);
+			} finally {
+				conn.releaseInFlight();
 			}
 		}
 	}
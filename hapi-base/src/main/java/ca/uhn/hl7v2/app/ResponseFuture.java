@@ -0,0 +1,197 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "ResponseFuture.java".  Description:
+ * "The pending response to a message sent by an ActiveInitiator"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2001.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ */
+
+package ca.uhn.hl7v2.app;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.concurrent.TimerWheel;
+import ca.uhn.hl7v2.model.Message;
+
+/**
+ * The pending response to a message sent by an {@link ActiveInitiator}. It is
+ * completed directly by the {@link Receiver} which reads the response with
+ * the matching MSA-2, or failed by a timeout or if the connection is closed.
+ * The response is parsed by the first thread retrieving it.
+ */
+class ResponseFuture implements Future<Message> {
+
+	private static final Logger log = LoggerFactory.getLogger(ResponseFuture.class);
+	private static final Logger rawInbound = LoggerFactory
+			.getLogger("ca.uhn.hl7v2.raw.inbound");
+
+	private final ActiveConnection conn;
+	private final String messageID;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicBoolean completed = new AtomicBoolean();
+	private final AtomicReference<Message> parsed = new AtomicReference<Message>();
+	private String response;
+	private Exception failure;
+	private boolean cancelled;
+	private volatile TimerWheel.Timeout timeout;
+	private volatile Runnable listener;
+	private final AtomicBoolean notified = new AtomicBoolean();
+
+	ResponseFuture(ActiveConnection theConn, String theMessageID) {
+		conn = theConn;
+		messageID = theMessageID;
+	}
+
+	String getMessageID() {
+		return messageID;
+	}
+
+	void setTimeout(TimerWheel.Timeout theTimeout) {
+		timeout = theTimeout;
+		if (isDone()) {
+			theTimeout.cancel();
+		}
+	}
+
+	/**
+	 * Sets a task which is run once this future is done, by the thread which
+	 * completes it. It is run right away if the future is done already.
+	 */
+	void setListener(Runnable theListener) {
+		listener = theListener;
+		if (isDone()) {
+			notifyListener();
+		}
+	}
+
+	private void notifyListener() {
+		Runnable l = listener;
+		if (l != null && notified.compareAndSet(false, true)) {
+			try {
+				l.run();
+			} catch (RuntimeException e) {
+				log.warn("Response listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Completes this future with the raw response message
+	 *
+	 * @return <code>false</code> if this future was completed before
+	 */
+	boolean complete(String theResponse) {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		log.debug("Initiator received message: {}", theResponse);
+		rawInbound.debug(theResponse);
+		response = theResponse;
+		finish();
+		return true;
+	}
+
+	/**
+	 * Fails this future
+	 *
+	 * @return <code>false</code> if this future was completed before
+	 */
+	boolean fail(Exception theFailure) {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		failure = theFailure;
+		finish();
+		return true;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!completed.compareAndSet(false, true)) {
+			return false;
+		}
+		cancelled = true;
+		finish();
+		return true;
+	}
+
+	private void finish() {
+		if (messageID != null) {
+			conn.removePendingResponse(this);
+		}
+		TimerWheel.Timeout t = timeout;
+		if (t != null) {
+			t.cancel();
+		}
+		done.countDown();
+		notifyListener();
+	}
+
+	public boolean isCancelled() {
+		return isDone() && cancelled;
+	}
+
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	public Message get() throws InterruptedException, ExecutionException {
+		done.await();
+		return report();
+	}
+
+	public Message get(long theTimeout, TimeUnit theUnit) throws InterruptedException, ExecutionException,
+			java.util.concurrent.TimeoutException {
+		if (!done.await(theTimeout, theUnit)) {
+			throw new java.util.concurrent.TimeoutException();
+		}
+		return report();
+	}
+
+	private Message report() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		Message retVal = parsed.get();
+		if (retVal == null) {
+			try {
+				parsed.compareAndSet(null, conn.getParser().parse(response));
+			} catch (HL7Exception e) {
+				throw new ExecutionException(e);
+			}
+			retVal = parsed.get();
+		}
+		return retVal;
+	}
+
+}
@@ -1,5 +1,9 @@
 package ca.uhn.hl7v2.app;
 
+import java.util.concurrent.TimeUnit;
+
+import ca.uhn.hl7v2.concurrent.InFlightLimiter;
+import ca.uhn.hl7v2.concurrent.StripedExecutor;
 
 /**
  * Contains configuration which will be applied to any servers which are created using the given
@@ -10,6 +14,15 @@ package ca.uhn.hl7v2.app;
 public class ServerConfiguration {
 
 	private ApplicationExceptionPolicy myApplicationExceptionPolicy = ApplicationExceptionPolicy.DEFAULT;
+	private boolean myUseVirtualThreads;
+	private int myMaxInFlightMessagesPerConnection;
+	private final InFlightLimiter myInFlightLimiter = new InFlightLimiter(0);
+	private boolean myOrderedProcessing;
+	private String myOrderingKey;
+	private StripedExecutor myOrderedExecutor;
+	private long myIdleTimeoutMillis;
+	private boolean myRejectUnroutedBeforeParsing;
+	private boolean myUseAckTemplates;
 
 
 	
@@ -43,6 +56,234 @@ public class ServerConfiguration {
 	}
 
 
+	/**
+	 * @see #setUseVirtualThreads(boolean)
+	 */
+	public boolean isUseVirtualThreads() {
+		return myUseVirtualThreads;
+	}
+
+	/**
+	 * If set to <code>true</code>, servers and connections created by the
+	 * {@link ca.uhn.hl7v2.HapiContext context} run their acceptors, receivers
+	 * and message processing in virtual threads, using
+	 * {@link ca.uhn.hl7v2.concurrent.DefaultExecutorService#getVirtualThreadService()}.
+	 * This allows for a large number of concurrent connections without tuning
+	 * thread pools or thread stack sizes.
+	 * <p>
+	 * This setting only applies if no {@link java.util.concurrent.ExecutorService}
+	 * has been set on the context explicitly, and must be made before the
+	 * context creates its first server or connection. Virtual threads require
+	 * Java 21 or later; on older runtimes the default thread pool is used.
+	 * Defaults to <code>false</code>.
+	 * </p>
+	 */
+	public void setUseVirtualThreads(boolean theUseVirtualThreads) {
+		myUseVirtualThreads = theUseVirtualThreads;
+	}
+
+	/**
+	 * @see #setMaxInFlightMessagesPerConnection(int)
+	 */
+	public int getMaxInFlightMessagesPerConnection() {
+		return myMaxInFlightMessagesPerConnection;
+	}
+
+	/**
+	 * Sets the maximum number of unsolicited messages received on a single
+	 * connection which may be processed at the same time. When the limit is
+	 * reached, the server stops reading from the connection until one of the
+	 * messages has been processed, so the sender is slowed down by TCP flow
+	 * control instead of messages being queued in memory.
+	 * <p>
+	 * The limit applies to connections which are created after it has been
+	 * set. Defaults to <code>0</code>, which means that there is no limit.
+	 * </p>
+	 */
+	public void setMaxInFlightMessagesPerConnection(int theMaxInFlightMessagesPerConnection) {
+		if (theMaxInFlightMessagesPerConnection < 0) {
+			throw new IllegalArgumentException("Limit must not be negative");
+		}
+		myMaxInFlightMessagesPerConnection = theMaxInFlightMessagesPerConnection;
+	}
+
+	/**
+	 * @see #setMaxInFlightMessages(int)
+	 */
+	public int getMaxInFlightMessages() {
+		return myInFlightLimiter.getLimit();
+	}
+
+	/**
+	 * Sets the maximum number of unsolicited messages which may be processed
+	 * at the same time by all servers and connections created using the
+	 * {@link ca.uhn.hl7v2.HapiContext context}. When the limit is reached,
+	 * reading from all connections is paused as described in
+	 * {@link #setMaxInFlightMessagesPerConnection(int)}.
+	 * <p>
+	 * The limit may be changed at any time. Defaults to <code>0</code>, which
+	 * means that there is no limit.
+	 * </p>
+	 */
+	public void setMaxInFlightMessages(int theMaxInFlightMessages) {
+		myInFlightLimiter.setLimit(theMaxInFlightMessages);
+	}
+
+	/**
+	 * @return the number of unsolicited messages currently being processed by
+	 *         all servers and connections created using the context
+	 */
+	public int getInFlightMessages() {
+		return myInFlightLimiter.getInFlight();
+	}
+
+	/**
+	 * @return the number of times reading a message had to be postponed
+	 *         because {@link #setMaxInFlightMessages(int) the global limit}
+	 *         was reached
+	 */
+	public long getThrottledMessages() {
+		return myInFlightLimiter.getThrottledCount();
+	}
+
+	InFlightLimiter getInFlightLimiter() {
+		return myInFlightLimiter;
+	}
+
+	/**
+	 * @see #setOrderedProcessing(boolean)
+	 */
+	public boolean isOrderedProcessing() {
+		return myOrderedProcessing;
+	}
+
+	/**
+	 * If set to <code>true</code>, unsolicited messages received on the same
+	 * connection are processed, and acknowledged, one after another in the
+	 * order in which they have been received. Messages received on different
+	 * connections are still processed in parallel on the shared
+	 * {@link java.util.concurrent.ExecutorService}, so there is no need for a
+	 * single-threaded executor to keep messages in order.
+	 * <p>
+	 * If an {@link #setOrderingKey(String) ordering key} is set, the order is
+	 * kept per value of the key instead of per connection.
+	 * </p>
+	 * <p>
+	 * The setting applies to connections which are created after it has been
+	 * made. Defaults to <code>false</code>, which means that messages received
+	 * on the same connection may be processed concurrently.
+	 * </p>
+	 */
+	public void setOrderedProcessing(boolean theOrderedProcessing) {
+		myOrderedProcessing = theOrderedProcessing;
+	}
+
+	/**
+	 * @see #setOrderingKey(String)
+	 */
+	public String getOrderingKey() {
+		return myOrderingKey;
+	}
+
+	/**
+	 * Sets the field whose value determines the order of processing if
+	 * {@link #setOrderedProcessing(boolean) ordered processing} is enabled,
+	 * e.g. <code>MSH-4</code> for the sending facility or <code>PID-3</code>
+	 * for the patient. Messages with the same value are processed in the order
+	 * in which they have been received, even if they arrive on different
+	 * connections, while messages with different values are processed in
+	 * parallel. Messages without a value are kept in order per connection.
+	 * <p>
+	 * The path is given as for {@link ca.uhn.hl7v2.preparser.PreParser}, and
+	 * read without parsing the message. Defaults to <code>null</code>, which
+	 * means that the order is kept per connection.
+	 * </p>
+	 */
+	public void setOrderingKey(String theOrderingKey) {
+		myOrderingKey = theOrderingKey;
+	}
+
+	/**
+	 * @return the executor keeping unsolicited messages in order, which is
+	 *         shared by all connections using this configuration
+	 */
+	synchronized StripedExecutor getOrderedExecutor() {
+		if (myOrderedExecutor == null) {
+			myOrderedExecutor = new StripedExecutor();
+		}
+		return myOrderedExecutor;
+	}
+
+	/**
+	 * @see #setIdleTimeout(long, TimeUnit)
+	 */
+	public long getIdleTimeoutMillis() {
+		return myIdleTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time after which a server closes a connection on which no
+	 * message has been received or sent. Idle connections are found by a
+	 * timer shared by all servers, so they may be closed a tenth of a second
+	 * later than configured.
+	 * <p>
+	 * The setting applies to connections which are accepted after it has been
+	 * made. Defaults to <code>0</code>, which means that idle connections are
+	 * kept open until the remote host closes them.
+	 * </p>
+	 */
+	public void setIdleTimeout(long theTimeout, TimeUnit theUnit) {
+		if (theTimeout < 0) {
+			throw new IllegalArgumentException("Timeout must not be negative");
+		}
+		myIdleTimeoutMillis = theUnit.toMillis(theTimeout);
+	}
+
+	/**
+	 * @see #setRejectUnroutedBeforeParsing(boolean)
+	 */
+	public boolean isRejectUnroutedBeforeParsing() {
+		return myRejectUnroutedBeforeParsing;
+	}
+
+	/**
+	 * If set to <code>true</code>, messages for which no application has
+	 * been registered are rejected using only the routing data read from the
+	 * message header, without parsing the message. The reject (AR) is then
+	 * sent even if the message could not have been parsed.
+	 * <p>
+	 * Defaults to <code>false</code>, which means that messages are parsed
+	 * before they are rejected, so that a message which can't be parsed is
+	 * answered with an error (AE) describing the problem.
+	 * </p>
+	 */
+	public void setRejectUnroutedBeforeParsing(boolean theRejectUnroutedBeforeParsing) {
+		myRejectUnroutedBeforeParsing = theRejectUnroutedBeforeParsing;
+	}
+
+	/**
+	 * @see #setUseAckTemplates(boolean)
+	 */
+	public boolean isUseAckTemplates() {
+		return myUseAckTemplates;
+	}
+
+	/**
+	 * If set to <code>true</code>, acknowledgements to ER7 encoded messages
+	 * which are created by the server itself, i.e. rejects, error responses
+	 * and the responses of a {@link DefaultApplication}, are written
+	 * directly from the header of the inbound message by an
+	 * {@link ca.uhn.hl7v2.util.ER7AckBuilder}, instead of creating and
+	 * encoding an ACK message. The text is the same, but the acknowledgement
+	 * is not validated.
+	 * <p>
+	 * Defaults to <code>false</code>.
+	 * </p>
+	 */
+	public void setUseAckTemplates(boolean theUseAckTemplates) {
+		myUseAckTemplates = theUseAckTemplates;
+	}
+
 	/**
 	 * @see ServerConfiguration#setApplicationExceptionPolicy(ApplicationExceptionPolicy)
 	 */
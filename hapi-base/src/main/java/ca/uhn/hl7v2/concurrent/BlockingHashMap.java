@@ -11,6 +11,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Default Implementation of a {@link BlockingMap}.
@@ -19,6 +21,10 @@ import java.util.concurrent.TimeUnit;
  * an entry, it is not guaranteed that all waiting threads will receive the
  * entry once it became available. Other implementations may choose to count the
  * waiting threads and/or to remove an available value after a grace period.
+ * <p>
+ * {@link ConcurrentBlockingMap} does without global locks and without threads
+ * waiting for asynchronous consumers, and should be preferred for a large
+ * number of concurrent consumers.
  * 
  * @param <K>
  * @param <V>
@@ -28,6 +34,7 @@ public class BlockingHashMap<K, V> implements BlockingMap<K, V> {
 	private final ConcurrentMap<K, V> map = new ConcurrentHashMap<K, V>();
 	private final ConcurrentMap<K, CountDownLatch> latches = new ConcurrentHashMap<K, CountDownLatch>();
 	private final ExecutorService executor;
+	private final Lock lock = new ReentrantLock();
 	
 	public BlockingHashMap() {
 		this(Executors.newCachedThreadPool());
@@ -68,22 +75,32 @@ public class BlockingHashMap<K, V> implements BlockingMap<K, V> {
 	/**
 	 * @see java.util.Map#put(java.lang.Object, java.lang.Object)
 	 */
-	synchronized public V put(K key, V value) {
-		V result = map.put(key, value);
-		latchFor(key).countDown();
-		return result;
+	public V put(K key, V value) {
+		lock.lock();
+		try {
+			V result = map.put(key, value);
+			latchFor(key).countDown();
+			return result;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * @see ca.uhn.hl7v2.concurrent.BlockingMap#give(java.lang.Object,
 	 *      java.lang.Object)
 	 */
-	synchronized public boolean give(K key, V value) {
-		if (!latches.containsKey(key)) {
-			return false;
+	public boolean give(K key, V value) {
+		lock.lock();
+		try {
+			if (!latches.containsKey(key)) {
+				return false;
+			}
+			put(key, value);
+			return true;
+		} finally {
+			lock.unlock();
 		}
-		put(key, value);
-		return true;
 	}
 
 	public V take(K key) throws InterruptedException {
@@ -147,12 +164,17 @@ public class BlockingHashMap<K, V> implements BlockingMap<K, V> {
 	 * 
 	 * @see java.util.Map#remove(java.lang.Object)
 	 */
-	synchronized public V remove(Object key) {
-		V result = map.remove(key);
-		CountDownLatch latch = latches.remove(key);
-		if (latch != null)
-			latch.countDown();
-		return result;
+	public V remove(Object key) {
+		lock.lock();
+		try {
+			V result = map.remove(key);
+			CountDownLatch latch = latches.remove(key);
+			if (latch != null)
+				latch.countDown();
+			return result;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -185,13 +207,18 @@ public class BlockingHashMap<K, V> implements BlockingMap<K, V> {
 		return map.containsValue(value);
 	}
 
-	private synchronized CountDownLatch latchFor(K key) {
-		CountDownLatch latch = latches.get(key);
-		if (latch == null) {
-			latch = new CountDownLatch(1);
-			latches.put(key, latch);
+	private CountDownLatch latchFor(K key) {
+		lock.lock();
+		try {
+			CountDownLatch latch = latches.get(key);
+			if (latch == null) {
+				latch = new CountDownLatch(1);
+				latches.put(key, latch);
+			}
+			return latch;
+		} finally {
+			lock.unlock();
 		}
-		return latch;
 	}
 
 }
@@ -0,0 +1,509 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "ConcurrentBlockingMap.java".  Description:
+"A BlockingMap without global locks"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.concurrent;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * <p>
+ * A {@link BlockingMap} without global locks. Available entries are kept in a
+ * {@link ConcurrentHashMap}. Consumers waiting for a key share a slot, which
+ * is completed by the producer handing over the value, so that all consumers
+ * waiting for a key when its value arrives receive the value.
+ * </p>
+ * <p>
+ * Unlike {@link BlockingHashMap}, {@link #asyncTake(Object)} and
+ * {@link #asyncPoll(Object, long, TimeUnit)} do not occupy a thread while
+ * waiting. Consumers of {@link #asyncPoll(Object, long, TimeUnit)} withdraw
+ * from the key once the poll time has passed, even if nobody retrieves the
+ * result, so abandoned keys are cleaned up after the poll time. A consumer
+ * abandoning an {@link #asyncTake(Object)} must cancel the returned future.
+ * </p>
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ConcurrentBlockingMap<K, V> implements BlockingMap<K, V> {
+
+	private static final TimerWheel defaultTimer = new TimerWheel("hapi-blocking-map-timeouts", 10,
+			TimeUnit.MILLISECONDS, 512);
+
+	private final ConcurrentMap<K, V> map = new ConcurrentHashMap<K, V>();
+	private final ConcurrentMap<K, Slot> slots = new ConcurrentHashMap<K, Slot>();
+	private final TimerWheel timer;
+
+	public ConcurrentBlockingMap() {
+		this(defaultTimer);
+	}
+
+	/**
+	 * @param timer timer used to withdraw consumers of
+	 *            {@link #asyncPoll(Object, long, TimeUnit)} after the poll time
+	 */
+	public ConcurrentBlockingMap(TimerWheel timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Returns the keys of available entries
+	 *
+	 * @see java.util.Map#keySet()
+	 */
+	public Set<K> keySet() {
+		return map.keySet();
+	}
+
+	/**
+	 * Returns an available entry without removing it from the map
+	 *
+	 * @see java.util.Map#get(java.lang.Object)
+	 */
+	public V get(Object key) {
+		return map.get(key);
+	}
+
+	/**
+	 * Returns <code>true</code> if an entry with the given key is available
+	 *
+	 * @see java.util.Map#containsKey(java.lang.Object)
+	 */
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Adds an entry, which is handed over to the consumers waiting for the key
+	 * if there are any, or is made available otherwise.
+	 *
+	 * @see java.util.Map#put(java.lang.Object, java.lang.Object)
+	 */
+	public V put(K key, V value) {
+		V result = map.put(key, value);
+		transfer(key);
+		return result;
+	}
+
+	/**
+	 * @see ca.uhn.hl7v2.concurrent.BlockingMap#give(java.lang.Object,
+	 *      java.lang.Object)
+	 */
+	public boolean give(K key, V value) {
+		Slot slot = slots.get(key);
+		if (slot == null || !slot.complete(value)) {
+			return false;
+		}
+		slots.remove(key, slot);
+		return true;
+	}
+
+	public V take(K key) throws InterruptedException {
+		return consume(key, -1).await();
+	}
+
+	public Future<V> asyncTake(K key) {
+		return consume(key, -1);
+	}
+
+	public V poll(K key, long timeout, TimeUnit unit) throws InterruptedException {
+		return consume(key, System.nanoTime() + unit.toNanos(timeout)).await();
+	}
+
+	public Future<V> asyncPoll(K key, long timeout, TimeUnit unit) {
+		final Consumer retVal = consume(key, System.nanoTime() + unit.toNanos(timeout));
+		if (!retVal.isDone()) {
+			retVal.setExpiry(timer.schedule(new Runnable() {
+				public void run() {
+					retVal.withdraw(Consumer.WITHDRAWN);
+				}
+			}, timeout, unit));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Returns true if no entry is available for consumers
+	 *
+	 * @see java.util.Map#isEmpty()
+	 */
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	/**
+	 * Returns the number of available values
+	 *
+	 * @see java.util.Map#size()
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Removes an entry, regardless whether a value has been set or not. Waiting
+	 * consumers will receive a null value.
+	 *
+	 * @see java.util.Map#remove(java.lang.Object)
+	 */
+	public V remove(Object key) {
+		V result = map.remove(key);
+		Slot slot = slots.remove(key);
+		if (slot != null) {
+			slot.complete(null);
+		}
+		return result;
+	}
+
+	/**
+	 * Clears all existing entries. Waiting consumers will receive a null value.
+	 *
+	 * @see java.util.Map#clear()
+	 */
+	public void clear() {
+		for (K key : slots.keySet()) {
+			remove(key);
+		}
+		map.clear();
+	}
+
+	public Collection<V> values() {
+		return map.values();
+	}
+
+	public Set<java.util.Map.Entry<K, V>> entrySet() {
+		return map.entrySet();
+	}
+
+	public void putAll(Map<? extends K, ? extends V> t) {
+		for (Entry<? extends K, ? extends V> entry : t.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public boolean containsValue(Object value) {
+		return map.containsValue(value);
+	}
+
+	/**
+	 * Registers a consumer for the key, and hands over an available entry
+	 *
+	 * @param deadline {@link System#nanoTime()} after which the consumer
+	 *            withdraws, or -1 to wait until the value arrives
+	 */
+	private Consumer consume(K key, long deadline) {
+		Slot slot = null;
+		while (slot == null) {
+			Slot existing = slots.get(key);
+			if (existing != null && existing.join()) {
+				slot = existing;
+			} else {
+				Slot created = new Slot();
+				boolean added = existing == null ? slots.putIfAbsent(key, created) == null : slots.replace(key,
+						existing, created);
+				if (added) {
+					slot = created;
+				}
+			}
+		}
+		Consumer retVal = new Consumer(key, slot, deadline);
+		slot.consumers.add(retVal);
+		if (!slot.isOpen()) {
+			retVal.signal(); // joined before the slot was completed, but may have been missed
+		}
+		transfer(key);
+		return retVal;
+	}
+
+	/**
+	 * Hands over the available entry for the key to waiting consumers, if both
+	 * exist. Producers and consumers both call this after publishing
+	 * themselves, so that at least one of them sees the other.
+	 */
+	private void transfer(K key) {
+		Slot slot;
+		while ((slot = slots.get(key)) != null) {
+			V value = map.remove(key);
+			if (value == null) {
+				return;
+			}
+			if (slot.complete(value)) {
+				slots.remove(key, slot);
+				return;
+			}
+			// consumers have left or been served, retire the slot and retry
+			slots.remove(key, slot);
+			if (map.putIfAbsent(key, value) != null) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Consumers waiting for a key. While the slot is open, the state is the
+	 * number of waiting consumers.
+	 */
+	private class Slot {
+
+		private static final int DEAD = 0;
+		private static final int COMPLETING = -1;
+		private static final int COMPLETED = -2;
+
+		private final AtomicInteger state = new AtomicInteger(1);
+		private final Queue<Consumer> consumers = new ConcurrentLinkedQueue<Consumer>();
+		private volatile V value;
+
+		boolean join() {
+			for (;;) {
+				int c = state.get();
+				if (c <= DEAD) {
+					return false;
+				}
+				if (state.compareAndSet(c, c + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * @return <code>false</code> if the consumer can not leave because the
+		 *         slot has been completed
+		 */
+		boolean leave(Consumer theConsumer) {
+			for (;;) {
+				int c = state.get();
+				if (c < DEAD) {
+					return false;
+				}
+				if (c == DEAD || state.compareAndSet(c, c - 1)) {
+					consumers.remove(theConsumer);
+					return true;
+				}
+			}
+		}
+
+		boolean complete(V theValue) {
+			for (;;) {
+				int c = state.get();
+				if (c <= DEAD) {
+					return false;
+				}
+				if (state.compareAndSet(c, COMPLETING)) {
+					value = theValue;
+					state.set(COMPLETED);
+					for (Consumer next : consumers) {
+						next.signal();
+					}
+					return true;
+				}
+			}
+		}
+
+		boolean isOpen() {
+			return state.get() > DEAD;
+		}
+
+		boolean isDead() {
+			return state.get() == DEAD;
+		}
+
+		/**
+		 * Returns the value of a completed slot, waiting for a completion
+		 * which is in progress
+		 */
+		V awaitValue() {
+			while (state.get() == COMPLETING) {
+				Thread.yield();
+			}
+			return value;
+		}
+
+	}
+
+	/**
+	 * A consumer waiting for the value of a slot. It is signalled when the
+	 * slot has been completed or the consumer has withdrawn.
+	 */
+	@SuppressWarnings("serial")
+	private class Consumer extends AbstractQueuedSynchronizer implements Future<V> {
+
+		static final int WAITING = 0;
+		static final int LEAVING = 1;
+		static final int WITHDRAWN = 2;
+		static final int CANCELLED = 3;
+		static final int SERVED = 4;
+
+		private final K key;
+		private final Slot slot;
+		private final long deadline;
+		private final AtomicInteger status = new AtomicInteger(WAITING);
+		private volatile TimerWheel.Timeout expiry;
+
+		Consumer(K theKey, Slot theSlot, long theDeadline) {
+			key = theKey;
+			slot = theSlot;
+			deadline = theDeadline;
+		}
+
+		void setExpiry(TimerWheel.Timeout theExpiry) {
+			expiry = theExpiry;
+			if (isDone()) {
+				theExpiry.cancel();
+			}
+		}
+
+		void signal() {
+			releaseShared(1);
+		}
+
+		@Override
+		protected int tryAcquireShared(int ignored) {
+			return getState() == 1 ? 1 : -1;
+		}
+
+		@Override
+		protected boolean tryReleaseShared(int ignored) {
+			setState(1);
+			return true;
+		}
+
+		/**
+		 * Withdraws from the key unless the value has been received
+		 *
+		 * @param theStatus {@link #WITHDRAWN} or {@link #CANCELLED}
+		 * @return <code>true</code> if withdrawn
+		 */
+		boolean withdraw(int theStatus) {
+			if (!status.compareAndSet(WAITING, LEAVING)) {
+				return false;
+			}
+			if (!slot.leave(this)) {
+				status.set(SERVED);
+				return false;
+			}
+			if (slot.isDead()) {
+				slots.remove(key, slot);
+			}
+			status.set(theStatus);
+			signal();
+			return true;
+		}
+
+		/**
+		 * Waits for the value, or until the deadline has passed
+		 */
+		V await() throws InterruptedException {
+			try {
+				if (deadline == -1) {
+					acquireSharedInterruptibly(1);
+				} else if (!tryAcquireSharedNanos(1, deadline - System.nanoTime())) {
+					withdraw(WITHDRAWN);
+				}
+			} catch (InterruptedException e) {
+				if (withdraw(CANCELLED)) {
+					throw e;
+				}
+				Thread.currentThread().interrupt();
+			}
+			return report();
+		}
+
+		private V report() {
+			int s;
+			while ((s = status.get()) == LEAVING) {
+				Thread.yield();
+			}
+			TimerWheel.Timeout t = expiry;
+			if (t != null) {
+				t.cancel();
+			}
+			if (s == CANCELLED) {
+				throw new CancellationException();
+			}
+			if (s == WITHDRAWN) {
+				return null;
+			}
+			return slot.awaitValue();
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return withdraw(CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return status.get() == CANCELLED;
+		}
+
+		public boolean isDone() {
+			return getState() == 1;
+		}
+
+		public V get() throws InterruptedException, ExecutionException {
+			if (deadline == -1) {
+				acquireSharedInterruptibly(1);
+				return report();
+			}
+			try {
+				return get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				throw new IllegalStateException(e); // can not happen
+			}
+		}
+
+		public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException {
+			long wait = unit.toNanos(timeout);
+			boolean byDeadline = false;
+			if (deadline != -1) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= wait) {
+					wait = remaining;
+					byDeadline = true;
+				}
+			}
+			if (!tryAcquireSharedNanos(1, wait)) {
+				if (!byDeadline) {
+					throw new TimeoutException();
+				}
+				withdraw(WITHDRAWN);
+			}
+			return report();
+		}
+
+	}
+
+}
@@ -27,6 +27,7 @@ this file under either the MPL or the GPL.
  */
 package ca.uhn.hl7v2.concurrent;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -34,13 +35,19 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Provides a global cached thread pool if Connections and Servers are not
  * initialized with their specific {@link ExecutorService} instances.
  */
 public class DefaultExecutorService {
 
+	private static final Logger log = LoggerFactory.getLogger(DefaultExecutorService.class);
+
 	static ExecutorService defaultExecutorService;
+	static ExecutorService virtualThreadExecutorService;
 
 	public static <V> CompletionService<V> completionService(ExecutorService executor) {
 		return new ExecutorCompletionService<V>(executor);
@@ -53,25 +60,58 @@ public class DefaultExecutorService {
 		return defaultExecutorService;
 	}
 
+	/**
+	 * Returns a global service which runs each task in a new virtual thread.
+	 * Threads blocked on socket I/O are cheap then, so that a large number of
+	 * connections can be served without tuning the thread pool or thread stack
+	 * sizes. Virtual threads are available as of Java 21; on older runtimes,
+	 * the {@link #getDefaultService() default service} is returned instead.
+	 */
+	public static synchronized ExecutorService getVirtualThreadService() {
+		if (virtualThreadExecutorService == null || virtualThreadExecutorService.isShutdown()) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				virtualThreadExecutorService = (ExecutorService) factory.invoke(null);
+			} catch (NoSuchMethodException e) {
+				log.warn("Virtual threads are not supported by this Java runtime, using the default thread pool");
+				return getDefaultService();
+			} catch (Exception e) {
+				log.warn("Could not create virtual thread executor, using the default thread pool", e);
+				return getDefaultService();
+			}
+		}
+		return virtualThreadExecutorService;
+	}
+
 	/**
 	 * @return true if the service is not null and was created by this class
 	 */
 	public static boolean isDefaultService(ExecutorService service) {
-		return service != null && service == defaultExecutorService;
+		return service != null && (service == defaultExecutorService || service == virtualThreadExecutorService);
 	}
 
 	/**
 	 * @see {@link ExecutorService#shutdown()}
 	 */
 	public static void shutdown() {
-		defaultExecutorService.shutdown();
+		if (defaultExecutorService != null) {
+			defaultExecutorService.shutdown();
+		}
+		if (virtualThreadExecutorService != null) {
+			virtualThreadExecutorService.shutdown();
+		}
 	}
 
 	/**
 	 * @see {@link ExecutorService#shutdownNow()}
 	 */
 	public static void shutdownNow() {
-		defaultExecutorService.shutdownNow();
+		if (defaultExecutorService != null) {
+			defaultExecutorService.shutdownNow();
+		}
+		if (virtualThreadExecutorService != null) {
+			virtualThreadExecutorService.shutdownNow();
+		}
 	}
 
 	private static class MyThreadFactory implements ThreadFactory {
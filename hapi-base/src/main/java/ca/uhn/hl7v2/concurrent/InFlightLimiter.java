@@ -0,0 +1,190 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "InFlightLimiter.java".  Description:
+"Limits the number of tasks in progress at the same time"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of tasks in progress at the same time, e.g. messages
+ * being processed. Unlike a {@link java.util.concurrent.Semaphore}, the limit
+ * can be changed at any time, and the current number of tasks is available
+ * for monitoring. Acquiring and releasing does not lock unless a thread has to
+ * wait.
+ */
+public class InFlightLimiter {
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong throttled = new AtomicLong();
+	private final Lock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private volatile int limit;
+
+	/**
+	 * @param theLimit maximum number of tasks in progress, or 0 for no limit
+	 */
+	public InFlightLimiter(int theLimit) {
+		setLimit(theLimit);
+	}
+
+	/**
+	 * @return maximum number of tasks in progress, or 0 if there is no limit
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Changes the limit. Tasks which are in progress are not affected if the
+	 * limit is lowered.
+	 *
+	 * @param theLimit maximum number of tasks in progress, or 0 for no limit
+	 */
+	public void setLimit(int theLimit) {
+		if (theLimit < 0) {
+			throw new IllegalArgumentException("Limit must not be negative");
+		}
+		limit = theLimit;
+		lock.lock();
+		try {
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of tasks in progress
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return number of times {@link #tryAcquire()} could not start a task
+	 *         because the limit was reached
+	 */
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	/**
+	 * Starts a task if the limit has not been reached.
+	 *
+	 * @return <code>true</code> if the task may be started, in which case
+	 *         {@link #release()} must be called when it is finished
+	 */
+	public boolean tryAcquire() {
+		if (acquire()) {
+			return true;
+		}
+		throttled.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Like {@link #tryAcquire()}, for a task which could not be started before
+	 * and has already been counted by {@link #getThrottledCount()}
+	 *
+	 * @return <code>true</code> if the task may be started, in which case
+	 *         {@link #release()} must be called when it is finished
+	 */
+	public boolean retryAcquire() {
+		return acquire();
+	}
+
+	/**
+	 * Starts a task, waiting until the number of tasks in progress is below
+	 * the limit. Waiting is not counted by {@link #getThrottledCount()}, so
+	 * that a task can be retried without being counted again after
+	 * {@link #tryAcquire()} has failed.
+	 *
+	 * @return <code>true</code> if the task may be started, in which case
+	 *         {@link #release()} must be called when it is finished, or
+	 *         <code>false</code> if the timeout has passed
+	 */
+	public boolean tryAcquire(long theTimeout, TimeUnit theUnit) throws InterruptedException {
+		if (acquire()) {
+			return true;
+		}
+		long nanos = theUnit.toNanos(theTimeout);
+		lock.lockInterruptibly();
+		try {
+			// registered before checking again, so that a release in between signals
+			waiting.incrementAndGet();
+			try {
+				while (!acquire()) {
+					if (nanos <= 0) {
+						return false;
+					}
+					nanos = released.awaitNanos(nanos);
+				}
+				return true;
+			} finally {
+				waiting.decrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks a task as finished
+	 */
+	public void release() {
+		if (inFlight.decrementAndGet() < 0) {
+			inFlight.incrementAndGet();
+			throw new IllegalStateException("Released more tasks than acquired");
+		}
+		if (waiting.get() > 0) {
+			lock.lock();
+			try {
+				released.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private boolean acquire() {
+		while (true) {
+			int current = inFlight.get();
+			int max = limit;
+			if (max > 0 && current >= max) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+}
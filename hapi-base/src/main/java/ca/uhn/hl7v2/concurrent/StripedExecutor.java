@@ -0,0 +1,187 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "StripedExecutor.java".  Description:
+"Runs tasks with the same key one after another, and tasks with different keys in parallel"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Runs tasks with the same key one after another in the order they have been
+ * submitted, while tasks with different keys run in parallel on a shared
+ * {@link Executor}.
+ * </p>
+ * <p>
+ * Keys are hashed to a fixed number of stripes, each of which is a serial
+ * queue of tasks. A stripe occupies at most one thread of the executor while
+ * it has tasks queued, so no thread is blocked waiting for its turn. Keys
+ * which share a stripe are serialized as well, so the number of stripes
+ * should be well above the number of keys expected to be active at the same
+ * time.
+ * </p>
+ * <p>
+ * The executor used to run a stripe is passed with each task, so a stripe may
+ * be shared by callers using different executors. It is the executor passed
+ * with the task which finds the stripe idle.
+ * </p>
+ */
+public class StripedExecutor {
+
+	/**
+	 * Default number of stripes
+	 */
+	public static final int DEFAULT_STRIPES = 256;
+
+	/**
+	 * Maximum number of tasks run before a stripe gives up its thread, so
+	 * that a busy key does not starve the others
+	 */
+	private static final int MAX_BATCH = 64;
+
+	private static final Logger log = LoggerFactory.getLogger(StripedExecutor.class);
+
+	private final Stripe[] stripes;
+
+	public StripedExecutor() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param theStripes number of stripes, rounded up to a power of two
+	 */
+	public StripedExecutor(int theStripes) {
+		if (theStripes <= 0 || theStripes > (1 << 16)) {
+			throw new IllegalArgumentException("Number of stripes must be between 1 and 2^16");
+		}
+		int size = 1;
+		while (size < theStripes) {
+			size <<= 1;
+		}
+		stripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Runs the task after all tasks which have been submitted with the same
+	 * key before.
+	 *
+	 * @param theKey key of the task, must not be <code>null</code>
+	 * @param theTask the task
+	 * @param theExecutor executor to run the tasks of the stripe if it is idle
+	 * @throws RejectedExecutionException if the executor does not accept the
+	 *             task. Tasks of other callers which have been queued behind
+	 *             it in the meantime are run by the calling thread then.
+	 */
+	public void execute(Object theKey, Runnable theTask, Executor theExecutor) {
+		if (theTask == null) {
+			throw new NullPointerException("Task must not be null");
+		}
+		stripeFor(theKey).execute(theTask, theExecutor);
+	}
+
+	private Stripe stripeFor(Object theKey) {
+		int h = theKey.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return stripes[h & (stripes.length - 1)];
+	}
+
+	/**
+	 * Serial queue of tasks. The first task submitted to an idle stripe starts
+	 * a run, which executes tasks until the queue is empty.
+	 */
+	private static class Stripe {
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger pending = new AtomicInteger();
+
+		void execute(Runnable theTask, Executor theExecutor) {
+			tasks.add(theTask);
+			if (pending.getAndIncrement() == 0) {
+				start(theTask, theExecutor);
+			}
+		}
+
+		private void start(Runnable theTask, Executor theExecutor) {
+			try {
+				theExecutor.execute(newRun(theExecutor));
+			} catch (RejectedExecutionException e) {
+				// only the task of the caller is rejected. Tasks queued by
+				// others in the meantime rely on this run, so they are run on
+				// this thread, like a run does if it can't hand over the stripe.
+				tasks.remove(theTask);
+				if (pending.decrementAndGet() > 0) {
+					drain(theExecutor);
+				}
+				throw e;
+			}
+		}
+
+		private Runnable newRun(final Executor theExecutor) {
+			return new Runnable() {
+				public void run() {
+					drain(theExecutor);
+				}
+			};
+		}
+
+		private void drain(Executor theExecutor) {
+			while (true) {
+				for (int i = 0; i < MAX_BATCH; i++) {
+					Runnable next = tasks.poll();
+					if (next != null) {
+						try {
+							next.run();
+						} catch (Throwable t) {
+							log.error("Error while running task", t);
+						}
+					}
+					if (pending.decrementAndGet() <= 0) {
+						return;
+					}
+				}
+				// yield the thread to other stripes, keeping the tasks in order
+				try {
+					theExecutor.execute(newRun(theExecutor));
+					return;
+				} catch (RejectedExecutionException e) {
+					// shutting down, finish the queue on this thread
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,265 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "TimerWheel.java".  Description:
+"Runs tasks after a timeout, for a large number of mostly cancelled timeouts"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.concurrent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Runs tasks after a timeout. Scheduling and cancelling a timeout takes
+ * constant time, which makes this class suitable for a large number of
+ * timeouts which are mostly cancelled before they expire, like response
+ * timeouts. The price is precision: timeouts expire on the next tick after
+ * their deadline.
+ * </p>
+ * <p>
+ * Timeouts are kept in a ring of buckets, one per tick. A single daemon
+ * thread, which is started when the first timeout is scheduled, advances one
+ * bucket per tick and runs the tasks which are due. Tasks are run on this
+ * thread, so they must be short and must not block. Cancelled timeouts are
+ * removed when their bucket is visited next, i.e. after at most one
+ * revolution of the wheel.
+ * </p>
+ */
+public class TimerWheel {
+
+	private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+	private final String name;
+	private final long tickNanos;
+	private final List<TimeoutImpl>[] buckets;
+	private final int mask;
+	private final Queue<TimeoutImpl> added = new ConcurrentLinkedQueue<TimeoutImpl>();
+	private final AtomicBoolean started = new AtomicBoolean();
+	private volatile boolean stopped;
+	private volatile long startTime;
+
+	/**
+	 * @param theName name of the thread
+	 * @param theTickDuration duration of a tick
+	 * @param theUnit unit of the tick duration
+	 * @param theTicksPerWheel number of buckets, rounded up to a power of two.
+	 *            Timeouts longer than one revolution are kept in the buckets
+	 *            for several revolutions.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimerWheel(String theName, long theTickDuration, TimeUnit theUnit, int theTicksPerWheel) {
+		if (theTickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be positive");
+		}
+		if (theTicksPerWheel <= 0 || theTicksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^30");
+		}
+		int size = 1;
+		while (size < theTicksPerWheel) {
+			size <<= 1;
+		}
+		name = theName;
+		tickNanos = theUnit.toNanos(theTickDuration);
+		mask = size - 1;
+		buckets = new List[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayList<TimeoutImpl>();
+		}
+	}
+
+	/**
+	 * Schedules a task to be run once the delay has passed.
+	 *
+	 * @return a handle to cancel the timeout
+	 * @throws IllegalStateException if the timer has been stopped
+	 */
+	public Timeout schedule(Runnable theTask, long theDelay, TimeUnit theUnit) {
+		if (theTask == null) {
+			throw new NullPointerException("Task must not be null");
+		}
+		if (stopped) {
+			throw new IllegalStateException("Timer " + name + " has been stopped");
+		}
+		start();
+		TimeoutImpl retVal = new TimeoutImpl(theTask, System.nanoTime() + theUnit.toNanos(theDelay));
+		added.add(retVal);
+		return retVal;
+	}
+
+	/**
+	 * Stops the timer thread. Timeouts which have not expired yet are
+	 * discarded without running their tasks.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private void start() {
+		if (started.compareAndSet(false, true)) {
+			startTime = System.nanoTime();
+			Thread thread = new Thread(new Worker(), name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Handle to a scheduled task
+	 */
+	public interface Timeout {
+
+		/**
+		 * Cancels the timeout.
+		 *
+		 * @return <code>true</code> if the timeout was cancelled,
+		 *         <code>false</code> if it has expired or was cancelled before
+		 */
+		boolean cancel();
+
+		/**
+		 * @return <code>true</code> if the timeout has expired and its task
+		 *         has been run or is running
+		 */
+		boolean isExpired();
+
+		/**
+		 * @return <code>true</code> if the timeout has been cancelled
+		 */
+		boolean isCancelled();
+
+	}
+
+	private static class TimeoutImpl implements Timeout {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private long remainingRounds; // only accessed by the worker thread
+
+		TimeoutImpl(Runnable theTask, long theDeadline) {
+			task = theTask;
+			deadline = theDeadline;
+		}
+
+		public boolean cancel() {
+			return state.compareAndSet(PENDING, CANCELLED);
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		void expire() {
+			if (state.compareAndSet(PENDING, EXPIRED)) {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					log.warn("Timeout task failed", t);
+				}
+			}
+		}
+
+	}
+
+	private class Worker implements Runnable {
+
+		private long tick;
+
+		public void run() {
+			while (!stopped) {
+				waitForNextTick();
+				transferAdded();
+				expire(buckets[(int) (tick & mask)]);
+				tick++;
+			}
+			added.clear();
+			for (List<TimeoutImpl> next : buckets) {
+				next.clear();
+			}
+		}
+
+		private void waitForNextTick() {
+			long deadline = startTime + (tick + 1) * tickNanos;
+			long sleepNanos;
+			while ((sleepNanos = deadline - System.nanoTime()) > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					// keep ticking until stopped
+				}
+			}
+		}
+
+		/**
+		 * Moves newly scheduled timeouts into their buckets
+		 */
+		private void transferAdded() {
+			TimeoutImpl next;
+			while ((next = added.poll()) != null) {
+				if (next.isCancelled()) {
+					continue;
+				}
+				// the bucket of a tick is visited at the end of the tick
+				long dueTick = (next.deadline - startTime + tickNanos - 1) / tickNanos - 1;
+				if (dueTick < tick) {
+					dueTick = tick; // already late, expire with this tick
+				}
+				next.remainingRounds = (dueTick - tick) / buckets.length;
+				buckets[(int) (dueTick & mask)].add(next);
+			}
+		}
+
+		private void expire(List<TimeoutImpl> theBucket) {
+			for (Iterator<TimeoutImpl> iter = theBucket.iterator(); iter.hasNext();) {
+				TimeoutImpl next = iter.next();
+				if (next.isCancelled()) {
+					iter.remove();
+				} else if (next.remainingRounds <= 0) {
+					iter.remove();
+					next.expire();
+				} else {
+					next.remainingRounds--;
+				}
+			}
+		}
+
+	}
+
+}
@@ -476,16 +476,22 @@ public class DefaultValidator extends HapiContextSupport implements Validator {
 			String value = ((Primitive) type).getValue();
 			addTableTestResult(profileID, codeSystem, value, exList);
 		} else if (type.getName().equals("CE")) {
-			String value = Terser.getPrimitive(type, 1, 1).getValue();
-			String codeSystem = Terser.getPrimitive(type, 3, 1).getValue();
+			String value = getExistingValue(type, 1);
+			String codeSystem = getExistingValue(type, 3);
 			addTableTestResult(profileID, codeSystem, value, exList);
 
-			value = Terser.getPrimitive(type, 4, 1).getValue();
-			codeSystem = Terser.getPrimitive(type, 6, 1).getValue();
+			value = getExistingValue(type, 4);
+			codeSystem = getExistingValue(type, 6);
 			addTableTestResult(profileID, codeSystem, value, exList);
 		}
 	}
 
+	/** Returns the value of a component without creating it */
+	private static String getExistingValue(Type type, int component) {
+		Primitive p = Terser.getExistingPrimitive(type, component, 1);
+		return p == null ? null : p.getValue();
+	}
+
 	protected void addTableTestResult(String profileID, String codeSystem, String value, List<HL7Exception> exList) {
 		if (codeSystem != null && value != null && validateChildren) {
 			testValueAgainstTable(profileID, codeSystem, value, exList);
@@ -600,9 +606,16 @@ public class DefaultValidator extends HapiContextSupport implements Validator {
 	protected void checkExtraComponents(Composite comp, int numInProfile, List<HL7Exception> exList)
 			throws ProfileException {
 		StringBuilder extra = new StringBuilder();
-		for (int i = numInProfile; i < comp.getComponents().length; i++) {
+		int numComponents = comp instanceof AbstractComposite ?
+				((AbstractComposite) comp).numComponents() : comp.getComponents().length;
+		for (int i = numInProfile; i < numComponents; i++) {
 			try {
-				String s = PipeParser.encode(comp.getComponent(i), enc);
+				Type component = comp.getExistingComponent(i);
+				if (component == null) {
+					// never accessed, so it is empty
+					continue;
+				}
+				String s = PipeParser.encode(component, enc);
 				if (s.length() > 0) {
 					extra.append(s).append(enc.getComponentSeparator());
 				}
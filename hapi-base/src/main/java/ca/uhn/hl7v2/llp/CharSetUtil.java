@@ -27,7 +27,6 @@ package ca.uhn.hl7v2.llp;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.parser.EncodingNotSupportedException;
@@ -46,24 +45,122 @@ public class CharSetUtil {
     private static final Logger LOG = LoggerFactory.getLogger(CharSetUtil.class);
 
     static Charset checkCharset(String message, Charset defaultCharset) {
-        Charset charset = defaultCharset;
         try {
             String[] fields = PreParser.getFields(message, "MSH-18(0)");
-            String hl7CharsetName = stripNonLowAscii(fields[0]);
+            return toCharset(stripNonLowAscii(fields[0]), defaultCharset);
+        } catch (HL7Exception e) {
+            LOG.warn("Failed to parse MSH segment. Defaulting to {}", defaultCharset.displayName(), e);
+            return defaultCharset;
+        }
+    }
+
+    /**
+     * Determines the charset of a message from MSH-18. For ER7 encoded messages
+     * in an ASCII compatible encoding, MSH-18 is read from the raw bytes of
+     * the MSH segment, so that the message does not have to be decoded twice.
+     * Other messages are decoded and preparsed.
+     */
+    static Charset checkCharset(byte[] message, Charset defaultCharset) {
+        return checkCharset(message, 0, message.length, defaultCharset);
+    }
+
+    /**
+     * Like {@link #checkCharset(byte[], Charset)}, for a message contained in
+     * a part of a buffer
+     */
+    static Charset checkCharset(byte[] buffer, int offset, int length, Charset defaultCharset) {
+        String hl7CharsetName = getMsh18(buffer, offset, length);
+        if (hl7CharsetName == null) {
+            String guessMessage = BOM.skipBOM(buffer, offset, length);
+            return checkCharset(guessMessage, defaultCharset);
+        }
+        return toCharset(hl7CharsetName, defaultCharset);
+    }
+
+    private static Charset toCharset(String hl7CharsetName, Charset defaultCharset) {
+        Charset charset = defaultCharset;
+        try {
             if (hl7CharsetName != null && hl7CharsetName.length() > 0)
                 charset = HL7Charsets.getCharsetForHL7Encoding(hl7CharsetName);
             LOG.trace("Detected MSH-18 value \"{}\" so using charset {}", hl7CharsetName, charset.displayName());
         } catch (EncodingNotSupportedException e) {
             LOG.warn("Invalid or unsupported charset in MSH-18. Defaulting to {}", charset.displayName());
-        } catch (HL7Exception e) {
-            LOG.warn("Failed to parse MSH segment. Defaulting to {}", charset.displayName(), e);
         }
         return charset;
     }
 
-    static Charset checkCharset(byte[] message, Charset defaultCharset) {
-        String guessMessage = BOM.skipBOM(message);
-        return checkCharset(guessMessage, defaultCharset);
+    /**
+     * Scans the MSH segment at the start of an ER7 encoded message for the
+     * first component of the first repetition of MSH-18. Only ASCII characters
+     * of the value are returned. MSH-2 may contain up to five encoding
+     * characters, as in HL7 2.7 and later.
+     *
+     * @param message message bytes, optionally starting with a UTF-8 byte order mark
+     * @return the value of MSH-18, an empty string if MSH-18 is not present,
+     *         or <code>null</code> if the message does not start with an MSH
+     *         segment with valid encoding characters in an ASCII compatible
+     *         encoding
+     */
+    static String getMsh18(byte[] message) {
+        return getMsh18(message, 0, message.length);
+    }
+
+    private static String getMsh18(byte[] message, int offset, int length) {
+        int end = offset + length;
+        int start = BOM.UTF_8.startsWith(message, offset, length) ? offset + BOM.UTF_8.bytes.length : offset;
+        if (end < start + 5
+                || message[start] != 'M' || message[start + 1] != 'S' || message[start + 2] != 'H') {
+            return null;
+        }
+
+        // MSH-1 and MSH-2, which ends at the next field separator
+        byte fieldSeparator = message[start + 3];
+        if (fieldSeparator <= 0 || isSegmentSeparator(fieldSeparator)) {
+            return null;
+        }
+        int msh2End = start + 4;
+        for (; msh2End < end && message[msh2End] != fieldSeparator; msh2End++) {
+            if (message[msh2End] <= 0 || isSegmentSeparator(message[msh2End])) {
+                return null;
+            }
+        }
+        int encodingCharacters = msh2End - start - 4;
+        if (msh2End == end || encodingCharacters < 4 || encodingCharacters > 5) {
+            return null;
+        }
+        byte componentSeparator = message[start + 4];
+        byte repetitionSeparator = message[start + 5];
+        byte subcomponentSeparator = message[start + 7];
+
+        // skip to MSH-18
+        int field = 3;
+        int i = msh2End + 1;
+        for (; i < end && field < 18; i++) {
+            byte next = message[i];
+            if (isSegmentSeparator(next)) {
+                return "";
+            }
+            if (next == fieldSeparator) {
+                field++;
+            }
+        }
+
+        StringBuilder b = new StringBuilder();
+        for (; i < end; i++) {
+            byte next = message[i];
+            if (next == fieldSeparator || next == componentSeparator || next == repetitionSeparator
+                    || next == subcomponentSeparator || isSegmentSeparator(next)) {
+                break;
+            }
+            if (next > 0 && next < 127) {
+                b.append((char) next);
+            }
+        }
+        return b.toString();
+    }
+
+    private static boolean isSegmentSeparator(byte b) {
+        return b == '\r' || b == '\n' || b == '\f';
     }
 
     private static String stripNonLowAscii(String theString) {
@@ -120,18 +217,32 @@ public class CharSetUtil {
         }
 
         public static BOM getBOM(byte[] bytes) {
+            return getBOM(bytes, 0, bytes.length);
+        }
+
+        static BOM getBOM(byte[] bytes, int offset, int length) {
             for (BOM bom : BOM.values()) {
-                byte[] bytesToCompare = new byte[bom.bytes.length];
-                System.arraycopy(bytes, 0, bytesToCompare, 0, bom.bytes.length);
-                if (Arrays.equals(bom.bytes, bytesToCompare)) return bom;
+                if (bom.startsWith(bytes, offset, length)) return bom;
             }
             return BOM.NONE;
         }
 
-        public static String skipBOM(byte[] bytes) {
+        boolean startsWith(byte[] theMessage, int offset, int length) {
+            if (length < bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (theMessage[offset + i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public static String skipBOM(byte[] bytes, int offset, int length) {
             try {
-                BOM bom = getBOM(bytes);
-                return new String(bytes, bom.bytes.length, bytes.length - bom.bytes.length, bom.charset.toString());
+                BOM bom = getBOM(bytes, offset, length);
+                return new String(bytes, offset + bom.bytes.length, length - bom.bytes.length, bom.charset.toString());
             } catch (UnsupportedEncodingException e) {
                 // does not happen
                 return null;
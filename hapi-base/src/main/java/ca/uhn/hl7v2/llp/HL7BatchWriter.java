@@ -0,0 +1,53 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "HL7BatchWriter.java".  Description:
+"An HL7Writer which can collect several messages into one write"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+
+*/
+
+package ca.uhn.hl7v2.llp;
+
+import java.io.IOException;
+
+/**
+ * An HL7Writer which can collect the frames of several messages and write
+ * them to the underlying output stream at once, which saves system calls when
+ * many messages are sent in a row.
+ */
+public interface HL7BatchWriter extends HL7Writer {
+
+    /**
+     * Encodes a complete message like {@link #writeMessage(String)}, but only
+     * buffers it. The buffered messages are written when the buffer is full,
+     * when {@link #flush()} is called, or before the next message written
+     * with {@link #writeMessage(String)}.
+     */
+    public void bufferMessage(String message) throws LLPException, IOException;
+
+    /**
+     * Writes all buffered messages to the underlying output stream and
+     * flushes it.
+     */
+    public void flush() throws IOException;
+
+}
@@ -28,10 +28,13 @@
 package ca.uhn.hl7v2.llp;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static ca.uhn.hl7v2.llp.MllpConstants.CHARSET_KEY;
 
@@ -47,13 +50,28 @@ import static ca.uhn.hl7v2.llp.MllpConstants.CHARSET_KEY;
  * @author Christian Ohr
  */
 
-abstract class HL7EncoderWriter<T extends MllpEncoder> implements HL7Writer {
+abstract class HL7EncoderWriter<T extends MllpEncoder> implements HL7BatchWriter {
+
+    /**
+     * Size up to which buffered messages are collected before they are written
+     */
+    static final int BATCH_BUFFER_SIZE = 64 * 1024;
 
     private OutputStream out;
     private T encoder;
     private Charset charset;
     protected boolean omitBOM;
 
+    /**
+     * Guards the output stream. A lock rather than a monitor, so that threads
+     * blocked on socket writes do not pin a carrier thread if they are virtual
+     * threads.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /** Frames of buffered messages, guarded by the lock */
+    private ByteArrayOutputStream batch;
+
     /**
      * Creates a HL7EncoderWriter with no output stream specified - <code>setOutputStream</code>
      * must be called before attempting to write any messages.
@@ -85,40 +103,105 @@ abstract class HL7EncoderWriter<T extends MllpEncoder> implements HL7Writer {
     /**
      * Sets the underlying output stream to which messages are written.
      */
-    public synchronized void setOutputStream(OutputStream out) throws IOException {
+    public void setOutputStream(OutputStream out) throws IOException {
         if (out == null) throw new NullPointerException("OutputStream must not be null");
-        this.out = new BufferedOutputStream(out);
+        lock.lock();
+        try {
+            this.out = new BufferedOutputStream(out);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Sends a complete message to the underlying output stream, delimited
      * according to the minimal lower layer protocol.
      */
-    public synchronized void writeMessage(String message) throws LLPException, IOException {
+    public void writeMessage(String message) throws LLPException, IOException {
+        if (message == null) {
+            throw new NullPointerException("Message must not be null");
+        }
+        lock.lock();
+        try {
+            writeBuffered();
+            encoder.putMessage(message, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void bufferMessage(String message) throws LLPException, IOException {
         if (message == null) {
             throw new NullPointerException("Message must not be null");
         }
-        encoder.putMessage(message, out);
+        lock.lock();
+        try {
+            if (batch == null) {
+                batch = new ByteArrayOutputStream(BATCH_BUFFER_SIZE);
+            }
+            encoder.putMessage(message, batch);
+            if (batch.size() >= BATCH_BUFFER_SIZE) {
+                writeBuffered();
+                out.flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            writeBuffered();
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered messages with a single write, must be called with
+     * the lock held
+     */
+    private void writeBuffered() throws IOException {
+        if (batch != null && batch.size() > 0) {
+            try {
+                batch.writeTo(out);
+            } finally {
+                batch.reset();
+            }
+        }
     }
 
     /**
      * Sends a complete message to the underlying output stream, delimited
      * according to the minimal lower layer protocol, using the specified character set.
      */
-    public synchronized void writeMessage(String message, String charset) throws LLPException, IOException {
+    public void writeMessage(String message, String charset) throws LLPException, IOException {
         if (message == null) {
             throw new NullPointerException("Message may not be null");
         }
-        OutputStreamWriter writer = new OutputStreamWriter(out, charset);
-        writer.write(MllpConstants.START_BYTE);
-        writer.write(message);
-        writer.write(MllpConstants.END_BYTE1);
-        writer.write(MllpConstants.END_BYTE2);
-        writer.flush();
+        lock.lock();
+        try {
+            writeBuffered();
+            OutputStreamWriter writer = new OutputStreamWriter(out, charset);
+            writer.write(MllpConstants.START_BYTE);
+            writer.write(message);
+            writer.write(MllpConstants.END_BYTE1);
+            writer.write(MllpConstants.END_BYTE2);
+            writer.flush();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void close() throws IOException {
-        if (out != null) out.close();
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (out != null) out.close();
+        } finally {
+            lock.unlock();
+        }
     }
 
     protected Charset getCharset() {
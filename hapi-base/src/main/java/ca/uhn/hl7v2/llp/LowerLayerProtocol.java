@@ -28,8 +28,10 @@ this file under either the MPL or the GPL.
 
 package ca.uhn.hl7v2.llp;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
 import java.nio.charset.Charset;
 
 import org.slf4j.Logger;
@@ -80,6 +82,15 @@ public abstract class LowerLayerProtocol {
      * this protocol.  
      */ 
     public abstract HL7Writer getWriter(OutputStream out) throws LLPException;
+
+    /**
+     * Returns an HL7Writer that implements message writing according to
+     * this protocol to the given socket. This implementation writes to the
+     * output stream of the socket.
+     */
+    public HL7Writer getWriter(Socket socket) throws LLPException, IOException {
+        return getWriter(socket.getOutputStream());
+    }
     
     /**
      * <p>
@@ -95,6 +106,22 @@ public abstract class LowerLayerProtocol {
         log.trace("Char received: {} ({})", c, (char) c);
     }
 
+    /**
+     * Like {@link #logCharacterReceived(int)}, for a number of characters
+     * received at once.
+     *
+     * @param theBytes buffer containing the received characters
+     * @param theOffset offset of the first received character in the buffer
+     * @param theLength number of received characters
+     */
+    public static void logCharactersReceived(byte[] theBytes, int theOffset, int theLength) {
+        if (log.isTraceEnabled()) {
+            for (int i = theOffset; i < theOffset + theLength; i++) {
+                logCharacterReceived(theBytes[i] & 0xff);
+            }
+        }
+    }
+
     /**
      * Provides a charset to use for character encoding
      * @param theCharset The charset to use
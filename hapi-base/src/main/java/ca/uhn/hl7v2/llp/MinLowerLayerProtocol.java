@@ -31,6 +31,8 @@ package ca.uhn.hl7v2.llp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 /**
  * Implements the "Minimal Lower Layer Protocol" from the HL7 Implementation
@@ -113,4 +115,31 @@ public class MinLowerLayerProtocol extends LowerLayerProtocol {
         }
     }
 
+    /**
+     * Creates an HL7Writer that implements message writing according to
+     * this protocol to the given socket. If the socket has been created by a
+     * blocking {@link SocketChannel} and MSH-18 is not respected, an
+     * {@link MllpChannelWriter} writes each message with a single gathering
+     * write to the channel.
+     *
+     * @see ca.uhn.hl7v2.util.ChannelSocketFactory
+     */
+    @Override
+    public HL7Writer getWriter(Socket socket) throws LLPException, IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel != null && channel.isBlocking() && !respectMSH18) {
+            return new MllpChannelWriter(channel, charset, omitBOM);
+        }
+        return super.getWriter(socket);
+    }
+
+    /**
+     * Creates an {@link MllpCodec} which decodes and encodes messages with the
+     * same charset as the readers and writers of this protocol, for use with
+     * a single connection.
+     */
+    public MllpCodec getCodec() {
+        return new MllpCodec(charset, respectMSH18, omitBOM);
+    }
+
 }
@@ -0,0 +1,247 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "MllpChannelWriter.java".  Description:
+"Writes MLLP frames to a socket channel with gathering writes"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+
+*/
+
+package ca.uhn.hl7v2.llp;
+
+import static ca.uhn.hl7v2.llp.MllpConstants.CHARSET_KEY;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes messages according to the minimal lower layer protocol to a
+ * blocking {@link GatheringByteChannel}, usually the
+ * {@link java.nio.channels.SocketChannel} of a socket. Each message is encoded
+ * straight into a direct buffer taken from a pool shared by all writers, and
+ * the start byte, the message and the end bytes are sent with a single
+ * gathering write. Compared to {@link MinLLPWriter}, this saves copying the
+ * message and the system calls of separate writes.
+ * <p>
+ * The charset is determined like for {@link MinLLPWriter}. MSH-18 is not
+ * respected. Messages larger than the pooled buffers are written in several
+ * parts.
+ * </p>
+ * <p>
+ * Like the output stream of a socket created by a channel, a
+ * {@link SelectableChannel} is written while holding its
+ * {@link SelectableChannel#blockingLock() blocking lock}. Some JREs switch the
+ * channel of a socket to non-blocking mode while reading from it with a
+ * timeout, and the lock makes the write wait until such a read is finished.
+ * </p>
+ *
+ * @see MinLowerLayerProtocol#getWriter(java.net.Socket)
+ */
+public class MllpChannelWriter implements HL7Writer {
+
+    /** Size of the pooled buffers */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Maximum number of buffers kept in the pool */
+    private static final int MAX_POOLED_BUFFERS = 32;
+
+    private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private volatile WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final boolean omitBOM;
+    private final ByteBuffer start = ByteBuffer.allocateDirect(1);
+    private final ByteBuffer end = ByteBuffer.allocateDirect(2);
+    private final ByteBuffer[] parts = new ByteBuffer[3];
+
+    /** Guards the encoder, the buffers of the frame and changes of the channel */
+    private final Lock lock = new ReentrantLock();
+
+    public MllpChannelWriter(GatheringByteChannel channel) {
+        this(channel, null, false);
+    }
+
+    /**
+     * @param channel blocking channel to write to
+     * @param charset charset of the messages, or <code>null</code> for the
+     *            charset configured by the system property
+     *            ca.uhn.hl7v2.llp.charset
+     * @param omitBOM if <code>true</code>, no byte order mark is written for
+     *            UTF-16
+     */
+    public MllpChannelWriter(GatheringByteChannel channel, Charset charset, boolean omitBOM) {
+        if (channel == null) {
+            throw new NullPointerException("Channel must not be null");
+        }
+        this.channel = channel;
+        this.omitBOM = omitBOM;
+        if (charset == null) {
+            String charsetString = System.getProperty(CHARSET_KEY, "US-ASCII");
+            charset = charsetString.equals("default") ? Charset.defaultCharset() : Charset.forName(charsetString);
+        }
+        if (omitBOM && charset.name().equals("UTF-16")) {
+            // the UTF-16 encoder writes a big endian byte order mark
+            charset = Charset.forName("UTF-16BE");
+        }
+        // replace like String.getBytes() does
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        start.put((byte) MllpConstants.START_BYTE);
+        end.put((byte) MllpConstants.END_BYTE1).put((byte) MllpConstants.END_BYTE2);
+    }
+
+    /**
+     * Sends a complete message to the channel, delimited according to the
+     * minimal lower layer protocol. The method returns once the complete frame
+     * has been written.
+     */
+    public void writeMessage(String message) throws LLPException, IOException {
+        if (message == null) {
+            throw new NullPointerException("Message must not be null");
+        }
+        CharBuffer in = CharBuffer.wrap(message);
+        if (omitBOM && message.length() > 0 && message.charAt(0) == '\uFEFF') {
+            in.position(1);
+        }
+        ByteBuffer buffer = acquire();
+        lock.lock();
+        try {
+            encoder.reset();
+            start.rewind();
+            end.rewind();
+            boolean first = true;
+            boolean encoded = false;
+            boolean last;
+            do {
+                if (!encoded) {
+                    encoded = encoder.encode(in, buffer, true).isUnderflow();
+                }
+                last = encoded && encoder.flush(buffer) == CoderResult.UNDERFLOW;
+                buffer.flip();
+                write(first ? start : null, buffer, last ? end : null);
+                buffer.clear();
+                first = false;
+            } while (!last);
+        } finally {
+            lock.unlock();
+            release(buffer);
+        }
+    }
+
+    /**
+     * Writes the given buffers with as few gathering writes as possible
+     */
+    private void write(ByteBuffer head, ByteBuffer body, ByteBuffer tail) throws IOException {
+        int count = 0;
+        if (head != null) {
+            parts[count++] = head;
+        }
+        parts[count++] = body;
+        if (tail != null) {
+            parts[count++] = tail;
+        }
+        if (channel instanceof SelectableChannel) {
+            SelectableChannel selectable = (SelectableChannel) channel;
+            synchronized (selectable.blockingLock()) {
+                if (!selectable.isBlocking()) {
+                    throw new IllegalBlockingModeException();
+                }
+                writeFully(count);
+            }
+        } else {
+            writeFully(count);
+        }
+    }
+
+    private void writeFully(int count) throws IOException {
+        ByteBuffer lastPart = parts[count - 1];
+        if (channel instanceof GatheringByteChannel) {
+            while (lastPart.hasRemaining()) {
+                ((GatheringByteChannel) channel).write(parts, 0, count);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                while (parts[i].hasRemaining()) {
+                    channel.write(parts[i]);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer acquire() {
+        ByteBuffer retVal = pool.poll();
+        if (retVal == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        return retVal;
+    }
+
+    private static void release(ByteBuffer theBuffer) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            theBuffer.clear();
+            pool.add(theBuffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes subsequent messages to the given stream instead of the channel
+     */
+    public void setOutputStream(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new NullPointerException("OutputStream must not be null");
+        }
+        lock.lock();
+        try {
+            channel = Channels.newChannel(out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the channel
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "MllpCodec.java".  Description:
+ * "Decodes and encodes MLLP frames in buffers owned by the caller"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2014.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ */
+
+package ca.uhn.hl7v2.llp;
+
+import static ca.uhn.hl7v2.llp.MllpConstants.CHARSET_KEY;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the content of MLLP frames and encodes messages into MLLP frames,
+ * using buffers owned by the caller instead of streams. The charset coders
+ * and the character buffer are kept between messages, so an instance is
+ * meant to be used for a single connection, e.g. by a server based on
+ * non-blocking I/O.
+ * <p>
+ * The charset is determined like by the reader and writer of the
+ * {@link MinLowerLayerProtocol} the codec has been created by, including
+ * MSH-18 if it is respected. {@link #decode(byte[], int, int)} and
+ * {@link #encode(String, ByteBuffer)} may be called by different threads
+ * at the same time, but each of them only by one thread at a time.
+ * </p>
+ *
+ * @see MinLowerLayerProtocol#getCodec()
+ */
+public class MllpCodec {
+
+    private static final int CHAR_BUFFER_SIZE = 8192;
+
+    private final Charset charset;
+    private final boolean respectMSH18;
+    private final boolean omitBOM;
+    private CharsetDecoder decoder;
+    private CharsetEncoder encoder;
+    private CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+    /**
+     * @param charset charset of the messages, or <code>null</code> for the
+     *            charset configured by the system property
+     *            ca.uhn.hl7v2.llp.charset
+     * @param respectMSH18 if <code>true</code>, the charset named in MSH-18
+     *            is used if there is one
+     * @param omitBOM if <code>true</code>, no byte order mark is written for
+     *            UTF-16
+     */
+    MllpCodec(Charset charset, boolean respectMSH18, boolean omitBOM) {
+        if (charset == null) {
+            String charsetString = System.getProperty(CHARSET_KEY, "US-ASCII");
+            charset = charsetString.equals("default") ? Charset.defaultCharset() : Charset.forName(charsetString);
+        }
+        this.charset = charset;
+        this.respectMSH18 = respectMSH18;
+        this.omitBOM = omitBOM;
+    }
+
+    /**
+     * Decodes the content of a frame, i.e. the bytes between the start byte
+     * and the end bytes.
+     *
+     * @param buffer buffer containing the content of the frame
+     * @param offset offset of the content in the buffer
+     * @param length length of the content
+     * @return the message, or <code>null</code> if the frame is empty
+     */
+    public String decode(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return null;
+        }
+        Charset messageCharset = respectMSH18 ? CharSetUtil.checkCharset(buffer, offset, length, charset) : charset;
+        if (decoder == null || !decoder.charset().equals(messageCharset)) {
+            // replace like new String(byte[], Charset) does
+            decoder = messageCharset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        int maxChars = (int) (length * (double) decoder.maxCharsPerByte()) + 1;
+        if (chars.capacity() < maxChars) {
+            chars = CharBuffer.allocate(maxChars);
+        }
+        chars.clear();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(buffer, offset, length), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        String retVal = chars.toString();
+        if (chars.capacity() > CHAR_BUFFER_SIZE * 16) {
+            // don't keep the buffer of an exceptionally large message
+            chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        }
+        return retVal;
+    }
+
+    /**
+     * Encodes a message into a frame, which is appended to the given buffer.
+     * If the buffer is too small, a larger one is allocated, which contains
+     * the bytes of the given buffer followed by the frame.
+     *
+     * @param message the message
+     * @param out buffer in write mode, i.e. positioned at the end of its data
+     * @return the buffer containing the frame, positioned at its end
+     */
+    public ByteBuffer encode(String message, ByteBuffer out) {
+        Charset messageCharset = respectMSH18 ? CharSetUtil.checkCharset(message, charset) : charset;
+        if (omitBOM && messageCharset.name().equals("UTF-16")) {
+            // the UTF-16 encoder writes a big endian byte order mark
+            messageCharset = Charset.forName("UTF-16BE");
+        }
+        if (encoder == null || !encoder.charset().equals(messageCharset)) {
+            // replace like String.getBytes() does
+            encoder = messageCharset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        CharBuffer in = CharBuffer.wrap(message);
+        if (omitBOM && message.length() > 0 && message.charAt(0) == '\uFEFF') {
+            in.position(1);
+        }
+
+        int start = out.position();
+        int maxBytes = (int) (in.remaining() * (double) encoder.maxBytesPerChar()) + 3;
+        out = ensureRemaining(out, maxBytes);
+        out.put((byte) MllpConstants.START_BYTE);
+        encoder.reset();
+        CoderResult result = encoder.encode(in, out, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(out);
+        }
+        if (!result.isUnderflow()) {
+            // does not happen, as the buffer is large enough
+            out.position(start);
+            throw new IllegalStateException("Failed to encode message: " + result);
+        }
+        out.put((byte) MllpConstants.END_BYTE1);
+        out.put((byte) MllpConstants.END_BYTE2);
+        return out;
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer out, int remaining) {
+        if (out.remaining() >= remaining) {
+            return out;
+        }
+        ByteBuffer retVal = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + remaining));
+        out.flip();
+        retVal.put(out);
+        return retVal;
+    }
+
+}
@@ -24,25 +24,45 @@
  this file under either the MPL or the GPL.
  */
 
+
 package ca.uhn.hl7v2.llp;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.Charset;
 
+import static ca.uhn.hl7v2.llp.MllpConstants.END_BYTE1;
+import static ca.uhn.hl7v2.llp.MllpConstants.END_BYTE2;
+import static ca.uhn.hl7v2.llp.MllpConstants.START_BYTE;
+
 /**
  * MllpDecoder decodes an InputStream into a String.
+ * <p>
+ * The stream is read in chunks into a buffer which is reused for all messages
+ * read by this decoder, and the buffer is scanned for the MLLP marker bytes.
+ * Bytes read beyond the end of a message are kept for the next call of
+ * {@link #getMessage(InputStream)}, so a decoder must only be used for a single
+ * stream at a time.
+ * </p>
  *
  * @author Christian Ohr
  */
 class MllpDecoder {
 
+    private static final int BUFFER_SIZE = 8192;
+
     protected Charset charset;
     private static final org.slf4j.Logger ourLog = org.slf4j.LoggerFactory.getLogger(MllpDecoder.class);
-    
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position; // next byte in the buffer to be decoded
+    private int limit; // end of the bytes read into the buffer
+    private InputStream lastStream;
+
     MllpDecoder(Charset charset) {
         this.charset = charset;
     }
@@ -56,23 +76,98 @@ class MllpDecoder {
      * @throws LLPException
      */
     public String getMessage(InputStream in) throws IOException, LLPException {
+        if (in != lastStream) {
+            // bytes left over from a previous stream are of no use
+            position = limit = 0;
+            lastStream = in;
+        }
+
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-	        MllpDecoderState state = MllpDecoderState.START;
-	        while (state != MllpDecoderState.END) {
-	        	state = state.read(in, out);
-	        }
+            if (!fill(in)) {
+                ourLog.info("End of input stream reached.");
+                throw new SocketException("End of input stream reached before message starts");
+            }
+            expect(START_BYTE, "START");
+
+            // copy everything up to the first end byte
+            int end;
+            while ((end = indexOf(END_BYTE1)) < 0) {
+                out.write(buffer, position, limit - position);
+                position = limit;
+                if (!fill(in)) {
+                    throw new LLPException("MLLP protocol violation - Stream ends in the message body");
+                }
+            }
+            out.write(buffer, position, end - position);
+            position = end + 1;
+
+            if (!fill(in)) {
+                throw new LLPException("MLLP protocol violation - Stream ends before LLP end byte");
+            }
+            expect(END_BYTE2, "PREPARE_END");
         } catch (SocketTimeoutException e) {
-        	if (out.size() == 0) {
-        		ourLog.debug("Got SocketTimeoutException while waiting for data");
-        	} else {
-        		ourLog.warn("Got SocketTimeoutException while waiting for data, discarding {} bytes", out.size());
-        	}
-        	return null;
+            if (out.size() == 0) {
+                ourLog.debug("Got SocketTimeoutException while waiting for data");
+            } else {
+                ourLog.warn("Got SocketTimeoutException while waiting for data, discarding {} bytes", out.size());
+            }
+            return null;
         }
         return out.size() > 0 ? toString(out.toByteArray()) : null;
     }
 
+    /**
+     * Makes sure there is at least one byte in the buffer that has not been
+     * decoded yet, reading from the stream if necessary
+     *
+     * @return false if the end of the stream has been reached
+     */
+    private boolean fill(InputStream in) throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        int read;
+        try {
+            read = in.read(buffer, 0, buffer.length);
+        } catch (SocketTimeoutException e) {
+            // Logged in the caller so we don't do it here
+            throw e;
+        } catch (SocketException e) {
+            ourLog.info("SocketException on read() attempt.  Socket appears to have been closed: " + e.getMessage());
+            throw e;
+        }
+        if (read <= 0) {
+            position = limit = 0;
+            return false;
+        }
+        LowerLayerProtocol.logCharactersReceived(buffer, 0, read);
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Consumes the next byte in the buffer, which must be the given marker byte
+     */
+    private void expect(int marker, String state) throws LLPException {
+        int c = buffer[position++] & 0xff;
+        if (c != marker) {
+            throw new LLPException("MLLP protocol violation - Expected byte '" + marker +
+                    "' in state " + state + " but was '" + c + "'");
+        }
+    }
+
+    private int indexOf(int marker) {
+        byte[] b = buffer;
+        for (int i = position; i < limit; i++) {
+            if (b[i] == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Converts the extract byte sequence into a String. This method must respect
      * a Charset, which is either statically configured or may be obtained at runtime.
@@ -47,8 +47,51 @@ public abstract class AbstractComposite extends AbstractType implements
 	@Override
 	public void clear() {
 		super.clear();
-		for (Type component : getComponents()) {
-			component.clear();
+		for (int i = 0; i < numComponents(); i++) {
+			Type component = getExistingComponentOrNull(i);
+			if (component != null) {
+				component.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of components defined by this type, not counting extra
+	 * components. Unlike <code>getComponents().length</code>, this does not
+	 * cause any components to be created.
+	 *
+	 * @return the number of components
+	 */
+	public int numComponents() {
+		return getComponents().length;
+	}
+
+	/**
+	 * <p>
+	 * Returns a component if it exists, without creating it.
+	 * </p>
+	 * <p>
+	 * Composites may create their components on first access. A component
+	 * which has never been accessed is empty, so code which only reads data
+	 * (e.g. encoders) may use this method and treat <code>null</code> as an
+	 * empty component. The default implementation just calls
+	 * {@link #getComponent(int)}.
+	 * </p>
+	 *
+	 * @param number The component number (0-indexed)
+	 * @return the component, or <code>null</code> if it has not been created yet
+	 * @throws DataTypeException if the given element number is out of range.
+	 */
+	public Type getExistingComponent(int number) throws DataTypeException {
+		return getComponent(number);
+	}
+
+	private Type getExistingComponentOrNull(int number) {
+		try {
+			return getExistingComponent(number);
+		} catch (DataTypeException e) {
+			log.error("Unexpected problem accessing known data type component - this is a bug.", e);
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -64,8 +107,9 @@ public abstract class AbstractComposite extends AbstractType implements
 
 	@Override
 	public boolean isEmpty() throws HL7Exception {
-		for (Type type : getComponents()) {
-			if (!type.isEmpty()) return false;
+		for (int i = 0; i < numComponents(); i++) {
+			Type type = getExistingComponentOrNull(i);
+			if (type != null && !type.isEmpty()) return false;
 		}
 		return super.isEmpty(); // for the ExtraComponents
 	}
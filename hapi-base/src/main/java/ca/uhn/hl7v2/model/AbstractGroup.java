@@ -28,11 +28,10 @@ this file under either the MPL or the GPL.
 package ca.uhn.hl7v2.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import ca.uhn.hl7v2.HL7Exception;
@@ -57,18 +56,17 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
 
 	private static final long serialVersionUID = 1772720246448224363L;
 
-    private List<String> names;
-    private Map<String, List<Structure>> structures;
-    private Map<String, Boolean> required;
-    private Map<String, Boolean> repeating;
-    private Set<String> choiceElements;
-    private Map<String, Class<? extends Structure>> classes;
+    private static final ChildDefinitions NO_CHILDREN = new ChildDefinitions(0);
+
+    private ChildDefinitions definitions;
+    private List<Structure>[] structures;
 
     private Set<String> nonStandardNames;
     private final ModelClassFactory myFactory;
 
     static {
         VersionLogger.init();
+        NO_CHILDREN.share(null);
     }
 
     /**
@@ -84,12 +82,96 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
     }
 
     private void init() {
-        names = new ArrayList<String>();
-        structures = new HashMap<String, List<Structure>>();
-        required = new HashMap<String, Boolean>();
-        repeating = new HashMap<String, Boolean>();
-        classes = new HashMap<String, Class<? extends Structure>>();
-        choiceElements = new HashSet<String>();
+        definitions = NO_CHILDREN;
+        structures = newStructureArray(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Structure>[] newStructureArray(int theSize) {
+        return new List[theSize];
+    }
+
+    /**
+     * <p>
+     * Marks the structures added to this group so far as the child definitions
+     * of its class, and returns them so that they can be passed to
+     * {@link #setChildDefinitions(ChildDefinitions)} by subsequently created
+     * instances of the same class. This avoids rebuilding the child descriptors
+     * and the name lookup table for every group instance.
+     * </p>
+     * <p>
+     * The returned definitions are immutable. If structures are added to a
+     * group which uses shared definitions, the group gets a private copy first.
+     * Implementations of this method are used by the source generator module.
+     * </p>
+     *
+     * @return the child definitions of this group
+     */
+    protected ChildDefinitions shareChildDefinitions() {
+        definitions.share(getMessage().getClass());
+        return definitions;
+    }
+
+    /**
+     * Makes this group use child definitions previously returned by
+     * {@link #shareChildDefinitions()} of another instance of the same group
+     * class, instead of calling {@link #add(Class, boolean, boolean, boolean) add()}
+     * for each child. This must be called before any structures are added.
+     *
+     * @param theDefinitions shared child definitions
+     * @return <code>false</code> if the definitions can not be used because they
+     *         were shared for a group within a different message class (child
+     *         group names depend on the message class). The caller needs to
+     *         add the children itself in this case.
+     */
+    protected boolean setChildDefinitions(ChildDefinitions theDefinitions) {
+        if (definitions.size() > 0) {
+            throw new IllegalStateException("Structures have already been added to group " + getClass().getName());
+        }
+        if (!theDefinitions.isShared()) {
+            throw new IllegalArgumentException("Child definitions have not been shared");
+        }
+        if (theDefinitions.getMessageClass() != getMessage().getClass()) {
+            return false;
+        }
+        definitions = theDefinitions;
+        structures = newStructureArray(theDefinitions.size());
+        return true;
+    }
+
+    /**
+     * Returns the repetitions of the child at the given index, creating the
+     * list on first use
+     */
+    private List<Structure> getRepetitions(int theIndex) {
+        List<Structure> retVal = structures[theIndex];
+        if (retVal == null) {
+            retVal = new ArrayList<Structure>(1);
+            structures[theIndex] = retVal;
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns the existing repetitions of the child at the given index without
+     * creating anything
+     */
+    private List<Structure> getExistingRepetitions(int theIndex) {
+        List<Structure> retVal = structures[theIndex];
+        return retVal == null ? Collections.<Structure>emptyList() : retVal;
+    }
+
+    /**
+     * Returns the index of the named child, throwing the usual exception if
+     * there is no such child
+     */
+    private int indexOf(String name) throws HL7Exception {
+        int retVal = definitions.indexOf(name);
+        if (retVal == -1) {
+            throw new HL7Exception("The structure " + name + " does not exist in the group "
+                    + this.getClass().getName());
+        }
+        return retVal;
     }
 
     /**
@@ -122,9 +204,10 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      *             more than one greater than the existing number of repetitions.
      */
     public Structure get(String name, int rep) throws HL7Exception {
-        List<Structure> list = structures.get(name);
-        if (list == null)
+        int index = definitions.indexOf(name);
+        if (index == -1)
             throw new HL7Exception(name + " does not exist in the group " + this.getClass().getName());
+        List<Structure> list = getRepetitions(index);
 
         Structure ret;
         if (rep < list.size()) {
@@ -132,14 +215,13 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
             ret = list.get(rep);
         } else if (rep == list.size()) {
             // verify that Structure is repeating ...
-            Boolean repeats = this.repeating.get(name);
+            boolean repeats = definitions.isRepeating(index);
             if (!repeats && list.size() > 0)
                 throw new HL7Exception("Can't create repetition #" + rep + " of Structure " + name
                         + " - this Structure is non-repeating so only rep 0 may be retrieved");
 
             // create a new Structure, add it to the list, and return it
-            Class<? extends Structure> c = classes.get(name); // get class
-            ret = tryToInstantiateStructure(c, name);
+            ret = createNewStructure(index);
             list.add(ret);
         } else {
             StringBuilder b = new StringBuilder();
@@ -167,6 +249,17 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
         return ret;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Structure getExisting(String name, int rep) throws HL7Exception {
+        if (rep < 0) {
+            throw new HL7Exception("Repetition must not be negative");
+        }
+        List<Structure> list = getExistingRepetitions(indexOf(name));
+        return rep < list.size() ? list.get(rep) : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -184,8 +277,8 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
             T ret = (T) get(name, rep);
             return ret;
         } catch (HL7Exception e) {
-        	List<Structure> list = structures.get(name);
-        	if (list != null && list.size() < rep) {
+        	int index = definitions.indexOf(name);
+        	if (index != -1 && getExistingRepetitions(index).size() < rep) {
         		// This is programmer/user error so don't report that it's a bug in the generator
         	} else {
         		log.error("Unexpected error accessing data - this is probably a bug in the source code generator.", e);
@@ -223,7 +316,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
 
         tryToInstantiateStructure(c, name); // may throw exception
 
-        String newName = insert(c, false, true, index, name);
+        String newName = insert(c, false, true, false, false, index, name);
         if (this.nonStandardNames == null) {
             this.nonStandardNames = new HashSet<String>();
         }
@@ -248,7 +341,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
 
         tryToInstantiateStructure(c, theName); // may throw exception
 
-        String newName = insert(c, false, true, theIndex, theName);
+        String newName = insert(c, false, true, false, false, theIndex, theName);
         if (this.nonStandardNames == null) {
             this.nonStandardNames = new HashSet<String>();
         }
@@ -275,11 +368,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * used to iterate through the group using repeated calls to <code>get(name)</code>.
      */
     public String[] getNames() {
-        String[] retVal = new String[this.names.size()];
-        for (int i = 0; i < this.names.size(); i++) {
-            retVal[i] = this.names.get(i);
-        }
-        return retVal;
+        return definitions.getNames();
     }
 
     /**
@@ -312,7 +401,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      */
     protected String add(Class<? extends Structure> c, boolean required, boolean repeating, boolean choiceElement) throws HL7Exception {
         String name = getName(c);
-        return insert(c, required, repeating, choiceElement, this.names.size(), name);
+        return insert(c, required, repeating, choiceElement, true, definitions.size(), name);
 	}
 
 	/**
@@ -330,14 +419,51 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
     protected String add(Class<? extends Structure> c, boolean required, boolean repeating, int index)
             throws HL7Exception {
         String name = getName(c);
-        return insert(c, required, repeating, index, name);
+        return insert(c, required, repeating, false, true, index, name);
     }
 
     /**
      * Returns true if the class name is already being used.
      */
     private boolean nameExists(String name) {
-        return this.classes.get(name) != null;
+        return definitions.indexOf(name) != -1;
+    }
+
+    /**
+     * <p>
+     * Attempts to create an instance of a child structure without using reflection.
+     * </p>
+     * <p>
+     * Note that the default implementation just returns <code>null</code>, and it is
+     * not neccesary to override this method to provide any particular behaviour. When
+     * a new instance of a child structure is needed within a group, this method is
+     * tried first, and if it returns <code>null</code>,
+     * {@link #tryToInstantiateStructure(Class, String)} is used instead. It is never
+     * called for non-standard structures. Implementations of this method are
+     * auto-generated by the source generator module.
+     * </p>
+     * 
+     * @param childIndex position of the child in the order in which it was added
+     *            by the group class - Note that this is zero indexed!
+     * @return Returns a newly instantiated structure, or <code>null</code> if not
+     *         possible
+     */
+    protected Structure createNewStructureWithoutReflection(int childIndex) {
+        return null;
+    }
+
+    /**
+     * Creates a new instance of the child structure at the given index
+     */
+    private Structure createNewStructure(int theIndex) throws HL7Exception {
+        int declaredIndex = definitions.getDeclaredIndex(theIndex);
+        if (declaredIndex != -1) {
+            Structure retVal = createNewStructureWithoutReflection(declaredIndex);
+            if (retVal != null) {
+                return retVal;
+            }
+        }
+        return tryToInstantiateStructure(definitions.getStructureClass(theIndex), definitions.getName(theIndex));
     }
 
     /**
@@ -369,17 +495,15 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
 	 * {@inheritDoc}
 	 */
 	public boolean isChoiceElement(String theName) throws HL7Exception {
-		return choiceElements.contains(theName);
+		int index = definitions.indexOf(theName);
+		return index != -1 && definitions.isChoiceElement(index);
 	}
 
     /**
      * Returns true if the named structure is a group
      */
     public boolean isGroup(String name) throws HL7Exception {
-        Class<? extends Structure> clazz = classes.get(name);
-        if (clazz == null)
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
+        Class<? extends Structure> clazz = definitions.getStructureClass(indexOf(name));
         return Group.class.isAssignableFrom(clazz);
     }
 
@@ -387,22 +511,14 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * Returns true if the named structure is required.
      */
     public boolean isRequired(String name) throws HL7Exception {
-        Boolean req = required.get(name);
-        if (req == null)
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
-        return req;
+        return definitions.isRequired(indexOf(name));
     }
 
     /**
      * Returns true if the named structure is required.
      */
     public boolean isRepeating(String name) throws HL7Exception {
-        Boolean rep = repeating.get(name);
-        if (rep == null)
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
-        return rep;
+        return definitions.isRepeating(indexOf(name));
     }
 
     /**
@@ -413,11 +529,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * @throws HL7Exception if the structure is unknown
      */
     public int currentReps(String name) throws HL7Exception {
-        List<Structure> list = structures.get(name);
-        if (list == null)
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
-        return list.size();
+        return getExistingRepetitions(indexOf(name)).size();
     }
 
     /**
@@ -429,11 +541,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * @throws HL7Exception if the named Structure is not part of this Group.
      */
     public Structure[] getAll(String name) throws HL7Exception {
-        List<Structure> list = structures.get(name);
-        if (list == null) {
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
-        }
+        List<Structure> list = getExistingRepetitions(indexOf(name));
         return list.toArray(new Structure[list.size()]);
     }
 
@@ -444,14 +552,15 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      */
     @SuppressWarnings("unchecked")
     protected <T extends Structure> List<T> getAllAsList(String name, Class<T> theType) throws HL7Exception {
-        Class<? extends Structure> clazz = classes.get(name);
+        int index = indexOf(name);
+        Class<? extends Structure> clazz = definitions.getStructureClass(index);
 
         if (!theType.equals(clazz)) {
             throw new HL7Exception("Structure with name \"" + name + "\" has type " + clazz.getName()
                     + " but should be " + theType);
         }
         List<T> retVal = new ArrayList<T>();
-        for (Structure next : structures.get(name)) {
+        for (Structure next : getExistingRepetitions(index)) {
             retVal.add((T) next);
         }
         return Collections.unmodifiableList(retVal);
@@ -469,11 +578,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * @throws HL7Exception if the named Structure is not part of this Group.
      */
     public Structure removeRepetition(String name, int index) throws HL7Exception {
-        List<Structure> list = structures.get(name);
-        if (list == null) {
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
-        }
+        List<Structure> list = getExistingRepetitions(indexOf(name));
         if (list.size() == 0) {
             throw new HL7Exception("Invalid index: " + index + ", structure " + name + " has no repetitions");
         }
@@ -502,12 +607,8 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
             throw new HL7Exception("Structure does not belong to this message");
         }
 
-        List<Structure> list = structures.get(name);
+        List<Structure> list = getRepetitions(indexOf(name));
 
-        if (list == null) {
-            throw new HL7Exception("The structure " + name + " does not exist in the group "
-                    + this.getClass().getName());
-        }
         if (list.size() < index) {
             throw new HL7Exception("Invalid index: " + index + ", structure " + name + " must be between 0 and "
                     + (list.size()));
@@ -532,13 +633,13 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
             throw new NullPointerException("Name may not be null/empty");
         }
 
-        Class<? extends Structure> structureClass = this.classes.get(name);
-        if (structureClass == null) {
+        int childIndex = definitions.indexOf(name);
+        if (childIndex == -1) {
             throw new HL7Exception("Group " + this.getClass().getName() + " has no structure named " + name
-                    + ": Valid names: " + this.classes.keySet());
+                    + ": Valid names: " + Arrays.asList(getNames()));
         }
 
-        Structure rep = tryToInstantiateStructure(structureClass, name);
+        Structure rep = createNewStructure(childIndex);
         insertRepetition(name, rep, index);
 
         return rep;
@@ -553,7 +654,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * @throws HL7Exception if the structure is unknown
      */
     public int getFieldNumForName(String name) throws HL7Exception {
-        int retVal = names.indexOf(name);
+        int retVal = definitions.indexOf(name);
         if (retVal == -1) {
             throw new HL7Exception("Unknown name: " + name);
         }
@@ -564,7 +665,8 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * Returns the Class of the Structure at the given name index.
      */
     public Class<? extends Structure> getClass(String name) {
-        return classes.get(name);
+        int index = definitions.indexOf(name);
+        return index == -1 ? null : definitions.getStructureClass(index);
     }
 
     /**
@@ -623,6 +725,11 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
 
     protected String insert(Class<? extends Structure> c, boolean required, boolean repeating, boolean choiceElement, 
     		int index, String name) throws HL7Exception {
+        return insert(c, required, repeating, choiceElement, false, index, name);
+    }
+
+    private String insert(Class<? extends Structure> c, boolean required, boolean repeating, boolean choiceElement,
+            boolean declared, int index, String name) throws HL7Exception {
         // tryToInstantiateStructure(c, name); //may throw exception
 
         // see if there is already something by this name and make a new name if
@@ -636,19 +743,24 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
             name = newName;
         }
 
-        if (index > this.names.size()) {
-            throw new HL7Exception("Invalid index " + index + " - Should be <= " + this.names.size());
+        if (index > definitions.size()) {
+            throw new HL7Exception("Invalid index " + index + " - Should be <= " + definitions.size());
         }
 
-        this.names.add(index, name);
-        this.required.put(name, required);
-        this.repeating.put(name, repeating);
-        this.classes.put(name, c);
-        this.structures.put(name, new ArrayList<Structure>());
-        
-        if (choiceElement) {
-        	this.choiceElements.add(name);
+        if (definitions.isShared()) {
+            definitions = definitions.copy();
+        }
+        int size = definitions.size();
+        definitions.insert(index, name, c, required, repeating, choiceElement, declared);
+
+        List<Structure>[] newStructures = structures;
+        if (newStructures.length <= size) {
+            newStructures = newStructureArray(Math.max(size * 2, 10));
+            System.arraycopy(structures, 0, newStructures, 0, index);
         }
+        System.arraycopy(structures, index, newStructures, index + 1, size - index);
+        newStructures[index] = null;
+        structures = newStructures;
 
         return name;
 	}
@@ -657,7 +769,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
      * Clears all data from this structure.
      */
     public void clear() {
-        for (List<Structure> next : structures.values()) {
+        for (List<Structure> next : structures) {
             if (next != null) {
                 next.clear();
             }
@@ -754,7 +866,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
         		}
         	}
 
-            Class<? extends Structure> nextClass = classes.get(nextName);
+            Class<? extends Structure> nextClass = getClass(nextName);
 
             boolean nextOptional = !isRequired(nextName);
             boolean nextRepeating = isRepeating(nextName);
@@ -792,7 +904,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
                 }
 
                 if (nextChildren.length == 0) {
-                    Structure structure = tryToInstantiateStructure(nextClass, nextName);
+                    Structure structure = createNewStructure(indexOf(nextName));
                     ((AbstractGroup) structure).appendStructureDescription(theStringBuilder, theIndent + PS_INDENT,
                             nextOptional, nextRepeating, true, true, thePrintEmpty);
                 }
@@ -823,7 +935,7 @@ public abstract class AbstractGroup extends AbstractStructure implements Group {
                 structurePrefix.append(" - ");
 
                 currentIndent = theStringBuilder.length() - currentIndent;
-                List<Structure> nextStructureList = structures.get(nextName);
+                List<Structure> nextStructureList = getExistingRepetitions(indexOf(nextName));
                 theStringBuilder.append(structurePrefix);
                 if (nextStructureList == null || nextStructureList.isEmpty()) {
                     theStringBuilder.append("Not populated");
@@ -29,14 +29,19 @@ this file under either the MPL or the GPL.
 
 package ca.uhn.hl7v2.model;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.Location;
 import ca.uhn.hl7v2.parser.EncodingCharacters;
 import ca.uhn.hl7v2.parser.ModelClassFactory;
+import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.util.MessageIterator;
 
 /**
  * <p>
@@ -66,13 +71,18 @@ public abstract class AbstractSegment extends AbstractStructure implements
 
 	private static final long serialVersionUID = -6686329916234746948L;
 	
-	private List<List<Type>> fields;
-	private List<Class<? extends Type>> types;
-	private List<Boolean> required;
-	private List<Integer> length;
-	private List<Object> args;
-	private List<Integer> maxReps;
-	private List<String> names;
+	private static final FieldDefinitions NO_FIELDS = new FieldDefinitions(0);
+	static {
+		NO_FIELDS.share();
+	}
+
+	private FieldDefinitions definitions;
+	private List<Type>[] fields;
+	private volatile String unparsedText;
+	private EncodingCharacters unparsedEncodingCharacters;
+	private transient Parser unparsedParser;
+	private transient boolean parsing;
+	private transient HL7Exception parseFailure;
 
 	/**
 	 * Calls the abstract init() method to create the fields in this segment.
@@ -86,13 +96,158 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 */
 	public AbstractSegment(Group parent, ModelClassFactory factory) {
 		super(parent);
-		this.fields = new ArrayList<List<Type>>();
-		this.types = new ArrayList<Class<? extends Type>>();
-		this.required = new ArrayList<Boolean>();
-		this.length = new ArrayList<Integer>();
-		this.args = new ArrayList<Object>();
-		this.maxReps = new ArrayList<Integer>();
-		this.names = new ArrayList<String>();
+		this.definitions = NO_FIELDS;
+		this.fields = newFieldArray(0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Type>[] newFieldArray(int theSize) {
+		return new List[theSize];
+	}
+
+	/**
+	 * <p>
+	 * Marks the fields added to this segment so far as the field definitions of
+	 * its class, and returns them so that they can be passed to
+	 * {@link #setFieldDefinitions(FieldDefinitions)} by subsequently created
+	 * instances of the same class. This avoids rebuilding the field descriptors
+	 * for every segment instance.
+	 * </p>
+	 * <p>
+	 * The returned definitions are immutable. If fields are added to a segment
+	 * which uses shared definitions, the segment gets a private copy first.
+	 * Implementations of this method are used by the source generator module.
+	 * </p>
+	 *
+	 * @return the field definitions of this segment
+	 */
+	protected FieldDefinitions shareFieldDefinitions() {
+		definitions.share();
+		return definitions;
+	}
+
+	/**
+	 * Makes this segment use field definitions previously returned by
+	 * {@link #shareFieldDefinitions()} of another instance of the same segment
+	 * class, instead of calling {@link #add(Class, boolean, int, int, Object[], String) add()}
+	 * for each field. This must be called before any fields are added.
+	 *
+	 * @param theDefinitions shared field definitions
+	 */
+	protected void setFieldDefinitions(FieldDefinitions theDefinitions) {
+		if (definitions.size() > 0) {
+			throw new IllegalStateException("Fields have already been added to segment " + getName());
+		}
+		if (!theDefinitions.isShared()) {
+			throw new IllegalArgumentException("Field definitions have not been shared");
+		}
+		definitions = theDefinitions;
+		fields = newFieldArray(theDefinitions.size());
+	}
+
+	/**
+	 * Makes this segment keep the given encoded text instead of being parsed
+	 * right away. The text is parsed by the given parser the first time the
+	 * fields of this segment are accessed. This is called by parsers which
+	 * parse lazily, and should not normally be called by application code.
+	 *
+	 * @param theText encoded segment, starting with the segment name
+	 * @param theEncodingCharacters encoding characters used in the text
+	 * @param theParser parser to parse the text with
+	 * @see ca.uhn.hl7v2.parser.ParserConfiguration#setLazyParsing(boolean)
+	 */
+	public synchronized void setUnparsedText(String theText, EncodingCharacters theEncodingCharacters, Parser theParser) {
+		clear();
+		unparsedEncodingCharacters = theEncodingCharacters;
+		unparsedParser = theParser;
+		unparsedText = theText;
+	}
+
+	/**
+	 * Returns the encoded text of this segment if it has not been parsed yet,
+	 * so that it can be encoded as it was received.
+	 *
+	 * @param theEncodingCharacters encoding characters the segment is going to
+	 *            be encoded with
+	 * @return the text passed to
+	 *         {@link #setUnparsedText(String, EncodingCharacters, Parser)}, or
+	 *         <code>null</code> if the segment has been parsed in the meantime
+	 *         or if the text uses different encoding characters
+	 */
+	public String getUnparsedText(EncodingCharacters theEncodingCharacters) {
+		String text = unparsedText;
+		if (text != null && unparsedEncodingCharacters.equals(theEncodingCharacters)) {
+			return text;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the text set by
+	 * {@link #setUnparsedText(String, EncodingCharacters, Parser)}, if any.
+	 * The text is parsed once, by the first thread accessing the fields, while
+	 * other threads wait for it. If parsing fails, the text is kept and the
+	 * failure is thrown on every access, instead of exposing the fields parsed
+	 * so far.
+	 */
+	private void ensureParsed() throws HL7Exception {
+		if (unparsedText == null) {
+			return;
+		}
+		synchronized (this) {
+			// the parser accesses the fields of this segment while parsing it
+			if (unparsedText == null || parsing) {
+				return;
+			}
+			if (parseFailure != null) {
+				throw parseFailure;
+			}
+			Parser parser = unparsedParser != null ? unparsedParser : getMessage().getParser();
+			parsing = true;
+			try {
+				parser.parse(this, unparsedText, unparsedEncodingCharacters);
+			} catch (HL7Exception e) {
+				clearFields();
+				parseFailure = locate(e);
+				throw parseFailure;
+			} finally {
+				parsing = false;
+			}
+			unparsedParser = null;
+			unparsedText = null;
+		}
+	}
+
+	/**
+	 * Like {@link #ensureParsed()}, for methods which can not throw an
+	 * HL7Exception
+	 */
+	private void ensureParsedUnchecked() {
+		try {
+			ensureParsed();
+		} catch (HL7Exception e) {
+			String message = "Can't parse segment: " + e.getMessage();
+			log.error(message, e);
+			throw new RuntimeException(message, e);
+		}
+	}
+
+	/**
+	 * Sets the name and repetition of this segment on an exception thrown
+	 * while parsing it lazily, like the parser does when parsing eagerly
+	 */
+	private HL7Exception locate(HL7Exception e) {
+		e.setSegmentName(getName());
+		MessageIterator.Index index = getParent() == null ? null : MessageIterator.getIndex(getParent(), this);
+		if (index != null && index.rep > 0) {
+			e.setSegmentRepetition(index.rep + 1);
+		}
+		return e;
+	}
+
+	private void writeObject(ObjectOutputStream theStream) throws IOException {
+		ensureParsedUnchecked();
+		theStream.defaultWriteObject();
 	}
 
     /**
@@ -105,6 +260,7 @@ public abstract class AbstractSegment extends AbstractStructure implements
      * @throws HL7Exception
      */
     public boolean accept(MessageVisitor visitor, Location location) throws HL7Exception {
+        ensureParsed();
         if (visitor.start(this, location)) {
             String[] names = getNames();
             for (int i = 1; i <= names.length; i++) {
@@ -129,6 +285,7 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 * one. Fields are numbered from 1.
 	 */
 	public Type[] getField(int number) throws HL7Exception {
+		ensureParsed();
 		List<Type> retVal = getFieldAsList(number);
 		return retVal.toArray(new Type[retVal.size()]); // note: fields are
 														// numbered from 1 from
@@ -140,6 +297,10 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 * @see ca.uhn.hl7v2.model.Segment#isEmpty()
 	 */
 	public boolean isEmpty() throws HL7Exception {
+		String text = unparsedText;
+		if (text != null) {
+			return isEmptyUnparsedText(text);
+		}
 		for (int i = 1; i <= numFields(); i++) {
 			Type[] types = getField(i);
 			for (Type type : types) {
@@ -149,6 +310,22 @@ public abstract class AbstractSegment extends AbstractStructure implements
 		return true;
 	}
 
+	/**
+	 * Checks whether the unparsed text contains anything but delimiters after
+	 * the segment name
+	 */
+	private boolean isEmptyUnparsedText(String theText) {
+		EncodingCharacters ec = unparsedEncodingCharacters;
+		for (int i = getName().length(); i < theText.length(); i++) {
+			char next = theText.charAt(i);
+			if (next != ec.getFieldSeparator() && next != ec.getComponentSeparator()
+					&& next != ec.getRepetitionSeparator() && next != ec.getSubcomponentSeparator()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Returns an array of a specific type class
 	 */
@@ -178,16 +355,30 @@ public abstract class AbstractSegment extends AbstractStructure implements
     }	
 
 	private List<Type> getFieldAsList(int number) throws HL7Exception {
+		ensureParsed();
 		ensureEnoughFields(number);
 
-		if (number < 1 || number > fields.size()) {
+		if (number < 1 || number > numFields()) {
 			throw new HL7Exception("Can't retrieve field " + number
 					+ " from segment " + this.getClass().getName()
-					+ " - there are only " + fields.size() + " fields.");
+					+ " - there are only " + numFields() + " fields.");
 		}
 
-		return fields.get(number - 1);
+		List<Type> retVal = fields[number - 1];
+		return retVal == null ? Collections.<Type>emptyList() : retVal;
+
+	}
 
+	/**
+	 * Returns the repetitions of a field, creating the list on first use
+	 */
+	private List<Type> getRepetitions(int number) {
+		List<Type> retVal = fields[number - 1];
+		if (retVal == null) {
+			retVal = new ArrayList<Type>(1);
+			fields[number - 1] = retVal;
+		}
+		return retVal;
 	}
 
 	/**
@@ -210,15 +401,16 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 */
 	public Type getField(int number, int rep) throws HL7Exception {
 
+		ensureParsed();
 		ensureEnoughFields(number);
 
-		if (number < 1 || number > fields.size()) {
+		if (number < 1 || number > numFields()) {
 			throw new HL7Exception("Can't get field " + number + " in segment "
 					+ getName() + " - there are currently only "
-					+ fields.size() + " reps.");
+					+ numFields() + " reps.");
 		}
 
-		List<Type> arr = fields.get(number - 1);
+		List<Type> arr = getRepetitions(number);
 
 		// check if out of range ...
 		if (rep > arr.size())
@@ -235,6 +427,22 @@ public abstract class AbstractSegment extends AbstractStructure implements
 		return arr.get(rep);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Type getExistingField(int number, int rep) throws HL7Exception {
+		ensureParsed();
+		if (number < 1 || number > numFields()) {
+			throw new HL7Exception("Can't get field " + number + " in segment "
+					+ getName() + " - there are only " + numFields() + " fields.");
+		}
+		if (rep < 0) {
+			throw new HL7Exception("Repetition must not be negative");
+		}
+		List<Type> arr = fields[number - 1];
+		return arr != null && rep < arr.size() ? arr.get(rep) : null;
+	}
+
 	/**
 	 * Returns a specific repetition of field with concrete type at the specified index
 	 */
@@ -284,7 +492,7 @@ public abstract class AbstractSegment extends AbstractStructure implements
 		}
 
 		int number = field - 1;
-		Class<? extends Type> c = this.types.get(number);
+		Class<? extends Type> c = definitions.getType(number);
 
 		Type newType;
 		try {
@@ -320,9 +528,9 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	private Object[] getArgs(int fieldNum) {
 		Object[] result;
 
-		Object o = this.args.get(fieldNum);
-		if (o != null && o instanceof Object[]) {
-			result = (Object[]) o;
+		Object[] o = definitions.getArgs(fieldNum, getMessage());
+		if (o != null) {
+			result = o;
 		} else {
 			result = new Object[] { getMessage() };
 		}
@@ -338,14 +546,15 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 *             if field index is out of range.
 	 */
 	public boolean isRequired(int number) throws HL7Exception {
-		if (number < 1 || number > required.size()) {
+		ensureParsed();
+		if (number < 1 || number > numFields()) {
 			throw new HL7Exception("Can't retrieve optionality of field "
 					+ number + " from segment " + this.getClass().getName()
-					+ " - there are only " + fields.size() + " fields.");
+					+ " - there are only " + numFields() + " fields.");
 		}
 
 		try {
-			return required.get(number - 1);
+			return definitions.isRequired(number - 1);
 		} catch (Exception e) {
 			throw new HL7Exception("Can't retrieve optionality of field "
 					+ number + ": " + e.getMessage());
@@ -360,14 +569,15 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 *             if field index is out of range.
 	 */
 	public int getLength(int number) throws HL7Exception {
-		if (number < 1 || number > length.size()) {
+		ensureParsed();
+		if (number < 1 || number > numFields()) {
 			throw new HL7Exception("Can't retrieve max length of field "
 					+ number + " from segment " + this.getClass().getName()
-					+ " - there are only " + fields.size() + " fields.");
+					+ " - there are only " + numFields() + " fields.");
 		}
 
 		try {
-			return length.get(number - 1); // fields #d from 1 to user
+			return definitions.getLength(number - 1); // fields #d from 1 to user
 		} catch (Exception e) {
 			throw new HL7Exception("Can't retrieve max length of field "
 					+ number + ": " + e.getMessage());
@@ -382,14 +592,15 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 *             if field index is out of range.
 	 */
 	public int getMaxCardinality(int number) throws HL7Exception {
-		if (number < 1 || number > length.size()) {
+		ensureParsed();
+		if (number < 1 || number > numFields()) {
 			throw new HL7Exception("Can't retrieve cardinality of field "
 					+ number + " from segment " + this.getClass().getName()
-					+ " - there are only " + fields.size() + " fields.");
+					+ " - there are only " + numFields() + " fields.");
 		}
 
 		try {
-			return maxReps.get(number - 1); // fields #d from 1 to user
+			return definitions.getMaxReps(number - 1); // fields #d from 1 to user
 		} catch (Exception e) {
 			throw new HL7Exception("Can't retrieve max repetitions of field "
 					+ number + ": " + e.getMessage());
@@ -442,14 +653,15 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	protected void add(Class<? extends Type> c, boolean required, int maxReps,
 			int length, Object[] constructorArgs, String name)
 			throws HL7Exception {
-		List<Type> arr = new ArrayList<Type>();
-		this.types.add(c);
-		this.fields.add(arr);
-		this.required.add(required);
-		this.length.add(length);
-		this.args.add(constructorArgs);
-		this.maxReps.add(maxReps);
-		this.names.add(name);
+		if (definitions.isShared()) {
+			definitions = definitions.copy();
+		}
+		definitions.add(c, required, maxReps, length, constructorArgs, name);
+		if (fields.length < definitions.size()) {
+			List<Type>[] newFields = newFieldArray(Math.max(fields.length * 2, 10));
+			System.arraycopy(fields, 0, newFields, 0, fields.length);
+			fields = newFields;
+		}
 	}
 
 	/**
@@ -521,7 +733,8 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 * are not counted multiple times).
 	 */
 	public int numFields() {
-		return this.fields.size();
+		ensureParsedUnchecked();
+		return definitions.size();
 	}
 
 	/**
@@ -546,7 +759,8 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 * {@inheritDoc}
 	 */
 	public String[] getNames() {
-		return names.toArray(new String[names.size()]);
+		ensureParsedUnchecked();
+		return definitions.getNames();
 	}
 
 	/**
@@ -593,14 +807,15 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 */
     public Type removeRepetition(int fieldNum, int index)
 			throws HL7Exception {
-		if (fieldNum < 1 || fieldNum > fields.size()) {
+		ensureParsed();
+		if (fieldNum < 1 || fieldNum > numFields()) {
 			throw new HL7Exception("The field " + fieldNum
 					+ " does not exist in the segment "
 					+ this.getClass().getName());
 		}
 
-		String name = names.get(fieldNum - 1);
-		List<Type> list = fields.get(fieldNum - 1);
+		String name = definitions.getName(fieldNum - 1);
+		List<Type> list = getRepetitions(fieldNum);
 		if (list.size() == 0) {
 			throw new HL7Exception("Invalid index: " + index + ", structure "
 					+ name + " has no repetitions");
@@ -623,13 +838,14 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	 */
 	public Type insertRepetition(int fieldNum, int index)
 			throws HL7Exception {
-		if (fieldNum < 1 || fieldNum > fields.size()) {
+		ensureParsed();
+		if (fieldNum < 1 || fieldNum > numFields()) {
 			throw new HL7Exception("The field " + fieldNum
 					+ " does not exist in the segment "
 					+ this.getClass().getName());
 		}
 
-		List<Type> list = fields.get(fieldNum - 1);
+		List<Type> list = getRepetitions(fieldNum);
 		Type newType = createNewType(fieldNum);
 
 		list.add(index, newType);
@@ -640,9 +856,19 @@ public abstract class AbstractSegment extends AbstractStructure implements
 	/**
 	 * Clears all data from this segment
 	 */
-	public void clear() {
+	public synchronized void clear() {
+		unparsedText = null;
+		unparsedEncodingCharacters = null;
+		unparsedParser = null;
+		parseFailure = null;
+		clearFields();
+	}
+
+	private void clearFields() {
 		for (List<Type> next : fields) {
-			next.clear();
+			if (next != null) {
+				next.clear();
+			}
 		}
 	}
 
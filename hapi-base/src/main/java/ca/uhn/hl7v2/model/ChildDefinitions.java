@@ -0,0 +1,262 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "ChildDefinitions.java".  Description:
+ * "The child structure descriptors of a group class"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2001.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ *
+ */
+
+package ca.uhn.hl7v2.model;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The child structure descriptors (name, structure class, optionality,
+ * repetition and choice) of a group or message, along with a table mapping
+ * child names to their index.
+ * </p>
+ * <p>
+ * Each group instance starts out with its own definitions, which are filled by
+ * {@link AbstractGroup#add(Class, boolean, boolean, boolean)}. Once
+ * {@link AbstractGroup#shareChildDefinitions() shared}, the definitions are
+ * immutable and may be used by any number of instances of the same group class
+ * within the same message class, so that the descriptors are only built once
+ * instead of once per group instance. A group which needs to add children to
+ * shared definitions (e.g. non-standard segments found while parsing) gets a
+ * private copy first.
+ * </p>
+ */
+public final class ChildDefinitions implements Serializable {
+
+	private static final long serialVersionUID = -2837516405938771734L;
+
+	private int size;
+	private String[] names;
+	private Class<? extends Structure>[] classes;
+	private boolean[] required;
+	private boolean[] repeating;
+	private boolean[] choice;
+	private int[] declaredIndexes;
+	private int declared;
+	private Map<String, Integer> indexes;
+	private Class<?> messageClass;
+	private volatile boolean shared;
+
+	ChildDefinitions(int theCapacity) {
+		allocate(Math.max(theCapacity, 1));
+		indexes = new HashMap<String, Integer>();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int theCapacity) {
+		String[] newNames = new String[theCapacity];
+		Class<?>[] newClasses = new Class<?>[theCapacity];
+		boolean[] newRequired = new boolean[theCapacity];
+		boolean[] newRepeating = new boolean[theCapacity];
+		boolean[] newChoice = new boolean[theCapacity];
+		int[] newDeclaredIndexes = new int[theCapacity];
+		if (size > 0) {
+			System.arraycopy(names, 0, newNames, 0, size);
+			System.arraycopy(classes, 0, newClasses, 0, size);
+			System.arraycopy(required, 0, newRequired, 0, size);
+			System.arraycopy(repeating, 0, newRepeating, 0, size);
+			System.arraycopy(choice, 0, newChoice, 0, size);
+			System.arraycopy(declaredIndexes, 0, newDeclaredIndexes, 0, size);
+		}
+		names = newNames;
+		classes = (Class<? extends Structure>[]) newClasses;
+		required = newRequired;
+		repeating = newRepeating;
+		choice = newChoice;
+		declaredIndexes = newDeclaredIndexes;
+	}
+
+	/**
+	 * Inserts a child at the given index, moving the children at and after the
+	 * index one position back
+	 *
+	 * @param isDeclared whether the child is part of the structure definition of
+	 *            the group class, as opposed to a non-standard structure
+	 */
+	void insert(int theIndex, String theName, Class<? extends Structure> theClass, boolean isRequired,
+			boolean isRepeating, boolean isChoice, boolean isDeclared) {
+		if (shared) {
+			throw new IllegalStateException("Shared child definitions can not be modified");
+		}
+		if (theIndex < 0 || theIndex > size) {
+			throw new IndexOutOfBoundsException("Child index " + theIndex + " but there are only " + size + " children");
+		}
+		if (size == names.length) {
+			allocate(size * 2);
+		}
+		int moved = size - theIndex;
+		if (moved > 0) {
+			System.arraycopy(names, theIndex, names, theIndex + 1, moved);
+			System.arraycopy(classes, theIndex, classes, theIndex + 1, moved);
+			System.arraycopy(required, theIndex, required, theIndex + 1, moved);
+			System.arraycopy(repeating, theIndex, repeating, theIndex + 1, moved);
+			System.arraycopy(choice, theIndex, choice, theIndex + 1, moved);
+			System.arraycopy(declaredIndexes, theIndex, declaredIndexes, theIndex + 1, moved);
+		}
+		names[theIndex] = theName;
+		classes[theIndex] = theClass;
+		required[theIndex] = isRequired;
+		repeating[theIndex] = isRepeating;
+		choice[theIndex] = isChoice;
+		declaredIndexes[theIndex] = isDeclared ? declared++ : -1;
+		size++;
+		for (int i = theIndex; i < size; i++) {
+			indexes.put(names[i], i);
+		}
+	}
+
+	/**
+	 * Marks these definitions as shared, after which they can not be modified
+	 * any more.
+	 *
+	 * @param theMessageClass the class of the message the group belongs to. The
+	 *            names of child groups are derived from it.
+	 */
+	void share(Class<?> theMessageClass) {
+		if (shared) {
+			return;
+		}
+		messageClass = theMessageClass;
+		shared = true;
+	}
+
+	/**
+	 * @return a modifiable copy of these definitions
+	 */
+	ChildDefinitions copy() {
+		ChildDefinitions retVal = new ChildDefinitions(size + 5);
+		retVal.size = size;
+		System.arraycopy(names, 0, retVal.names, 0, size);
+		System.arraycopy(classes, 0, retVal.classes, 0, size);
+		System.arraycopy(required, 0, retVal.required, 0, size);
+		System.arraycopy(repeating, 0, retVal.repeating, 0, size);
+		System.arraycopy(choice, 0, retVal.choice, 0, size);
+		System.arraycopy(declaredIndexes, 0, retVal.declaredIndexes, 0, size);
+		retVal.declared = declared;
+		retVal.indexes.putAll(indexes);
+		return retVal;
+	}
+
+	boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * @return the class of the message these definitions were shared for
+	 */
+	Class<?> getMessageClass() {
+		return messageClass;
+	}
+
+	/**
+	 * @return the number of children defined
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param theName child name
+	 * @return the zero based index of the named child, or -1 if there is no
+	 *         child by that name
+	 */
+	public int indexOf(String theName) {
+		Integer retVal = indexes.get(theName);
+		return retVal == null ? -1 : retVal;
+	}
+
+	/**
+	 * @param theIndex zero based child index
+	 * @return the name of the child
+	 */
+	public String getName(int theIndex) {
+		return names[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @return the names of all children
+	 */
+	public String[] getNames() {
+		String[] retVal = new String[size];
+		System.arraycopy(names, 0, retVal, 0, size);
+		return retVal;
+	}
+
+	/**
+	 * @param theIndex zero based child index
+	 * @return the structure class of the child
+	 */
+	public Class<? extends Structure> getStructureClass(int theIndex) {
+		return classes[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based child index
+	 * @return whether the child is required
+	 */
+	public boolean isRequired(int theIndex) {
+		return required[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based child index
+	 * @return whether the child may repeat
+	 */
+	public boolean isRepeating(int theIndex) {
+		return repeating[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based child index
+	 * @return whether the child is a choice element
+	 */
+	public boolean isChoiceElement(int theIndex) {
+		return choice[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based child index
+	 * @return the zero based position of the child in the order in which the
+	 *         group class declared its children, or -1 if the child is a
+	 *         non-standard structure. Unlike the child index, this does not
+	 *         change when non-standard structures are inserted.
+	 */
+	public int getDeclaredIndex(int theIndex) {
+		return declaredIndexes[checkIndex(theIndex)];
+	}
+
+	private int checkIndex(int theIndex) {
+		if (theIndex >= size) {
+			throw new IndexOutOfBoundsException("Child index " + theIndex + " but there are only " + size + " children");
+		}
+		return theIndex;
+	}
+
+}
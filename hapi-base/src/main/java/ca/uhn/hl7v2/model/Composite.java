@@ -52,4 +52,15 @@ public interface Composite extends Type {
    */
   public Type getComponent(int number) throws DataTypeException;
 
+  /**
+   * Returns the single component of this composite at the specified position (starting at 0)
+   * if it exists. Unlike {@link #getComponent(int)}, this never creates a component. A
+   * component which has not been created is empty.
+   *
+   * @param number index of the component to be retrieved (zero-based)
+   * @return component at this index, or <code>null</code> if it has not been created
+   * @throws DataTypeException if the index is out of range for this type
+   */
+  public Type getExistingComponent(int number) throws DataTypeException;
+
 }
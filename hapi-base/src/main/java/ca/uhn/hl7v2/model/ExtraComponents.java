@@ -73,6 +73,18 @@ public class ExtraComponents implements Serializable {
         ensureComponentAndPredecessorsExist(comp);
         return this.comps.get(comp);
     }
+
+    /**
+     * Returns the component at the given location if it exists, without
+     * creating it.
+     *
+     * @param comp the extra component number starting at 0 (i.e. 0 is the first 
+     *      extra component)
+     * @return component at the given index, or <code>null</code> if it does not exist
+     */
+    public Variable getExistingComponent(int comp) {
+        return comp < this.comps.size() ? this.comps.get(comp) : null;
+    }
     
     /**
      * Checks that the component at the given location exists, and that 
@@ -0,0 +1,247 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "FieldDefinitions.java".  Description:
+ * "The field descriptors of a segment class"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2001.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ *
+ */
+
+package ca.uhn.hl7v2.model;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * The field descriptors (datatype class, optionality, length, cardinality,
+ * constructor arguments and name) of a segment.
+ * </p>
+ * <p>
+ * Each segment instance starts out with its own definitions, which are filled
+ * by {@link AbstractSegment#add(Class, boolean, int, int, Object[], String)}.
+ * Once {@link AbstractSegment#shareFieldDefinitions() shared}, the definitions
+ * are immutable and may be used by any number of instances of the same segment
+ * class, so that the descriptors are only built once per class instead of once
+ * per segment instance. A segment which needs to add fields to shared
+ * definitions (e.g. for unexpected fields found while parsing) gets a private
+ * copy first.
+ * </p>
+ */
+public final class FieldDefinitions implements Serializable {
+
+	private static final long serialVersionUID = 6049208398312096476L;
+
+	/**
+	 * Stands in for the owning message in the constructor arguments of shared
+	 * definitions, which must not hold on to the message of the segment which
+	 * created them
+	 */
+	enum Placeholder {
+		MESSAGE
+	}
+
+	private int size;
+	private Class<? extends Type>[] types;
+	private boolean[] required;
+	private int[] length;
+	private int[] maxReps;
+	private Object[][] args;
+	private String[] names;
+	private volatile boolean shared;
+
+	FieldDefinitions(int theCapacity) {
+		allocate(Math.max(theCapacity, 1));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int theCapacity) {
+		Class<?>[] newTypes = new Class<?>[theCapacity];
+		boolean[] newRequired = new boolean[theCapacity];
+		int[] newLength = new int[theCapacity];
+		int[] newMaxReps = new int[theCapacity];
+		Object[][] newArgs = new Object[theCapacity][];
+		String[] newNames = new String[theCapacity];
+		if (size > 0) {
+			System.arraycopy(types, 0, newTypes, 0, size);
+			System.arraycopy(required, 0, newRequired, 0, size);
+			System.arraycopy(length, 0, newLength, 0, size);
+			System.arraycopy(maxReps, 0, newMaxReps, 0, size);
+			System.arraycopy(args, 0, newArgs, 0, size);
+			System.arraycopy(names, 0, newNames, 0, size);
+		}
+		types = (Class<? extends Type>[]) newTypes;
+		required = newRequired;
+		length = newLength;
+		maxReps = newMaxReps;
+		args = newArgs;
+		names = newNames;
+	}
+
+	void add(Class<? extends Type> theType, boolean isRequired, int theMaxReps, int theLength, Object[] theConstructorArgs, String theName) {
+		if (shared) {
+			throw new IllegalStateException("Shared field definitions can not be modified");
+		}
+		if (size == types.length) {
+			allocate(size * 2);
+		}
+		types[size] = theType;
+		required[size] = isRequired;
+		maxReps[size] = theMaxReps;
+		length[size] = theLength;
+		args[size] = theConstructorArgs;
+		names[size] = theName;
+		size++;
+	}
+
+	/**
+	 * Marks these definitions as shared, after which they can not be modified
+	 * any more. References to the message in the constructor arguments are
+	 * replaced by a placeholder.
+	 */
+	void share() {
+		if (shared) {
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			Object[] next = args[i];
+			if (next == null) {
+				continue;
+			}
+			Object[] copy = null;
+			for (int j = 0; j < next.length; j++) {
+				if (next[j] instanceof Message) {
+					if (copy == null) {
+						copy = next.clone();
+					}
+					copy[j] = Placeholder.MESSAGE;
+				}
+			}
+			if (copy != null) {
+				args[i] = copy;
+			}
+		}
+		shared = true;
+	}
+
+	/**
+	 * @return a modifiable copy of these definitions
+	 */
+	FieldDefinitions copy() {
+		FieldDefinitions retVal = new FieldDefinitions(size + 10);
+		retVal.size = size;
+		System.arraycopy(types, 0, retVal.types, 0, size);
+		System.arraycopy(required, 0, retVal.required, 0, size);
+		System.arraycopy(length, 0, retVal.length, 0, size);
+		System.arraycopy(maxReps, 0, retVal.maxReps, 0, size);
+		System.arraycopy(args, 0, retVal.args, 0, size);
+		System.arraycopy(names, 0, retVal.names, 0, size);
+		return retVal;
+	}
+
+	boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * @return the number of fields defined
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param theIndex zero based field index
+	 * @return the datatype class of the field
+	 */
+	public Class<? extends Type> getType(int theIndex) {
+		return types[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based field index
+	 * @return whether the field is required
+	 */
+	public boolean isRequired(int theIndex) {
+		return required[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based field index
+	 * @return the maximum length of the field
+	 */
+	public int getLength(int theIndex) {
+		return length[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based field index
+	 * @return the maximum number of repetitions of the field (0 means no
+	 *         limit)
+	 */
+	public int getMaxReps(int theIndex) {
+		return maxReps[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @param theIndex zero based field index
+	 * @return the name of the field
+	 */
+	public String getName(int theIndex) {
+		return names[checkIndex(theIndex)];
+	}
+
+	/**
+	 * @return the names of all fields
+	 */
+	public String[] getNames() {
+		String[] retVal = new String[size];
+		System.arraycopy(names, 0, retVal, 0, size);
+		return retVal;
+	}
+
+	/**
+	 * Returns the constructor arguments for the datatype of a field, with the
+	 * given message in place of the message placeholder
+	 */
+	Object[] getArgs(int theIndex, Message theMessage) {
+		Object[] retVal = args[checkIndex(theIndex)];
+		if (retVal == null) {
+			return null;
+		}
+		for (int i = 0; i < retVal.length; i++) {
+			if (retVal[i] == Placeholder.MESSAGE) {
+				if (retVal == args[theIndex]) {
+					retVal = retVal.clone();
+				}
+				retVal[i] = theMessage;
+			}
+		}
+		return retVal;
+	}
+
+	private int checkIndex(int theIndex) {
+		if (theIndex >= size) {
+			throw new IndexOutOfBoundsException("Field index " + theIndex + " but there are only " + size + " fields");
+		}
+		return theIndex;
+	}
+
+}
@@ -37,6 +37,15 @@ public class GenericComposite extends AbstractComposite {
         }
         return components.get(number);
     }    
+
+    /**
+     * Returns the component at the specified position (starting at 0) if it exists,
+     * without creating it or any components before it.
+     */
+    @Override
+    public Type getExistingComponent(int number) throws DataTypeException {
+        return number < components.size() ? components.get(number) : null;
+    }
     
     /** 
      * Returns an array containing the components of this field.
@@ -45,6 +54,14 @@ public class GenericComposite extends AbstractComposite {
     	return components.toArray(new Type[components.size()]);
     }    
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int numComponents() {
+        return components.size();
+    }
+
     /** Returns the name of the type (used in XML encoding and profile checking)  */
     public String getName() {
         return "UNKNOWN";
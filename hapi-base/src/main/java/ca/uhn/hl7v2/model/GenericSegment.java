@@ -1,5 +1,7 @@
 package ca.uhn.hl7v2.model;
 
+import ca.uhn.hl7v2.HL7Exception;
+
 /**
  * An unspecified segment that has an undefined number of fields, each 
  * of which is a Varies.  The primary intended use is to store data from 
@@ -33,6 +35,18 @@ public class GenericSegment extends AbstractSegment {
         return this.name;
     }
 
+    /**
+     * As the fields of a generic segment are not defined, fields beyond the
+     * last one found in the message are absent rather than invalid.
+     */
+    @Override
+    public Type getExistingField(int number, int rep) throws HL7Exception {
+        if (number > numFields()) {
+            return null;
+        }
+        return super.getExistingField(number, rep);
+    }
+
 
     /**
      * {@inheritDoc}
@@ -79,6 +79,19 @@ public interface Group extends Structure {
    *    existing number of repetitions.  
    */
   public Structure get(String name, int rep) throws HL7Exception;
+
+  /**
+   * Returns a particular repetition of the named Structure if it exists. Unlike
+   * {@link #get(String, int)}, this never creates a Structure, so it may be used
+   * by code which only reads the message.
+   *
+   * @param name name of the structure
+   * @param rep repetition (zero-based)
+   * @return particular repetition of the named structure, or <code>null</code> if
+   *    it does not exist
+   * @throws HL7Exception if the named Structure is not part of this group
+   */
+  public Structure getExisting(String name, int rep) throws HL7Exception;
   
   /**
    * Returns true if the named structure is required.
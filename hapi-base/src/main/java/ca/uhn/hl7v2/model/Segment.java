@@ -70,6 +70,19 @@ public interface Segment extends Structure {
      */
     public Type getField(int number, int rep) throws HL7Exception;
 
+    /**
+     * Returns a specific repetition of field at the specified index if it exists.
+     * Unlike {@link #getField(int, int)}, this never creates a field or repetition,
+     * so it may be used by code which only reads the segment.
+     * @param number the field number (starting at 1)
+     * @param rep the repetition number (starting at 0)
+     * @return field at the specified field number and repetition, or <code>null</code>
+     *    if it does not exist
+     * @throws HL7Exception if the field number is less than 1, or greater than the number of
+     *    fields defined for the segment and found in the message
+     */
+    public Type getExistingField(int number, int rep) throws HL7Exception;
+
     /**
      * Returns the maximum length of the field at the given index, in characters.
      * @param number field number starting at 1
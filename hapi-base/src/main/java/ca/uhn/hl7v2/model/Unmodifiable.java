@@ -240,6 +240,11 @@ public final class Unmodifiable {
             return types[rep];
         }
 
+        public Type getExistingField(int number, int rep) throws HL7Exception {
+            Type type = getDelegate().getExistingField(number, rep);
+            return type == null ? null : unmodifiableType(type);
+        }
+
         public int getLength(int number) throws HL7Exception {
             return getDelegate().getLength(number);
         }
@@ -298,6 +303,11 @@ public final class Unmodifiable {
             return getAll(name)[rep];
         }
 
+        public Structure getExisting(String name, int rep) throws HL7Exception {
+            Structure structure = getDelegate().getExisting(name, rep);
+            return structure == null ? null : unmodifiableStructure(structure);
+        }
+
         public boolean isRequired(String name) throws HL7Exception {
             return getDelegate().isRequired(name);
         }
@@ -463,6 +473,11 @@ public final class Unmodifiable {
             return unmodifiableType(type);
         }
 
+        public Type getExistingComponent(int number) throws DataTypeException {
+            Type type = getDelegate().getExistingComponent(number);
+            return type == null ? null : unmodifiableType(type);
+        }
+
     }
 
     private static class UnmodifiableVaries extends UnmodifiableType<Variable> implements Variable {
@@ -519,6 +534,12 @@ public final class Unmodifiable {
             return unmodifiableType(delegate.getComponent(comp));
         }
 
+        @Override
+        public Variable getExistingComponent(int comp) {
+            Variable v = delegate.getExistingComponent(comp);
+            return v == null ? null : unmodifiableType(v);
+        }
+
         @Override
         void clear() {
             throw new UnsupportedOperationException("This ExtraComponents is unmodifiable");
@@ -2,7 +2,9 @@ package ca.uhn.hl7v2.model.composite;
 
 import ca.uhn.hl7v2.model.AbstractType;
 import ca.uhn.hl7v2.model.Composite;
+import ca.uhn.hl7v2.model.DataTypeException;
 import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Type;
 
 /**
  * NOT YET IN USE
@@ -16,6 +18,13 @@ public abstract class AbstractPersonNameComposite extends AbstractType implement
 		super(theMessage);
 	}
 
+	/**
+	 * The default implementation just calls {@link #getComponent(int)}.
+	 */
+	public Type getExistingComponent(int number) throws DataTypeException {
+		return getComponent(number);
+	}
+
 
 //	/**
 //	 * Returns the value as 
@@ -27,11 +27,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +65,17 @@ public class DefaultModelClassFactory extends AbstractModelClassFactory {
     private static final Map<String, String[]> packages = new HashMap<String, String[]>();
     private static List<String> ourVersions = null;
 
+    /**
+     * Classes resolved so far, keyed by type, name and version (or by class name for
+     * lookups in a specific package). Names which could not be resolved are cached
+     * as NOT_FOUND, so that misses (e.g. Z-segments) do not repeatedly go through
+     * Class.forName() and the ClassNotFoundException it throws. Classes are held
+     * weakly, so that the cache never keeps a class loader from being garbage
+     * collected.
+     */
+    private static final ConcurrentMap<String, Reference<Class<?>>> ourClasses = new ConcurrentHashMap<String, Reference<Class<?>>>();
+    private static final Reference<Class<?>> NOT_FOUND = new WeakReference<Class<?>>(null);
+
     static {
         reloadPackages();
     }
@@ -79,10 +94,10 @@ public class DefaultModelClassFactory extends AbstractModelClassFactory {
      * class, rather than being looked up (using findMessageClass() ) based on the String value of MSH-9. 
      * The exception is that Segments may have to be looked up by name when they appear 
      * in unexpected locations (e.g. by local extension) -- see findSegmentClass().</p>  
-     * <p>Note: the current implementation will be slow if there are multiple user-
-     * defined packages, because the JVM will try to load a number of non-existent 
-     * classes every parse.  This should be changed so that specific classes, rather 
-     * than packages, are registered by name.</p>
+     * <p>Note: if there are multiple user-defined packages, the JVM will try to load 
+     * a number of non-existent classes the first time a structure name is looked up. 
+     * The result (including a negative one) is cached until {@link #reloadPackages()} 
+     * is called.</p>
      * 
      * @param theName name of the desired structure in the form XXX_YYY
      * @param theVersion HL7 version (e.g. "2.3")
@@ -159,14 +174,22 @@ public class DefaultModelClassFactory extends AbstractModelClassFactory {
 
 		String classNameToTry = packageName + "." + name; 
 		 
-		try {
-            return Class.forName(classNameToTry);
-		} catch (ClassNotFoundException e) { 
-			if (log.isDebugEnabled()) {
-				log.debug("Unable to find class " + classNameToTry + ", using default", e);
+		Reference<Class<?>> ref = ourClasses.get(classNameToTry);
+		Class<?> compClass = ref == null ? null : ref.get();
+		if (compClass == null && ref != NOT_FOUND) {
+			try {
+				compClass = Class.forName(classNameToTry);
+			} catch (ClassNotFoundException e) { 
+				if (log.isDebugEnabled()) {
+					log.debug("Unable to find class " + classNameToTry + ", using default", e);
+				}
 			}
+			ourClasses.put(classNameToTry, cacheEntry(compClass));
+		}
+		if (compClass == null) {
 			return findClass(name, version, type); 
 		} 
+		return compClass;
 
     } 
     
@@ -304,6 +327,24 @@ public class DefaultModelClassFactory extends AbstractModelClassFactory {
      * @param type 'message', 'group', 'segment', or 'datatype'  
      */
     private static Class<?> findClass(String name, String version, String type) throws HL7Exception {
+        String key = type + '|' + name + '|' + version;
+        Reference<Class<?>> ref = ourClasses.get(key);
+        Class<?> compClass = ref == null ? null : ref.get();
+        if (compClass == null && ref != NOT_FOUND) {
+            compClass = loadClass(name, version, type);
+            ourClasses.put(key, cacheEntry(compClass));
+        }
+        return compClass;
+    }
+
+    private static Reference<Class<?>> cacheEntry(Class<?> theClass) {
+        return theClass == null ? NOT_FOUND : new WeakReference<Class<?>>(theClass);
+    }
+
+    /**
+     * Searches the package list for a message or segment class. 
+     */
+    private static Class<?> loadClass(String name, String version, String type) throws HL7Exception {
         Parser.assertVersionExists(version);
 
         //get list of packages to search for the corresponding message class 
@@ -349,12 +390,13 @@ public class DefaultModelClassFactory extends AbstractModelClassFactory {
 
 
     /**
-	 * Reloads the packages. Note that this should not be performed
-	 * after and messages have been parsed or otherwise generated,
-	 * as undetermined behaviour may result. 
+	 * Reloads the packages and discards all classes resolved so far. Note that
+	 * this should not be performed after and messages have been parsed or
+	 * otherwise generated, as undetermined behaviour may result. 
 	 */
 	public static void reloadPackages() {
         packages.clear();
+        ourClasses.clear();
         ourVersions = new ArrayList<String>();
         for (Version v : Version.values()) {
             try {
@@ -0,0 +1,189 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "Er7Tokenizer.java".  Description:
+ * "Char-index based tokenizer for ER7 encoded text"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2001.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ *
+ */
+
+package ca.uhn.hl7v2.parser;
+
+/**
+ * <p>
+ * Cursor over the tokens of a range of ER7 encoded text which are separated by a
+ * single delimiter character. Tokens are handed out as offsets into the original
+ * text, so walking a message does not create any intermediate strings or arrays.
+ * A String is only created if {@link #token()} is called.
+ * </p>
+ * <p>
+ * The tokens produced are the same as the ones returned by
+ * {@link PipeParser#split(String, String)}: an empty token is reported as empty
+ * (and {@link #token()} returns <code>null</code> for it), and a trailing empty
+ * token after the last delimiter is not reported at all.
+ * </p>
+ * <p>
+ * A tokenizer may be {@link #reset(String, int, int) reset} and reused for any
+ * number of ranges. Instances are not thread safe.
+ * </p>
+ */
+public final class Er7Tokenizer {
+
+	private final char myDelimiter;
+	private String myText;
+	private int myEnd;
+	private int myNextStart;
+	private int myTokenStart;
+	private int myTokenEnd;
+	private int myTokenIndex;
+	private boolean myDone;
+
+	/**
+	 * @param theDelimiter the character separating the tokens
+	 */
+	public Er7Tokenizer(char theDelimiter) {
+		myDelimiter = theDelimiter;
+		myDone = true;
+	}
+
+	/**
+	 * Creates a tokenizer positioned before the first token of the given text
+	 *
+	 * @param theText text to tokenize
+	 * @param theDelimiter the character separating the tokens
+	 */
+	public Er7Tokenizer(String theText, char theDelimiter) {
+		this(theDelimiter);
+		reset(theText, 0, theText == null ? 0 : theText.length());
+	}
+
+	/**
+	 * Positions the tokenizer before the first token within the given range of
+	 * the text
+	 *
+	 * @param theText text to tokenize. <code>null</code> is treated as an empty
+	 *            string
+	 * @param theStart index of the first character of the range (inclusive)
+	 * @param theEnd index after the last character of the range (exclusive)
+	 * @return this tokenizer
+	 */
+	public Er7Tokenizer reset(String theText, int theStart, int theEnd) {
+		myText = theText;
+		myNextStart = theStart;
+		myEnd = theText == null ? theStart : theEnd;
+		myTokenStart = theStart;
+		myTokenEnd = theStart;
+		myTokenIndex = -1;
+		myDone = false;
+		return this;
+	}
+
+	/**
+	 * Advances to the next token
+	 *
+	 * @return <code>true</code> if there is a token available, <code>false</code>
+	 *         if the end of the range has been reached
+	 */
+	public boolean next() {
+		if (myDone) {
+			return false;
+		}
+		int start = myNextStart;
+		int end = indexOf(myText, myDelimiter, start, myEnd);
+		if (end == myEnd) {
+			myDone = true;
+			if (end == start) {
+				// nothing after the last delimiter
+				return false;
+			}
+		}
+		myTokenStart = start;
+		myTokenEnd = end;
+		myNextStart = end + 1;
+		myTokenIndex++;
+		return true;
+	}
+
+	/**
+	 * @return zero based index of the current token within the range
+	 */
+	public int tokenIndex() {
+		return myTokenIndex;
+	}
+
+	/**
+	 * @return index of the first character of the current token within the text
+	 */
+	public int tokenStart() {
+		return myTokenStart;
+	}
+
+	/**
+	 * @return index after the last character of the current token within the
+	 *         text
+	 */
+	public int tokenEnd() {
+		return myTokenEnd;
+	}
+
+	/**
+	 * @return <code>true</code> if the current token has no characters
+	 */
+	public boolean isTokenEmpty() {
+		return myTokenEnd == myTokenStart;
+	}
+
+	/**
+	 * @return the current token, or <code>null</code> if it is empty
+	 */
+	public String token() {
+		return isTokenEmpty() ? null : myText.substring(myTokenStart, myTokenEnd);
+	}
+
+	/**
+	 * @return the text being tokenized
+	 */
+	public String getText() {
+		return myText;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of a character within a range of
+	 * a text. Unlike {@link String#indexOf(int, int)} the search does not go
+	 * beyond the end of the range.
+	 *
+	 * @param theText text to search
+	 * @param theChar character to search for
+	 * @param theStart index of the first character of the range (inclusive)
+	 * @param theEnd index after the last character of the range (exclusive)
+	 * @return index of the character, or <code>theEnd</code> if it does not
+	 *         occur in the range
+	 */
+	public static int indexOf(String theText, char theChar, int theStart, int theEnd) {
+		for (int i = theStart; i < theEnd; i++) {
+			if (theText.charAt(i) == theChar) {
+				return i;
+			}
+		}
+		return theEnd;
+	}
+
+}
@@ -30,6 +30,7 @@ public class ParserConfiguration {
 	private boolean allowUnknownVersions;
 	private boolean escapeSubcomponentDelimiterInPrimitive = false;
 	private IDGenerator idGenerator = new FileBasedHiLoGenerator();
+	private boolean lazyParsing = false;
 	private String myDefaultObx2Type;
 	private boolean myEncodeEmptyMandatorySegments = true;
 	private Set<String> myForcedEncode = new HashSet<String>();
@@ -243,6 +244,16 @@ public class ParserConfiguration {
 		return escapeSubcomponentDelimiterInPrimitive;
 	}
 
+	/**
+	 * Returns <code>true</code> if the {@link PipeParser} should parse in lazy mode. Default
+	 * is <code>false</code>
+	 * 
+	 * @see #setLazyParsing(boolean) for an explanation of lazy mode
+	 */
+	public boolean isLazyParsing() {
+		return lazyParsing;
+	}
+
 	/**
 	 * Returns <code>true</code> if the parser should parse in non-greedy mode. Default
 	 * is <code>false</code>
@@ -502,6 +513,29 @@ public class ParserConfiguration {
 		nonGreedyMode = theNonGreedyMode;
 	}
 
+	/**
+	 * <p>
+	 * If set to <code>true</code> (default is <code>false</code>), the {@link PipeParser}
+	 * only determines the message structure and the boundaries of the segments when
+	 * parsing a message. Each segment (except for MSH, FHS and BHS) keeps its encoded
+	 * text and is only parsed into fields when it is first accessed, e.g. through
+	 * {@link ca.uhn.hl7v2.model.Segment#getField(int, int) getField()}, a
+	 * {@link ca.uhn.hl7v2.util.Terser Terser} or a
+	 * {@link ca.uhn.hl7v2.model.MessageVisitor MessageVisitor}. Segments which are never
+	 * accessed are encoded as they were received.
+	 * </p>
+	 * <p>
+	 * This mode is useful for applications like routers which only look at a few fields
+	 * of each message. Note that validating the message accesses all segments, so lazy
+	 * parsing is only worthwhile if {@link #setValidating(boolean) validation} is
+	 * disabled. Also note that errors in the content of a segment are only reported
+	 * when the segment is accessed.
+	 * </p>
+	 */
+	public void setLazyParsing(boolean theLazyParsing) {
+		lazyParsing = theLazyParsing;
+	}
+
 	/**
 	 * If set to <code>true</code> (which is the default), {@link XMLParser XML Parsers}
 	 * will attempt to pretty-print the XML they generate. This means the messages will look
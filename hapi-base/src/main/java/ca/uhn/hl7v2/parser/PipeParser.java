@@ -29,11 +29,15 @@ package ca.uhn.hl7v2.parser;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import ca.uhn.hl7v2.validation.ValidationContext;
 import org.slf4j.Logger;
@@ -44,7 +48,10 @@ import ca.uhn.hl7v2.ErrorCode;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.model.AbstractComposite;
+import ca.uhn.hl7v2.model.AbstractSegment;
 import ca.uhn.hl7v2.model.AbstractSuperMessage;
+import ca.uhn.hl7v2.model.DataTypeException;
 import ca.uhn.hl7v2.model.DoNotCacheStructure;
 import ca.uhn.hl7v2.model.Group;
 import ca.uhn.hl7v2.model.Message;
@@ -76,7 +83,14 @@ public class PipeParser extends Parser {
 	 */
 	final static String SEGMENT_DELIMITER = "\r";
 
-	private final HashMap<Class<? extends Message>, HashMap<String, StructureDefinition>> myStructureDefinitions = new HashMap<Class<? extends Message>, HashMap<String, StructureDefinition>>();
+	private final static char SEGMENT_DELIMITER_CHAR = '\r';
+
+	/**
+	 * Structure definitions by message class and structure name. A parser
+	 * instance is commonly shared between threads, so each definition is
+	 * computed by a single task which concurrent callers wait for.
+	 */
+	private final ConcurrentMap<Class<? extends Message>, ConcurrentMap<String, FutureTask<StructureDefinition>>> myStructureDefinitions = new ConcurrentHashMap<Class<? extends Message>, ConcurrentMap<String, FutureTask<StructureDefinition>>>();
 
 	/**
 	 * System property key. If value is "true", legacy mode will default to true
@@ -88,6 +102,14 @@ public class PipeParser extends Parser {
 
 	private Boolean myLegacyMode = null;
 
+	/**
+	 * Whether a subclass overrides the public methods parsing a segment or a
+	 * field. Otherwise segments and fields are parsed directly from the
+	 * message text, without copying them into strings of their own.
+	 */
+	private final boolean myOverridesSegmentParsing = overrides("parse", Segment.class, String.class, EncodingCharacters.class, int.class);
+	private final boolean myOverridesFieldParsing = overrides("parse", Type.class, String.class, EncodingCharacters.class);
+
 	public PipeParser() {
 		super();
 	}
@@ -244,41 +266,120 @@ public class PipeParser extends Parser {
 	/**
 	 * Generates (or returns the cached value of) the message
 	 */
-	private IStructureDefinition getStructureDefinition(Message theMessage) throws HL7Exception {
+	private IStructureDefinition getStructureDefinition(final Message theMessage) throws HL7Exception {
 
-		Class<? extends Message> clazz = theMessage.getClass();
-		HashMap<String, StructureDefinition> definitions = myStructureDefinitions.get(clazz);
+		final Class<? extends Message> clazz = theMessage.getClass();
+		final String name = theMessage.getName();
+		ConcurrentMap<String, FutureTask<StructureDefinition>> definitions = myStructureDefinitions.get(clazz);
 
-		StructureDefinition retVal;
-		if (definitions != null) {
-			retVal = definitions.get(theMessage.getName());
-			if (retVal != null) {
-				return retVal;
+		if (definitions != null && name != null) {
+			FutureTask<StructureDefinition> task = definitions.get(name);
+			if (task != null && task.isDone()) {
+				return getStructureDefinition(definitions, name, task);
 			}
 		}
 
 		if (theMessage instanceof SuperStructure) {
 			Set<String> appliesTo = ((SuperStructure) theMessage).getStructuresWhichChildAppliesTo("MSH");
-			if (!appliesTo.contains(theMessage.getName())) {
-				throw new HL7Exception("Superstructure " + theMessage.getClass().getSimpleName() + " does not apply to message " + theMessage.getName() + ", can not parse.");
+			if (!appliesTo.contains(name)) {
+				throw new HL7Exception("Superstructure " + theMessage.getClass().getSimpleName() + " does not apply to message " + name + ", can not parse.");
 			}
 		}
 		
-		if (clazz.isAnnotationPresent(DoNotCacheStructure.class)) {
+		if (clazz.isAnnotationPresent(DoNotCacheStructure.class) || name == null) {
 			Holder<StructureDefinition> previousLeaf = new Holder<StructureDefinition>();
-			retVal = createStructureDefinition(theMessage, previousLeaf, theMessage.getName());
-		} else {
-			Message message = ReflectionUtil.instantiateMessage(clazz, getFactory());
-			Holder<StructureDefinition> previousLeaf = new Holder<StructureDefinition>();
-			retVal = createStructureDefinition(message, previousLeaf, theMessage.getName());
+			return createStructureDefinition(theMessage, previousLeaf, name);
+		}
 
-			if (!myStructureDefinitions.containsKey(clazz)) {
-				myStructureDefinitions.put(clazz, new HashMap<String, StructureDefinition>());
+		if (definitions == null) {
+			definitions = new ConcurrentHashMap<String, FutureTask<StructureDefinition>>();
+			ConcurrentMap<String, FutureTask<StructureDefinition>> existing = myStructureDefinitions.putIfAbsent(clazz, definitions);
+			if (existing != null) {
+				definitions = existing;
 			}
-			myStructureDefinitions.get(clazz).put(theMessage.getName(), retVal);
 		}
 
-		return retVal;
+		FutureTask<StructureDefinition> task = definitions.get(name);
+		if (task == null) {
+			FutureTask<StructureDefinition> newTask = new FutureTask<StructureDefinition>(new Callable<StructureDefinition>() {
+				public StructureDefinition call() throws HL7Exception {
+					Message message = ReflectionUtil.instantiateMessage(clazz, getFactory());
+					Holder<StructureDefinition> previousLeaf = new Holder<StructureDefinition>();
+					return createStructureDefinition(message, previousLeaf, name);
+				}
+			});
+			task = definitions.putIfAbsent(name, newTask);
+			if (task == null) {
+				task = newTask;
+				task.run();
+			}
+		}
+
+		return getStructureDefinition(definitions, name, task);
+	}
+
+	/**
+	 * Waits for a cached structure definition to be created. If creating it
+	 * failed, it is removed from the cache so that a later call tries again.
+	 */
+	private static StructureDefinition getStructureDefinition(ConcurrentMap<String, FutureTask<StructureDefinition>> theDefinitions, String theName, FutureTask<StructureDefinition> theTask) throws HL7Exception {
+		try {
+			return theTask.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HL7Exception("Interrupted while waiting for the structure definition of " + theName, e);
+		} catch (ExecutionException e) {
+			theDefinitions.remove(theName, theTask);
+			Throwable cause = e.getCause();
+			if (cause instanceof HL7Exception) {
+				throw (HL7Exception) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new HL7Exception("Can't create structure definition for " + theName, cause);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Creates and caches the structure definitions for the given message
+	 * structures, so that the first messages of each type parsed by this parser
+	 * do not have to pay the cost of building them. This is typically called
+	 * once at startup for the structures an application expects to receive.
+	 * </p>
+	 * <p>
+	 * Structure definitions are created lazily and cached anyway, so calling
+	 * this method is never required.
+	 * </p>
+	 *
+	 * @param theVersion HL7 version of the structures (e.g. "2.5")
+	 * @param theStructureNames message structure names (e.g. "ADT_A01",
+	 *            "ORU_R01")
+	 * @throws HL7Exception if a message class can not be found or instantiated
+	 *             for any of the given structures
+	 */
+	public void preloadStructureDefinitions(String theVersion, String... theStructureNames) throws HL7Exception {
+		for (String next : theStructureNames) {
+			Message message = instantiateMessage(next, theVersion, true);
+			if (message instanceof AbstractSuperMessage && message.getName() == null) {
+				((AbstractSuperMessage) message).setName(next);
+			}
+			getStructureDefinition(message);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the structure definition for the given
+	 *         message class and structure name has been created and cached
+	 */
+	boolean isStructureDefinitionCached(Class<? extends Message> theClass, String theStructureName) {
+		ConcurrentMap<String, FutureTask<StructureDefinition>> definitions = myStructureDefinitions.get(theClass);
+		FutureTask<StructureDefinition> task = definitions == null ? null : definitions.get(theStructureName);
+		return task != null && task.isDone();
 	}
 
 	private StructureDefinition createStructureDefinition(Structure theStructure, Holder<StructureDefinition> thePreviousLeaf, String theStructureName) throws HL7Exception {
@@ -346,6 +447,8 @@ public class PipeParser extends Parser {
 	/**
 	 * Parses a segment string and populates the given Segment object.
 	 * Unexpected fields are added as Varies' at the end of the segment.
+	 * This method is called for each segment while parsing a message, so
+	 * subclasses may override it to customize segment parsing.
 	 *
      * @param destination segment to parse the segment string into
      * @param segment encoded segment
@@ -356,42 +459,80 @@ public class PipeParser extends Parser {
 	 *             the string is not encoded properly
 	 */
 	public void parse(Segment destination, String segment, EncodingCharacters encodingChars, int theRepetition) throws HL7Exception {
+		parse(destination, segment, 0, segment.length(), encodingChars, theRepetition, new Er7Tokenizers(encodingChars));
+	}
+
+	/**
+	 * Parses a segment of a message, using the public method if a subclass
+	 * overrides it
+	 */
+	private void parseSegment(Segment destination, String text, int start, int end, EncodingCharacters encodingChars, int theRepetition, Er7Tokenizers tokenizers) throws HL7Exception {
+		if (myOverridesSegmentParsing) {
+			parse(destination, text.substring(start, end), encodingChars, theRepetition);
+		} else {
+			parse(destination, text, start, end, encodingChars, theRepetition, tokenizers);
+		}
+	}
+
+	/**
+	 * @return true if the runtime class overrides the given public method
+	 */
+	private boolean overrides(String theName, Class<?>... theParameterTypes) {
+		try {
+			return getClass().getMethod(theName, theParameterTypes).getDeclaringClass() != PipeParser.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Parses the segment found between the given offsets of the message text
+	 * into the given Segment object. No intermediate strings are created, only
+	 * the values of primitives are copied out of the text.
+	 */
+	private void parse(Segment destination, String text, int start, int end, EncodingCharacters encodingChars, int theRepetition, Er7Tokenizers tokenizers) throws HL7Exception {
 		int fieldOffset = 0;
-		if (isDelimDefSegment(destination.getName())) {
+		boolean isDelimDefSegment = isDelimDefSegment(destination.getName());
+		if (isDelimDefSegment) {
 			fieldOffset = 1;
 			// set field 1 to fourth character of string
 			Terser.set(destination, 1, 0, 1, 1, String.valueOf(encodingChars.getFieldSeparator()));
 		}
 
-		String[] fields = split(segment, String.valueOf(encodingChars.getFieldSeparator()));
-		// destination.setName(fields[0]);
-		for (int i = 1; i < fields.length; i++) {
-			String[] reps = split(fields[i], String.valueOf(encodingChars.getRepetitionSeparator()));
+		Er7Tokenizer fields = tokenizers.fields.reset(text, start, end);
+		Er7Tokenizer reps = tokenizers.repetitions;
+
+		// the first token is the segment name
+		fields.next();
+		while (fields.next()) {
+			int i = fields.tokenIndex();
 
 			// MSH-2 will get split incorrectly so we have to fudge it ...
-			boolean isMSH2 = isDelimDefSegment(destination.getName()) && i + fieldOffset == 2;
+			boolean isMSH2 = isDelimDefSegment && i + fieldOffset == 2;
 			if (isMSH2) {
-				reps = new String[1];
-				reps[0] = fields[i];
+				try {
+					log.trace("Parsing field {} repetition {}", i + fieldOffset, 0);
+					Type field = destination.getField(i + fieldOffset, 0);
+					Terser.getPrimitive(field, 1, 1).setValue(fields.token());
+				} catch (HL7Exception e) {
+					throw locate(e, destination, i, theRepetition);
+				}
+				continue;
 			}
 
-			for (int j = 0; j < reps.length; j++) {
+			reps.reset(text, fields.tokenStart(), fields.tokenEnd());
+			while (reps.next()) {
+				int j = reps.tokenIndex();
 				try {
 					log.trace("Parsing field {} repetition {}", i + fieldOffset, j);
 					Type field = destination.getField(i + fieldOffset, j);
-					if (isMSH2) {
-						Terser.getPrimitive(field, 1, 1).setValue(reps[j]);
+					if (myOverridesFieldParsing) {
+						parse(field, text.substring(reps.tokenStart(), reps.tokenEnd()), encodingChars);
 					} else {
-						parse(field, reps[j], encodingChars);
+						parse(field, text, reps.tokenStart(), reps.tokenEnd(), encodingChars, tokenizers);
 					}
 				} catch (HL7Exception e) {
-					// set the field location and throw again ...
-					e.setFieldPosition(i);
-					if (theRepetition > 1) {
-						e.setSegmentRepetition(theRepetition);
-					}
-					e.setSegmentName(destination.getName());
-					throw e;
+					throw locate(e, destination, i, theRepetition);
 				}
 			}
 		}
@@ -408,6 +549,18 @@ public class PipeParser extends Parser {
 
 	}
 
+	/**
+	 * Sets the field location on an exception thrown while parsing a field
+	 */
+	private static HL7Exception locate(HL7Exception e, Segment destination, int theFieldNum, int theRepetition) {
+		e.setFieldPosition(theFieldNum);
+		if (theRepetition > 1) {
+			e.setSegmentRepetition(theRepetition);
+		}
+		e.setSegmentName(destination.getName());
+		return e;
+	}
+
 	/**
 	 * @return true if the segment is MSH, FHS, or BHS. These need special
 	 *         treatment because they define delimiters.
@@ -424,6 +577,8 @@ public class PipeParser extends Parser {
 
 	/**
 	 * Fills a field with values from an unparsed string representing the field.
+	 * This method is called for each field repetition while parsing a segment,
+	 * so subclasses may override it to customize field parsing.
 	 * 
 	 * @param destinationField
 	 *            the field Type
@@ -435,15 +590,34 @@ public class PipeParser extends Parser {
 	 */
 	@Override
 	public void parse(Type destinationField, String data, EncodingCharacters encodingCharacters) throws HL7Exception {
-		String[] components = split(data, String.valueOf(encodingCharacters.getComponentSeparator()));
-		for (int i = 0; i < components.length; i++) {
-			String[] subcomponents = split(components[i], String.valueOf(encodingCharacters.getSubcomponentSeparator()));
-			for (int j = 0; j < subcomponents.length; j++) {
-				String val = subcomponents[j];
+		if (data == null) {
+			return;
+		}
+		parse(destinationField, data, 0, data.length(), encodingCharacters, new Er7Tokenizers(encodingCharacters));
+	}
+
+	/**
+	 * Fills a field with the values found between the given offsets of the
+	 * message text
+	 */
+	private void parse(Type destinationField, String text, int start, int end, EncodingCharacters encodingCharacters, Er7Tokenizers tokenizers) throws HL7Exception {
+		Escaping escaping = getParserConfiguration().getEscaping();
+		Er7Tokenizer components = tokenizers.components.reset(text, start, end);
+		Er7Tokenizer subcomponents = tokenizers.subcomponents;
+		AbstractComposite composite = destinationField instanceof AbstractComposite ? (AbstractComposite) destinationField : null;
+		while (components.next()) {
+			if (components.isTokenEmpty() && composite != null && components.tokenIndex() < composite.numComponents()
+					&& !componentExists(composite, components.tokenIndex())) {
+				// nothing to set, and creating the component would only make it empty
+				continue;
+			}
+			subcomponents.reset(text, components.tokenStart(), components.tokenEnd());
+			while (subcomponents.next()) {
+				String val = subcomponents.token();
 				if (val != null) {
-					val = getParserConfiguration().getEscaping().unescape(val, encodingCharacters);
+					val = escaping.unescape(val, encodingCharacters);
 				}
-				Terser.getPrimitive(destinationField, i + 1, j + 1).setValue(val);
+				Terser.getPrimitive(destinationField, components.tokenIndex() + 1, subcomponents.tokenIndex() + 1).setValue(val);
 			}
 		}
 	}
@@ -465,26 +639,28 @@ public class PipeParser extends Parser {
 		if (delim == null)
 			delim = "";
 
-		StringTokenizer tok = new StringTokenizer(composite, delim, true);
-		boolean previousTokenWasDelim = true;
-		while (tok.hasMoreTokens()) {
-			String thisTok = tok.nextToken();
-			if (thisTok.equals(delim)) {
-				if (previousTokenWasDelim)
-					components.add(null);
-				previousTokenWasDelim = true;
-			} else {
-				components.add(thisTok);
-				previousTokenWasDelim = false;
+		if (delim.length() == 1) {
+			Er7Tokenizer tok = new Er7Tokenizer(composite, delim.charAt(0));
+			while (tok.next()) {
+				components.add(tok.token());
+			}
+		} else {
+			StringTokenizer tok = new StringTokenizer(composite, delim, true);
+			boolean previousTokenWasDelim = true;
+			while (tok.hasMoreTokens()) {
+				String thisTok = tok.nextToken();
+				if (thisTok.equals(delim)) {
+					if (previousTokenWasDelim)
+						components.add(null);
+					previousTokenWasDelim = true;
+				} else {
+					components.add(thisTok);
+					previousTokenWasDelim = false;
+				}
 			}
 		}
 
-		String[] ret = new String[components.size()];
-		for (int i = 0; i < components.size(); i++) {
-			ret[i] = components.get(i);
-		}
-
-		return ret;
+		return components.toArray(new String[components.size()]);
 	}
 
 	/**
@@ -524,8 +700,14 @@ public class PipeParser extends Parser {
 			}
 		}
 
+		AbstractComposite composite = source instanceof AbstractComposite ? (AbstractComposite) source : null;
 		StringBuilder field = new StringBuilder();
 		for (int i = 1; i <= Terser.numComponents(source); i++) {
+			if (composite != null && i <= composite.numComponents() && !componentExists(composite, i - 1)) {
+				// never accessed, so it is empty
+				field.append(encodingChars.getComponentSeparator());
+				continue;
+			}
 			StringBuilder comp = new StringBuilder();
 			for (int j = 1; j <= Terser.numSubComponents(source, i); j++) {
 				Primitive p = Terser.getPrimitive(source, i, j);
@@ -563,6 +745,14 @@ public class PipeParser extends Parser {
 		return retVal;
 	}
 
+	private static boolean componentExists(AbstractComposite theComposite, int theIndex) {
+		try {
+			return theComposite.getExistingComponent(theIndex) != null;
+		} catch (DataTypeException e) {
+			return true;
+		}
+	}
+
 	private static String encodePrimitive(Primitive p, Escaping escaping, EncodingCharacters encodingChars) {
 		String val = (p).getValue();
 		if (val == null) {
@@ -781,6 +971,15 @@ public class PipeParser extends Parser {
 	}
 
 	private static String encode(Segment source, EncodingCharacters encodingChars, ParserConfiguration parserConfig, String currentTerserPath) {
+		// segments which were parsed lazily and never accessed are encoded as
+		// they were received
+		if (source instanceof AbstractSegment && (parserConfig == null || parserConfig.getForcedEncode().isEmpty())) {
+			String unparsedText = ((AbstractSegment) source).getUnparsedText(encodingChars);
+			if (unparsedText != null) {
+				return stripExtraDelimiters(unparsedText, encodingChars.getFieldSeparator());
+			}
+		}
+
 		StringBuilder result = new StringBuilder();
 		result.append(source.getName());
 		result.append(encodingChars.getFieldSeparator());
@@ -1115,41 +1314,37 @@ public class PipeParser extends Parser {
 		IStructureDefinition structureDef = getStructureDefinition(message);
 		MessageIterator messageIter = new MessageIterator(message, structureDef, "MSH", true);
 
-		String[] segments = split(string, SEGMENT_DELIMITER);
-
-		if (segments.length == 0) {
-			throw new HL7Exception("Invalid message content: \"" + string + "\"");
-		}
-
-		if (segments[0] == null || segments[0].length() < 4) {
+		Er7Tokenizer segments = new Er7Tokenizer(string, SEGMENT_DELIMITER_CHAR);
+		if (!segments.next() || segments.tokenEnd() - segments.tokenStart() < 4) {
 			throw new HL7Exception("Invalid message content: \"" + string + "\"");
 		}
 
+		EncodingCharacters encodingChars = getEncodingChars(string);
+		Er7Tokenizers tokenizers = new Er7Tokenizers(encodingChars);
+		boolean lazy = getParserConfiguration().isLazyParsing();
 		char delim = '|';
 		String prevName = null;
 		int repNum = 1;
-		for (int i = 0; i < segments.length; i++) {
+		do {
+			int start = segments.tokenStart();
+			int end = segments.tokenEnd();
 
 			// get rid of any leading whitespace characters ...
-			if (segments[i] != null && segments[i].length() > 0 && Character.isWhitespace(segments[i].charAt(0)))
-				segments[i] = stripLeadingWhitespace(segments[i]);
+			while (start < end && Character.isWhitespace(string.charAt(start)))
+				start++;
 
 			// sometimes people put extra segment delimiters at end of msg ...
-			if (segments[i] != null && segments[i].length() >= 3) {
+			if (end - start >= 3) {
 
 				final String name;
-				if (i == 0) {
-					if (segments[i].length() < 4) {
+				if (segments.tokenIndex() == 0) {
+					if (end - start < 4) {
 						throw new HL7Exception("Invalid message content: \"" + string + "\"");
 					}
-					name = segments[i].substring(0, 3);
-					delim = segments[i].charAt(3);
+					name = string.substring(start, start + 3);
+					delim = string.charAt(start + 3);
 				} else {
-					if (segments[i].indexOf(delim) >= 0) {
-						name = segments[i].substring(0, segments[i].indexOf(delim));
-					} else {
-						name = segments[i];
-					}
+					name = string.substring(start, Er7Tokenizer.indexOf(string, delim, start, end));
 				}
 
 				log.trace("Parsing segment {}", name);
@@ -1166,7 +1361,11 @@ public class PipeParser extends Parser {
 				try {
 					if (messageIter.hasNext()) {
 						Segment next = (Segment) messageIter.next();
-						parse(next, segments[i], getEncodingChars(string), repNum);
+						if (lazy && next instanceof AbstractSegment && !isDelimDefSegment(name)) {
+							((AbstractSegment) next).setUnparsedText(string.substring(start, end), encodingChars, this);
+						} else {
+							parseSegment(next, string, start, end, encodingChars, repNum, tokenizers);
+						}
 					}
 				} catch (Error e) {
 					if (e.getCause() instanceof HL7Exception) {
@@ -1175,7 +1374,7 @@ public class PipeParser extends Parser {
 					throw e;
 				}
 			}
-		}
+		} while (segments.next());
 		
 		applySuperStructureName(message);
 	}
@@ -1194,6 +1393,24 @@ public class PipeParser extends Parser {
 		}
 	}
 
+	/**
+	 * The tokenizers used for each level below the segment, reused for all
+	 * segments of a message
+	 */
+	private static class Er7Tokenizers {
+		private final Er7Tokenizer fields;
+		private final Er7Tokenizer repetitions;
+		private final Er7Tokenizer components;
+		private final Er7Tokenizer subcomponents;
+
+		public Er7Tokenizers(EncodingCharacters theEncodingChars) {
+			fields = new Er7Tokenizer(theEncodingChars.getFieldSeparator());
+			repetitions = new Er7Tokenizer(theEncodingChars.getRepetitionSeparator());
+			components = new Er7Tokenizer(theEncodingChars.getComponentSeparator());
+			subcomponents = new Er7Tokenizer(theEncodingChars.getSubcomponentSeparator());
+		}
+	}
+
 	private static class Holder<T> {
 		private T myObject;
 
@@ -44,6 +44,7 @@ import org.w3c.dom.NodeList;
 import ca.uhn.hl7v2.ErrorCode;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.AbstractComposite;
 import ca.uhn.hl7v2.model.Composite;
 import ca.uhn.hl7v2.model.DataTypeException;
 import ca.uhn.hl7v2.model.GenericComposite;
@@ -659,12 +660,19 @@ public abstract class XMLParser extends Parser {
 	 */
 	private boolean encodeComposite(Composite datatypeObject, Element datatypeElement)
 			throws DataTypeException {
-		Type[] components = datatypeObject.getComponents();
+		AbstractComposite composite = datatypeObject instanceof AbstractComposite ? (AbstractComposite) datatypeObject : null;
+		Type[] components = composite == null ? datatypeObject.getComponents() : null;
+		int numComponents = composite == null ? components.length : composite.numComponents();
 		boolean hasValue = false;
-		for (int i = 0; i < components.length; i++) {
+		for (int i = 0; i < numComponents; i++) {
+			Type component = composite == null ? components[i] : composite.getExistingComponent(i);
+			if (component == null) {
+				// never accessed, so it is empty
+				continue;
+			}
 			String name = makeElementName(datatypeObject, i + 1);
 			Element newNode = datatypeElement.getOwnerDocument().createElement(name);
-			boolean componentHasValue = encode(components[i], newNode);
+			boolean componentHasValue = encode(component, newNode);
 			if (componentHasValue) {
 				try {
 					datatypeElement.appendChild(newNode);
@@ -3,6 +3,7 @@
  */
 package ca.uhn.hl7v2.preparser;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
@@ -67,6 +68,100 @@ public class PreParser {
         return getFields(theMessageText, paths);
     }
     
+    /**
+     * Extracts selected fields from the MSH segment of a message, like
+     * {@link #getFields(String, String...)} does for paths like
+     * <code>MSH-9-2</code>, i.e. the first subcomponent of the given
+     * component of the first repetition. As this is needed before a message
+     * can be routed, the MSH segment of an ER7 message is scanned directly,
+     * without looking at the following segments. XML messages and escaped
+     * values are left to {@link #getFields(String, String...)}.
+     *
+     * @param theMessageText an unparsed message from which to get fields
+     * @param theFields {field, component} of each value to get
+     * @return field values, <code>null</code> where a value is empty
+     * @throws HL7Exception if the message is neither ER7 nor XML
+     */
+    public static String[] getMSHFields(String theMessageText, int[][] theFields) throws HL7Exception {
+        if (!theMessageText.startsWith("MSH")) {
+            return getFields(theMessageText, toPaths(theFields));
+        }
+        int end = theMessageText.length();
+        for (int i = 0; i < end; i++) {
+            char next = theMessageText.charAt(i);
+            if (next == '\r' || next == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 8) {
+            throw new HL7Exception("MSH segment is too short: " + theMessageText.substring(0, end));
+        }
+        String msh = theMessageText.substring(0, end);
+        char fieldSep = msh.charAt(3);
+        char compSep = msh.charAt(4);
+        char repSep = msh.charAt(5);
+        char escape = msh.charAt(6);
+        char subSep = msh.charAt(7);
+
+        // MSH-1 is the field separator, so MSH-n starts after the (n-1)-th
+        List<Integer> fieldStarts = new ArrayList<Integer>(20);
+        for (int i = 3; i < msh.length(); i++) {
+            if (msh.charAt(i) == fieldSep) {
+                fieldStarts.add(i + 1);
+            }
+        }
+        String[] retVal = new String[theFields.length];
+        for (int i = 0; i < theFields.length; i++) {
+            int field = theFields[i][0] - 2;
+            if (field >= fieldStarts.size()) {
+                continue;
+            }
+            int start = fieldStarts.get(field);
+            int stop = field + 1 < fieldStarts.size() ? fieldStarts.get(field + 1) - 1 : msh.length();
+            for (int component = 1; component < theFields[i][1] && start <= stop; component++) {
+                int next = indexOf(msh, compSep, repSep, start, stop);
+                start = next < stop && msh.charAt(next) == compSep ? next + 1 : stop + 1;
+            }
+            if (start > stop) {
+                continue;
+            }
+            int valueEnd = indexOf(msh, compSep, repSep, start, stop);
+            int subEnd = msh.indexOf(subSep, start);
+            if (subEnd >= 0 && subEnd < valueEnd) {
+                valueEnd = subEnd;
+            }
+            String value = msh.substring(start, valueEnd);
+            if (value.indexOf(escape) >= 0) {
+                return getFields(msh, toPaths(theFields));
+            }
+            retVal[i] = value.length() > 0 ? value : null;
+        }
+        return retVal;
+    }
+
+    private static String[] toPaths(int[][] theFields) {
+        String[] retVal = new String[theFields.length];
+        for (int i = 0; i < theFields.length; i++) {
+            retVal[i] = "MSH-" + theFields[i][0] + "-" + theFields[i][1];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the position of the first of the two characters between start
+     * and stop, or stop
+     */
+    private static int indexOf(String theString, char theOne, char theOther, int theStart, int theStop) {
+        for (int i = theStart; i < theStop; i++) {
+            char next = theString.charAt(i);
+            if (next == theOne || next == theOther) {
+                return i;
+            }
+        }
+        return theStop;
+    }
+
     /** 
      * Gets selected fields from a message, as with String[] arg version but 
      * using DatumPaths. 
@@ -5,9 +5,13 @@ package ca.uhn.hl7v2.protocol.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import ca.uhn.hl7v2.AcknowledgmentCode;
 import ca.uhn.hl7v2.HL7Exception;
@@ -19,8 +23,10 @@ import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.model.Segment;
 import ca.uhn.hl7v2.parser.GenericParser;
 import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.preparser.PreParser;
 import ca.uhn.hl7v2.protocol.*;
 import ca.uhn.hl7v2.util.DeepCopy;
+import ca.uhn.hl7v2.util.ER7AckBuilder;
 import ca.uhn.hl7v2.util.Terser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,8 +53,17 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      */
     public static final String RAW_MESSAGE_KEY = MetadataKeys.IN_RAW_MESSAGE;
 
-    private List<Binding> myBindings;
+    /**
+     * Routing data, message control ID and the fields needed for a reject,
+     * as read from the header of an unparsed message: {field, component}
+     */
+    private static final int[][] HEADER_FIELDS = {{9, 1}, {9, 2}, {11, 1}, {12, 1}, {10, 1},
+            {3, 1}, {4, 1}, {5, 1}, {6, 1}};
+    private static final int[][] CHARSET_FIELD = {{18, 1}};
+
+    private volatile RoutingTable myBindings;
     private Parser myParser;
+    private ER7AckBuilder myAckBuilder;
     private ReceivingApplicationExceptionHandler myExceptionHandler;
     private HapiContext myContext;
     private AcknowledgmentCode defaultAcknowledgementMode = DEFAULT_EXCEPTION_ACKNOWLEDGEMENT_CODE;
@@ -90,8 +105,9 @@ public class ApplicationRouterImpl implements ApplicationRouter {
     }
 
     private void init(Parser theParser) {
-        myBindings = new ArrayList<Binding>(20);
+        myBindings = new RoutingTable(Collections.<Binding>emptyList());
         myParser = theParser;
+        myAckBuilder = new ER7AckBuilder(theParser);
     }
 
     public void setDefaultAcknowledgementMode(AcknowledgmentCode defaultAcknowledgementMode) {
@@ -117,7 +133,9 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      * Message processing consists of parsing the message, finding an appropriate
      * Application and processing the message with it, and encoding the response.
      * Applications are chosen from among those registered using
-     * <code>bindApplication</code>.
+     * <code>bindApplication</code>. If the message can be handled using the
+     * routing data in its header only, it is not parsed at all, see
+     * {@link #preRoute(String, Map)}.
      *
      * @return {text, charset}
      */
@@ -131,14 +149,20 @@ public class ApplicationRouterImpl implements ApplicationRouter {
         log.debug("ApplicationRouterImpl got message: {}", incomingMessageString);
         rawInbound.debug(incomingMessageString);
 
+        String[] preRouted = preRoute(incomingMessageString, theMetadata);
+        if (preRouted != null) {
+            log.debug("ApplicationRouterImpl sending message: {}", preRouted[0]);
+            rawOutbound.debug(preRouted[0]);
+            return preRouted;
+        }
+
         Message incomingMessageObject = null;
         String outgoingMessageString = null;
         String outgoingMessageCharset = null;
         try {
             incomingMessageObject = myParser.parse(incomingMessageString);
 
-            Terser inTerser = new Terser(incomingMessageObject);
-            theMetadata.put(MetadataKeys.IN_MESSAGE_CONTROL_ID, inTerser.get("/.MSH-10"));
+            theMetadata.put(MetadataKeys.IN_MESSAGE_CONTROL_ID, getHeaderField(incomingMessageObject, 10, 1));
 
         } catch (HL7Exception e) {
             log.debug("Exception parsing incoming message", e);
@@ -171,13 +195,18 @@ public class ApplicationRouterImpl implements ApplicationRouter {
                 theMetadata.put(RAW_MESSAGE_KEY, incomingMessageString);
 
                 log.debug("Sending message to application: {}", app.toString());
-                Message response = app.processMessage(incomingMessageObject, theMetadata);
+                // subclasses may override processMessage(Message, Map), so only the plain DefaultApplication
+                if (app.getClass() == DefaultApplication.class && isUseAckTemplates(incomingMessageString)) {
+                    outgoingMessageString = ((DefaultApplication) app).processMessage(incomingMessageString, myAckBuilder);
+                }
+                if (outgoingMessageString == null) {
+                    Message response = app.processMessage(incomingMessageObject, theMetadata);
 
-                //Here we explicitly use the same encoding as that of the inbound message - this is important with GenericParser, which might use a different encoding by default
-                outgoingMessageString = myParser.encode(response, myParser.getEncoding(incomingMessageString));
+                    //Here we explicitly use the same encoding as that of the inbound message - this is important with GenericParser, which might use a different encoding by default
+                    outgoingMessageString = myParser.encode(response, myParser.getEncoding(incomingMessageString));
 
-                Terser t = new Terser(response);
-                outgoingMessageCharset = t.get(METADATA_KEY_MESSAGE_CHARSET);
+                    outgoingMessageCharset = getHeaderField(response, 18, 1);
+                }
             } catch (Exception e) {
                 outgoingMessageString = handleProcessMessageException(incomingMessageString, theMetadata, incomingMessageObject, e);
             } catch (Error e) {
@@ -193,10 +222,111 @@ public class ApplicationRouterImpl implements ApplicationRouter {
         return new String[]{outgoingMessageString, outgoingMessageCharset};
     }
 
-    private String handleProcessMessageException(String incomingMessageString, Map<String, Object> theMetadata, Message incomingMessageObject, Exception e) throws HL7Exception {
+    /**
+     * Reads the routing data from the header of the unparsed message, and
+     * handles the message without parsing it if the first application
+     * accepting it is a {@link RawReceivingApplication}, or if no application
+     * is bound to it and {@link ca.uhn.hl7v2.app.ServerConfiguration#setRejectUnroutedBeforeParsing(boolean)
+     * unrouted messages are rejected before parsing}.
+     *
+     * @return {text, charset}, or <code>null</code> if the message has to be parsed
+     */
+    private String[] preRoute(String incomingMessageString, Map<String, Object> theMetadata) throws HL7Exception {
+        RoutingTable bindings = myBindings;
+        boolean rejectUnrouted = myContext.getServerConfiguration().isRejectUnroutedBeforeParsing();
+        if (!bindings.hasRawApplications && !rejectUnrouted) {
+            return null;
+        }
+
+        String[] header;
+        try {
+            header = PreParser.getMSHFields(incomingMessageString, HEADER_FIELDS);
+        } catch (HL7Exception e) {
+            log.debug("Can't read routing data from message header, going to parse the message: {}", e.getMessage());
+            return null;
+        }
+
+        AppRoutingData routingData = new AppRoutingDataImpl(header[0], header[1], header[2], header[3]);
+        RawReceivingApplication app = null;
+        for (Binding next : bindings.getCandidates(routingData)) {
+            if (!(next.application instanceof RawReceivingApplication)) {
+                // the application needs the parsed message
+                return null;
+            }
+            RawReceivingApplication candidate = (RawReceivingApplication) next.application;
+            if (candidate.canProcess(incomingMessageString)) {
+                app = candidate;
+                break;
+            }
+        }
+        if (app == null && !rejectUnrouted) {
+            return null;
+        }
+
+        theMetadata.put(MetadataKeys.IN_MESSAGE_CONTROL_ID, header[4]);
+        theMetadata.put(RAW_MESSAGE_KEY, incomingMessageString);
         String outgoingMessageString;
+        String outgoingMessageCharset = null;
+        try {
+            if (app != null) {
+                log.debug("Sending unparsed message to application: {}", app.toString());
+                outgoingMessageString = app.processMessage(incomingMessageString, theMetadata);
+                if (outgoingMessageString != null) {
+                    outgoingMessageCharset = PreParser.getMSHFields(outgoingMessageString, CHARSET_FIELD)[0];
+                }
+            } else {
+                //have to send back an application reject if no apps available to process
+                DefaultApplication defaultApp = new DefaultApplication();
+                outgoingMessageString = null;
+                if (isUseAckTemplates(incomingMessageString)) {
+                    outgoingMessageString = defaultApp.processMessage(incomingMessageString, myAckBuilder);
+                }
+                if (outgoingMessageString == null) {
+                    Message in = getInMessage(getInHeader(incomingMessageString, header));
+                    in.setParser(myParser);
+                    Message response = defaultApp.processMessage(in, theMetadata);
+                    outgoingMessageString = myParser.encode(response, myParser.getEncoding(incomingMessageString));
+                }
+            }
+        } catch (Exception e) {
+            Segment inHeader = null;
+            try {
+                inHeader = getInHeader(incomingMessageString, header);
+            } catch (HL7Exception e2) {
+                log.debug("Can't read message header for error response", e2);
+            }
+            outgoingMessageString = handleProcessMessageException(incomingMessageString, theMetadata, inHeader, e);
+        }
+        return new String[]{outgoingMessageString, outgoingMessageCharset};
+    }
+
+    /**
+     * @return an MSH segment containing the fields of the unparsed message
+     * which are needed to create a response
+     */
+    private Segment getInHeader(String incomingMessageString, String[] theHeader) throws HL7Exception {
+        Segment msh = myParser.getCriticalResponseData(incomingMessageString);
+        Terser.set(msh, 3, 0, 1, 1, theHeader[5]);
+        Terser.set(msh, 4, 0, 1, 1, theHeader[6]);
+        Terser.set(msh, 5, 0, 1, 1, theHeader[7]);
+        Terser.set(msh, 6, 0, 1, 1, theHeader[8]);
+        Terser.set(msh, 9, 0, 1, 1, theHeader[0]);
+        Terser.set(msh, 9, 0, 2, 1, theHeader[1]);
+        if (theHeader[3] != null) {
+            Terser.set(msh, 12, 0, 1, 1, theHeader[3]);
+        }
+        return msh;
+    }
+
+    private String handleProcessMessageException(String incomingMessageString, Map<String, Object> theMetadata, Message incomingMessageObject, Exception e) throws HL7Exception {
         Segment inHeader = incomingMessageObject != null ? (Segment) incomingMessageObject.get("MSH") : null;
-        outgoingMessageString = logAndMakeErrorMessage(e, inHeader, myParser, myParser.getEncoding(incomingMessageString));
+        return handleProcessMessageException(incomingMessageString, theMetadata, inHeader, e);
+    }
+
+    private String handleProcessMessageException(String incomingMessageString, Map<String, Object> theMetadata, Segment inHeader, Exception e) throws HL7Exception {
+        String outgoingMessageString;
+        outgoingMessageString = logAndMakeErrorMessage(e, inHeader, myParser, myParser.getEncoding(incomingMessageString),
+                inHeader != null ? incomingMessageString : null);
         if (outgoingMessageString != null && myExceptionHandler != null) {
             outgoingMessageString = myExceptionHandler.processException(incomingMessageString, theMetadata, outgoingMessageString, e);
         }
@@ -222,16 +352,7 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      * @return the application from the binding with a WILDCARD match, if one exists
      */
     private <T extends Message> ReceivingApplication<T> findDestination(T theMessage, AppRoutingData theRoutingData) {
-        ReceivingApplication<? extends Message> result = null;
-        for (int i = 0; i < myBindings.size() && result == null; i++) {
-            Binding binding = myBindings.get(i);
-            if (matches(theRoutingData, binding.routingData) && binding.active) {
-                if (theMessage == null || ((ReceivingApplication<T>)binding.application).canProcess(theMessage)) {
-                    result = binding.application;
-                }
-            }
-        }
-        return (ReceivingApplication<T>)result;
+        return myBindings.findDestination(theMessage, theRoutingData);
     }
 
     /**
@@ -240,8 +361,9 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      */
     private Binding findBinding(ReceivingApplication<? extends Message> application) {
         Binding result = null;
-        for (int i = 0; i < myBindings.size() && result == null; i++) {
-            Binding binding = myBindings.get(i);
+        Binding[] bindings = myBindings.bindings;
+        for (int i = 0; i < bindings.length && result == null; i++) {
+            Binding binding = bindings[i];
             if (application == binding.application) {
                 result = binding;
             }
@@ -255,8 +377,9 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      */
     private Binding findBinding(AppRoutingData theRoutingData) {
         Binding result = null;
-        for (int i = 0; i < myBindings.size() && result == null; i++) {
-            Binding binding = myBindings.get(i);
+        Binding[] bindings = myBindings.bindings;
+        for (int i = 0; i < bindings.length && result == null; i++) {
+            Binding binding = bindings[i];
             if (theRoutingData.equals(binding.routingData)) {
                 result = binding;
             }
@@ -264,14 +387,28 @@ public class ApplicationRouterImpl implements ApplicationRouter {
         return result;
     }
 
+    /**
+     * Replaces the routing table by a copy without the given binding
+     */
+    private synchronized boolean removeBinding(Binding theBinding) {
+        List<Binding> bindings = new ArrayList<Binding>(Arrays.asList(myBindings.bindings));
+        boolean removed = bindings.remove(theBinding);
+        if (removed) {
+            myBindings = new RoutingTable(bindings);
+        }
+        return removed;
+    }
+
 
     /**
      * @see ca.uhn.hl7v2.protocol.ApplicationRouter#bindApplication(
      *ca.uhn.hl7v2.protocol.ApplicationRouter.AppRoutingData, ca.uhn.hl7v2.protocol.ReceivingApplication)
      */
-    public void bindApplication(AppRoutingData theRoutingData, ReceivingApplication<? extends Message> theApplication) {
+    public synchronized void bindApplication(AppRoutingData theRoutingData, ReceivingApplication<? extends Message> theApplication) {
         Binding binding = new Binding(theRoutingData, true, theApplication);
-        myBindings.add(binding);
+        List<Binding> bindings = new ArrayList<Binding>(Arrays.asList(myBindings.bindings));
+        bindings.add(binding);
+        myBindings = new RoutingTable(bindings);
     }
 
     /**
@@ -280,7 +417,7 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      */
     public boolean unbindApplication(AppRoutingData theRoutingData) {
         Binding b = findBinding(theRoutingData);
-        return b != null && myBindings.remove(b);
+        return b != null && removeBinding(b);
     }
 
     /**
@@ -288,7 +425,7 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      */
     public boolean unbindApplication(ReceivingApplication<? extends Message> theApplication) {
         Binding b = findBinding(theApplication);
-        return b != null && myBindings.remove(b);
+        return b != null && removeBinding(b);
     }
 
     /**
@@ -368,10 +505,9 @@ public class ApplicationRouterImpl implements ApplicationRouter {
     /**
      * Returns the first Application that has been bound to messages of this type.
      */
-    private <T extends Message> ReceivingApplication<T> findApplication(T theMessage) throws HL7Exception {
-        Terser t = new Terser(theMessage);
-        AppRoutingData msgData =
-                new AppRoutingDataImpl(t.get("/MSH-9-1"), t.get("/MSH-9-2"), t.get("/MSH-11-1"), t.get("/MSH-12"));
+    <T extends Message> ReceivingApplication<T> findApplication(T theMessage) throws HL7Exception {
+        AppRoutingData msgData = new AppRoutingDataImpl(getHeaderField(theMessage, 9, 1),
+                getHeaderField(theMessage, 9, 2), getHeaderField(theMessage, 11, 1), getHeaderField(theMessage, 12, 1));
 
         ReceivingApplication<T> app = findDestination(theMessage, msgData);
 
@@ -383,18 +519,200 @@ public class ApplicationRouterImpl implements ApplicationRouter {
         return app;
     }
 
+    /**
+     * Reads a component of the MSH segment without adding anything to the message
+     */
+    private static String getHeaderField(Message theMessage, int theField, int theComponent) throws HL7Exception {
+        Segment msh = (Segment) theMessage.get("MSH");
+        return Terser.get(msh, theField, 0, theComponent, 1);
+    }
+
     /**
      * A structure for bindings between routing data and applications.
      */
     private static class Binding {
         public AppRoutingData routingData;
-        public boolean active;
+        public volatile boolean active;
         public ReceivingApplication<? extends Message> application;
+        private final FieldMatcher[] matchers;
 
         public Binding(AppRoutingData theRoutingData, boolean isActive, ReceivingApplication<? extends Message> theApplication) {
             routingData = theRoutingData;
             active = isActive;
             application = theApplication;
+            matchers = new FieldMatcher[] {
+                    new FieldMatcher(theRoutingData.getMessageType()),
+                    new FieldMatcher(theRoutingData.getTriggerEvent()),
+                    new FieldMatcher(theRoutingData.getProcessingId()),
+                    new FieldMatcher(theRoutingData.getVersion()) };
+        }
+
+        /**
+         * Same as {@link ApplicationRouterImpl#matches(AppRoutingData, AppRoutingData)}
+         * with this binding as reference, but using the precompiled patterns
+         */
+        public boolean matches(AppRoutingData theMessageData) {
+            return matchers[0].matches(theMessageData.getMessageType())
+                    && matchers[1].matches(theMessageData.getTriggerEvent())
+                    && matchers[2].matches(theMessageData.getProcessingId())
+                    && matchers[3].matches(theMessageData.getVersion());
+        }
+
+        /**
+         * @return <code>true</code> if message type and trigger event are
+         * matched literally, so that the binding can be looked up by them
+         */
+        public boolean isIndexed() {
+            return matchers[0].isLiteral() && matchers[1].isLiteral();
+        }
+
+        public List<String> getIndexKey() {
+            return Arrays.asList(routingData.getMessageType(), routingData.getTriggerEvent());
+        }
+    }
+
+    /**
+     * One field of the routing data of a binding, which is matched the same
+     * way as by {@link ApplicationRouterImpl#matches(String, String)}. A regular
+     * expression is compiled only once, and only if the reference value
+     * contains any characters which have a special meaning in a regular
+     * expression.
+     */
+    private static class FieldMatcher {
+
+        private static final String REGEX_CHARACTERS = "\\^$.|?*+()[]{}";
+
+        private final String myReference;
+        private final Pattern myPattern;
+
+        public FieldMatcher(String theReference) {
+            myReference = theReference;
+            Pattern pattern = null;
+            if (theReference != null && !isLiteral() && !"*".equals(theReference)) {
+                try {
+                    pattern = Pattern.compile(theReference);
+                } catch (PatternSyntaxException e) {
+                    log.warn("Routing data '{}' is not a valid regular expression and is only matched literally",
+                            theReference);
+                }
+            }
+            myPattern = pattern;
+        }
+
+        public boolean isLiteral() {
+            if (myReference == null) {
+                return true;
+            }
+            for (int i = 0; i < myReference.length(); i++) {
+                if (REGEX_CHARACTERS.indexOf(myReference.charAt(i)) >= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean matches(String theMessageData) {
+            String messageData = theMessageData == null ? "" : theMessageData;
+            return messageData.equals(myReference)
+                    || "*".equals(myReference)
+                    || (myPattern != null && myPattern.matcher(messageData).matches());
+        }
+    }
+
+    /**
+     * An immutable snapshot of all bindings, which is replaced whenever a
+     * binding is added or removed, so that lookups don't need to lock.
+     * Bindings for a literal message type and trigger event are hashed by
+     * them, while all others are tried in turn. In both cases, the binding
+     * registered first wins.
+     */
+    private static class RoutingTable {
+
+        private static final int[] NONE = new int[0];
+
+        private final Binding[] bindings;
+        private final Map<List<String>, int[]> indexed = new HashMap<List<String>, int[]>();
+        private final int[] unindexed;
+        private final boolean hasRawApplications;
+
+        public RoutingTable(List<Binding> theBindings) {
+            bindings = theBindings.toArray(new Binding[theBindings.size()]);
+            Map<List<String>, List<Integer>> byKey = new HashMap<List<String>, List<Integer>>();
+            List<Integer> others = new ArrayList<Integer>();
+            boolean raw = false;
+            for (int i = 0; i < bindings.length; i++) {
+                raw |= bindings[i].application instanceof RawReceivingApplication;
+                if (bindings[i].isIndexed()) {
+                    List<String> key = bindings[i].getIndexKey();
+                    List<Integer> positions = byKey.get(key);
+                    if (positions == null) {
+                        positions = new ArrayList<Integer>(2);
+                        byKey.put(key, positions);
+                    }
+                    positions.add(i);
+                } else {
+                    others.add(i);
+                }
+            }
+            for (Map.Entry<List<String>, List<Integer>> next : byKey.entrySet()) {
+                indexed.put(next.getKey(), toArray(next.getValue()));
+            }
+            unindexed = toArray(others);
+            hasRawApplications = raw;
+        }
+
+        private static int[] toArray(List<Integer> theList) {
+            int[] retVal = new int[theList.size()];
+            for (int i = 0; i < retVal.length; i++) {
+                retVal[i] = theList.get(i);
+            }
+            return retVal;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T extends Message> ReceivingApplication<T> findDestination(T theMessage, AppRoutingData theRoutingData) {
+            for (Binding binding : getCandidates(theRoutingData)) {
+                if (theMessage == null || ((ReceivingApplication<T>) binding.application).canProcess(theMessage)) {
+                    return (ReceivingApplication<T>) binding.application;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Merges the positions of the bindings with the same message type and
+         * trigger event with those of the other bindings, so that bindings
+         * are tried in the order in which they have been registered
+         *
+         * @return the active bindings matching the routing data, in the order
+         * in which they have been registered
+         */
+        public List<Binding> getCandidates(AppRoutingData theRoutingData) {
+            int[] candidates = indexed.get(Arrays.asList(
+                    nonNull(theRoutingData.getMessageType()), nonNull(theRoutingData.getTriggerEvent())));
+            if (candidates == null) {
+                candidates = NONE;
+            }
+            List<Binding> retVal = new ArrayList<Binding>(2);
+            int i = 0;
+            int j = 0;
+            while (i < candidates.length || j < unindexed.length) {
+                int next;
+                if (j == unindexed.length || (i < candidates.length && candidates[i] < unindexed[j])) {
+                    next = candidates[i++];
+                } else {
+                    next = unindexed[j++];
+                }
+                Binding binding = bindings[next];
+                if (binding.active && binding.matches(theRoutingData)) {
+                    retVal.add(binding);
+                }
+            }
+            return retVal;
+        }
+
+        private static String nonNull(String theValue) {
+            return theValue == null ? "" : theValue;
         }
     }
 
@@ -412,6 +730,16 @@ public class ApplicationRouterImpl implements ApplicationRouter {
      */
     public String logAndMakeErrorMessage(Exception e, Segment inHeader,
                                          Parser p, String encoding) throws HL7Exception {
+        return logAndMakeErrorMessage(e, inHeader, p, encoding, null);
+    }
+
+    /**
+     * @param incomingMessageString the unparsed message whose header is given,
+     *                              from which the error message is created
+     *                              if ACK templates are enabled
+     */
+    private String logAndMakeErrorMessage(Exception e, Segment inHeader, Parser p, String encoding,
+                                          String incomingMessageString) throws HL7Exception {
 
         switch (myContext.getServerConfiguration().getApplicationExceptionPolicy()) {
             case DO_NOT_RESPOND:
@@ -428,6 +756,12 @@ public class ApplicationRouterImpl implements ApplicationRouter {
                 new HL7Exception(e.getMessage(), e);
 
         try {
+            if (incomingMessageString != null && p == myParser && isUseAckTemplates(incomingMessageString)) {
+                String out = myAckBuilder.generateACK(incomingMessageString, defaultAcknowledgementMode, hl7e);
+                if (out != null) {
+                    return out;
+                }
+            }
             Message out = hl7e.getResponseMessage();
             if (out == null) {
                 Message in = getInMessage(inHeader);
@@ -443,6 +777,15 @@ public class ApplicationRouterImpl implements ApplicationRouter {
 
     }
 
+    /**
+     * @return true if acknowledgements to the message may be created by the
+     * {@link ER7AckBuilder}
+     */
+    private boolean isUseAckTemplates(String incomingMessageString) {
+        return myContext.getServerConfiguration().isUseAckTemplates()
+                && "VB".equals(myParser.getEncoding(incomingMessageString));
+    }
+
     private Message getInMessage(Segment inHeader) throws HL7Exception, IOException {
         Message in;
         if (inHeader != null) {
@@ -97,30 +97,24 @@ public class HL7Server {
         initProcessorList();       
     }
 
-    //creates list and starts thread to clean dead processors from it     
     private void initProcessorList() {
         myProcessors = new ArrayList<Processor>();
-        
-        final List<Processor> processors = myProcessors; 
-        Thread cleaner = new Thread() {
-            public void run() {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {}
-                
-                synchronized (processors) {
-                    Iterator<Processor> it = processors.iterator();
-                    while (it.hasNext()) {
-                        Processor proc = it.next();
-                        if (!proc.getContext().getLocallyDrivenTransportLayer().isConnected() 
-                                || !proc.getContext().getRemotelyDrivenTransportLayer().isConnected()) {
-                            it.remove();
-                        }
-                    }
-                }
+    }
+
+    /**
+     * Removes processors whose transport layers have been disconnected. Called
+     * whenever the list is changed or read, so there is no need for a thread
+     * polling the list. 
+     */
+    private void removeDisconnected() {
+        Iterator<Processor> it = myProcessors.iterator();
+        while (it.hasNext()) {
+            Processor proc = it.next();
+            if (!proc.getContext().getLocallyDrivenTransportLayer().isConnected() 
+                    || !proc.getContext().getRemotelyDrivenTransportLayer().isConnected()) {
+                it.remove();
             }
-        };
-        cleaner.start();
+        }
     }
         
     /**
@@ -193,6 +187,7 @@ public class HL7Server {
     
     private void newProcessor(Processor theProcessor) {
         synchronized (myProcessors) {
+            removeDisconnected();
             myProcessors.add(theProcessor);
         }
     }
@@ -227,6 +222,7 @@ public class HL7Server {
      */
     public Processor[] getProcessors() {
         synchronized (myProcessors) {
+            removeDisconnected();
             return (Processor[]) myProcessors.toArray(new Processor[0]);
         }
     }
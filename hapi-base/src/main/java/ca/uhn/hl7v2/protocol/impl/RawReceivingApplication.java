@@ -0,0 +1,88 @@
+/*
+ The contents of this file are subject to the Mozilla Public License Version 1.1
+ (the "License"); you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ specific language governing rights and limitations under the License.
+
+ The Original Code is "RawReceivingApplication.java".  Description:
+ "Support class for applications which process the unparsed message text"
+
+ The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ 2014.  All Rights Reserved.
+
+ Contributor(s): ______________________________________.
+
+ Alternatively, the contents of this file may be used under the terms of the
+ GNU General Public License (the "GPL"), in which case the provisions of the GPL are
+ applicable instead of those above.  If you wish to allow use of your version of this
+ file only under the terms of the GPL and not to allow others to use your version
+ of this file under the MPL, indicate your decision by deleting  the provisions above
+ and replace  them with the notice and other provisions required by the GPL License.
+ If you do not delete the provisions above, a recipient may use your version of
+ this file under either the MPL or the GPL.
+ */
+
+package ca.uhn.hl7v2.protocol.impl;
+
+import java.util.Map;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.protocol.ReceivingApplication;
+import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
+
+/**
+ * Support class for applications which process the message text as it has
+ * been received, e.g. in order to forward or store it. If such an application
+ * is bound to an {@link ApplicationRouterImpl}, the router chooses it using
+ * the routing data read from the message header, and passes the message text
+ * without parsing it.
+ * <p>
+ * If the application is invoked with a parsed message by other means, the
+ * message is encoded, and the response is parsed using the parser of the
+ * message.
+ * </p>
+ */
+public abstract class RawReceivingApplication implements ReceivingApplication<Message> {
+
+    /**
+     * Processes the unparsed message text.
+     *
+     * @param theMessage  the inbound message text
+     * @param theMetadata message metadata, see
+     *                    {@link ReceivingApplication#processMessage(Message, Map)}
+     * @return the encoded response message
+     * @throws ReceivingApplicationException if there is a problem internal to the application
+     * @throws HL7Exception                  if there is a problem with the message
+     */
+    public abstract String processMessage(String theMessage, Map<String, Object> theMetadata)
+            throws ReceivingApplicationException, HL7Exception;
+
+    /**
+     * @param theMessage the inbound message text
+     * @return true if this application wishes to accept the message. Returns
+     * true unless overridden.
+     */
+    public boolean canProcess(String theMessage) {
+        return true;
+    }
+
+    public Message processMessage(Message theMessage, Map<String, Object> theMetadata)
+            throws ReceivingApplicationException, HL7Exception {
+        Parser parser = theMessage.getParser();
+        String response = processMessage(parser.encode(theMessage), theMetadata);
+        return parser.parse(response);
+    }
+
+    public boolean canProcess(Message theMessage) {
+        try {
+            return canProcess(theMessage.encode());
+        } catch (HL7Exception e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "ChannelSocketFactory.java".  Description:
+"Socket factory creating sockets backed by NIO channels"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+ */
+package ca.uhn.hl7v2.util;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket factory creating client and server sockets which are backed by NIO
+ * channels. Messages are then written to these sockets with an
+ * {@link ca.uhn.hl7v2.llp.MllpChannelWriter}, which sends each message with a
+ * single gathering write instead of several writes to the output stream of the
+ * socket. This helps clients and servers sending many small messages. TLS
+ * sockets are created like by the {@link StandardSocketFactory}.
+ * 
+ * @see ca.uhn.hl7v2.HapiContext#setSocketFactory(SocketFactory)
+ */
+public class ChannelSocketFactory extends StandardSocketFactory {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Socket createSocket() throws IOException {
+		Socket retVal = SocketChannel.open().socket();
+		retVal.setKeepAlive(true);
+		retVal.setTcpNoDelay(true);
+		return retVal;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ServerSocket createServerSocket() throws IOException {
+		return ServerSocketChannel.open().socket();
+	}
+
+}
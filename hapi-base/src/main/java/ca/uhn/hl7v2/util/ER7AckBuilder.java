@@ -0,0 +1,258 @@
+/**
+The contents of this file are subject to the Mozilla Public License Version 1.1
+(the "License"); you may not use this file except in compliance with the License.
+You may obtain a copy of the License at http://www.mozilla.org/MPL/
+Software distributed under the License is distributed on an "AS IS" basis,
+WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+specific language governing rights and limitations under the License.
+
+The Original Code is "ER7AckBuilder.java".  Description:
+"Creates ER7 encoded acknowledgements directly from the header of a message"
+
+The Initial Developer of the Original Code is University Health Network. Copyright (C)
+2001.  All Rights Reserved.
+
+Contributor(s): ______________________________________.
+
+Alternatively, the contents of this file may be used under the terms of the
+GNU General Public License (the "GPL"), in which case the provisions of the GPL are
+applicable instead of those above.  If you wish to allow use of your version of this
+file only under the terms of the GPL and not to allow others to use your version
+of this file under the MPL, indicate your decision by deleting  the provisions above
+and replace  them with the notice and other provisions required by the GPL License.
+If you do not delete the provisions above, a recipient may use your version of
+this file under either the MPL or the GPL.
+
+*/
+
+package ca.uhn.hl7v2.util;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.ErrorCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.Location;
+import ca.uhn.hl7v2.Version;
+import ca.uhn.hl7v2.model.primitive.CommonTS;
+import ca.uhn.hl7v2.parser.DefaultModelClassFactory;
+import ca.uhn.hl7v2.parser.EncodingCharacters;
+import ca.uhn.hl7v2.parser.Escaping;
+import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.parser.ParserConfiguration;
+import ca.uhn.hl7v2.preparser.PreParser;
+
+/**
+ * <p>
+ * Creates ER7 encoded acknowledgements directly from the MSH segment of an
+ * unparsed ER7 message, without creating and encoding an ACK message object.
+ * The result is the same text that
+ * {@link ca.uhn.hl7v2.model.Message#generateACK(AcknowledgmentCode, HL7Exception)}
+ * followed by {@link Parser#encode(ca.uhn.hl7v2.model.Message)} would produce for
+ * the parsed message: sender and receiver are swapped, MSA-1 and MSA-2 are
+ * set, and the ERR segment is filled from the exception, if any. The message
+ * control ID is created by the ID generator of the parser, and the encoding
+ * characters of the inbound message are used.
+ * </p>
+ * <p>
+ * Messages whose acknowledgement can't be built this way are not supported,
+ * in which case <code>null</code> is returned and the object model has to be
+ * used instead. This applies to XML messages, messages containing escape
+ * sequences in their MSH segment, messages of an unknown version or a version
+ * before 2.3, and parsers with a custom model class factory or forced encoding
+ * rules. Note that the acknowledgement is not validated.
+ * </p>
+ */
+public class ER7AckBuilder {
+
+    private static final int[][] HEADER_FIELDS = {{3, 1}, {4, 1}, {5, 1}, {6, 1}, {9, 2}, {10, 1}, {11, 1}, {12, 1}};
+    private static final char SEGMENT_DELIMITER = '\r';
+
+    private final Parser myParser;
+
+    /**
+     * @param theParser the parser of the inbound messages, whose configuration
+     *                  and model class factory are used
+     */
+    public ER7AckBuilder(Parser theParser) {
+        myParser = theParser;
+    }
+
+    /**
+     * Creates an acknowledgement with code AA.
+     *
+     * @param theMessage the unparsed inbound message
+     * @return the encoded acknowledgement, or <code>null</code> if it has to be
+     * created from the parsed message
+     * @throws HL7Exception if the message header can't be read
+     * @throws IOException if the message control ID can't be created
+     */
+    public String generateACK(String theMessage) throws HL7Exception, IOException {
+        return generateACK(theMessage, AcknowledgmentCode.AA, null);
+    }
+
+    /**
+     * Creates an acknowledgement like
+     * {@link ca.uhn.hl7v2.model.Message#generateACK(AcknowledgmentCode, HL7Exception)}.
+     *
+     * @param theMessage the unparsed inbound message
+     * @param theAcknowledgementCode the acknowledgement code
+     * @param theException the exception to be reported in the ERR segment, may be null
+     * @return the encoded acknowledgement, or <code>null</code> if it has to be
+     * created from the parsed message
+     * @throws HL7Exception if the message header can't be read
+     * @throws IOException if the message control ID can't be created
+     */
+    public String generateACK(String theMessage, AcknowledgmentCode theAcknowledgementCode,
+            HL7Exception theException) throws HL7Exception, IOException {
+        ParserConfiguration config = myParser.getParserConfiguration();
+        if (!theMessage.startsWith("MSH") || theMessage.length() < 8
+                || (theException != null && theException.getResponseMessage() != null)
+                || !config.getForcedEncode().isEmpty()
+                || myParser.getFactory().getClass() != DefaultModelClassFactory.class) {
+            return null;
+        }
+
+        // only the 4 encoding characters before 2.7, and no escape sequences
+        char fieldSep = theMessage.charAt(3);
+        String encChars = theMessage.substring(4, 8);
+        if (theMessage.length() > 8 && theMessage.charAt(8) != fieldSep
+                && theMessage.charAt(8) != SEGMENT_DELIMITER && theMessage.charAt(8) != '\n') {
+            return null;
+        }
+        EncodingCharacters encoding = new EncodingCharacters(fieldSep, encChars);
+        for (int i = 8; i < theMessage.length(); i++) {
+            char next = theMessage.charAt(i);
+            if (next == SEGMENT_DELIMITER || next == '\n') {
+                break;
+            }
+            if (next == encoding.getEscapeCharacter()) {
+                return null;
+            }
+        }
+
+        String[] in = PreParser.getMSHFields(theMessage, HEADER_FIELDS);
+        Version inVersion = Version.versionOf(in[7]);
+        if (inVersion == null || Version.V23.isGreaterThan(inVersion)) {
+            return null;
+        }
+        // the same version as the ACK message created for the parsed message
+        Version ackVersion = inVersion.available() ? inVersion : Version.latestVersion();
+        boolean asOf25 = !Version.V25.isGreaterThan(ackVersion);
+
+        Escaping escaping = config.getEscaping();
+        GregorianCalendar now = new GregorianCalendar();
+        now.setTime(new Date());
+        String id = config.getIdGenerator().getID();
+
+        StringBuilder b = new StringBuilder(256);
+        String messageType = join(encoding.getComponentSeparator(),
+                "ACK", escape(in[4], escaping, encoding), asOf25 ? "ACK" : null);
+        appendSegment(b, fieldSep, "MSH", encChars,
+                escape(in[2], escaping, encoding), escape(in[3], escaping, encoding),
+                escape(in[0], escaping, encoding), escape(in[1], escaping, encoding),
+                escape(CommonTS.toHl7TSFormat(now), escaping, encoding), null, messageType,
+                escape(id, escaping, encoding), escape(in[6], escaping, encoding),
+                escape(in[7], escaping, encoding));
+
+        AcknowledgmentCode ackCode = theAcknowledgementCode != null ? theAcknowledgementCode : AcknowledgmentCode.AA;
+        String code = escape(ackCode.name(), escaping, encoding);
+        String inId = escape(in[5], escaping, encoding);
+        if (theException == null) {
+            appendSegment(b, fieldSep, "MSA", code, inId);
+        } else if (asOf25) {
+            appendSegment(b, fieldSep, "MSA", code, inId);
+            appendSegment(b, fieldSep, "ERR", null, getLocationAsOf25(theException, escaping, encoding),
+                    getErrorAsOf25(theException, escaping, encoding), "E");
+        } else {
+            appendSegment(b, fieldSep, "MSA", code, inId,
+                    escape(theException.getError().getMessage(), escaping, encoding));
+            appendSegment(b, fieldSep, "ERR", getErrorBefore25(theException, escaping, encoding));
+        }
+        return b.toString();
+    }
+
+    private static String getLocationAsOf25(HL7Exception theException, Escaping theEscaping,
+            EncodingCharacters theEncoding) {
+        Location location = theException.getLocation();
+        if (location == null) {
+            return null;
+        }
+        return join(theEncoding.getComponentSeparator(),
+                escape(location.getSegmentName(), theEscaping, theEncoding),
+                positive(location.getSegmentRepetition()),
+                positive(location.getField()),
+                positive(location.getFieldRepetition()),
+                positive(location.getComponent()),
+                positive(location.getSubcomponent()));
+    }
+
+    private static String getErrorAsOf25(HL7Exception theException, Escaping theEscaping,
+            EncodingCharacters theEncoding) {
+        ErrorCode error = theException.getError();
+        return join(theEncoding.getComponentSeparator(),
+                Integer.toString(error.getCode()),
+                escape(error.getMessage(), theEscaping, theEncoding),
+                escape(ErrorCode.codeTable(), theEscaping, theEncoding),
+                null, null, null, null, null,
+                escape(theException.getMessage(), theEscaping, theEncoding));
+    }
+
+    private static String getErrorBefore25(HL7Exception theException, Escaping theEscaping,
+            EncodingCharacters theEncoding) {
+        ErrorCode error = theException.getError();
+        String code = join(theEncoding.getSubcomponentSeparator(),
+                Integer.toString(error.getCode()),
+                escape(error.getMessage(), theEscaping, theEncoding),
+                escape(ErrorCode.codeTable(), theEscaping, theEncoding),
+                null,
+                escape(theException.getMessage(), theEscaping, theEncoding));
+        Location location = theException.getLocation();
+        String segmentName = null;
+        String field = null;
+        if (location != null) {
+            segmentName = escape(location.getSegmentName(), theEscaping, theEncoding);
+            field = positive(location.getField());
+        }
+        return join(theEncoding.getComponentSeparator(), segmentName, null, field, code);
+    }
+
+    private static String positive(int theValue) {
+        return theValue > 0 ? Integer.toString(theValue) : null;
+    }
+
+    private static String escape(String theValue, Escaping theEscaping, EncodingCharacters theEncoding) {
+        return theValue == null ? null : theEscaping.escape(theValue, theEncoding);
+    }
+
+    /**
+     * Joins the values, omitting trailing delimiters like the
+     * {@link ca.uhn.hl7v2.parser.PipeParser} does
+     */
+    private static String join(char theDelimiter, String... theValues) {
+        StringBuilder b = new StringBuilder();
+        int length = 0;
+        for (int i = 0; i < theValues.length; i++) {
+            if (i > 0) {
+                b.append(theDelimiter);
+            }
+            if (theValues[i] != null && theValues[i].length() > 0) {
+                b.append(theValues[i]);
+                length = b.length();
+            }
+        }
+        b.setLength(length);
+        return b.toString();
+    }
+
+    private static void appendSegment(StringBuilder theBuilder, char theFieldSeparator, String theName,
+            String... theFields) {
+        String fields = join(theFieldSeparator, theFields);
+        if (fields.length() > 0) {
+            theBuilder.append(theName).append(theFieldSeparator).append(fields).append(SEGMENT_DELIMITER);
+        }
+    }
+
+}
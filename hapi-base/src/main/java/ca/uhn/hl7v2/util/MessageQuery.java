@@ -86,6 +86,11 @@ import ca.uhn.hl7v2.model.Message;
  * loops are treated as independent, just as if they referred to different
  * branches of the message.
  * 
+ * READING VALUES: Values are read with {@link Terser#get(String)}, so a query
+ * does not add any groups, segments, fields or repetitions to the message,
+ * even when looping past the last one. A loop point which refers to a group
+ * that is absent from the message simply has no values.
+ * 
  * TODO: could support distinct easily by keeping record of rows and comparing
  * each one to previous rows
  * 
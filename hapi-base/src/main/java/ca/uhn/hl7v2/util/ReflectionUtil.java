@@ -26,7 +26,14 @@
  */
 package ca.uhn.hl7v2.util;
 
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.model.Group;
@@ -36,6 +43,23 @@ import ca.uhn.hl7v2.parser.ModelClassFactory;
 
 public class ReflectionUtil {
 
+    /**
+     * Constructors looked up so far. Class.getConstructor() searches and copies the
+     * constructor on every call, which is expensive for structures that are
+     * created over and over again while parsing.
+     * <p>
+     * Classes loaded by the class loader of HAPI or one of its parents can't be
+     * unloaded before this class, so their constructors are kept in concurrent
+     * maps. Other classes, e.g. custom structures of a web application when HAPI
+     * is shared between applications, are held weakly, so that the cache does
+     * not keep their class loaders from being garbage collected.
+     * </p>
+     */
+    private static final ConcurrentMap<Class<?>, Constructor<?>> ourStructureConstructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+    private static final ConcurrentMap<Class<?>, Constructor<?>> ourMessageConstructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+    private static final Map<Class<?>, Reference<Constructor<?>>> ourForeignStructureConstructors = Collections.synchronizedMap(new WeakHashMap<Class<?>, Reference<Constructor<?>>>());
+    private static final Map<Class<?>, Reference<Constructor<?>>> ourForeignMessageConstructors = Collections.synchronizedMap(new WeakHashMap<Class<?>, Reference<Constructor<?>>>());
+
     /** Non instantiable */
     private ReflectionUtil() {
         // nothing
@@ -44,8 +68,8 @@ public class ReflectionUtil {
     public static <T extends Structure> T instantiateStructure(Class<T> theType, Group parent,
             ModelClassFactory theModelClassFactory) throws HL7Exception {
         try {
-            Constructor<T> constructor = theType.getConstructor(new Class<?>[] { Group.class,
-                    ModelClassFactory.class });
+            Constructor<T> constructor = getConstructor(ourStructureConstructors,
+                    ourForeignStructureConstructors, theType, Group.class, ModelClassFactory.class);
             T message = constructor.newInstance(parent, theModelClassFactory);
             return message;
         } catch (Exception e) {
@@ -57,8 +81,8 @@ public class ReflectionUtil {
     public static <T extends Message> T instantiateMessage(Class<T> theType,
             ModelClassFactory theModelClassFactory) throws HL7Exception {
         try {
-            Constructor<T> constructor = theType
-                    .getConstructor(new Class<?>[] { ModelClassFactory.class });
+            Constructor<T> constructor = getConstructor(ourMessageConstructors,
+                    ourForeignMessageConstructors, theType, ModelClassFactory.class);
             T message = constructor.newInstance(theModelClassFactory);
             return message;
         } catch (Exception e) {
@@ -67,6 +91,45 @@ public class ReflectionUtil {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T> Constructor<T> getConstructor(ConcurrentMap<Class<?>, Constructor<?>> theCache,
+            Map<Class<?>, Reference<Constructor<?>>> theForeignCache, Class<T> theType,
+            Class<?>... theParameterTypes) throws NoSuchMethodException {
+        Constructor<T> retVal = (Constructor<T>) theCache.get(theType);
+        if (retVal != null) {
+            return retVal;
+        }
+        if (isLoadedByParentOf(ReflectionUtil.class.getClassLoader(), theType)) {
+            retVal = theType.getConstructor(theParameterTypes);
+            theCache.putIfAbsent(theType, retVal);
+            return retVal;
+        }
+        Reference<Constructor<?>> ref = theForeignCache.get(theType);
+        retVal = ref == null ? null : (Constructor<T>) ref.get();
+        if (retVal == null) {
+            retVal = theType.getConstructor(theParameterTypes);
+            theForeignCache.put(theType, new WeakReference<Constructor<?>>(retVal));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return true if the given class has been loaded by the given class loader
+     *         or one of its parents
+     */
+    private static boolean isLoadedByParentOf(ClassLoader theClassLoader, Class<?> theType) {
+        ClassLoader loader = theType.getClassLoader();
+        if (loader == null) {
+            return true;
+        }
+        for (ClassLoader cl = theClassLoader; cl != null; cl = cl.getParent()) {
+            if (cl == loader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static <T> T instantiate(Class<T> theType) throws HL7Exception {
         try {
             return theType.newInstance();
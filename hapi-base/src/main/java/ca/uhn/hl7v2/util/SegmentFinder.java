@@ -165,7 +165,7 @@ public class SegmentFinder extends MessageNavigator {
     /**
      * Tests whether the given name matches the given pattern.
      */
-    private boolean matches(String pattern, String candidate) {
+    static boolean matches(String pattern, String candidate) {
         //shortcut ...
         if (pattern.equals(candidate)) {
             return true;
@@ -30,6 +30,8 @@ package ca.uhn.hl7v2.util;
 import ca.uhn.hl7v2.Location;
 import ca.uhn.hl7v2.model.*;
 import ca.uhn.hl7v2.HL7Exception;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.slf4j.Logger;
@@ -127,7 +129,8 @@ public class Terser {
     }
 
     /**
-     * Returns the string value of the Primitive at the given location.
+     * Returns the string value of the Primitive at the given location. Nothing is created in the
+     * segment if the location does not exist yet.
      * 
      * @param segment the segment from which to get the primitive
      * @param field the field number (indexed from 1)
@@ -153,8 +156,8 @@ public class Terser {
                     "subcomponent must not be 1 or more (note that this parameter is 1-indexed, not 0-indexed)");
         }
 
-        Primitive prim = getPrimitive(segment, field, rep, component, subcomponent);
-        return prim.getValue();
+        Primitive prim = getExistingPrimitive(segment, field, rep, component, subcomponent);
+        return prim == null ? null : prim.getValue();
     }
 
     /**
@@ -249,6 +252,56 @@ public class Terser {
         return getPrimitive(sub);
     }
 
+    /**
+     * Returns the Primitive object at the given location if it exists, without creating any fields,
+     * repetitions or components. A location which does not exist is empty.
+     * 
+     * @param segment the segment from which to get the primitive
+     * @param field the field number (indexed from 1)
+     * @param rep the field repetition (indexed from 0)
+     * @param component the component number (indexed from 1, use 1 for primitive field)
+     * @param subcomponent the subcomponent number (indexed from 1, use 1 for primitive component)
+     * @return the Primitive object at the given location, or <code>null</code> if it does not exist
+     * @throws HL7Exception if the field number is less than 1
+     */
+    public static Primitive getExistingPrimitive(Segment segment, int field, int rep, int component, int subcomponent)
+            throws HL7Exception {
+        Type type = segment.getExistingField(field, rep);
+        return type == null ? null : getExistingPrimitive(type, component, subcomponent);
+    }
+
+    /**
+     * Returns the Primitive object at the given location in the given field if it exists. Unlike
+     * {@link #getPrimitive(Type, int, int)}, this never adds components or changes the data type of
+     * a Varies.
+     * 
+     * @param type the type from which to get the primitive
+     * @param component the component number (indexed from 1, use 1 for primitive field)
+     * @param subcomponent the subcomponent number (indexed from 1, use 1 for primitive component)
+     * @return the Primitive object at the given location, or <code>null</code> if it does not exist
+     */
+    public static Primitive getExistingPrimitive(final Type type, final int component, final int subcomponent) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (component < 1) {
+            throw new IllegalArgumentException(
+                    "component must not be 1 or more (note that this parameter is 1-indexed, not 0-indexed)");
+        }
+        if (subcomponent < 1) {
+            throw new IllegalArgumentException(
+                    "subcomponent must not be 1 or more (note that this parameter is 1-indexed, not 0-indexed)");
+        }
+
+        Type comp = getExistingComponent(type, component);
+        if (comp == null || (type instanceof Varies && comp instanceof GenericPrimitive && subcomponent > 1)) {
+            // getPrimitive() would turn the data into an empty GenericComposite
+            return null;
+        }
+        Type sub = getExistingComponent(comp, subcomponent);
+        return sub == null ? null : getExistingPrimitive(sub);
+    }
+
     /**
      * Attempts to extract a Primitive from the given type. If it's a composite, drills down through
      * first components until a primitive is reached.
@@ -267,6 +320,55 @@ public class Terser {
         return getPrimitive(((Varies) type).getData());
     }
 
+    /**
+     * As getPrimitive(Type), but returns null if a first component does not exist.
+     */
+    private static Primitive getExistingPrimitive(Type type) {
+        if (type instanceof Primitive) {
+            return (Primitive) type;
+        }
+        if (type instanceof Composite) {
+            try {
+                Type first = ((Composite) type).getExistingComponent(0);
+                return first == null ? null : getExistingPrimitive(first);
+            } catch (HL7Exception e) {
+                throw new RuntimeException("Internal error: HL7Exception thrown on Composite.getExistingComponent(0).");
+            }
+        }
+        return getExistingPrimitive(((Varies) type).getData());
+    }
+
+    /**
+     * As getComponent(Type, int), but returns null instead of creating the component
+     */
+    private static Type getExistingComponent(Type type, int comp) {
+
+        if (type instanceof Primitive && comp == 1) {
+            return type;
+        }
+        if (type instanceof Composite) {
+            if (comp <= numStandardComponents(type) || type instanceof GenericComposite) {
+                try {
+                    return ((Composite) type).getExistingComponent(comp - 1);
+                } catch (DataTypeException e) {
+                    throw new RuntimeException(
+                            "Internal error: HL7Exception thrown on getExistingComponent(x) where x < # standard components.",
+                            e);
+                }
+            }
+        }
+        if (type instanceof Varies) {
+            Varies v = (Varies) type;
+            if (comp > 1 && v.getData() instanceof GenericPrimitive) {
+                // getComponent() would turn the data into an empty GenericComposite
+                return null;
+            }
+            return getExistingComponent(v.getData(), comp);
+        }
+
+        return type.getExtraComponents().getExistingComponent(comp - numStandardComponents(type) - 1);
+    }
+
     /**
      * Returns the component (or sub-component, as the case may be) at the given index. If it does
      * not exist, it is added as an "extra component". If comp > 1 is requested from a Varies with
@@ -314,17 +416,30 @@ public class Terser {
      * If a repetition is omitted for a repeating segment or field, the first rep is used. If the
      * component or subcomponent is not specified for a composite field, the first component is used
      * (this allows one to write code that will work with later versions of the HL7 standard).
+     * </p>
+     * <p>
+     * Nothing is added to the message in order to read a value. Paths starting at the root of the
+     * message only visit groups and segments which exist, so a search (".") does not look into
+     * groups which are absent from the message. A search following a group only looks into that
+     * group, not into the rest of the message. Such a path leaves the SegmentFinder at the segment
+     * (or in the last existing group), and relative paths are resolved from there.
+     * </p>
      *
      * @param spec field specification
-     * @return string value of the specified field
-     * @throws HL7Exception if the primitive could not be obtained
+     * @return string value of the specified field, or <code>null</code> if it is not present in
+     *         the message
+     * @throws HL7Exception if the primitive could not be obtained, e.g. if the segment does not
+     *         define the field
      */
     public String get(String spec) throws HL7Exception {
         StringTokenizer tok = new StringTokenizer(spec, "-", false);
-        Segment segment = getSegment(tok.nextToken());
+        String segSpec = tok.nextToken();
+        Segment segment = segSpec.startsWith("/") ?
+                getExistingSegment(getFinder(), parseSegmentPathSpec(segSpec)) :
+                getSegment(segSpec);
 
         int[] ind = getIndices(spec);
-        return get(segment, ind[0], ind[1], ind[2], ind[3]);
+        return segment == null ? null : get(segment, ind[0], ind[1], ind[2], ind[3]);
     }
 
     /**
@@ -335,18 +450,20 @@ public class Terser {
      * @throws HL7Exception if the segment could not be obtained
      */
     public Segment getSegment(String segSpec) throws HL7Exception {
+        return getSegment(getFinder(), segSpec.startsWith("/"), parseSegmentPathSpec(segSpec));
+    }
+
+    /**
+     * Returns the segment at the given path, navigating the given finder.
+     */
+    static Segment getSegment(SegmentFinder finder, boolean fromRoot, PathSpec[] path) throws HL7Exception {
         Segment seg = null;
 
-        if (segSpec.startsWith("/")) {
-            getFinder().reset();
+        if (fromRoot) {
+            finder.reset();
         }
 
-        StringTokenizer tok = new StringTokenizer(segSpec, "/", false);
-        SegmentFinder finder = getFinder();
-        while (tok.hasMoreTokens()) {
-            String pathSpec = tok.nextToken();
-            Terser.PathSpec ps = parsePathSpec(pathSpec);
-            ps.isGroup = tok.hasMoreTokens();
+        for (PathSpec ps : path) {
             if (ps.isGroup) {
                 Group g = ps.find ?
                         finder.findGroup(ps.pattern, ps.rep) :
@@ -362,33 +479,137 @@ public class Terser {
         return seg;
     }
 
-    /** Gets path information from a path spec. */
-    private PathSpec parsePathSpec(String spec) throws HL7Exception {
-        PathSpec ps = new PathSpec();
+    /**
+     * Returns the segment at the given path below the root of the given finder if it exists,
+     * without creating any groups or segments. The finder is moved to the segment, or into the
+     * last existing group of the path, so that relative paths which follow are resolved from
+     * there.
+     */
+    static Segment getExistingSegment(SegmentFinder finder, PathSpec[] path) throws HL7Exception {
+        return getExistingSegment(finder.getRoot(), path, finder);
+    }
 
-        if (spec.startsWith(".")) {
-            ps.find = true;
+    /**
+     * Returns the segment at the given path below the given root if it exists, without creating
+     * any groups or segments. If a navigator is given, it is moved to the segment, or into the
+     * last existing group of the path.
+     * <p>
+     * A search step (".") only looks into the group reached by the preceding steps, while
+     * {@link #getSegment(SegmentFinder, boolean, PathSpec[])} continues searching the rest of the
+     * message after the end of that group.
+     * </p>
+     */
+    static Segment getExistingSegment(Group root, PathSpec[] path, MessageNavigator navigator)
+            throws HL7Exception {
+        // child index and rep of each structure on the way to the segment
+        List<int[]> location = new ArrayList<int[]>();
+        Group group = root;
+        Segment retVal = null;
+        for (PathSpec ps : path) {
+            Structure s = ps.find ? findExisting(group, ps, location) : getExistingChild(group, ps, location);
+            if (s == null) {
+                break;
+            }
+            if (!ps.isGroup) {
+                retVal = (Segment) s;
+                break;
+            }
+            group = (Group) s;
+        }
+        if (navigator != null) {
+            navigator.reset();
+            int groups = retVal == null ? location.size() : location.size() - 1;
+            for (int i = 0; i < groups; i++) {
+                navigator.toChild(location.get(i)[0]);
+                navigator.drillDown(location.get(i)[1]);
+            }
+            if (retVal != null) {
+                navigator.toChild(location.get(groups)[0]);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns the first child of the group matching the given step if it exists, like
+     * SegmentFinder.getSegment() and getGroup() do without creating it. The location of an
+     * existing child is added to the given list.
+     */
+    private static Structure getExistingChild(Group group, PathSpec ps, List<int[]> location)
+            throws HL7Exception {
+        String[] names = group.getNames();
+        for (int i = 0; i < names.length; i++) {
+            if (SegmentFinder.matches(ps.pattern, names[i])) {
+                if (group.isGroup(names[i]) != ps.isGroup) {
+                    throw new HL7Exception(names[i] + (ps.isGroup ? " is not a group" : " is not a segment"));
+                }
+                Structure retVal = group.getExisting(names[i], ps.rep);
+                if (retVal != null) {
+                    location.add(new int[] { i, ps.rep });
+                }
+                return retVal;
+            }
+        }
+        throw new HL7Exception("Can't find " + ps.pattern + " as a direct child");
+    }
+
+    /**
+     * Searches the given group depth-first for the given step, like SegmentFinder.findSegment()
+     * and findGroup() do, but only enters groups which exist. The location of the structure
+     * found is added to the given list.
+     */
+    private static Structure findExisting(Group group, PathSpec ps, List<int[]> location)
+            throws HL7Exception {
+        ExistingSearch search = new ExistingSearch(ps);
+        if (!search.search(group)) {
+            if (search.skippedGroups) {
+                // the step may be defined in a group which is absent
+                return null;
+            }
+            throw new HL7Exception("Can't find " + ps.pattern + " below " + group.getName());
+        }
+        if (search.result != null) {
+            int last = search.position.size() - 1;
+            for (int i = 0; i < last; i++) {
+                location.add(new int[] { search.position.get(i), 0 });
+            }
+            location.add(new int[] { search.position.get(last), ps.rep });
+        }
+        return search.result;
+    }
+
+    /** Gets path information for each step of a segment_path_spec. */
+    static PathSpec[] parseSegmentPathSpec(String segSpec) throws HL7Exception {
+        StringTokenizer tok = new StringTokenizer(segSpec, "/", false);
+        PathSpec[] path = new PathSpec[tok.countTokens()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = parsePathSpec(tok.nextToken(), i < path.length - 1);
+        }
+        return path;
+    }
+
+    /** Gets path information from a path spec. */
+    private static PathSpec parsePathSpec(String spec, boolean isGroup) throws HL7Exception {
+        boolean find = spec.startsWith(".");
+        if (find) {
             spec = spec.substring(1);
-        } else {
-            ps.find = false;
         }
 
         if (spec.length() == 0) {
             throw new HL7Exception("Invalid path (some path element is either empty or contains only a dot)");
         }
         StringTokenizer tok = new StringTokenizer(spec, "()", false);
-        ps.pattern = tok.nextToken();
+        String pattern = tok.nextToken();
+        int rep = 0;
         if (tok.hasMoreTokens()) {
             String repString = tok.nextToken();
             try {
-                ps.rep = Integer.parseInt(repString);
+                rep = Integer.parseInt(repString);
             } catch (NumberFormatException e) {
                 throw new HL7Exception(repString + " is not a valid rep #");
             }
-        } else {
-            ps.rep = 0;
         }
-        return ps;
+        return new PathSpec(pattern, isGroup, find, rep);
     }
 
     /**
@@ -437,6 +658,31 @@ public class Terser {
         set(segment, ind[0], ind[1], ind[2], ind[3], value);
     }
 
+    /**
+     * Gets the string value of the field at the given compiled path. Like {@link #get(String)},
+     * relative paths are resolved from the current location of the underlying SegmentFinder.
+     *
+     * @param path compiled field specification
+     * @return string value of the specified field
+     * @throws HL7Exception if the primitive could not be obtained
+     */
+    public String get(TerserPath path) throws HL7Exception {
+        return path.get(getFinder());
+    }
+
+    /**
+     * Sets the string value of the field at the given compiled path. Like
+     * {@link #set(String, String)}, relative paths are resolved from the current location of the
+     * underlying SegmentFinder.
+     *
+     * @param path compiled field specification
+     * @param value value to be set
+     * @throws HL7Exception if the primitive does not exist
+     */
+    public void set(TerserPath path, String value) throws HL7Exception {
+        path.set(getFinder(), value);
+    }
+
     /**
      * Returns the number of sub-components in the specified component, i.e. the number of standard
      * sub-components (e.g. 6 for CE) plus any extra components that that have been added at
@@ -472,6 +718,9 @@ public class Terser {
     }
 
     private static int numStandardComponents(Type t) {
+        if (t instanceof AbstractComposite) {
+            return ((AbstractComposite) t).numComponents();
+        }
         if (t instanceof Composite) {
             return ((Composite) t).getComponents().length;
         }
@@ -492,11 +741,69 @@ public class Terser {
         return finder;
     }
 
+    /** State of a search for a step of a path through the structures which exist. */
+    private static class ExistingSearch {
+        private final PathSpec step;
+        private final List<Integer> position = new ArrayList<Integer>();
+        private boolean skippedGroups;
+        private Structure result;
+
+        ExistingSearch(PathSpec step) {
+            this.step = step;
+        }
+
+        /** Visits the children of the group in the order of a MessageIterator */
+        boolean search(Group group) throws HL7Exception {
+            String[] names = group.getNames();
+            for (int i = 0; i < names.length; i++) {
+                boolean isGroup = group.isGroup(names[i]);
+                Structure first = group.getExisting(names[i], 0);
+                position.add(i);
+                if (isGroup == step.isGroup && matches(group, names[i], first)) {
+                    result = step.rep == 0 ? first : group.getExisting(names[i], step.rep);
+                    return true;
+                }
+                if (isGroup) {
+                    if (first == null) {
+                        skippedGroups = true;
+                    } else if (search((Group) first)) {
+                        return true;
+                    }
+                }
+                position.remove(position.size() - 1);
+            }
+            return false;
+        }
+
+        /** Matches the name within the parent or the name of the structure, like a SegmentFinder */
+        private boolean matches(Group group, String name, Structure first) throws HL7Exception {
+            if (SegmentFinder.matches(step.pattern, name)) {
+                return true;
+            }
+            String structureName = first != null ? first.getName() : group.getClass(name).getSimpleName();
+            return SegmentFinder.matches(step.pattern, structureName);
+        }
+    }
+
     /** Struct for information about a step in a segment path. */
-    private static class PathSpec {
-        public String pattern;
-        public boolean isGroup;
-        public boolean find;
-        public int rep;
+    static class PathSpec {
+        public final String pattern;
+        public final boolean isGroup;
+        public final boolean find;
+        public final int rep;
+
+        PathSpec(String pattern, boolean isGroup, boolean find, int rep) {
+            this.pattern = pattern;
+            this.isGroup = isGroup;
+            this.find = find;
+            this.rep = rep;
+        }
+
+        /**
+         * @return true if the step is a direct child whose name is given without wildcards
+         */
+        boolean isLiteral() {
+            return !find && pattern.indexOf('*') < 0 && pattern.indexOf('?') < 0;
+        }
     }
 }
@@ -0,0 +1,210 @@
+/**
+ * The contents of this file are subject to the Mozilla Public License Version 1.1
+ * (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at http://www.mozilla.org/MPL/
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for the
+ * specific language governing rights and limitations under the License.
+ *
+ * The Original Code is "TerserPath.java".  Description:
+ * "A Terser location spec which has been parsed once for repeated use"
+ *
+ * The Initial Developer of the Original Code is University Health Network. Copyright (C)
+ * 2002.  All Rights Reserved.
+ *
+ * Contributor(s): ______________________________________.
+ *
+ * Alternatively, the contents of this file may be used under the terms of the
+ * GNU General Public License (the  "GPL"), in which case the provisions of the GPL are
+ * applicable instead of those above.  If you wish to allow use of your version of this
+ * file only under the terms of the GPL and not to allow others to use your version
+ * of this file under the MPL, indicate your decision by deleting  the provisions above
+ * and replace  them with the notice and other provisions required by the GPL License.
+ * If you do not delete the provisions above, a recipient may use your version of
+ * this file under either the MPL or the GPL.
+ *
+ */
+
+package ca.uhn.hl7v2.util;
+
+import java.util.StringTokenizer;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Group;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.model.Structure;
+
+/**
+ * <p>
+ * A location spec in the syntax of the {@link Terser}, which is parsed once and can then be
+ * evaluated against any number of messages. Instances are immutable and may be shared between
+ * threads, e.g. as constants:
+ * </p>
+ * <p>
+ * <code>private static final TerserPath PATIENT_ID = TerserPath.compile("/.PID-3-1");</code> <br>
+ * ... <br>
+ * <code>String id = PATIENT_ID.get(message);</code>
+ * </p>
+ * <p>
+ * When evaluated against a message, navigation starts at the root of the message, so that the
+ * result is the same as that of <code>new Terser(message).get(spec)</code>. Like the Terser,
+ * {@link #get(Message)} only visits the groups and segments which exist and does not add anything
+ * to the message. If each step of the segment path names a direct child without wildcards, e.g.
+ * <code>/PATIENT_RESULT/PATIENT/PID-3</code>, {@link #set(Message, String)} looks up the segment
+ * directly in its parent groups, without a {@link SegmentFinder}. Use
+ * {@link Terser#get(TerserPath)} in order to resolve relative paths from the current location of
+ * a Terser instead.
+ * </p>
+ */
+public final class TerserPath {
+
+    private final String spec;
+    private final boolean fromRoot;
+    private final Terser.PathSpec[] path;
+    private final boolean literal;
+    private final int field;
+    private final int rep;
+    private final int component;
+    private final int subcomponent;
+
+    private TerserPath(String spec) throws HL7Exception {
+        this.spec = spec;
+        StringTokenizer tok = new StringTokenizer(spec, "-", false);
+        String segSpec = tok.nextToken();
+        fromRoot = segSpec.startsWith("/");
+        path = Terser.parseSegmentPathSpec(segSpec);
+        if (path.length == 0) {
+            throw new HL7Exception("Must specify segment in spec " + spec);
+        }
+        boolean allLiteral = true;
+        for (Terser.PathSpec next : path) {
+            allLiteral &= next.isLiteral();
+        }
+        literal = allLiteral;
+
+        int[] ind = Terser.getIndices(spec);
+        field = ind[0];
+        rep = ind[1];
+        component = ind[2];
+        subcomponent = ind[3];
+        if (rep < 0 || component < 1 || subcomponent < 1) {
+            throw new HL7Exception("Invalid index in spec " + spec);
+        }
+    }
+
+    /**
+     * Parses a location spec. See the {@link Terser} class docs for the syntax.
+     *
+     * @param spec field specification
+     * @return the compiled path
+     * @throws HL7Exception if the spec is not valid
+     */
+    public static TerserPath compile(String spec) throws HL7Exception {
+        if (spec == null) {
+            throw new NullPointerException("spec may not be null");
+        }
+        return new TerserPath(spec);
+    }
+
+    /**
+     * Gets the string value of the field at this path in the given message.
+     *
+     * @param message message from which the value is read
+     * @return string value of the specified field, or <code>null</code> if it is not present in
+     *         the message
+     * @throws HL7Exception if the primitive could not be obtained, e.g. if the segment does not
+     *         define the field
+     */
+    public String get(Message message) throws HL7Exception {
+        return get(Terser.getExistingSegment(message, path, null));
+    }
+
+    /**
+     * Sets the string value of the field at this path in the given message.
+     *
+     * @param message message in which the value is set
+     * @param value value to be set
+     * @throws HL7Exception if the primitive does not exist
+     */
+    public void set(Message message, String value) throws HL7Exception {
+        Terser.set(getSegment(message), field, rep, component, subcomponent, value);
+    }
+
+    /**
+     * Returns the segment of this path in the given message.
+     *
+     * @param message message from which the segment is obtained
+     * @return the segment specified
+     * @throws HL7Exception if the segment could not be obtained
+     */
+    public Segment getSegment(Message message) throws HL7Exception {
+        if (!literal) {
+            return Terser.getSegment(new SegmentFinder(message), true, path);
+        }
+        Group group = message;
+        for (Terser.PathSpec ps : path) {
+            Structure s = group.get(ps.pattern, ps.rep);
+            if (!ps.isGroup) {
+                if (!(s instanceof Segment)) {
+                    throw new HL7Exception(s.getName() + " is not a segment");
+                }
+                return (Segment) s;
+            }
+            if (!(s instanceof Group)) {
+                throw new HL7Exception(s.getName() + " is not a group");
+            }
+            group = (Group) s;
+        }
+        return null;
+    }
+
+    String get(SegmentFinder finder) throws HL7Exception {
+        return get(fromRoot ? Terser.getExistingSegment(finder, path) : Terser.getSegment(finder, false, path));
+    }
+
+    private String get(Segment segment) throws HL7Exception {
+        return segment == null ? null : Terser.get(segment, field, rep, component, subcomponent);
+    }
+
+    void set(SegmentFinder finder, String value) throws HL7Exception {
+        Terser.set(Terser.getSegment(finder, fromRoot, path), field, rep, component, subcomponent, value);
+    }
+
+    /**
+     * @return the field number (indexed from 1)
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the field repetition (indexed from 0)
+     */
+    public int getFieldRepetition() {
+        return rep;
+    }
+
+    /**
+     * @return the component number (indexed from 1)
+     */
+    public int getComponent() {
+        return component;
+    }
+
+    /**
+     * @return the subcomponent number (indexed from 1)
+     */
+    public int getSubcomponent() {
+        return subcomponent;
+    }
+
+    /**
+     * @return the location spec from which this path has been compiled
+     */
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+}
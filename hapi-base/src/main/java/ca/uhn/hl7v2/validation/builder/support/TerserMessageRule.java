@@ -33,6 +33,7 @@ import ca.uhn.hl7v2.Location;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.model.Segment;
 import ca.uhn.hl7v2.util.Terser;
+import ca.uhn.hl7v2.util.TerserPath;
 import ca.uhn.hl7v2.validation.builder.Expression;
 import ca.uhn.hl7v2.validation.builder.Predicate;
 import ca.uhn.hl7v2.validation.builder.PredicateMessageRule;
@@ -57,6 +58,7 @@ public class TerserMessageRule extends PredicateMessageRule {
 	private static class TerserExpression implements Expression<Message>, Serializable {
 
 		private String expression;
+		private transient TerserPath path;
 
 		public TerserExpression(String expression) {
 			super();
@@ -64,7 +66,10 @@ public class TerserMessageRule extends PredicateMessageRule {
 		}
 
 		public Object evaluate(Message msg) throws HL7Exception {
-			return new Terser(msg).get(expression);
+			if (path == null) {
+				path = TerserPath.compile(expression);
+			}
+			return path.get(msg);
 		}
 
 		public String getDescription() {
@@ -2,15 +2,19 @@ package ca.uhn.hl7v2;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.model.v25.message.ADT_A01;
@@ -24,6 +28,7 @@ import ca.uhn.hl7v2.app.Connection;
 import ca.uhn.hl7v2.app.ConnectionHub;
 import ca.uhn.hl7v2.app.ConnectionHubTest;
 import ca.uhn.hl7v2.app.HL7Service;
+import ca.uhn.hl7v2.concurrent.DefaultExecutorService;
 import ca.uhn.hl7v2.conf.store.ProfileStoreFactory;
 import ca.uhn.hl7v2.llp.LLPException;
 import ca.uhn.hl7v2.llp.MinLowerLayerProtocol;
@@ -34,6 +39,7 @@ import ca.uhn.hl7v2.parser.ModelClassFactory;
 import ca.uhn.hl7v2.parser.ParserConfiguration;
 import ca.uhn.hl7v2.parser.PipeParser;
 import ca.uhn.hl7v2.parser.XMLParser;
+import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
 import ca.uhn.hl7v2.util.RandomServerPortProvider;
 import ca.uhn.hl7v2.validation.DefaultValidator;
 import ca.uhn.hl7v2.validation.ValidationContext;
@@ -269,6 +275,46 @@ public class DefaultHapiContextTest {
 		}
 	}
 
+    @Test
+    public void testUseVirtualThreads() throws Exception {
+        DefaultHapiContext context = new DefaultHapiContext();
+        context.getServerConfiguration().setUseVirtualThreads(true);
+        assertTrue(DefaultExecutorService.isDefaultService(context.getExecutorService()));
+
+        final AtomicReference<Thread> processingThread = new AtomicReference<Thread>();
+        int port = RandomServerPortProvider.findFreePort();
+        HL7Service server = context.newServer(port, false);
+        server.registerApplication("*", "*", new ConnectionHubTest.MyApp() {
+            @Override
+            public Message processMessage(Message theIn, Map<String, Object> theMetadata)
+                    throws ReceivingApplicationException, HL7Exception {
+                processingThread.set(Thread.currentThread());
+                return super.processMessage(theIn, theMetadata);
+            }
+        });
+        server.startAndWait();
+        try {
+            ADT_A01 a01 = new ADT_A01();
+            a01.initQuickstart("ADT", "A01", "P");
+            Connection client = context.newClient("localhost", port, false);
+            Message response = client.getInitiator().sendAndReceive(a01);
+            assertEquals("AA", new Terser(response).get("/MSA-1"));
+            client.close();
+        } finally {
+            server.stopAndWait();
+        }
+
+        // Thread.isVirtual() exists as of Java 21, older runtimes use the default thread pool
+        Method isVirtual = null;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            // not supported
+        }
+        assumeTrue(isVirtual != null);
+        assertEquals(Boolean.TRUE, isVirtual.invoke(processingThread.get()));
+    }
+
     @Test
     public void testNewMessage() throws Exception {
         Message msg = context1.newMessage("ADT", "A04", Version.V25);
@@ -0,0 +1,139 @@
+package ca.uhn.hl7v2.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.v25.message.ACK;
+import ca.uhn.hl7v2.model.v25.message.ADT_A01;
+import ca.uhn.hl7v2.util.RandomServerPortProvider;
+
+public class ConnectionPoolTest {
+
+	private int port;
+	private SimpleServer server;
+	private DefaultHapiContext ctx;
+
+	@Before
+	public void setup() throws Exception {
+		port = RandomServerPortProvider.findFreePort();
+		server = new DefaultHapiContext().newServer(port, false);
+		server.registerApplication(new DefaultApplication(AcknowledgmentCode.AA));
+		server.startAndWait();
+
+		ctx = new DefaultHapiContext();
+		ctx.getClientConfiguration().setConnectionPoolSize(3);
+		ctx.getClientConfiguration().setMinPooledConnections(2);
+	}
+
+	@After
+	public void teardown() throws Exception {
+		ctx.getConnectionHub().discardAll();
+		server.stopAndWait();
+	}
+
+	@Test
+	public void testPrestartAndSend() throws Exception {
+		Connection client = ctx.newClient("127.0.0.1", port, false);
+		assertTrue(client instanceof ConnectionPool);
+		ConnectionPool pool = (ConnectionPool) client;
+		assertEquals(2, pool.getSize());
+
+		List<ADT_A01> sent = new ArrayList<ADT_A01>();
+		List<Future<Message>> responses = new ArrayList<Future<Message>>();
+		for (int i = 0; i < 50; i++) {
+			ADT_A01 a01 = new ADT_A01();
+			a01.initQuickstart("ADT", "A01", "P");
+			sent.add(a01);
+			responses.add(client.getInitiator().sendAsync(a01));
+		}
+		for (int i = 0; i < sent.size(); i++) {
+			ACK ack = (ACK) responses.get(i).get(10, TimeUnit.SECONDS);
+			assertEquals(sent.get(i).getMSH().getMessageControlID().getValue(), ack.getMSA()
+					.getMessageControlID().getValue());
+		}
+		assertTrue(pool.getSize() <= 3);
+		assertEquals(0, pool.getOutstandingResponses());
+	}
+
+	@Test
+	public void testConcurrentOpeningRespectsPoolSize() throws Exception {
+		ctx.getClientConfiguration().setMinPooledConnections(0);
+		final ConnectionPool pool = (ConnectionPool) ctx.newClient("127.0.0.1", port, false);
+		assertEquals(0, pool.getSize());
+
+		ExecutorService executor = Executors.newFixedThreadPool(20);
+		List<Callable<Message>> tasks = new ArrayList<Callable<Message>>();
+		for (int i = 0; i < 20; i++) {
+			tasks.add(new Callable<Message>() {
+				public Message call() throws Exception {
+					ADT_A01 a01 = new ADT_A01();
+					a01.initQuickstart("ADT", "A01", "P");
+					return pool.getInitiator().sendAndReceive(a01);
+				}
+			});
+		}
+		try {
+			for (Future<Message> next : executor.invokeAll(tasks)) {
+				assertEquals("AA", ((ACK) next.get()).getMSA().getAcknowledgmentCode().getValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(pool.getSize() <= 3);
+		assertTrue(server.getRemoteConnections().size() <= 3);
+	}
+
+	@Test
+	public void testReplaceClosedConnections() throws Exception {
+		ctx.getClientConfiguration().setPoolCheckInterval(100, TimeUnit.MILLISECONDS);
+		ConnectionPool pool = (ConnectionPool) ctx.newClient("127.0.0.1", port, false);
+		for (Connection next : new ArrayList<Connection>(server.getRemoteConnections())) {
+			next.close();
+		}
+		Thread.sleep(500);
+		assertEquals(2, pool.getSize());
+
+		ADT_A01 a01 = new ADT_A01();
+		a01.initQuickstart("ADT", "A01", "P");
+		ACK ack = (ACK) pool.getInitiator().sendAndReceive(a01);
+		assertEquals("AA", ack.getMSA().getAcknowledgmentCode().getValue());
+	}
+
+	@Test
+	public void testCloseIdleConnections() throws Exception {
+		ctx.getClientConfiguration().setMinPooledConnections(0);
+		ctx.getClientConfiguration().setPoolIdleTimeout(100, TimeUnit.MILLISECONDS);
+		ctx.getClientConfiguration().setPoolCheckInterval(100, TimeUnit.MILLISECONDS);
+		ConnectionPool pool = (ConnectionPool) ctx.newClient("127.0.0.1", port, false);
+		assertEquals(0, pool.getSize());
+
+		ADT_A01 a01 = new ADT_A01();
+		a01.initQuickstart("ADT", "A01", "P");
+		pool.getInitiator().sendAndReceive(a01);
+		assertEquals(1, pool.getSize());
+
+		Thread.sleep(500);
+		assertEquals(0, pool.getSize());
+		assertTrue(pool.isOpen());
+
+		pool.close();
+		assertFalse(pool.isOpen());
+	}
+
+}
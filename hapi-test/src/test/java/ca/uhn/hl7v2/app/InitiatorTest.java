@@ -5,12 +5,19 @@ package ca.uhn.hl7v2.app;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -99,4 +106,106 @@ public class InitiatorTest {
 
 	}	
 
+	@Test
+	public void testSendAsync() throws Exception {
+		int n = 200;
+		Parser parser = context.getPipeParser();
+		Connection conn = new ActiveConnection(parser, new MinLowerLayerProtocol(), new Socket("localhost", port));
+		conn.activate();
+		List<Message> sent = new ArrayList<Message>();
+		List<Future<Message>> received = new ArrayList<Future<Message>>();
+		for (int i = 0; i < n; i++) {
+			Message out = parser.parse(msgText);
+			Terser.set((Segment) out.get("MSH"), 10, 0, 1, 1, "ASYNC" + i);
+			sent.add(out);
+			received.add(conn.getInitiator().sendAsync(out));
+		}
+		for (int i = 0; i < n; i++) {
+			Message in = received.get(i).get();
+			assertEquals(Terser.get((Segment) sent.get(i).get("MSH"), 10, 0, 1, 1),
+					Terser.get((Segment) in.get("MSA"), 2, 0, 1, 1));
+		}
+		conn.close();
+	}
+
+	@Test
+	public void testSendBatch() throws Exception {
+		int n = 500;
+		Parser parser = context.getPipeParser();
+		Connection conn = new ActiveConnection(parser, new MinLowerLayerProtocol(), new Socket("localhost", port));
+		conn.activate();
+		List<Message> sent = new ArrayList<Message>();
+		for (int i = 0; i < n; i++) {
+			Message out = parser.parse(msgText);
+			Terser.set((Segment) out.get("MSH"), 10, 0, 1, 1, "BATCH" + i);
+			sent.add(out);
+		}
+		Message noID = parser.parse(msgText);
+		Terser.set((Segment) noID.get("MSH"), 10, 0, 1, 1, "");
+		sent.add(noID);
+
+		List<Future<Message>> received = conn.getInitiator().sendBatch(sent);
+		assertEquals(n + 1, received.size());
+		for (int i = 0; i < n; i++) {
+			Message in = received.get(i).get();
+			assertEquals("BATCH" + i, Terser.get((Segment) in.get("MSA"), 2, 0, 1, 1));
+		}
+		try {
+			received.get(n).get();
+			fail("Message without control ID was sent");
+		} catch (ExecutionException e) {
+			// expected
+		}
+		conn.close();
+	}
+
+	@Test
+	public void testInterruptedWhileAwaitingResponse() throws Exception {
+		Message out = context.getPipeParser().parse(msgText);
+		FutureTask<Message> response = new FutureTask<Message>(new Callable<Message>() {
+			public Message call() {
+				return null;
+			}
+		});
+		Thread.currentThread().interrupt();
+		try {
+			ActiveInitiator.await(response, out);
+			fail();
+		} catch (TimeoutException e) {
+			// the interrupt flag is kept for the caller
+			assertTrue(Thread.interrupted());
+		}
+		assertTrue(response.isCancelled());
+	}
+
+	@Test
+	public void testSendBatchWithListener() throws Exception {
+		int n = 500;
+		Connection conn = new ActiveConnection(context.getPipeParser(), new MinLowerLayerProtocol(), new Socket(
+				"localhost", port));
+		conn.activate();
+		List<String> sent = new ArrayList<String>();
+		for (int i = 0; i < n; i++) {
+			sent.add(msgText.replace("LABGL1199510021807427", "RAW" + i));
+		}
+		final CountDownLatch completed = new CountDownLatch(n);
+		final AtomicInteger acknowledged = new AtomicInteger();
+		conn.getInitiator().sendBatch(sent.iterator(), new BatchListener() {
+			public void messageCompleted(String messageControlId, Future<Message> response) {
+				try {
+					Message in = response.get();
+					if (messageControlId.equals(Terser.get((Segment) in.get("MSA"), 2, 0, 1, 1))) {
+						acknowledged.incrementAndGet();
+					}
+				} catch (Exception e) {
+					// counted as missing
+				}
+				completed.countDown();
+			}
+		});
+		assertTrue(completed.await(10, TimeUnit.SECONDS));
+		assertEquals(n, acknowledged.get());
+		conn.close();
+	}
+
 }
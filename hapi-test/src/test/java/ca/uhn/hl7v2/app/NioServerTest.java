@@ -0,0 +1,125 @@
+package ca.uhn.hl7v2.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.llp.MinLLPReader;
+import ca.uhn.hl7v2.llp.MinLLPWriter;
+import ca.uhn.hl7v2.model.v25.message.ACK;
+import ca.uhn.hl7v2.model.v25.message.ADT_A01;
+import ca.uhn.hl7v2.util.RandomServerPortProvider;
+
+public class NioServerTest {
+
+	@Test
+	public void testSendAndReceive() throws Exception {
+		int port = RandomServerPortProvider.findFreePort();
+		DefaultHapiContext ctx = new DefaultHapiContext();
+		NioServer server = new NioServer(ctx, port);
+		server.registerApplication(new DefaultApplication(AcknowledgmentCode.AA));
+		server.startAndWait();
+		try {
+			Connection client = ctx.newClient("127.0.0.1", port, false);
+			for (int i = 0; i < 5; i++) {
+				ADT_A01 a01 = new ADT_A01();
+				a01.initQuickstart("ADT", "A01", "P");
+				ACK resp = (ACK) client.getInitiator().sendAndReceive(a01);
+				assertEquals("AA", resp.getMSA().getAcknowledgmentCode().getValue());
+				assertEquals(a01.getMSH().getMessageControlID().getValue(), resp.getMSA().getMessageControlID()
+						.getValue());
+			}
+			client.close();
+		} finally {
+			server.stopAndWait();
+		}
+	}
+
+	/**
+	 * Frames split across several packets, and several frames in one packet
+	 */
+	@Test
+	public void testFramesSpanningReads() throws Exception {
+		int port = RandomServerPortProvider.findFreePort();
+		DefaultHapiContext ctx = new DefaultHapiContext();
+		NioServer server = new NioServer(ctx, port);
+		server.registerApplication(new DefaultApplication(AcknowledgmentCode.AA));
+		server.startAndWait();
+		Socket socket = new Socket();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			MinLLPWriter writer = new MinLLPWriter(bytes);
+			Set<String> controlIds = new HashSet<String>();
+			for (int i = 0; i < 3; i++) {
+				ADT_A01 a01 = new ADT_A01();
+				a01.initQuickstart("ADT", "A01", "P");
+				controlIds.add(a01.getMSH().getMessageControlID().getValue());
+				writer.writeMessage(a01.encode());
+			}
+
+			socket.setSoTimeout(5000);
+			socket.connect(new InetSocketAddress("127.0.0.1", port));
+			OutputStream out = socket.getOutputStream();
+			byte[] data = bytes.toByteArray();
+			for (int i = 0; i < data.length; i += 50) {
+				out.write(data, i, Math.min(50, data.length - i));
+				out.flush();
+				Thread.sleep(5);
+			}
+
+			MinLLPReader reader = new MinLLPReader(socket.getInputStream());
+			Set<String> acked = new HashSet<String>();
+			for (int i = 0; i < 3; i++) {
+				ACK ack = new ACK();
+				ack.parse(reader.getMessage());
+				acked.add(ack.getMSA().getMessageControlID().getValue());
+			}
+			assertEquals(controlIds, acked);
+		} finally {
+			socket.close();
+			server.stopAndWait();
+		}
+	}
+
+	@Test
+	public void testDetectConnectAndDisconnect() throws Exception {
+		final CountDownLatch connectLatch = new CountDownLatch(1);
+		final CountDownLatch disconnectLatch = new CountDownLatch(1);
+		int port = RandomServerPortProvider.findFreePort();
+		NioServer server = new NioServer(port);
+		server.registerConnectionListener(new ConnectionListener() {
+			public void connectionReceived(Connection theC) {
+				connectLatch.countDown();
+			}
+
+			public void connectionDiscarded(Connection theC) {
+				disconnectLatch.countDown();
+			}
+		});
+		server.startAndWait();
+		try {
+			Socket con = new Socket();
+			con.connect(new InetSocketAddress("localhost", port), 2000);
+			assertTrue(connectLatch.await(1000, TimeUnit.MILLISECONDS));
+			assertEquals(1, disconnectLatch.getCount());
+
+			con.close();
+			assertTrue(disconnectLatch.await(2000, TimeUnit.MILLISECONDS));
+		} finally {
+			server.stopAndWait();
+		}
+	}
+
+}
@@ -13,10 +13,15 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.codehaus.plexus.util.StringOutputStream;
@@ -262,6 +267,28 @@ public class SimpleServerTest implements ConnectionListener {
 		LOG.info("done");
 	}
 
+	@Test
+	public void testCloseIdleConnection() throws Exception {
+		int port = RandomServerPortProvider.findFreePort();
+		DefaultHapiContext ctx = new DefaultHapiContext();
+		ctx.getServerConfiguration().setIdleTimeout(300, TimeUnit.MILLISECONDS);
+		HL7Service ss = ctx.newServer(port, false);
+		ss.registerConnectionListener(this);
+		ss.startAndWait();
+		try {
+			Socket con = new Socket();
+			con.connect(new InetSocketAddress("localhost", port), 2000);
+			assertTrue(connectLatch.await(1000, TimeUnit.MILLISECONDS));
+			assertNotNull(ss.getRemoteConnection("127.0.0.1", 1000, TimeUnit.MILLISECONDS));
+
+			assertTrue(disconnectLatch.await(2000, TimeUnit.MILLISECONDS));
+			assertTrue(ss.getRemoteConnections().isEmpty());
+			con.close();
+		} finally {
+			ss.stopAndWait();
+		}
+	}
+
 	public void connectionReceived(Connection theC) {
 		LOG.info("Connection received by client");
 		connectLatch.countDown();
@@ -301,6 +328,97 @@ public class SimpleServerTest implements ConnectionListener {
 		}
 	}
 
+	@Test
+	public void testMaxInFlightMessagesPerConnection() throws Exception {
+		port = RandomServerPortProvider.findFreePort();
+		DefaultHapiContext ctx = new DefaultHapiContext();
+		ctx.getServerConfiguration().setMaxInFlightMessagesPerConnection(2);
+		SimpleServer server = ctx.newServer(port, false);
+		final AtomicInteger current = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		server.registerApplication(new ReceivingApplication<Message>() {
+			public Message processMessage(Message theMessage, Map<String, Object> theMetadata) throws HL7Exception {
+				int now = current.incrementAndGet();
+				synchronized (max) {
+					max.set(Math.max(max.get(), now));
+				}
+				try {
+					Thread.sleep(50);
+					return theMessage.generateACK();
+				} catch (Exception e) {
+					throw new HL7Exception(e);
+				} finally {
+					current.decrementAndGet();
+				}
+			}
+
+			public boolean canProcess(Message theMessage) {
+				return true;
+			}
+		});
+		server.startAndWait();
+		try {
+			Connection client = ctx.newClient("127.0.0.1", port, false);
+			List<Future<Message>> responses = new ArrayList<Future<Message>>();
+			for (int i = 0; i < 10; i++) {
+				ADT_A01 a01 = new ADT_A01();
+				a01.initQuickstart("ADT", "A01", "P");
+				responses.add(client.getInitiator().sendAsync(a01));
+			}
+			for (Future<Message> next : responses) {
+				ACK resp = (ACK) next.get(10, TimeUnit.SECONDS);
+				assertEquals("AA", resp.getMSA().getAcknowledgmentCode().getValue());
+			}
+			assertTrue(max.get() <= 2);
+		} finally {
+			server.stopAndWait();
+		}
+	}
+
+	@Test
+	public void testOrderedProcessing() throws Exception {
+		port = RandomServerPortProvider.findFreePort();
+		DefaultHapiContext ctx = new DefaultHapiContext();
+		ctx.getServerConfiguration().setOrderedProcessing(true);
+		SimpleServer server = ctx.newServer(port, false);
+		final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+		server.registerApplication(new ReceivingApplication<Message>() {
+			public Message processMessage(Message theMessage, Map<String, Object> theMetadata) throws HL7Exception {
+				ADT_A01 a01 = (ADT_A01) theMessage;
+				try {
+					// later messages would overtake this one if processed in parallel
+					Thread.sleep((long) (Math.random() * 5));
+					processed.add(a01.getMSH().getMessageControlID().getValue());
+					return theMessage.generateACK();
+				} catch (Exception e) {
+					throw new HL7Exception(e);
+				}
+			}
+
+			public boolean canProcess(Message theMessage) {
+				return true;
+			}
+		});
+		server.startAndWait();
+		try {
+			Connection client = ctx.newClient("127.0.0.1", port, false);
+			List<String> sent = new ArrayList<String>();
+			List<Future<Message>> responses = new ArrayList<Future<Message>>();
+			for (int i = 0; i < 30; i++) {
+				ADT_A01 a01 = new ADT_A01();
+				a01.initQuickstart("ADT", "A01", "P");
+				sent.add(a01.getMSH().getMessageControlID().getValue());
+				responses.add(client.getInitiator().sendAsync(a01));
+			}
+			for (Future<Message> next : responses) {
+				next.get(10, TimeUnit.SECONDS);
+			}
+			assertEquals(sent, processed);
+		} finally {
+			server.stopAndWait();
+		}
+	}
+
 	@Test
 	public void testDontGenerateNakForError() throws InterruptedException, HL7Exception, IOException, LLPException {
 		ADT_A01 a01 = new ADT_A01();
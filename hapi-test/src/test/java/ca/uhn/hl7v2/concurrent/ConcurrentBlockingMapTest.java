@@ -0,0 +1,210 @@
+package ca.uhn.hl7v2.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentBlockingMapTest {
+
+	private BlockingMap<String, Object> map;
+	private static final String KEY = "KEY";
+	
+	@Before
+	public void setup() {
+		map = new ConcurrentBlockingMap<String, Object>();
+	}
+	
+	// Single and sequential producer/consumer
+	
+	@Test
+	public void testTakeBeforePut() throws Exception {
+		Object produced = new Object();
+		Future<Object> future = map.asyncTake(KEY);
+		Thread.sleep(100); // Make sure that thread listens
+		assertFalse(map.containsKey(KEY));
+		map.put(KEY, produced);
+		Object consumed = future.get();
+		assertEquals(produced, consumed);
+		assertFalse(map.containsKey(KEY));
+		assertTrue(map.isEmpty());
+	}
+	
+	@Test
+	public void testTakeAfterPut() throws Exception {
+		Object produced = new Object();
+		map.put(KEY, produced);
+		assertEquals(produced, map.get(KEY));
+		assertTrue(map.containsKey(KEY));
+		Object consumed = map.asyncTake(KEY).get();
+		assertEquals(produced, consumed);
+		assertFalse(map.containsKey(KEY));
+		assertTrue(map.isEmpty());
+	}	
+	
+	@Test
+	public void testPollBeforePut() throws Exception {
+		Object produced = new Object();
+		Future<Object> future = map.asyncPoll(KEY, 1000, TimeUnit.MILLISECONDS);
+		Thread.sleep(500);
+		assertFalse(map.containsKey(KEY));
+		map.put(KEY, produced);
+		Object consumed = future.get();
+		assertEquals(produced, consumed);
+		assertFalse(map.containsKey(KEY));
+		assertTrue(map.isEmpty());
+	}
+	
+	@Test
+	public void testPollAfterPut() throws Exception {
+		Object produced = new Object();
+		assertFalse(map.containsKey(KEY));
+		map.put(KEY, produced);
+		assertTrue(map.containsKey(KEY));
+		assertEquals(produced, map.get(KEY));
+		Object consumed = map.asyncPoll(KEY, 1000, TimeUnit.MILLISECONDS).get();
+		assertEquals(produced, consumed);
+		assertFalse(map.containsKey(KEY));
+		assertTrue(map.isEmpty());
+	}	
+	
+	@Test
+	public void testPollBeforePutTimesOut() throws Exception {
+		Object produced = new Object();
+		Future<Object> future = map.asyncPoll(KEY, 1000, TimeUnit.MILLISECONDS);
+		Thread.sleep(1500);
+		assertFalse(map.containsKey(KEY));
+		map.put(KEY, produced);
+		Object consumed = future.get();
+		assertNull(consumed);
+		assertTrue(map.containsKey(KEY));
+		assertTrue(map.containsValue(produced));
+		assertEquals(1, map.size());
+		assertFalse(map.isEmpty());
+	}	
+	
+	@Test
+	public void testTakeBeforeGive() throws Exception {
+		Object produced = new Object();
+		Future<Object> future = map.asyncTake(KEY);
+		Thread.sleep(100); // Make sure that thread listens
+		assertTrue(map.give(KEY, produced));
+		Object consumed = future.get();
+		assertEquals(produced, consumed);
+		assertFalse(map.containsKey(KEY));
+	}
+	
+	@Test
+	public void testGiveWithoutConsumer() throws Exception {
+		Object produced = new Object();
+		assertFalse(map.give(KEY, produced));
+	}	
+	
+	@Test
+	public void testRemoveAfterTake() throws Exception {
+		Future<Object> future = map.asyncTake(KEY);
+		Thread.sleep(100); // Make sure that thread listens
+		assertNull(map.remove(KEY));
+		Object consumed = future.get();
+		assertNull(consumed);
+		assertFalse(map.containsKey(KEY));
+	}	
+	
+	@Test
+	public void testClearAfterTake() throws Exception {
+		Future<Object> future = map.asyncTake(KEY);
+		Thread.sleep(100); // Make sure that thread listens
+		map.clear();
+		Object consumed = future.get();
+		assertNull(consumed);
+		assertFalse(map.containsKey(KEY));
+	}
+	
+	@Test
+	public void testAsyncPoll() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			String key = "" + i;
+			Future<Object> future = map.asyncPoll(key, 1000, TimeUnit.MILLISECONDS);
+			boolean gave = map.give(key, key);
+			assertTrue("Failed on " + i, gave);
+			assertEquals("Failed on " + i, key, future.get(1000, TimeUnit.MILLISECONDS));
+		}
+	}
+	
+	@Test
+	public void testPollWithoutPut() throws Exception {
+		long start = System.currentTimeMillis();
+		assertNull(map.poll(KEY, 100, TimeUnit.MILLISECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 100);
+		assertFalse(map.give(KEY, new Object()));
+	}
+
+	@Test
+	public void testAbandonedAsyncPollIsWithdrawn() throws Exception {
+		map.asyncPoll(KEY, 100, TimeUnit.MILLISECONDS);
+		assertTrue(map.give(KEY, new Object()));
+		map.asyncPoll(KEY, 100, TimeUnit.MILLISECONDS);
+		Thread.sleep(300);
+		assertFalse(map.give(KEY, new Object()));
+	}
+
+	@Test
+	public void testCancelAsyncTake() throws Exception {
+		Future<Object> future = map.asyncTake(KEY);
+		assertTrue(future.cancel(true));
+		assertTrue(future.isCancelled());
+		assertFalse(map.give(KEY, new Object()));
+	}
+
+	@Test
+	public void testAllConsumersReceiveValue() throws Exception {
+		Object produced = new Object();
+		Future<Object> future1 = map.asyncTake(KEY);
+		Future<Object> future2 = map.asyncPoll(KEY, 1000, TimeUnit.MILLISECONDS);
+		assertTrue(map.give(KEY, produced));
+		assertEquals(produced, future1.get());
+		assertEquals(produced, future2.get());
+	}
+
+	// Parallel producer/consumer
+
+	@Test
+	public void testConcurrentPollAndGive() throws Exception {
+		final int n = 2000;
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+			for (int i = 0; i < n; i++) {
+				final String key = "" + i;
+				tasks.add(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						return key.equals(map.poll(key, 5000, TimeUnit.MILLISECONDS));
+					}
+				});
+				tasks.add(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						map.put(key, key);
+						return true;
+					}
+				});
+			}
+			for (Future<Boolean> next : executor.invokeAll(tasks)) {
+				assertTrue(next.get());
+			}
+			assertTrue(map.isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
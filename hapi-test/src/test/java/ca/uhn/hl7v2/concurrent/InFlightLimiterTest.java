@@ -0,0 +1,97 @@
+package ca.uhn.hl7v2.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class InFlightLimiterTest {
+
+	@Test
+	public void testLimit() throws Exception {
+		InFlightLimiter limiter = new InFlightLimiter(2);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(1, limiter.getThrottledCount());
+
+		limiter.release();
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire(50, TimeUnit.MILLISECONDS));
+		assertEquals(2, limiter.getInFlight());
+		// waiting and retrying are not counted
+		assertFalse(limiter.retryAcquire());
+		assertEquals(1, limiter.getThrottledCount());
+	}
+
+	@Test
+	public void testUnlimited() {
+		InFlightLimiter limiter = new InFlightLimiter(0);
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		assertEquals(1000, limiter.getInFlight());
+		assertEquals(0, limiter.getThrottledCount());
+	}
+
+	@Test
+	public void testWaitForRelease() throws Exception {
+		final InFlightLimiter limiter = new InFlightLimiter(1);
+		assertTrue(limiter.tryAcquire());
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = new Thread() {
+			public void run() {
+				started.countDown();
+				try {
+					acquired.set(limiter.tryAcquire(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					// fails below
+				}
+			}
+		};
+		waiter.start();
+		started.await();
+		Thread.sleep(50);
+		assertFalse(acquired.get());
+
+		limiter.release();
+		waiter.join(1000);
+		assertTrue(acquired.get());
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	public void testRaiseLimitWakesWaiters() throws Exception {
+		final InFlightLimiter limiter = new InFlightLimiter(1);
+		assertTrue(limiter.tryAcquire());
+		final AtomicBoolean acquired = new AtomicBoolean();
+		Thread waiter = new Thread() {
+			public void run() {
+				try {
+					acquired.set(limiter.tryAcquire(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					// fails below
+				}
+			}
+		};
+		waiter.start();
+		Thread.sleep(50);
+		limiter.setLimit(2);
+		waiter.join(1000);
+		assertTrue(acquired.get());
+		assertEquals(2, limiter.getInFlight());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReleaseWithoutAcquire() {
+		new InFlightLimiter(1).release();
+	}
+
+}
@@ -0,0 +1,137 @@
+package ca.uhn.hl7v2.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+	private ExecutorService pool;
+	private StripedExecutor executor;
+
+	@Before
+	public void setup() {
+		pool = Executors.newFixedThreadPool(4);
+		executor = new StripedExecutor(16);
+	}
+
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testSameKeyInOrder() throws Exception {
+		final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(500);
+		for (int i = 0; i < 500; i++) {
+			final int next = i;
+			executor.execute("key", new Runnable() {
+				public void run() {
+					seen.add(next);
+					done.countDown();
+				}
+			}, pool);
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 500; i++) {
+			assertEquals(Integer.valueOf(i), seen.get(i));
+		}
+	}
+
+	@Test
+	public void testDifferentKeysInParallel() throws Exception {
+		// each task waits for another one to run at the same time, which
+		// only happens if keys in different stripes run in parallel
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch done = new CountDownLatch(16);
+		for (int i = 0; i < 16; i++) {
+			executor.execute(Integer.valueOf(i), new Runnable() {
+				public void run() {
+					started.countDown();
+					await(started);
+					done.countDown();
+				}
+			}, pool);
+		}
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailingTaskDoesNotStopStripe() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute("key", new Runnable() {
+			public void run() {
+				throw new IllegalStateException("expected");
+			}
+		}, pool);
+		executor.execute("key", new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		}, pool);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Only the task whose run is rejected is given up. Tasks queued by other
+	 * callers in the meantime are run anyway.
+	 */
+	@Test
+	public void testRejectedTaskOnly() throws Exception {
+		final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+		Executor rejecting = new Executor() {
+			public void execute(Runnable theCommand) {
+				// another caller queues a task while the run is being started
+				executor.execute("key", record(seen, "other"), pool);
+				throw new RejectedExecutionException("expected");
+			}
+		};
+		try {
+			executor.execute("key", record(seen, "rejected"), rejecting);
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(Collections.singletonList("other"), seen);
+
+		final CountDownLatch done = new CountDownLatch(1);
+		executor.execute("key", new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		}, pool);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	private static Runnable record(final List<String> theSeen, final String theName) {
+		return new Runnable() {
+			public void run() {
+				theSeen.add(theName);
+			}
+		};
+	}
+
+	private static void await(CountDownLatch theLatch) {
+		try {
+			theLatch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package ca.uhn.hl7v2.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+	private TimerWheel timer;
+
+	@Before
+	public void setup() {
+		timer = new TimerWheel("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+	}
+
+	@After
+	public void teardown() {
+		timer.stop();
+	}
+
+	@Test
+	public void testExpire() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		TimerWheel.Timeout timeout = timer.schedule(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+	}
+
+	/**
+	 * Timeouts longer than one revolution of the wheel (80ms here)
+	 */
+	@Test
+	public void testExpireAfterSeveralRevolutions() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		timer.schedule(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}, 250, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		Runnable task = new Runnable() {
+			public void run() {
+				count.incrementAndGet();
+			}
+		};
+		TimerWheel.Timeout cancelled = timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+		timer.schedule(task, 50, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		Thread.sleep(200);
+		assertEquals(1, count.get());
+		assertFalse(cancelled.isExpired());
+	}
+
+}
@@ -0,0 +1,48 @@
+package ca.uhn.hl7v2.llp;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class CharSetUtilTest {
+
+	private static final String MSH = "MSH|^~\\&|A|B|C|D|20111219123224||ADT^A01|1|P|2.5|||||";
+	private static final Charset DEFAULT = Charset.forName("ISO-8859-1");
+
+	@Test
+	public void testGetMsh18() throws Exception {
+		assertEquals("UNICODE UTF-8", CharSetUtil.getMsh18((MSH + "|UNICODE UTF-8\rPID|1").getBytes("US-ASCII")));
+		assertEquals("8859/5", CharSetUtil.getMsh18((MSH + "|8859/5~8859/1").getBytes("US-ASCII")));
+		assertEquals("", CharSetUtil.getMsh18((MSH + "\rPID||||||||||||||||||8859/5").getBytes("US-ASCII")));
+		assertEquals("UNICODE UTF-8", CharSetUtil.getMsh18(("\uFEFF" + MSH + "|UNICODE UTF-8").getBytes("UTF-8")));
+		// MSH-2 with the truncation character of HL7 2.7
+		assertEquals("8859/5", CharSetUtil.getMsh18(MSH.replace("^~\\&", "^~\\&#").concat("|8859/5").getBytes("US-ASCII")));
+
+		// not scanned, the message is decoded and preparsed instead
+		assertNull(CharSetUtil.getMsh18(("MSH|^\u00E4\\&|A").getBytes("UTF-8")));
+		assertNull(CharSetUtil.getMsh18((MSH + "|UNICODE UTF-8").getBytes("UTF-16")));
+		assertNull(CharSetUtil.getMsh18("<HL7Message/>".getBytes("US-ASCII")));
+		assertNull(CharSetUtil.getMsh18("MS".getBytes("US-ASCII")));
+		// MSH-2 with less than four or more than five characters
+		assertNull(CharSetUtil.getMsh18(MSH.replace("^~\\&|A", "^~\\||").concat("|8859/5|8859/1").getBytes("US-ASCII")));
+		assertNull(CharSetUtil.getMsh18(MSH.replace("^~\\&", "^~\\&#+").concat("|8859/5").getBytes("US-ASCII")));
+		assertNull(CharSetUtil.getMsh18("MSH|^~\\&".getBytes("US-ASCII")));
+	}
+
+	@Test
+	public void testCheckCharset() throws Exception {
+		assertEquals(Charset.forName("UTF-8"), CharSetUtil.checkCharset((MSH + "|UNICODE UTF-8\r").getBytes("UTF-8"), DEFAULT));
+		assertEquals(Charset.forName("ISO-8859-5"), CharSetUtil.checkCharset((MSH + "|8859/5\r").getBytes("ISO-8859-5"), DEFAULT));
+		assertEquals(DEFAULT, CharSetUtil.checkCharset((MSH + "|FOO\r").getBytes("US-ASCII"), DEFAULT));
+		assertEquals(DEFAULT, CharSetUtil.checkCharset((MSH + "\r").getBytes("US-ASCII"), DEFAULT));
+		assertEquals(DEFAULT, CharSetUtil.checkCharset("MS".getBytes("US-ASCII"), DEFAULT));
+		assertEquals(Charset.forName("ISO-8859-5"), CharSetUtil.checkCharset(
+				MSH.replace("^~\\&", "^~\\&#").concat("|8859/5\r").getBytes("ISO-8859-5"), DEFAULT));
+		// MSH-2 without subcomponent separator, MSH-19 must not be taken for MSH-18
+		assertEquals(Charset.forName("ISO-8859-5"), CharSetUtil.checkCharset(
+				MSH.replace("^~\\&|A", "^~\\||").concat("|8859/5|8859/1\r").getBytes("ISO-8859-5"), DEFAULT));
+	}
+
+}
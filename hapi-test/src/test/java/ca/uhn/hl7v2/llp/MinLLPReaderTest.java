@@ -201,4 +201,37 @@ public class MinLLPReaderTest {
         MinLLPReader reader = new MinLLPReader(in);
         reader.getMessage();
     }
+
+    /**
+     * Messages larger than the read buffer, and several messages arriving
+     * in a single read
+     */
+    @Test
+    public void testReadMessagesSpanningReads() throws IOException, LLPException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append("OBX|").append(i).append("|ST|||VALUE\r");
+        }
+        String stream = START_BYTE + large.toString() + END_BYTE1 + END_BYTE2
+                + START_BYTE + message + END_BYTE1 + END_BYTE2
+                + START_BYTE + message + END_BYTE1 + END_BYTE2;
+
+        // deliver the stream in small chunks
+        InputStream in = new ByteArrayInputStream(stream.getBytes()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        MinLLPReader reader = new MinLLPReader(in);
+        assertEquals(large.toString(), reader.getMessage());
+        assertEquals(message, reader.getMessage());
+        assertEquals(message, reader.getMessage());
+        try {
+            reader.getMessage();
+            fail("Stream should be at its end");
+        } catch (SocketException e) {
+            // expected
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package ca.uhn.hl7v2.llp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.net.Socket;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MllpChannelWriterTest {
+
+	private static final String MESSAGE = "MSH|^~\\&|A|B|C|D|200101010101||ADT^A01|1|P|2.4\rNTE|1||Gr\u00fc\u00dfe\r";
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("mllp", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testWriteMessage() throws Exception {
+		for (String charset : new String[] { "US-ASCII", "ISO-8859-1", "UTF-8" }) {
+			assertArrayEquals(charset, writeToStream(MESSAGE, charset, false), writeToChannel(MESSAGE, charset, false));
+		}
+	}
+
+	@Test
+	public void testWriteMessageLargerThanBuffer() throws Exception {
+		StringBuilder message = new StringBuilder(MESSAGE);
+		while (message.length() < 3 * MllpChannelWriter.BUFFER_SIZE) {
+			message.append("NTE|1||\u6f22\u5b57\r");
+		}
+		assertArrayEquals(writeToStream(message.toString(), "UTF-8", false),
+				writeToChannel(message.toString(), "UTF-8", false));
+	}
+
+	@Test
+	public void testOmitBOM() throws Exception {
+		assertArrayEquals(writeToStream(MESSAGE, "UTF-16", false), writeToChannel(MESSAGE, "UTF-16", false));
+		assertArrayEquals(writeToStream(MESSAGE, "UTF-16", true), writeToChannel(MESSAGE, "UTF-16", true));
+	}
+
+	@Test
+	public void testWriterForChannelSocket() throws Exception {
+		Socket socket = SocketChannel.open().socket();
+		try {
+			assertTrue(new MinLowerLayerProtocol().getWriter(socket) instanceof MllpChannelWriter);
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testSetOutputStream() throws Exception {
+		FileOutputStream fileOut = new FileOutputStream(file);
+		MllpChannelWriter writer = new MllpChannelWriter(fileOut.getChannel(), Charset.forName("UTF-8"), false);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.setOutputStream(out);
+		writer.writeMessage(MESSAGE);
+		writer.writeMessage(MESSAGE);
+		fileOut.close();
+		assertArrayEquals(writeToStream(MESSAGE, "UTF-8", false), out.toByteArray());
+		assertEquals(0, file.length());
+	}
+
+	@Test
+	public void testNonBlockingChannel() throws Exception {
+		Pipe pipe = Pipe.open();
+		try {
+			pipe.sink().configureBlocking(false);
+			new MllpChannelWriter(pipe.sink()).writeMessage(MESSAGE);
+			fail();
+		} catch (IllegalBlockingModeException e) {
+			// expected
+		} finally {
+			pipe.sink().close();
+			pipe.source().close();
+		}
+	}
+
+	private byte[] writeToChannel(String message, String charset, boolean omitBOM) throws Exception {
+		FileOutputStream out = new FileOutputStream(file);
+		MllpChannelWriter writer = new MllpChannelWriter(out.getChannel(), Charset.forName(charset), omitBOM);
+		writer.writeMessage(message);
+		writer.writeMessage(message);
+		writer.close();
+
+		byte[] retVal = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(retVal);
+		} finally {
+			in.close();
+		}
+		return retVal;
+	}
+
+	private static byte[] writeToStream(String message, String charset, boolean omitBOM) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MinLLPWriter writer = new MinLLPWriter(out, Charset.forName(charset), omitBOM);
+		writer.writeMessage(message);
+		writer.writeMessage(message);
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,80 @@
+package ca.uhn.hl7v2.llp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MllpCodecTest {
+
+	private static final String MESSAGE = "MSH|^~\\&|A|B|C|D|200101010101||ADT^A01|1|P|2.4\rNTE|1||Gr\u00fc\u00dfe\r";
+	private static final String MESSAGE_UTF8 = "MSH|^~\\&|A|B|C|D|200101010101||ADT^A01|1|P|2.4|||||||UNICODE UTF-8\rNTE|1||\u6f22\u5b57\r";
+
+	@Test
+	public void testSameAsReaderAndWriter() throws Exception {
+		for (String charset : new String[] { "US-ASCII", "ISO-8859-1", "UTF-8", "UTF-16" }) {
+			for (boolean respectMSH18 : new boolean[] { false, true }) {
+				for (boolean omitBOM : new boolean[] { false, true }) {
+					MinLowerLayerProtocol llp = new MinLowerLayerProtocol(respectMSH18, omitBOM);
+					llp.setCharset(charset);
+					for (String message : new String[] { MESSAGE, MESSAGE_UTF8 }) {
+						String description = charset + " " + respectMSH18 + " " + omitBOM;
+						assertSameAsReaderAndWriter(description, llp, message);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEncodeIntoFullBuffer() throws Exception {
+		MinLowerLayerProtocol llp = new MinLowerLayerProtocol();
+		llp.setCharset("ISO-8859-1");
+		MllpCodec codec = llp.getCodec();
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		buffer.put(new byte[] { 1, 2, 3 });
+		buffer = codec.encode(MESSAGE, buffer);
+		buffer = codec.encode(MESSAGE, buffer);
+
+		byte[] frame = writeToStream(llp, MESSAGE);
+		byte[] expected = new byte[3 + 2 * frame.length];
+		expected[0] = 1;
+		expected[1] = 2;
+		expected[2] = 3;
+		System.arraycopy(frame, 0, expected, 3, frame.length);
+		System.arraycopy(frame, 0, expected, 3 + frame.length, frame.length);
+		assertArrayEquals(expected, Arrays.copyOf(buffer.array(), buffer.position()));
+	}
+
+	@Test
+	public void testDecodeEmptyFrame() throws Exception {
+		assertNull(new MinLowerLayerProtocol().getCodec().decode(new byte[0], 0, 0));
+	}
+
+	private static void assertSameAsReaderAndWriter(String description, MinLowerLayerProtocol llp, String message)
+			throws Exception {
+		MllpCodec codec = llp.getCodec();
+		byte[] expected = writeToStream(llp, message);
+		ByteBuffer buffer = codec.encode(message, ByteBuffer.allocate(16));
+		assertArrayEquals(description, expected, Arrays.copyOf(buffer.array(), buffer.position()));
+
+		// the content of the frame within a larger buffer
+		byte[] received = new byte[expected.length + 4];
+		System.arraycopy(expected, 1, received, 2, expected.length - 3);
+		String read = llp.getReader(new ByteArrayInputStream(expected)).getMessage();
+		assertEquals(description, read, codec.decode(received, 2, expected.length - 3));
+	}
+
+	private static byte[] writeToStream(MinLowerLayerProtocol llp, String message) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		llp.getWriter(out).writeMessage(message);
+		return out.toByteArray();
+	}
+
+}
@@ -26,5 +26,27 @@ public class AbstractCompositeTest {
 
 	}
 
+	@Test
+	public void testComponentsCreatedOnFirstAccess() throws HL7Exception {
+
+		ORU_R01 msg = new ORU_R01();
+		msg.parse("MSH|^~\\&|||||200905011130||ORU^R01|1|T|2.5\r"
+				+ "OBX|1|CE|||a^^^\r");
+		AbstractComposite ce = (AbstractComposite) msg.getPATIENT_RESULT().getORDER_OBSERVATION().getOBSERVATION()
+				.getOBX().getObservationValue(0).getData();
+
+		assertEquals(6, ce.numComponents());
+		assertNotNull(ce.getExistingComponent(0));
+		assertNull(ce.getExistingComponent(1));
+		assertFalse(ce.isEmpty());
+		assertEquals("a", ce.encode());
+		assertNull(ce.getExistingComponent(1));
+
+		// getComponents() never returns missing components
+		for (Type next : ce.getComponents()) {
+			assertNotNull(next);
+		}
+		assertEquals("a", ce.encode());
+	}
 
 }
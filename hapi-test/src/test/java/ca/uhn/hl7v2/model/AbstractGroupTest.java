@@ -8,7 +8,11 @@ import ca.uhn.hl7v2.model.v25.message.ACK;
 import ca.uhn.hl7v2.model.v25.message.ORU_R01;
 import org.junit.Test;
 
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -147,4 +151,38 @@ public class AbstractGroupTest {
         assertEquals(expected, oruR01.encode());
     }
 
+    @Test
+    public void testSharedChildDefinitions() throws HL7Exception {
+        ADT_A01 first = new ADT_A01();
+        ADT_A01 second = new ADT_A01();
+        assertArrayEquals(first.getNames(), second.getNames());
+
+        // a nonstandard segment only changes the instance it was added to
+        first.addNonstandardSegment("ZZZ", 1);
+        assertEquals("ZZZ", first.getNames()[1]);
+        assertEquals(second.getNames().length + 1, first.getNames().length);
+        assertEquals(second.getFieldNumForName("EVN") + 1, first.getFieldNumForName("EVN"));
+        assertFalse(Arrays.asList(second.getNames()).contains("ZZZ"));
+        assertFalse(Arrays.asList(new ADT_A01().getNames()).contains("ZZZ"));
+
+        first.getEVN().getRecordedDateTime().getTimeOfAnEvent().setValue("2012");
+        assertEquals("2012", first.getEVN().getRecordedDateTime().getTimeOfAnEvent().getValue());
+        assertTrue(second.getEVN().isEmpty());
+    }
+
+    @Test
+    public void testCreateStructuresAfterNonstandardSegment() throws HL7Exception {
+        ADT_A01 message = new ADT_A01();
+        message.addNonstandardSegment("ZZZ", 1);
+        message.addNonstandardSegment("ARQ", 3);
+
+        // children declared by the message class still get their own type
+        assertEquals(ca.uhn.hl7v2.model.v24.segment.EVN.class, message.getEVN().getClass());
+        assertEquals(ca.uhn.hl7v2.model.v24.segment.PID.class, message.getPID().getClass());
+        assertEquals(ca.uhn.hl7v2.model.v24.group.ADT_A01_PROCEDURE.class, message.getPROCEDURE().getClass());
+        assertEquals(GenericSegment.class, message.get("ZZZ").getClass());
+        assertEquals(ARQ.class, message.get("ARQ").getClass());
+        assertEquals(ca.uhn.hl7v2.model.v24.segment.PR1.class, message.getPROCEDURE().getPR1().getClass());
+    }
+
 }
@@ -5,12 +5,16 @@ import java.io.IOException;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
 import ca.uhn.hl7v2.model.v22.message.ADT_A01;
 import ca.uhn.hl7v2.model.v23.message.ORU_R01;
 import ca.uhn.hl7v2.model.v24.segment.MSH;
 import ca.uhn.hl7v2.parser.DefaultModelClassFactory;
+import ca.uhn.hl7v2.parser.EncodingCharacters;
 import ca.uhn.hl7v2.parser.ModelClassFactory;
+import ca.uhn.hl7v2.parser.PipeParser;
 
 /**
  * JUnit test cases for AbstractSegment
@@ -118,4 +122,96 @@ public class AbstractSegmentTest {
 		msg.getMSH().parse("MSH|1");
 	}
 
+	@Test
+	public void testSharedFieldDefinitions() throws Exception {
+		ModelClassFactory factory = new DefaultModelClassFactory();
+		MSH first = new MSH(new GenericMessage.V25(factory), factory);
+		MSH second = new MSH(new GenericMessage.V25(factory), factory);
+		int n = first.numFields();
+		assertEquals(n, second.numFields());
+		assertArrayEquals(first.getNames(), second.getNames());
+
+		// unexpected fields are only added to the segment which needs them
+		second.getField(n + 2, 0);
+		assertEquals(n + 2, second.numFields());
+		assertEquals(n, first.numFields());
+		assertEquals(n, new MSH(new GenericMessage.V25(factory), factory).numFields());
+
+		// fields created by reflection belong to their own message
+		MSH third = new MSH(new GenericMessage.V25(factory), factory) {
+			@Override
+			protected Type createNewTypeWithoutReflection(int field) {
+				return null;
+			}
+		};
+		assertSame(third.getMessage(), third.getField(3, 0).getMessage());
+	}
+
+	@Test
+	public void testLazyParsingErrorNamesSegment() throws Exception {
+		HapiContext context = new DefaultHapiContext();
+		context.getParserConfiguration().setValidating(false);
+		context.getParserConfiguration().setLazyParsing(true);
+		PipeParser parser = new PipeParser(context) {
+			@Override
+			public void parse(Segment destination, String segment, EncodingCharacters encodingChars)
+					throws HL7Exception {
+				if (segment.contains("bad")) {
+					throw new HL7Exception("Invalid content");
+				}
+				super.parse(destination, segment, encodingChars);
+			}
+		};
+		Message msg = parser.parse("MSH|^~\\&|A|B|C|D|20130101||ZZZ^Z01|1|P|2.5\r"
+				+ "ZZZ|ok\rZZZ|bad\rZZZ|bad\r");
+		((Segment) msg.get("ZZZ", 0)).getField(1, 0);
+
+		// methods which declare HL7Exception throw it
+		try {
+			((Segment) msg.get("ZZZ", 1)).getField(1, 0);
+			fail();
+		} catch (HL7Exception e) {
+			assertEquals("Invalid content at ZZZ(2)", e.getMessage());
+		}
+
+		// others wrap it
+		try {
+			((Segment) msg.get("ZZZ", 2)).getNames();
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("ZZZ(3)"));
+		}
+	}
+
+	@Test
+	public void testLazyParsingErrorIsKept() throws Exception {
+		HapiContext context = new DefaultHapiContext();
+		context.getParserConfiguration().setValidating(false);
+		context.getParserConfiguration().setLazyParsing(true);
+		PipeParser parser = new PipeParser(context) {
+			@Override
+			public void parse(Segment destination, String segment, EncodingCharacters encodingChars)
+					throws HL7Exception {
+				super.parse(destination, segment, encodingChars);
+				if (segment.contains("bad")) {
+					throw new HL7Exception("Invalid content");
+				}
+			}
+		};
+		String text = "MSH|^~\\&|A|B|C|D|20130101||ZZZ^Z01|1|P|2.5\r" + "ZZZ|value|bad\r";
+		Message msg = parser.parse(text);
+		Segment zzz = (Segment) msg.get("ZZZ");
+
+		// the fields parsed before the failure are not exposed
+		for (int i = 0; i < 2; i++) {
+			try {
+				zzz.getField(1, 0);
+				fail();
+			} catch (HL7Exception e) {
+				assertEquals("Invalid content at ZZZ", e.getMessage());
+			}
+		}
+		assertEquals(text, parser.encode(msg));
+	}
+
 }
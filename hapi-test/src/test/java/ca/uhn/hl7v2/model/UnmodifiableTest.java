@@ -80,7 +80,13 @@ public class UnmodifiableTest extends Assert {
     @Test(expected = IllegalArgumentException.class)
     public void cannotAddExtraComponents() throws HL7Exception {
         Terser t = new Terser(msg);
-        t.get("/.PID-3-7");
+        Terser.getPrimitive(t.getSegment("/.PID").getField(3, 0), 7, 1);
+    }
+
+    @Test
+    public void readingExtraComponentsReturnsNull() throws HL7Exception {
+        Terser t = new Terser(msg);
+        assertNull(t.get("/.PID-3-7"));
     }
 
     @Test(expected = ClassCastException.class)
@@ -0,0 +1,42 @@
+package ca.uhn.hl7v2.parser;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.GenericMessage;
+import ca.uhn.hl7v2.model.v25.message.ADT_A01;
+import ca.uhn.hl7v2.model.v25.segment.PID;
+
+public class DefaultModelClassFactoryTest {
+
+	@Test
+	public void testCachedLookups() throws HL7Exception {
+		DefaultModelClassFactory mcf = new DefaultModelClassFactory();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(PID.class, mcf.getSegmentClass("PID", "2.5"));
+			assertNull(mcf.getSegmentClass("ZZZ", "2.5"));
+			assertEquals(ADT_A01.class, mcf.getMessageClass("ADT_A01", "2.5", true));
+			assertEquals(GenericMessage.V25.class, mcf.getMessageClass("ZZZ_Z01", "2.5", true));
+		}
+	}
+
+	@Test
+	public void testSpecificPackageFallsBackToDefault() throws HL7Exception {
+		DefaultModelClassFactory mcf = new DefaultModelClassFactory();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(ADT_A01.class, mcf.getMessageClassInASpecificPackage("ADT_A01", "2.5", true, "foo.bar"));
+		}
+	}
+
+	@Test
+	public void testReloadPackages() throws HL7Exception {
+		DefaultModelClassFactory mcf = new DefaultModelClassFactory();
+		assertNull(mcf.getSegmentClass("ZZZ", "2.5"));
+		DefaultModelClassFactory.reloadPackages();
+		assertNull(mcf.getSegmentClass("ZZZ", "2.5"));
+		assertEquals(PID.class, mcf.getSegmentClass("PID", "2.5"));
+	}
+
+}
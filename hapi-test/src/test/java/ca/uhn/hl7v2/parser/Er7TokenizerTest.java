@@ -0,0 +1,80 @@
+package ca.uhn.hl7v2.parser;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class Er7TokenizerTest {
+
+	@Test
+	public void testTokens() {
+		assertTokens("", new String[] {});
+		assertTokens("a", new String[] { "a" });
+		assertTokens("a|", new String[] { "a" });
+		assertTokens("|a", new String[] { null, "a" });
+		assertTokens("|", new String[] { null });
+		assertTokens("a||b", new String[] { "a", null, "b" });
+		assertTokens("a||", new String[] { "a", null });
+		assertTokens("ab|cd|ef", new String[] { "ab", "cd", "ef" });
+	}
+
+	@Test
+	public void testSameAsSplit() {
+		String[] samples = { "", "|", "||", "a|", "|a", "a||b||", "|||a|b|||c", "abc" };
+		for (String next : samples) {
+			assertArrayEquals(next, PipeParser.split(next, "|"), tokens(new Er7Tokenizer(next, '|')).toArray());
+		}
+	}
+
+	@Test
+	public void testRange() {
+		String text = "PID|1|a^b~c|";
+		Er7Tokenizer tok = new Er7Tokenizer('^');
+		tok.reset(text, 6, 11);
+		assertTrue(tok.next());
+		assertEquals(0, tok.tokenIndex());
+		assertEquals(6, tok.tokenStart());
+		assertEquals(7, tok.tokenEnd());
+		assertEquals("a", tok.token());
+		assertTrue(tok.next());
+		assertEquals("b~c", tok.token());
+		assertFalse(tok.next());
+
+		// reuse for another range
+		tok.reset(text, 0, 3);
+		assertTrue(tok.next());
+		assertEquals("PID", tok.token());
+		assertFalse(tok.next());
+	}
+
+	@Test
+	public void testNull() {
+		assertFalse(new Er7Tokenizer(null, '|').next());
+		assertFalse(new Er7Tokenizer('|').next());
+	}
+
+	@Test
+	public void testIndexOf() {
+		assertEquals(3, Er7Tokenizer.indexOf("MSH|", '|', 0, 4));
+		assertEquals(2, Er7Tokenizer.indexOf("MSH|", '|', 0, 2));
+		assertEquals(4, Er7Tokenizer.indexOf("MSH|", 'X', 0, 4));
+	}
+
+	private static void assertTokens(String theText, String[] theExpected) {
+		assertEquals(theText, Arrays.asList(theExpected), tokens(new Er7Tokenizer(theText, '|')));
+	}
+
+	private static List<String> tokens(Er7Tokenizer theTokenizer) {
+		List<String> retVal = new ArrayList<String>();
+		while (theTokenizer.next()) {
+			assertEquals(retVal.size(), theTokenizer.tokenIndex());
+			retVal.add(theTokenizer.token());
+		}
+		return retVal;
+	}
+
+}
@@ -2,6 +2,14 @@ package ca.uhn.hl7v2.parser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ca.uhn.hl7v2.*;
 import ca.uhn.hl7v2.model.*;
@@ -1812,4 +1820,129 @@ public class NewPipeParserTest {
         Assert.assertEquals(expectedOutputPID5, outputMessage.getPATIENT_RESULT().getPATIENT().getPID().getPid5_PatientName(0).encode());
     }
 
+    @Test
+    public void testPreloadStructureDefinitions() throws HL7Exception {
+        PipeParser p = new PipeParser();
+        assertFalse(p.isStructureDefinitionCached(ORU_R01.class, "ORU_R01"));
+        p.preloadStructureDefinitions("2.4", "ADT_A01", "ORU_R01");
+        assertTrue(p.isStructureDefinitionCached(ADT_A01.class, "ADT_A01"));
+        assertTrue(p.isStructureDefinitionCached(ORU_R01.class, "ORU_R01"));
+        assertFalse(p.isStructureDefinitionCached(ACK.class, "ACK"));
+
+        String message = "MSH|^~\\&|||||||ORU^R01^ORU_R01|1|P|2.4\r" +
+                "PID|||12345\r" +
+                "OBR|1\r" +
+                "OBX|1|ST|||VAL\r";
+        ORU_R01 msg = (ORU_R01) p.parse(message);
+        assertEquals("VAL", new Terser(msg).get("/.OBX-5"));
+
+        try {
+            p.preloadStructureDefinitions("2.4", "XXX_X99");
+            fail();
+        } catch (HL7Exception e) {
+            // expected
+        }
+    }
+
+    /**
+     * A single parser instance is shared between threads by the HapiContext,
+     * so structure definitions must be safe to create concurrently
+     */
+    @Test
+    public void testParseConcurrentlyWithSharedParser() throws Exception {
+        final PipeParser p = new PipeParser();
+        final String message = "MSH|^~\\&|||||||ORU^R01^ORU_R01|1|P|2.4\r" +
+                "PID|||12345\r" +
+                "OBR|1\r" +
+                "OBX|1|ST|||VAL\r";
+
+        int numThreads = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < numThreads; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    start.await();
+                    return new Terser(p.parse(message)).get("/.OBX-5");
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<String> next : results) {
+            assertEquals("VAL", next.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testLazyParsing() throws Exception {
+        String message = "MSH|^~\\&|||||||ORU^R01^ORU_R01|1|P|2.4\r" +
+                "PID|||12345||SMITH^JOHN|||\r" +
+                "OBR|1\r" +
+                "OBX|1|ST|||VAL\r" +
+                "NTE|||\r";
+
+        HapiContext ctx = new DefaultHapiContext();
+        ctx.getParserConfiguration().setValidating(false);
+        ctx.getParserConfiguration().setLazyParsing(true);
+        PipeParser p = ctx.getPipeParser();
+        EncodingCharacters ec = new EncodingCharacters('|', "^~\\&");
+
+        ORU_R01 msg = (ORU_R01) p.parse(message);
+        PID pid = msg.getPATIENT_RESULT().getPATIENT().getPID();
+        assertNotNull(pid.getUnparsedText(ec));
+        assertFalse(pid.isEmpty());
+        assertTrue(msg.getPATIENT_RESULT().getORDER_OBSERVATION().getOBSERVATION().getNTE().isEmpty());
+
+        // untouched segments are encoded as received
+        assertEquals("MSH|^~\\&|||||||ORU^R01^ORU_R01|1|P|2.4\r" +
+                "PID|||12345||SMITH^JOHN\r" +
+                "OBR|1\r" +
+                "OBX|1|ST|||VAL\r", p.encode(msg));
+
+        Terser t = new Terser(msg);
+        assertEquals("VAL", t.get("/.OBX-5"));
+        assertEquals("SMITH", pid.getPatientName(0).getFamilyName().getSurname().getValue());
+        assertNull(pid.getUnparsedText(ec));
+
+        t.set("/.PID-5-2", "JANE");
+        assertEquals("MSH|^~\\&|||||||ORU^R01^ORU_R01|1|P|2.4\r" +
+                "PID|||12345||SMITH^JANE\r" +
+                "OBR|1\r" +
+                "OBX|1|ST|||VAL\r", p.encode(msg));
+    }
+
+    @Test
+    public void testOverriddenParseMethodsAreCalled() throws HL7Exception {
+        final List<String> segments = new ArrayList<String>();
+        final List<String> fields = new ArrayList<String>();
+        PipeParser p = new PipeParser() {
+
+            @Override
+            public void parse(Segment destination, String segment, EncodingCharacters encodingChars,
+                    int theRepetition) throws HL7Exception {
+                segments.add(segment);
+                super.parse(destination, segment, encodingChars, theRepetition);
+            }
+
+            @Override
+            public void parse(Type destinationField, String data, EncodingCharacters encodingCharacters)
+                    throws HL7Exception {
+                fields.add(data);
+                super.parse(destinationField, data, encodingCharacters);
+            }
+
+        };
+        p.getParserConfiguration().setValidating(false);
+
+        String message = "MSH|^~\\&|||||||ADT^A01|1|P|2.4\r" +
+                "PID|||12345~67890||SMITH^JOHN\r";
+        Message msg = p.parse(message);
+        assertEquals(Arrays.asList("MSH|^~\\&|||||||ADT^A01|1|P|2.4", "PID|||12345~67890||SMITH^JOHN"),
+                segments);
+        assertTrue(fields.containsAll(Arrays.asList("12345", "67890", "SMITH^JOHN")));
+        assertEquals("67890", new Terser(msg).get("/PID-3(1)"));
+    }
+
 }
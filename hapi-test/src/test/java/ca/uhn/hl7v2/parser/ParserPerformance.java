@@ -3,6 +3,9 @@
  */
 package ca.uhn.hl7v2.parser;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 import ca.uhn.hl7v2.HL7Exception;
 
 /**
@@ -29,8 +32,63 @@ public class ParserPerformance {
         long elapsed = System.currentTimeMillis() - now;
         
         System.out.println(reps + " messages parses in " + elapsed + " ms");
+
+        try {
+            parseLargeMessage(parser, 200);
+        } catch (HL7Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parses an ORU with the given number of OBX segments and reports the time
+     * and (where the JVM supports measuring it) the heap allocated per parse
+     */
+    private static void parseLargeMessage(PipeParser parser, int numObx) throws HL7Exception {
+        String message = getLargeMessage(numObx);
+        int warmup = 200;
+        int reps = 500;
+        for (int i = 0; i < warmup; i++) {
+            parser.parse(message);
+        }
+
+        long allocatedBefore = getAllocatedBytes();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < reps; i++) {
+            parser.parse(message);
+        }
+        long elapsed = System.currentTimeMillis() - now;
+        long allocatedAfter = getAllocatedBytes();
+
+        System.out.println(reps + " messages with " + numObx + " OBX parsed in " + elapsed + " ms");
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            System.out.println("Allocated " + ((allocatedAfter - allocatedBefore) / reps / 1024) + " KB per message");
+        }
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or -1 if the JVM
+     *         can't tell
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static String getLargeMessage(int numObx) {
+        StringBuilder b = new StringBuilder();
+        b.append("MSH|^~\\&|LABGL1||DMCRES||19951002180700||ORU^R01|LABGL1199510021807427|P|2.4\r");
+        b.append("PID|||T12345||TEST^PATIENT^P||19601002|M||||||||||123456\r");
+        b.append("OBR|1||09527539021001920|1001920^BLOOD GASES, ARTERIAL^^^ABG|||19951002180200|||||||19951002180300||||1793559||0952753902||19951002180700||350|F||^^^^^RT\r");
+        for (int i = 1; i <= numObx; i++) {
+            b.append("OBX|").append(i).append("|NM|1001960^PO2, ARTERIAL^^^PO2 art|0001|65|mmHg|75-100|L|||F|||19951002180700||42~43^DR&SMITH\r");
+        }
+        return b.toString();
     }
-    
+
     private static String getMessage() {
         return "MSH|^~\\&|LABGL1||DMCRES||19951002180700||ORU^R01|LABGL1199510021807427|P|2.4\r" 
             + "PID|||T12345||TEST^PATIENT^P||19601002|M||||||||||123456\r"
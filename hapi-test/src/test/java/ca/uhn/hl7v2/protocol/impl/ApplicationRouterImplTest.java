@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import ca.uhn.hl7v2.*;
+import ca.uhn.hl7v2.app.DefaultApplication;
 import ca.uhn.hl7v2.validation.MessageRule;
 import ca.uhn.hl7v2.validation.RespondingValidationExceptionHandler;
 import ca.uhn.hl7v2.validation.ValidationContext;
@@ -23,6 +24,7 @@ import org.junit.Test;
 import ca.uhn.hl7v2.model.Message;
 import ca.uhn.hl7v2.model.v25.message.ADT_A01;
 import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.protocol.MetadataKeys;
 import ca.uhn.hl7v2.protocol.ReceivingApplication;
 import ca.uhn.hl7v2.protocol.ReceivingApplicationException;
 import ca.uhn.hl7v2.protocol.ReceivingApplicationExceptionHandler;
@@ -193,6 +195,96 @@ public class ApplicationRouterImplTest {
         assertEquals(false, ApplicationRouterImpl.matches(w4, one));
     }
 
+    /**
+     * Bindings which are looked up by message type and trigger event must be
+     * tried in the same order as those with wildcards or regular expressions.
+     */
+    @Test
+    public void testFirstBindingWins() throws Exception {
+        ReceivingApplication<Message> wildcard = new MockApplication();
+        ReceivingApplication<Message> exact = new MockApplication();
+        ReceivingApplication<Message> regex = new MockApplication();
+        myRouter.bindApplication(new AppRoutingDataImpl("ADT", "A01", "P", "2.4"), exact);
+        myRouter.bindApplication(new AppRoutingDataImpl("*", "*", "*", "*"), wildcard);
+        myRouter.bindApplication(new AppRoutingDataImpl("ADT", "A0.", "P", "2.4"), regex);
+
+        Message a01 = new PipeParser().parse("MSH|^~\\&|||||||ADT^A01|a|P|2.4\rNTE||foo\r");
+        Message a02 = new PipeParser().parse("MSH|^~\\&|||||||ADT^A02|a|P|2.4\rNTE||foo\r");
+        Message a01v23 = new PipeParser().parse("MSH|^~\\&|||||||ADT^A01|a|P|2.3\rNTE||foo\r");
+        assertSame(exact, myRouter.findApplication(a01));
+        assertSame(wildcard, myRouter.findApplication(a02));
+        assertSame(wildcard, myRouter.findApplication(a01v23));
+
+        myRouter.disableBinding(new AppRoutingDataImpl("*", "*", "*", "*"));
+        assertSame(regex, myRouter.findApplication(a02));
+        assertTrue(myRouter.unbindApplication(exact));
+        assertSame(regex, myRouter.findApplication(a01));
+        myRouter.enableBinding(new AppRoutingDataImpl("*", "*", "*", "*"));
+        assertSame(wildcard, myRouter.findApplication(a01));
+    }
+
+    @Test
+    public void testRawApplication() throws Exception {
+        final String response = "MSH|^~\\&|||||||ACK|b|P|2.4||||||UNICODE\rMSA|AA|a\r";
+        RawReceivingApplication app = new RawReceivingApplication() {
+            @Override
+            public String processMessage(String theMessage, Map<String, Object> theMetadata) {
+                assertEquals("a", theMetadata.get(MetadataKeys.IN_MESSAGE_CONTROL_ID));
+                assertEquals(theMessage, theMetadata.get(ApplicationRouterImpl.RAW_MESSAGE_KEY));
+                return response;
+            }
+        };
+        myRouter.bindApplication(new AppRoutingDataImpl("ADT", "A01", "P", "2.4"), app);
+
+        // NTE-1 can't be parsed, so the message must not be parsed at all
+        String message = "MSH|^~\\&|||||||ADT^A01|a|P|2.4\rNTE|foo\r";
+        Transportable result = myRouter.processMessage(new TransportableImpl(message));
+        assertEquals(response, result.getMessage());
+        assertEquals("UNICODE", result.getMetadata().get("MSH-18"));
+    }
+
+    @Test
+    public void testRejectUnroutedBeforeParsing() throws Exception {
+        HapiContext context = new DefaultHapiContext();
+        context.getServerConfiguration().setRejectUnroutedBeforeParsing(true);
+        ApplicationRouterImpl router = new ApplicationRouterImpl(context);
+        router.bindApplication(new AppRoutingDataImpl("ADT", "A01", "P", "2.4"), new MockApplication());
+
+        String message = "MSH|^~\\&|SA|SF|RA|RF|||ADT^A14|a|P|2.4\rNTE|foo\r";
+        String result = router.processMessage(new TransportableImpl(message)).getMessage();
+        assertTrue(result, result.startsWith("MSH|^~\\&|RA|RF|SA|SF|"));
+        assertTrue(result, result.contains("|ACK^A14"));
+        assertTrue(result, result.contains("MSA|AR|a"));
+    }
+
+    @Test
+    public void testAckTemplatesNotUsedForDefaultApplicationSubclass() throws Exception {
+        HapiContext context = new DefaultHapiContext();
+        context.getServerConfiguration().setUseAckTemplates(true);
+        ApplicationRouterImpl router = new ApplicationRouterImpl(context);
+        final String response = "MSH|^~\\&|||||||ACK|b|P|2.4\rMSA|AE|a\r";
+        DefaultApplication app = new DefaultApplication() {
+            @Override
+            public Message processMessage(Message theMessage, Map<String, Object> theMetadata) {
+                try {
+                    return new PipeParser().parse(response);
+                } catch (HL7Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        router.bindApplication(new AppRoutingDataImpl("ADT", "A01", "P", "2.4"), app);
+
+        String message = "MSH|^~\\&|||||||ADT^A01|a|P|2.4\rNTE||foo\r";
+        assertEquals(response, router.processMessage(new TransportableImpl(message)).getMessage());
+
+        router.bindApplication(new AppRoutingDataImpl("ADT", "A02", "P", "2.4"),
+                new DefaultApplication(AcknowledgmentCode.AA));
+        message = "MSH|^~\\&|||||||ADT^A02|a|P|2.4\rNTE||foo\r";
+        String result = router.processMessage(new TransportableImpl(message)).getMessage();
+        assertTrue(result, result.contains("MSA|AA|a"));
+    }
+
     @Test
     public void testCanProcess() throws Exception {
 
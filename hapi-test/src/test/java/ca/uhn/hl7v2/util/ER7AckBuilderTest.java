@@ -0,0 +1,89 @@
+package ca.uhn.hl7v2.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.hl7v2.AcknowledgmentCode;
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.ErrorCode;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.parser.Parser;
+import ca.uhn.hl7v2.util.idgenerator.IDGenerator;
+
+public class ER7AckBuilderTest {
+
+	private Parser parser;
+	private ER7AckBuilder builder;
+
+	@Before
+	public void setUp() throws Exception {
+		HapiContext context = new DefaultHapiContext();
+		context.getParserConfiguration().setIdGenerator(new IDGenerator() {
+			public String getID() {
+				return "123";
+			}
+		});
+		parser = context.getPipeParser();
+		builder = new ER7AckBuilder(parser);
+	}
+
+	@Test
+	public void testAcknowledgement() throws Exception {
+		String msg = "MSH|^~\\&|SA|SF|RA|RF|20130101||ADT^A01^ADT_A01|C1|P|2.5\rEVN|A01\r";
+		String ack = builder.generateACK(msg);
+		assertEquals("MSH|^~\\&|RA|RF|SA|SF|TS||ACK^A01^ACK|123|P|2.5\rMSA|AA|C1\r", maskTimestamp(ack));
+		assertSameAsParsed(msg, AcknowledgmentCode.AA, false);
+	}
+
+	@Test
+	public void testSameAsParsed() throws Exception {
+		String[] msgs = {
+				"MSH|^~\\&|SA|SF|RA|RF|20130101||ADT^A01^ADT_A01|C1|P|2.5\rEVN|A01\r",
+				"MSH|^~\\&|SA^X|SF|RA|RF|20130101||ADT^A01|C1|T|2.3\rEVN|A01\r",
+				"MSH|^~\\&|SA|SF|RA|RF|20130101||ORU^R01|C1|P|2.4\rPID|1\r",
+				"MSH|^~\\&|||||20130101||ADT^A14|C1|P|2.6\r",
+				"MSH#^~\\&#SA#SF#RA#RF#20130101##ADT^A01#C1#P#2.5\r" };
+		for (String msg : msgs) {
+			for (AcknowledgmentCode code : new AcknowledgmentCode[] { AcknowledgmentCode.AA, AcknowledgmentCode.AE }) {
+				assertSameAsParsed(msg, code, false);
+				assertSameAsParsed(msg, code, true);
+			}
+		}
+	}
+
+	@Test
+	public void testUnsupported() throws Exception {
+		// escape sequences in the header
+		assertNull(builder.generateACK("MSH|^~\\&|S\\T\\A|SF|RA|RF|20130101||ADT^A01|C1|P|2.5\r"));
+		// versions before 2.3
+		assertNull(builder.generateACK("MSH|^~\\&|SA|SF|RA|RF|20130101||ADT^A01|C1|P|2.2\r"));
+		// unknown version
+		assertNull(builder.generateACK("MSH|^~\\&|SA|SF|RA|RF|20130101||ADT^A01|C1|P|\r"));
+		assertNull(builder.generateACK("<ADT_A01/>"));
+	}
+
+	private void assertSameAsParsed(String msg, AcknowledgmentCode code, boolean withError) throws Exception {
+		String expected = parser.encode(parser.parse(msg).generateACK(code, newException(withError)));
+		String actual = builder.generateACK(msg, code, newException(withError));
+		assertEquals(maskTimestamp(expected), maskTimestamp(actual));
+	}
+
+	private static HL7Exception newException(boolean withError) {
+		if (!withError) {
+			return null;
+		}
+		HL7Exception e = new HL7Exception("Bad value", ErrorCode.DATA_TYPE_ERROR);
+		e.setSegmentName("PID");
+		e.setSegmentRepetition(1);
+		e.setFieldPosition(3);
+		return e;
+	}
+
+	private static String maskTimestamp(String msg) {
+		return msg.replaceFirst("([|#])\\d{14}[^|#]*([|#])", "$1TS$2");
+	}
+
+}
@@ -89,6 +89,17 @@ public class MessageQueryTest extends TestCase {
         assertEquals(false, result.next());
     }
     
+    public void testQueryDoesNotChangeMessage() throws Exception {
+        Message msg = myParser.parse(myMsg1);
+        String before = myParser.encode(msg);
+        String query = "select {id}-4 as authority, /.PV1-2 as x loop id = /.PID-3(*3)";
+        MessageQuery.Result result = MessageQuery.query(msg, query);
+        while (result.next()) {
+            assertEquals("", result.get("authority"));
+        }
+        assertEquals(before, myParser.encode(msg));
+    }
+    
     public void testFoundRepeatedSegment() throws Exception {
         Message msg = myParser.parse(myMsg1);
         String query = "select {obx}/OBX-2 as type loop obx = /.OBSERVATION(*)";
@@ -0,0 +1,110 @@
+package ca.uhn.hl7v2.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.model.Segment;
+import ca.uhn.hl7v2.parser.Parser;
+
+public class TerserPathTest {
+
+	private static final String MESSAGE = "MSH|^~\\&|SA|SF|RA|RF|20130101||ADT^A01^ADT_A01|C1|P|2.5\r"
+			+ "EVN|A01\r"
+			+ "PID|1||123^^^H&1.2&ISO~456||Doe^John\r"
+			+ "PID|2||789\r"
+			+ "OBX|1|ST|x||val\r";
+
+	private Parser parser;
+
+	@Before
+	public void setUp() {
+		parser = new DefaultHapiContext().getPipeParser();
+	}
+
+	@Test
+	public void testSameAsTerser() throws Exception {
+		String[] specs = { "MSH-9-1", "/MSH-9-2", "MSH-10", "/.PID-3", "/.PID-3(1)", "PID-3-4-2",
+				"PID(1)-3", "/PID(1)-5-2", "P?D-5", "/.P*-5", "/.OBX-5", "OBX-5-2" };
+		for (String spec : specs) {
+			Message msg = parser.parse(MESSAGE);
+			assertEquals(spec, new Terser(parser.parse(MESSAGE)).get(spec), TerserPath.compile(spec).get(msg));
+			assertEquals(spec, new Terser(parser.parse(MESSAGE)).get(spec), new Terser(msg).get(TerserPath.compile(spec)));
+		}
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		TerserPath path = TerserPath.compile("/PID(1)-3-1");
+		assertEquals("789", path.get(parser.parse(MESSAGE)));
+		assertEquals("x", path.get(parser.parse(MESSAGE.replace("789", "x"))));
+		assertEquals("/PID(1)-3-1", path.toString());
+		assertEquals(3, path.getField());
+		assertEquals(0, path.getFieldRepetition());
+		assertEquals(1, path.getComponent());
+		assertEquals(1, path.getSubcomponent());
+	}
+
+	@Test
+	public void testSet() throws Exception {
+		Message msg = parser.parse(MESSAGE);
+		TerserPath.compile("/PID(1)-5-2").set(msg, "Jane");
+		assertEquals("Jane", new Terser(msg).get("/PID(1)-5-2"));
+	}
+
+	@Test
+	public void testReadDoesNotCreate() throws Exception {
+		Message msg = parser.parse(MESSAGE);
+		String before = parser.encode(msg);
+		Terser t = new Terser(msg);
+		String[] specs = { "/.PID-30", "/.PID-3(5)", "/.PID-5-7", "/.PID-3-4-5", "/.OBX-5-3", "/.MSH-20" };
+		for (String spec : specs) {
+			assertNull(spec, t.get(spec));
+			assertNull(spec, TerserPath.compile(spec).get(msg));
+		}
+		assertNull(TerserPath.compile("/PID(5)-3").get(msg));
+		assertEquals(before, parser.encode(msg));
+
+		Segment pid = (Segment) msg.get("PID");
+		assertNull(pid.getExistingField(30, 0));
+		assertNull(pid.getExistingField(3, 5));
+		assertNotNull(pid.getExistingField(3, 1));
+		assertNull(msg.getExisting("PID", 5));
+		assertSame(pid, msg.getExisting("PID", 0));
+		assertEquals(before, parser.encode(msg));
+	}
+
+	@Test
+	public void testFieldsOfGenericSegment() throws Exception {
+		Message msg = parser.parse(MESSAGE + "ZPI|1|x\r");
+		String before = parser.encode(msg);
+		assertEquals("x", TerserPath.compile("/.ZPI-2").get(msg));
+		assertNull(TerserPath.compile("/.ZPI-9").get(msg));
+		assertNull(new Terser(msg).get("/.ZPI-9"));
+		assertEquals(before, parser.encode(msg));
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		String[] specs = { "MSH", "/MSH-x", "/MSH(x)-1" };
+		for (String spec : specs) {
+			try {
+				TerserPath.compile(spec);
+				fail(spec);
+			} catch (HL7Exception e) {
+				// expected
+			}
+		}
+		try {
+			TerserPath.compile("/XYZ-1").get(parser.parse(MESSAGE));
+			fail();
+		} catch (HL7Exception e) {
+			// expected
+		}
+	}
+
+}
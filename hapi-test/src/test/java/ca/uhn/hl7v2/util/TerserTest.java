@@ -73,6 +73,40 @@ public class TerserTest extends TestCase {
         //ca.uhn.hl7v2.view.TreePanel.showInNewWindow(msg);        
     }
     
+    public void testUndefinedField() throws Exception {
+        assertNull(t.get("/MSH-21"));
+        try {
+            t.get("/MSH-30");
+            fail("MSH does not define field 30");
+        } catch (HL7Exception e) {
+            // expected
+        }
+        try {
+            TerserPath.compile("/MSH-30").get(msg);
+            fail("MSH does not define field 30");
+        } catch (HL7Exception e) {
+            // expected
+        }
+    }
+    
+    public void testSearchDoesNotCreate() throws Exception {
+        assertNull(t.get("/.AIS-3"));
+        assertNull(t.get("/*RES*/SERVICE/AIS-3"));
+        assertNull(TerserPath.compile("/.AIS-3").get(msg));
+        assertNull(msg.getRESOURCES().getExisting("SERVICE", 0));
+        assertEquals("c", t.get("/.AIG-5-1"));
+    }
+    
+    public void testRelativeAfterAbsolutePath() throws Exception {
+        assertEquals("c", t.get("/*RES*/GENERAL_RESOURCE/AIG-5-1"));
+        // resolved from the AIG segment within RESOURCES/GENERAL_RESOURCE
+        assertEquals("d", t.get("AIG-5(1)-1"));
+        assertEquals("d", t.get("/RESOURCES/GENERAL_RESOURCE/AIG-5(1)-1"));
+        assertEquals("c", t.get("AIG-5-1"));
+        assertEquals("b", t.get("/.PID-23"));
+        assertEquals("b", t.get("PID-23"));
+    }
+    
     public void testVaries() throws Exception {
         setUp();
         int n = this.msg.getMSH().numFields() + 1;
@@ -82,6 +82,13 @@ public class ConformanceComposite extends AbstractType implements Composite, Con
 		return myChildren.get(theNumber);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Type getExistingComponent(int theNumber) throws DataTypeException {
+		return getComponent(theNumber);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */